@@ -1,23 +1,56 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates can be computed in the same pass over the
+ * child, grouped by any number of columns.
+ * <p>
+ * A grouped aggregate keeps at most a fixed number of groups in memory; groups
+ * beyond that budget are partitioned to disk and aggregated afterwards, see
+ * {@link SpillingAggregator}.
+ * <p>
+ * If the child is known to return the tuples of each group next to each
+ * other, for example because it is sorted on the group by field, the
+ * aggregate can run in streaming mode (see {@link #setStreaming}): each group
+ * is emitted as soon as the group by value changes, and only the current
+ * group is kept in memory.
+ * <p>
+ * When the child is a sequential scan of a {@link HeapFile}, possibly under
+ * filters, the aggregate can also be computed by several threads (see
+ * {@link #setParallelism}): ranges of pages are scanned by a fork-join pool,
+ * each worker aggregates its range into a private aggregator, and the partial
+ * aggregates are merged when the workers join.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    private final int afield;
-    private final int gfield;
-    private final Aggregator.Op aop;
+    /**
+     * Default number of groups kept in memory by a grouped aggregate.
+     */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 20;
+
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
+    private final int maxGroups;
     private DbIterator child;
 
     private Aggregator aggregator;
     private DbIterator iter;
+    // the named TupleDesc of the result tuples, which the aggregators build without names
+    private TupleDesc td;
+
+    private int parallelism = 1;
+    private boolean streaming;
+    /**
+     * In streaming mode, the first tuple of the next group, already read from the child.
+     */
+    private Tuple pending;
 
     /**
      * Constructor.
@@ -32,39 +65,173 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child     The DbIterator that is feeding us tuples.
+     * @param afield    The column over which we are computing an aggregate.
+     * @param gfield    The column over which we are grouping the result, or -1 if there is no grouping
+     * @param aop       The aggregation operator to use
+     * @param maxGroups The maximum number of groups to keep in memory before spilling to disk
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        this(child, new int[]{afield},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Aggregator.Op[]{aop}, maxGroups);
+    }
+
+    /**
+     * Constructor for an aggregate computing several aggregates at once.
+     *
+     * @param child   The DbIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param gfields The columns over which we are grouping the result; empty if there is no grouping
+     * @param aops    The aggregation operator to use for each column in afields
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for an aggregate computing several aggregates at once.
+     *
+     * @param child     The DbIterator that is feeding us tuples.
+     * @param afields   The columns over which we are computing aggregates.
+     * @param gfields   The columns over which we are grouping the result; empty if there is no grouping
+     * @param aops      The aggregation operator to use for each column in afields
+     * @param maxGroups The maximum number of groups to keep in memory before spilling to disk
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops, int maxGroups) {
         // some code goes here
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("expected one aggregation operator per aggregate field");
+        }
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("maxGroups must be positive");
+        }
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-
-        TupleDesc tupleDesc = child.getTupleDesc();
-        Type gbfieldtype = gfield == Aggregator.NO_GROUPING ? null : tupleDesc.getFieldType(gfield);
-        switch (tupleDesc.getFieldType(afield)) {
-            case INT_TYPE:
-                this.aggregator = new IntegerAggregator(
-                        gfield,
-                        gbfieldtype,
-                        afield,
-                        aop);
-                break;
-            case STRING_TYPE:
-                this.aggregator = new StringAggregator(
-                        gfield,
-                        gbfieldtype,
-                        afield,
-                        aop);
-                break;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.maxGroups = maxGroups;
+
+        this.aggregator = createHashAggregator();
+    }
+
+    /**
+     * @return the aggregator used when all groups are collected before the first result is returned
+     */
+    private Aggregator createHashAggregator() {
+        if (this.gfields.length == 0) {
+            return createAggregator();
+        }
+        return new SpillingAggregator(this.child.getTupleDesc(), this.gfields, this.maxGroups,
+                this::createAggregator);
+    }
+
+    /**
+     * @return a new in-memory aggregator for the aggregate and group-by fields of this operator
+     */
+    private Aggregator createAggregator() {
+        TupleDesc tupleDesc = this.child.getTupleDesc();
+        if (this.afields.length == 1 && this.gfields.length <= 1
+                && this.aops[0] != Aggregator.Op.SUM_COUNT && this.aops[0] != Aggregator.Op.SC_AVG
+                && this.aops[0] != Aggregator.Op.COUNT_DISTINCT) {
+            int gfield = groupField();
+            Type gbfieldtype = gfield == Aggregator.NO_GROUPING ? null : tupleDesc.getFieldType(gfield);
+            switch (tupleDesc.getFieldType(this.afields[0])) {
+                case INT_TYPE:
+                    return new IntegerAggregator(gfield, gbfieldtype, this.afields[0], this.aops[0]);
+                case STRING_TYPE:
+                    return new StringAggregator(gfield, gbfieldtype, this.afields[0], this.aops[0]);
+                default:
+                    throw new IllegalArgumentException("unsupported aggregate field type");
+            }
+        }
+        return new MultiAggregator(this.gfields, fieldTypes(tupleDesc, this.gfields),
+                this.afields, fieldTypes(tupleDesc, this.afields), this.aops);
+    }
+
+    private static Type[] fieldTypes(TupleDesc td, int[] fields) {
+        Type[] types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+        }
+        return types;
+    }
+
+    /**
+     * Switches streaming mode on or off. In streaming mode, the child must
+     * return all tuples of a group consecutively; each group is computed and
+     * returned when the first tuple of the next group arrives. Must be called
+     * before the operator is opened.
+     *
+     * @param streaming true to aggregate one group at a time
+     */
+    public void setStreaming(boolean streaming) {
+        if (streaming != this.streaming) {
+            this.aggregator.clear();
+            this.streaming = streaming;
+            this.aggregator = streaming ? createAggregator() : createHashAggregator();
+        }
+    }
+
+    /**
+     * @return true if this aggregate runs in streaming mode
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Sets the number of threads used to compute the aggregate. Parallel
+     * evaluation is only used when the child is a SeqScan over a HeapFile,
+     * possibly under Filters, and not in streaming mode; otherwise the
+     * aggregate is computed by the calling thread. If the partial aggregates
+     * exceed the group budget, the aggregate is recomputed serially so that
+     * it can spill to disk.
+     *
+     * @param parallelism the number of worker threads; 1 disables parallel evaluation
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
         }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the number of threads used to compute the aggregate
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @return the maximum number of groups this aggregate keeps in memory
+     */
+    public int maxGroupsInMemory() {
+        return this.maxGroups;
     }
 
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby field index in the <b>INPUT</b> tuples.
-     * If not, return {@link simpledb.Aggregator#NO_GROUPING}
+     * If not, return {@link simpledb.Aggregator#NO_GROUPING}. If there are several groupby fields, this is the first
+     * one.
      */
     public int groupField() {
         // some code goes here
-        return this.gfield;
+        return this.gfields.length == 0 ? Aggregator.NO_GROUPING : this.gfields[0];
+    }
+
+    /**
+     * @return the indexes of all groupby fields in the <b>INPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return this.gfields.clone();
     }
 
     /**
@@ -73,19 +240,26 @@ public class Aggregate extends Operator {
      */
     public String groupFieldName() {
         // some code goes here
-        if (this.gfield == Aggregator.NO_GROUPING) {
+        if (this.gfields.length == 0) {
             return null;
         } else {
-            return this.child.getTupleDesc().getFieldName(this.gfield);
+            return this.child.getTupleDesc().getFieldName(this.gfields[0]);
         }
     }
 
     /**
-     * @return the aggregate field
+     * @return the aggregate field; the first one if there are several
      */
     public int aggregateField() {
         // some code goes here
-        return this.afield;
+        return this.afields[0];
+    }
+
+    /**
+     * @return the indexes of all aggregate fields in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return this.afields.clone();
     }
 
     /**
@@ -93,11 +267,7 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        if (this.afield == Aggregator.NO_GROUPING) {
-            return null;
-        } else {
-            return this.child.getTupleDesc().getFieldName(this.afield);
-        }
+        return this.child.getTupleDesc().getFieldName(this.afields[0]);
     }
 
     /**
@@ -105,7 +275,14 @@ public class Aggregate extends Operator {
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return this.aop;
+        return this.aops[0];
+    }
+
+    /**
+     * @return the aggregation operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return this.aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -116,10 +293,25 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
+        this.aggregator.clear();
+        this.td = getTupleDesc();
+        if (this.parallelism > 1 && !this.streaming) {
+            Aggregator partial = aggregateInParallel();
+            if (partial != null) {
+                this.iter = partial.iterator();
+                this.iter.open();
+                return;
+            }
+        }
         this.child.open();
-        while (this.child.hasNext()) {
-            Tuple next = this.child.next();
-            this.aggregator.mergeTupleIntoGroup(next);
+        if (this.streaming) {
+            this.pending = null;
+            return;
+        }
+        BatchIterator batches = BatchAdapter.of(this.child);
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            this.aggregator.mergeBatch(batch);
         }
         this.child.close();
         this.iter = this.aggregator.iterator();
@@ -135,37 +327,226 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if (this.streaming) {
+            return fetchNextGroup();
+        }
         if (this.iter.hasNext()) {
-            return this.iter.next();
+            Tuple t = this.iter.next();
+            t.resetTupleDesc(this.td);
+            return t;
         } else {
             return null;
         }
     }
 
+    /**
+     * Aggregates the child with a fork-join pool of {@link #parallelism}
+     * threads.
+     *
+     * @return an in-memory aggregator holding the result, or null if the child cannot be scanned in parallel or
+     * has more groups than fit in memory
+     */
+    private Aggregator aggregateInParallel() throws DbException, TransactionAbortedException {
+        ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+        DbIterator source = this.child;
+        while (source instanceof Filter) {
+            predicates.addAll(Arrays.asList(((Filter) source).getPredicates()));
+            source = ((Filter) source).getChildren()[0];
+        }
+        if (!(source instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) source;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof HeapFile)) {
+            return null;
+        }
+
+        HeapFile heapFile = (HeapFile) file;
+        int numPages = heapFile.numPages();
+        // several ranges per thread, so that threads finishing early can steal work
+        int pagesPerTask = Math.max(1, numPages / (this.parallelism * 4));
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            // the compiled conjunction holds no state, so all tasks share it
+            CompiledPredicate compiled = PredicateCompiler.compile(predicates.toArray(new Predicate[0]));
+            return pool.invoke(new PartialAggregate(scan, predicates, compiled, 0, numPages, pagesPerTask));
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof TransactionAbortedException) {
+                    throw (TransactionAbortedException) cause;
+                } else if (cause instanceof DbException) {
+                    throw (DbException) cause;
+                }
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Aggregates a range of pages of a HeapFile, splitting it between
+     * subtasks while it holds more than pagesPerTask pages. Returns null if
+     * the groups do not fit in memory.
+     */
+    private class PartialAggregate extends RecursiveTask<Aggregator> {
+
+        private static final long serialVersionUID = 1L;
+
+        // the scan of the HeapFile, with the predicates and columns pushed into it
+        private final SeqScan scan;
+        private final List<Predicate> predicates;
+        private final CompiledPredicate compiled;
+        private final int firstPage;
+        private final int endPage;
+        private final int pagesPerTask;
+
+        PartialAggregate(SeqScan scan, List<Predicate> predicates, CompiledPredicate compiled,
+                         int firstPage, int endPage, int pagesPerTask) {
+            this.scan = scan;
+            this.predicates = predicates;
+            this.compiled = compiled;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.pagesPerTask = pagesPerTask;
+        }
+
+        @Override
+        protected Aggregator compute() {
+            if (this.endPage - this.firstPage > this.pagesPerTask) {
+                int mid = (this.firstPage + this.endPage) >>> 1;
+                PartialAggregate left = new PartialAggregate(this.scan, this.predicates, this.compiled,
+                        this.firstPage, mid, this.pagesPerTask);
+                PartialAggregate right = new PartialAggregate(this.scan, this.predicates, this.compiled,
+                        mid, this.endPage, this.pagesPerTask);
+                left.fork();
+                Aggregator result = right.compute();
+                Aggregator other = left.join();
+                if (result == null || other == null) {
+                    return null;
+                }
+                result.merge(other);
+                return result.numGroups() > maxGroups ? null : result;
+            }
+
+            Aggregator result = createAggregator();
+            try {
+                DbFileIterator it = this.scan.iterator(this.firstPage, this.endPage);
+                it.open();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (matches(t)) {
+                        result.mergeTupleIntoGroup(t);
+                        if (result.numGroups() > maxGroups) {
+                            it.close();
+                            return null;
+                        }
+                    }
+                }
+                it.close();
+            } catch (DbException | TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+            return result;
+        }
+
+        private boolean matches(Tuple t) {
+            if (this.compiled != null) {
+                return this.compiled.filter(t);
+            }
+            for (Predicate p : this.predicates) {
+                if (!p.filter(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the tuples of the next group from the child and returns its
+     * aggregate, or null if the child is exhausted. Used in streaming mode.
+     */
+    private Tuple fetchNextGroup() throws TransactionAbortedException, DbException {
+        if (this.pending == null) {
+            if (!this.child.hasNext()) {
+                return null;
+            }
+            this.pending = this.child.next();
+        }
+        this.aggregator.clear();
+        this.aggregator.mergeTupleIntoGroup(this.pending);
+        this.pending = null;
+        while (this.child.hasNext()) {
+            Tuple next = this.child.next();
+            if (!this.aggregator.hasGroupOf(next)) {
+                this.pending = next;
+                break;
+            }
+            this.aggregator.mergeTupleIntoGroup(next);
+        }
+
+        DbIterator it = this.aggregator.iterator();
+        it.open();
+        Tuple result = it.next();
+        it.close();
+        result.resetTupleDesc(this.td);
+        return result;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        if (this.streaming) {
+            this.child.rewind();
+            this.pending = null;
+            return;
+        }
         this.iter.rewind();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * <p>
-     * The name of an aggregate column should be informative. For example:
-     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-     * given in the constructor, and child_td is the TupleDesc of the child
-     * iterator.
+     * Returns the TupleDesc of this Aggregate. The group by fields come first,
+     * in the order given to the constructor, followed by one field per
+     * aggregate (two for SUM_COUNT, the sum and then the count). Group by
+     * fields keep their type and name from the child; aggregate fields are of
+     * type INT_TYPE and named after the aggregated column of the child.
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return this.child.getTupleDesc();
+        TupleDesc childTd = this.child.getTupleDesc();
+        int n = this.gfields.length;
+        for (Aggregator.Op aop : this.aops) {
+            n += MultiAggregator.numOutputFields(aop);
+        }
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < this.gfields.length; i++) {
+            types[i] = childTd.getFieldType(this.gfields[i]);
+            names[i] = childTd.getFieldName(this.gfields[i]);
+        }
+        int f = this.gfields.length;
+        for (int j = 0; j < this.afields.length; j++) {
+            for (int k = 0; k < MultiAggregator.numOutputFields(this.aops[j]); k++) {
+                types[f] = Type.INT_TYPE;
+                names[f++] = childTd.getFieldName(this.afields[j]);
+            }
+        }
+        return new TupleDesc(types, names);
     }
 
     public void close() {
         // some code goes here
         super.close();
+        if (this.iter != null) {
+            this.iter.close();
+            this.iter = null;
+        }
+        if (this.streaming) {
+            this.child.close();
+            this.pending = null;
+        }
+        this.aggregator.clear();
     }
 
     @Override
@@ -25,7 +25,12 @@ public interface Aggregator extends Serializable {
          * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
          * will be used to compute distributed avg in lab6.
          */
-        SC_AVG;
+        SC_AVG,
+        /**
+         * COUNT_DISTINCT: the approximate number of distinct values, estimated
+         * with a {@link HyperLogLog} sketch per group.
+         */
+        COUNT_DISTINCT;
 
         /**
          * Interface to access operations by a string containing an integer
@@ -62,6 +67,8 @@ public interface Aggregator extends Serializable {
                 return "count";
             if (this == SC_AVG)
                 return "sc_avg";
+            if (this == COUNT_DISTINCT)
+                return "count_distinct";
             throw new IllegalStateException("impossible to reach here");
         }
     }
@@ -75,6 +82,46 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merges every tuple of a batch, as if by {@link #mergeTupleIntoGroup}.
+     * Implementations can override this to work on the columns of the batch
+     * directly.
+     *
+     * @param batch the tuples to merge
+     */
+    public default void mergeBatch(TupleBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(i));
+        }
+    }
+
+    /**
+     * @return the number of distinct groups merged so far
+     */
+    public int numGroups();
+
+    /**
+     * @param tup a Tuple of the kind passed to {@link #mergeTupleIntoGroup}
+     * @return true if the group tup belongs to has already been created
+     */
+    public boolean hasGroupOf(Tuple tup);
+
+    /**
+     * Discards every group merged so far, along with any resources held for
+     * them, so the aggregator can be reused from scratch.
+     */
+    public void clear();
+
+    /**
+     * Merges the groups of another aggregator into this one, as if every
+     * tuple merged into other had been merged into this aggregator. This is
+     * used to combine partial aggregates computed by different threads.
+     *
+     * @param other an aggregator of the same class, created with the same fields and operators
+     * @throws UnsupportedOperationException if this aggregator cannot combine partial results
+     */
+    public void merge(Aggregator other);
+
     /**
      * Create a DbIterator over group aggregate results.
      *
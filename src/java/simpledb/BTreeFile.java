@@ -0,0 +1,559 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+-tree index on a field of a table. Page 0 of the file is a
+ * {@link BTreeHeaderPage}, which gives the root of the tree; the other pages
+ * are {@link BTreeInternalPage}s and {@link BTreeLeafPage}s. The leaves hold
+ * the entries of the index sorted on their key, and are linked from left to
+ * right, so that range lookups follow the leaves after the first one. Keys may
+ * be repeated.
+ * <p>
+ * All pages are read and written through the BufferPool. Lookups descend the
+ * tree with shared locks, and release the lock on each internal page once
+ * they hold the lock on its child (latch coupling), unless the transaction
+ * held it before; the leaves stay locked until the transaction ends. An
+ * insertion into a leaf with room descends the same way and only locks the
+ * leaf exclusively. An insertion into a full leaf descends again with
+ * exclusive locks on the header and the whole path, and splits the pages
+ * that overflow. Deletions remove entries from their leaf without merging
+ * pages, so pages can become underfull, and even empty.
+ *
+ * @see IndexScan
+ */
+public class BTreeFile implements IndexFile {
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+
+    /**
+     * Opens a B+-tree index stored in the specified file. Use {@link #create}
+     * to build a new index.
+     *
+     * @param f        the file that stores the index
+     * @param tableId  the table the index refers to
+     * @param keyField the field of the table the index is keyed on
+     */
+    public BTreeFile(File f, int tableId, int keyField) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.keyType = Database.getCatalog().getTupleDesc(tableId).getFieldType(keyField);
+        this.td = new TupleDesc(new Type[]{this.keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"key", "page", "slot"});
+    }
+
+    /**
+     * Builds an index on a field of a table in the specified file, and adds
+     * it to the catalog. The entries of the tuples of the table are sorted,
+     * and written to the file bottom-up, filling every page.
+     *
+     * @param f        the file to write the index to; overwritten if it exists
+     * @param tableId  the table to index
+     * @param keyField the field of the table to index
+     * @return the new index
+     */
+    public static BTreeFile create(File f, int tableId, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        BTreeFile index = new BTreeFile(f, tableId, keyField);
+        Database.getCatalog().addIndex(index);
+
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            entries.add(index.entry(t.getField(keyField), t.getRecordId()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        entries.sort((a, b) -> {
+            int c = BTreePage.compare(a.getField(0), b.getField(0));
+            if (c == 0) {
+                c = Integer.compare(((IntField) a.getField(1)).getValue(), ((IntField) b.getField(1)).getValue());
+            }
+            if (c == 0) {
+                c = Integer.compare(((IntField) a.getField(2)).getValue(), ((IntField) b.getField(2)).getValue());
+            }
+            return c;
+        });
+        index.bulkLoad(entries);
+        return index;
+    }
+
+    /**
+     * Writes the pages of a tree holding the specified sorted entries.
+     */
+    private void bulkLoad(List<Tuple> entries) throws IOException {
+        ArrayList<byte[]> pages = new ArrayList<byte[]>();
+        pages.add(null);
+
+        // the leaves, and the first key and the page number of each of them
+        int maxEntries = BTreeLeafPage.maxEntries(this.keyType);
+        int numLeaves = Math.max(1, (entries.size() + maxEntries - 1) / maxEntries);
+        ArrayList<Field> levelKeys = new ArrayList<Field>();
+        ArrayList<Integer> levelPages = new ArrayList<Integer>();
+        for (int l = 0; l < numLeaves; l++) {
+            BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(getId(), pages.size()),
+                    BTreePage.createEmptyPageData(BTreePage.LEAF));
+            int end = Math.min(entries.size(), (l + 1) * maxEntries);
+            for (int i = l * maxEntries; i < end; i++) {
+                Tuple e = entries.get(i);
+                leaf.insertEntry(leaf.getNumEntries(), e.getField(0),
+                        ((IntField) e.getField(1)).getValue(), ((IntField) e.getField(2)).getValue());
+            }
+            leaf.setNext(l == numLeaves - 1 ? -1 : pages.size() + 1);
+            levelKeys.add(leaf.getNumEntries() > 0 ? leaf.getKey(0) : null);
+            levelPages.add(pages.size());
+            pages.add(leaf.getPageData());
+        }
+
+        // the internal levels, each one spreading the pages of the level below evenly
+        int maxChildren = BTreeInternalPage.maxKeys(this.keyType) + 1;
+        while (levelPages.size() > 1) {
+            int numNodes = (levelPages.size() + maxChildren - 1) / maxChildren;
+            ArrayList<Field> upperKeys = new ArrayList<Field>();
+            ArrayList<Integer> upperPages = new ArrayList<Integer>();
+            int first = 0;
+            for (int n = 0; n < numNodes; n++) {
+                int end = (int) ((long) levelPages.size() * (n + 1) / numNodes);
+                BTreeInternalPage node = new BTreeInternalPage(new BTreePageId(getId(), pages.size()),
+                        BTreePage.createEmptyPageData(BTreePage.INTERNAL));
+                Field[] keys = new Field[end - first - 1];
+                int[] children = new int[end - first];
+                for (int i = first; i < end; i++) {
+                    children[i - first] = levelPages.get(i);
+                    if (i > first) {
+                        keys[i - first - 1] = levelKeys.get(i);
+                    }
+                }
+                node.setEntries(keys, children);
+                upperKeys.add(levelKeys.get(first));
+                upperPages.add(pages.size());
+                pages.add(node.getPageData());
+                first = end;
+            }
+            levelKeys = upperKeys;
+            levelPages = upperPages;
+        }
+
+        BTreeHeaderPage header = new BTreeHeaderPage(new BTreePageId(getId(), 0),
+                BTreePage.createEmptyPageData(BTreePage.HEADER));
+        header.setRootPage(levelPages.get(0));
+        header.setNumPages(pages.size());
+        long[] version = BTreePage.tableVersion(this.tableId);
+        if (version != null) {
+            header.setTableVersion(version[0], version[1]);
+        }
+        pages.set(0, header.getPageData());
+
+        synchronized (this) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(this.file))) {
+                for (byte[] page : pages) {
+                    out.write(page);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash of the
+     * absolute name of its file.
+     */
+    public int getId() {
+        return this.file.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    public int getKeyField() {
+        return this.keyField;
+    }
+
+    /**
+     * @return the type of the keys of this index
+     */
+    public Type getKeyType() {
+        return this.keyType;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of this index: the key, and the
+     * page number and the slot of the record.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        try {
+            synchronized (this) {
+                if ((long) pid.pageNumber() * pageSize < this.file.length()) {
+                    try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+                        raf.seek((long) pageSize * pid.pageNumber());
+                        raf.readFully(data);
+                    }
+                }
+            }
+            BTreePageId id = new BTreePageId(pid.getTableId(), pid.pageNumber());
+            switch (data[0]) {
+                case BTreePage.HEADER:
+                    return new BTreeHeaderPage(id, data);
+                case BTreePage.INTERNAL:
+                    return new BTreeInternalPage(id, data);
+                case BTreePage.LEAF:
+                    return new BTreeLeafPage(id, data);
+                default:
+                    throw new IllegalArgumentException("page " + pid.pageNumber() + " of index " + this.file
+                            + " has not been allocated");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page " + pid.pageNumber() + " of index " + this.file, e);
+        }
+    }
+
+    public synchronized boolean isUpToDate() throws IOException {
+        return BTreePage.isUpToDate(this.file, BTreePage.HEADER, this.tableId);
+    }
+
+    public synchronized void markUpToDate() throws IOException {
+        BTreePage.markUpToDate(this.file, this.tableId);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private synchronized void writePageData(int pageNo, byte[] data) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.seek((long) BufferPool.getPageSize() * pageNo);
+            raf.write(data);
+        }
+    }
+
+    /**
+     * @return an entry of this index, as returned by its iterators
+     */
+    private Tuple entry(Field key, RecordId rid) {
+        Tuple t = new Tuple(this.td);
+        t.setField(0, key);
+        t.setField(1, new IntField(rid.getPageId().pageNumber()));
+        t.setField(2, new IntField(rid.tupleno()));
+        return t;
+    }
+
+    private BTreePageId pageId(int pageNo) {
+        return new BTreePageId(getId(), pageNo);
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pageId(pageNo), perm);
+    }
+
+    private static void dirty(TransactionId tid, BTreePage page, Set<Page> dirtied) {
+        page.markDirty(true, tid);
+        dirtied.add(page);
+    }
+
+    /**
+     * Descends to the leftmost leaf where entries with the specified key can
+     * be stored, with shared locks and latch coupling on the internal pages.
+     *
+     * @param key  the key to look for, or null to find the leftmost leaf of the tree
+     * @param perm the permissions to get the leaf with
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Field key, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        PageId parent = pageId(0);
+        boolean releaseParent = !bufferPool.holdsLock(tid, parent);
+        int pageNo = ((BTreeHeaderPage) bufferPool.getPage(tid, parent, Permissions.READ_ONLY)).getRootPage();
+        while (true) {
+            BTreePageId pid = pageId(pageNo);
+            boolean held = bufferPool.holdsLock(tid, pid);
+            BTreePage page = (BTreePage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (releaseParent) {
+                bufferPool.releasePage(tid, parent);
+            }
+            if (page instanceof BTreeLeafPage) {
+                if (perm == Permissions.READ_WRITE) {
+                    page = (BTreePage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                }
+                return (BTreeLeafPage) page;
+            }
+            BTreeInternalPage internal = (BTreeInternalPage) page;
+            pageNo = internal.getChild(key == null ? 0 : internal.findChild(key));
+            parent = pid;
+            releaseParent = !held;
+        }
+    }
+
+    private void checkKey(Field key) {
+        if (key.getType() != this.keyType) {
+            throw new IllegalArgumentException("the keys of this index are of type " + this.keyType);
+        }
+    }
+
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        checkKey(key);
+        Set<Page> dirtied = new LinkedHashSet<Page>();
+        BTreeLeafPage leaf = findLeaf(tid, key, Permissions.READ_WRITE);
+        if (leaf.getNumEntries() < leaf.getMaxEntries()) {
+            leaf.insertEntry(leaf.findEntry(key), key, rid.getPageId().pageNumber(), rid.tupleno());
+            dirty(tid, leaf, dirtied);
+        } else {
+            insertSplitting(tid, key, rid, dirtied);
+        }
+        return new ArrayList<Page>(dirtied);
+    }
+
+    /**
+     * Inserts an entry with exclusive locks on the header and on the path to
+     * its leaf, splitting the pages that overflow.
+     */
+    private void insertSplitting(TransactionId tid, Field key, RecordId rid, Set<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        // the pages are marked dirty as soon as they are read, so that the
+        // BufferPool does not evict them while the following ones are read
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, 0, Permissions.READ_WRITE);
+        dirty(tid, header, dirtied);
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        ArrayList<Integer> childIndexes = new ArrayList<Integer>();
+        BTreePage page = getPage(tid, header.getRootPage(), Permissions.READ_WRITE);
+        dirty(tid, page, dirtied);
+        while (page instanceof BTreeInternalPage) {
+            BTreeInternalPage internal = (BTreeInternalPage) page;
+            int i = internal.findChild(key);
+            path.add(internal);
+            childIndexes.add(i);
+            page = getPage(tid, internal.getChild(i), Permissions.READ_WRITE);
+            dirty(tid, page, dirtied);
+        }
+
+        BTreeLeafPage leaf = (BTreeLeafPage) page;
+        if (leaf.getNumEntries() < leaf.getMaxEntries()) {
+            // another transaction made room since the first descent
+            leaf.insertEntry(leaf.findEntry(key), key, rid.getPageId().pageNumber(), rid.tupleno());
+            return;
+        }
+        BTreeLeafPage right = (BTreeLeafPage) allocatePage(tid, header, BTreePage.LEAF, dirtied);
+        leaf.moveUpperHalf(right);
+        right.setNext(leaf.getNext());
+        leaf.setNext(right.getId().pageNumber());
+        Field separator = right.getKey(0);
+        BTreeLeafPage target = BTreePage.compare(key, separator) < 0 ? leaf : right;
+        target.insertEntry(target.findEntry(key), key, rid.getPageId().pageNumber(), rid.tupleno());
+
+        // insert the separator of the two halves into the parent, splitting it in turn if it is full
+        int newChild = right.getId().pageNumber();
+        for (int level = path.size() - 1; level >= 0; level--) {
+            BTreeInternalPage parent = path.get(level);
+            int index = childIndexes.get(level);
+            if (parent.getNumKeys() < parent.getMaxKeys()) {
+                parent.insertEntry(index, separator, newChild);
+                return;
+            }
+            BTreeInternalPage sibling = (BTreeInternalPage) allocatePage(tid, header, BTreePage.INTERNAL, dirtied);
+            separator = parent.splitEntry(index, separator, newChild, sibling);
+            newChild = sibling.getId().pageNumber();
+        }
+
+        // the root was split: grow the tree by one level
+        BTreeInternalPage root = (BTreeInternalPage) allocatePage(tid, header, BTreePage.INTERNAL, dirtied);
+        root.setEntries(new Field[]{separator}, new int[]{header.getRootPage(), newChild});
+        header.setRootPage(root.getId().pageNumber());
+    }
+
+    /**
+     * Adds an empty page of the specified kind at the end of the file. The
+     * page is written to disk right away, so that the BufferPool reads it
+     * like any other page; if the transaction aborts, the header forgets the
+     * page, and its number is reused.
+     *
+     * @param header the header page, locked exclusively and marked dirty
+     */
+    private BTreePage allocatePage(TransactionId tid, BTreeHeaderPage header, byte kind, Set<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNo = header.getNumPages();
+        header.setNumPages(pageNo + 1);
+        // the BufferPool may still hold a page with this number that an aborted transaction allocated
+        Database.getBufferPool().discardPage(pageId(pageNo));
+        writePageData(pageNo, BTreePage.createEmptyPageData(kind));
+        BTreePage page = getPage(tid, pageNo, Permissions.READ_WRITE);
+        dirty(tid, page, dirtied);
+        return page;
+    }
+
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        checkKey(key);
+        int pageNo = rid.getPageId().pageNumber();
+        BTreeLeafPage leaf = findLeaf(tid, key, Permissions.READ_WRITE);
+        // entries with the same key can continue on the following leaves
+        while (true) {
+            for (int i = leaf.findEntry(key); i < leaf.getNumEntries(); i++) {
+                if (BTreePage.compare(leaf.getKey(i), key) != 0) {
+                    throw new DbException("no entry for " + key + " in index " + this.file);
+                }
+                if (leaf.getRecordPage(i) == pageNo && leaf.getRecordSlot(i) == rid.tupleno()) {
+                    leaf.deleteEntry(i);
+                    Set<Page> dirtied = new LinkedHashSet<Page>();
+                    dirty(tid, leaf, dirtied);
+                    return new ArrayList<Page>(dirtied);
+                }
+            }
+            if (leaf.getNext() < 0) {
+                throw new DbException("no entry for " + key + " in index " + this.file);
+            }
+            leaf = (BTreeLeafPage) getPage(tid, leaf.getNext(), Permissions.READ_WRITE);
+        }
+    }
+
+    /**
+     * Inserts an entry, given as a tuple with the TupleDesc of this index.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insertEntry(tid, t.getField(0), recordId(t));
+    }
+
+    /**
+     * Deletes an entry, given as a tuple with the TupleDesc of this index.
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return deleteEntry(tid, t.getField(0), recordId(t));
+    }
+
+    private RecordId recordId(Tuple entry) {
+        return new RecordId(new HeapPageId(this.tableId, ((IntField) entry.getField(1)).getValue()),
+                ((IntField) entry.getField(2)).getValue());
+    }
+
+    /**
+     * Returns an iterator over all the entries of this index, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null, null);
+    }
+
+    public DbFileIterator entries(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new UnsupportedOperationException("B+-tree indexes do not support " + op);
+        }
+        checkKey(operand);
+        return new EntryIterator(tid, op, operand);
+    }
+
+    /**
+     * Iterates over the entries whose key satisfies a comparison, in key
+     * order, following the leaves from left to right.
+     */
+    private class EntryIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private BTreeLeafPage leaf;
+        private int position;
+        private Tuple next;
+
+        /**
+         * @param op the comparison, or null to return every entry
+         */
+        EntryIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.next = null;
+            if (this.op == Predicate.Op.EQUALS || this.op == Predicate.Op.GREATER_THAN
+                    || this.op == Predicate.Op.GREATER_THAN_OR_EQ) {
+                this.leaf = findLeaf(this.tid, this.operand, Permissions.READ_ONLY);
+                this.position = this.leaf.findEntry(this.operand);
+            } else {
+                this.leaf = findLeaf(this.tid, null, Permissions.READ_ONLY);
+                this.position = 0;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (this.next == null && this.leaf != null) {
+                // entries may have been deleted from the leaf since it was read
+                if (this.position >= this.leaf.getNumEntries()) {
+                    int nextLeaf = this.leaf.getNext();
+                    this.leaf = nextLeaf < 0 ? null
+                            : (BTreeLeafPage) getPage(this.tid, nextLeaf, Permissions.READ_ONLY);
+                    this.position = 0;
+                    continue;
+                }
+                int i = this.position++;
+                Field key = this.leaf.getKey(i);
+                if (this.op != null) {
+                    int c = BTreePage.compare(key, this.operand);
+                    if (this.op == Predicate.Op.GREATER_THAN && c == 0) {
+                        continue;
+                    }
+                    if ((this.op == Predicate.Op.EQUALS || this.op == Predicate.Op.LESS_THAN_OR_EQ) && c > 0
+                            || this.op == Predicate.Op.LESS_THAN && c >= 0) {
+                        this.leaf = null;
+                        break;
+                    }
+                }
+                Tuple t = new Tuple(td);
+                t.setField(0, key);
+                t.setField(1, new IntField(this.leaf.getRecordPage(i)));
+                t.setField(2, new IntField(this.leaf.getRecordSlot(i)));
+                this.next = t;
+            }
+            return this.next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = this.next;
+            this.next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            this.leaf = null;
+            this.next = null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The first page of a {@link BTreeFile}. It holds the number of the root
+ * page of the tree, the number of pages allocated in the file, and the
+ * length and the modification time of the file of the table when the index
+ * was last brought up to date with it.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private int rootPage;
+    private int numPages;
+    private long tableLength;
+    private long tableModified;
+
+    /**
+     * Create a header page from a set of bytes of data read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = open(data);
+        this.rootPage = dis.readInt();
+        this.numPages = dis.readInt();
+        this.tableLength = dis.readLong();
+        this.tableModified = dis.readLong();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of the root page of the tree
+     */
+    public int getRootPage() {
+        return this.rootPage;
+    }
+
+    void setRootPage(int rootPage) {
+        this.rootPage = rootPage;
+    }
+
+    /**
+     * @return the number of pages allocated in the file, including this one
+     */
+    public int getNumPages() {
+        return this.numPages;
+    }
+
+    void setNumPages(int numPages) {
+        this.numPages = numPages;
+    }
+
+    /**
+     * Records the version of the file of the table the tree holds the entries of.
+     *
+     * @see BTreePage#tableVersion
+     */
+    void setTableVersion(long length, long modified) {
+        this.tableLength = length;
+        this.tableModified = modified;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BTreePage.TABLE_VERSION_OFFSET + 16);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(HEADER);
+            dos.writeInt(this.rootPage);
+            dos.writeInt(this.numPages);
+            dos.writeLong(this.tableLength);
+            dos.writeLong(this.tableModified);
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return pad(baos);
+    }
+
+    public BTreeHeaderPage getBeforeImage() {
+        try {
+            return new BTreeHeaderPage(this.pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * An internal page of a {@link BTreeFile}. It holds n keys and the numbers
+ * of n + 1 child pages, in the format
+ * <p>
+ * kind, n, child 0, (key 0, child 1), ..., (key n-1, child n)
+ * <p>
+ * Every key stored under child i is less than or equal to key i, and every
+ * key stored under child i + 1 is greater than or equal to it. Keys equal to
+ * key i can therefore be found under both children.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final Field[] keys;
+    private final int[] children;
+    private int numKeys;
+
+    /**
+     * Create an internal page from a set of bytes of data read from disk.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        int maxKeys = maxKeys(this.keyType);
+        if (maxKeys < 2) {
+            throw new IllegalArgumentException("pages are too small to hold index keys");
+        }
+        this.keys = new Field[maxKeys];
+        this.children = new int[maxKeys + 1];
+        DataInputStream dis = open(data);
+        this.numKeys = dis.readInt();
+        this.children[0] = dis.readInt();
+        for (int i = 0; i < this.numKeys; i++) {
+            this.keys[i] = readKey(dis);
+            this.children[i + 1] = dis.readInt();
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of keys an internal page holds with keys of the specified type
+     */
+    static int maxKeys(Type keyType) {
+        return (BufferPool.getPageSize() - 9) / (keyType.getLen() + 4);
+    }
+
+    public int getNumKeys() {
+        return this.numKeys;
+    }
+
+    public int getMaxKeys() {
+        return this.keys.length;
+    }
+
+    public Field getKey(int i) {
+        return this.keys[i];
+    }
+
+    public int getChild(int i) {
+        return this.children[i];
+    }
+
+    /**
+     * @return the index of the leftmost child under which the specified key can be stored
+     */
+    public int findChild(Field key) {
+        return lowerBound(this.keys, this.numKeys, key);
+    }
+
+    /**
+     * Replaces the content of this page.
+     *
+     * @param keys     the keys
+     * @param children the child pages, one more than the keys
+     */
+    void setEntries(Field[] keys, int[] children) {
+        System.arraycopy(keys, 0, this.keys, 0, keys.length);
+        System.arraycopy(children, 0, this.children, 0, children.length);
+        this.numKeys = keys.length;
+    }
+
+    /**
+     * Inserts a key and the child after it, next to the child that was split
+     * into two. The page must have room for another key.
+     *
+     * @param index the index of the child that was split
+     * @param key   the key that separates the two halves
+     * @param right the page number of the right half
+     */
+    void insertEntry(int index, Field key, int right) {
+        System.arraycopy(this.keys, index, this.keys, index + 1, this.numKeys - index);
+        System.arraycopy(this.children, index + 1, this.children, index + 2, this.numKeys - index);
+        this.keys[index] = key;
+        this.children[index + 1] = right;
+        this.numKeys++;
+    }
+
+    /**
+     * Inserts a key and the child after it, like {@link #insertEntry}, into a
+     * full page, and moves the upper half of the entries to an empty sibling.
+     *
+     * @return the middle key, which separates this page from the sibling
+     */
+    Field splitEntry(int index, Field key, int right, BTreeInternalPage sibling) {
+        int n = this.numKeys;
+        Field[] allKeys = new Field[n + 1];
+        int[] allChildren = new int[n + 2];
+        System.arraycopy(this.keys, 0, allKeys, 0, index);
+        allKeys[index] = key;
+        System.arraycopy(this.keys, index, allKeys, index + 1, n - index);
+        System.arraycopy(this.children, 0, allChildren, 0, index + 1);
+        allChildren[index + 1] = right;
+        System.arraycopy(this.children, index + 1, allChildren, index + 2, n - index);
+
+        int m = (n + 1) / 2;
+        Field[] leftKeys = new Field[m];
+        int[] leftChildren = new int[m + 1];
+        System.arraycopy(allKeys, 0, leftKeys, 0, m);
+        System.arraycopy(allChildren, 0, leftChildren, 0, m + 1);
+        Field[] rightKeys = new Field[n - m];
+        int[] rightChildren = new int[n - m + 1];
+        System.arraycopy(allKeys, m + 1, rightKeys, 0, n - m);
+        System.arraycopy(allChildren, m + 1, rightChildren, 0, n - m + 1);
+        setEntries(leftKeys, leftChildren);
+        sibling.setEntries(rightKeys, rightChildren);
+        return allKeys[m];
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(INTERNAL);
+            dos.writeInt(this.numKeys);
+            dos.writeInt(this.children[0]);
+            for (int i = 0; i < this.numKeys; i++) {
+                this.keys[i].serialize(dos);
+                dos.writeInt(this.children[i + 1]);
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return pad(baos);
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(this.pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A leaf page of a {@link BTreeFile}. It holds n entries, sorted on their
+ * key, and the number of the next leaf, in the format
+ * <p>
+ * kind, n, next leaf, (key, record page, record slot) * n
+ * <p>
+ * The next leaf is -1 for the last leaf of the tree.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final Field[] keys;
+    private final int[] pages;
+    private final int[] slots;
+    private int numEntries;
+    private int next;
+
+    /**
+     * Create a leaf page from a set of bytes of data read from disk.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        int maxEntries = maxEntries(this.keyType);
+        if (maxEntries < 2) {
+            throw new IllegalArgumentException("pages are too small to hold index entries");
+        }
+        this.keys = new Field[maxEntries];
+        this.pages = new int[maxEntries];
+        this.slots = new int[maxEntries];
+        DataInputStream dis = open(data);
+        this.numEntries = dis.readInt();
+        this.next = dis.readInt();
+        for (int i = 0; i < this.numEntries; i++) {
+            this.keys[i] = readKey(dis);
+            this.pages[i] = dis.readInt();
+            this.slots[i] = dis.readInt();
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of entries a leaf page holds with keys of the specified type
+     */
+    static int maxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - 9) / (keyType.getLen() + 8);
+    }
+
+    public int getNumEntries() {
+        return this.numEntries;
+    }
+
+    public int getMaxEntries() {
+        return this.keys.length;
+    }
+
+    public Field getKey(int i) {
+        return this.keys[i];
+    }
+
+    /**
+     * @return the number of the page of the table that holds the record of entry i
+     */
+    public int getRecordPage(int i) {
+        return this.pages[i];
+    }
+
+    /**
+     * @return the slot of the record of entry i in its page
+     */
+    public int getRecordSlot(int i) {
+        return this.slots[i];
+    }
+
+    /**
+     * @return the number of the next leaf, or -1 if this is the last leaf
+     */
+    public int getNext() {
+        return this.next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    /**
+     * @return the index of the first entry whose key is greater than or equal to key, or the number of entries if
+     * there is none
+     */
+    public int findEntry(Field key) {
+        return lowerBound(this.keys, this.numEntries, key);
+    }
+
+    /**
+     * Inserts an entry at the specified index. The page must have room for
+     * another entry.
+     */
+    void insertEntry(int index, Field key, int page, int slot) {
+        int n = this.numEntries - index;
+        System.arraycopy(this.keys, index, this.keys, index + 1, n);
+        System.arraycopy(this.pages, index, this.pages, index + 1, n);
+        System.arraycopy(this.slots, index, this.slots, index + 1, n);
+        this.keys[index] = key;
+        this.pages[index] = page;
+        this.slots[index] = slot;
+        this.numEntries++;
+    }
+
+    /**
+     * Removes the entry at the specified index.
+     */
+    void deleteEntry(int index) {
+        int n = this.numEntries - index - 1;
+        System.arraycopy(this.keys, index + 1, this.keys, index, n);
+        System.arraycopy(this.pages, index + 1, this.pages, index, n);
+        System.arraycopy(this.slots, index + 1, this.slots, index, n);
+        this.numEntries--;
+        this.keys[this.numEntries] = null;
+    }
+
+    /**
+     * Moves the upper half of the entries of this page to the end of another leaf.
+     */
+    void moveUpperHalf(BTreeLeafPage sibling) {
+        int m = this.numEntries / 2;
+        for (int i = m; i < this.numEntries; i++) {
+            sibling.insertEntry(sibling.numEntries, this.keys[i], this.pages[i], this.slots[i]);
+            this.keys[i] = null;
+        }
+        this.numEntries = m;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(LEAF);
+            dos.writeInt(this.numEntries);
+            dos.writeInt(this.next);
+            for (int i = 0; i < this.numEntries; i++) {
+                this.keys[i].serialize(dos);
+                dos.writeInt(this.pages[i]);
+                dos.writeInt(this.slots[i]);
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return pad(baos);
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(this.pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+}
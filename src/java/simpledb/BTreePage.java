@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The base class of the pages of a {@link BTreeFile}. The first byte of a
+ * page gives its kind: the header page, an internal page or a leaf page.
+ *
+ * @see BTreeHeaderPage
+ * @see BTreeInternalPage
+ * @see BTreeLeafPage
+ */
+public abstract class BTreePage implements Page {
+
+    static final byte HEADER = 1;
+    static final byte INTERNAL = 2;
+    static final byte LEAF = 3;
+
+    /**
+     * The offset of the version of the file of the table in the first page of
+     * an index, after the kind and two ints. BTreeHeaderPage and
+     * HashDirectoryPage both store it there.
+     */
+    static final int TABLE_VERSION_OFFSET = 9;
+
+    final BTreePageId pid;
+    // the type of the keys of the index
+    final Type keyType;
+    private volatile TransactionId dirty;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    BTreePage(BTreePageId id) {
+        this.pid = id;
+        this.keyType = ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return this.pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * @return the data of this page before it was modified
+     */
+    byte[] getBeforeImageData() {
+        synchronized (this.oldDataLock) {
+            return this.oldData;
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (this.oldDataLock) {
+            this.oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @param kind the kind of page
+     * @return the data of an empty page of the specified kind
+     */
+    static byte[] createEmptyPageData(byte kind) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = kind;
+        if (kind == LEAF) {
+            // no next leaf
+            for (int i = 5; i < 9; i++) {
+                data[i] = (byte) 0xff;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return a stream over the data of a page, after the byte that gives its kind
+     */
+    static DataInputStream open(byte[] data) {
+        return new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+    }
+
+    /**
+     * @return a page of data, which starts with the specified bytes and is padded with zeroes
+     */
+    static byte[] pad(ByteArrayOutputStream baos) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        byte[] written = baos.toByteArray();
+        System.arraycopy(written, 0, data, 0, written.length);
+        return data;
+    }
+
+    /**
+     * Returns the version of the file of a table, its length and modification
+     * time, that an index records when it is brought up to date with it. As
+     * with {@link ZoneMap}s, an index whose version differs from the file's
+     * was not written along with the last changes to the table.
+     *
+     * @return the length and the modification time of the file, or null if the table is not a HeapFile
+     */
+    static long[] tableVersion(int tableId) {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(table instanceof HeapFile)) {
+            return null;
+        }
+        File f = ((HeapFile) table).getFile();
+        return new long[]{f.length(), f.lastModified()};
+    }
+
+    /**
+     * @param index the file of an index, whose first page starts with the specified kind
+     * @return true if the index records the current version of the file of its table
+     */
+    static boolean isUpToDate(File index, byte kind, int tableId) throws IOException {
+        long[] version = tableVersion(tableId);
+        if (version == null || index.length() < BufferPool.getPageSize()) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+            if (raf.readByte() != kind) {
+                return false;
+            }
+            raf.seek(TABLE_VERSION_OFFSET);
+            return raf.readLong() == version[0] && raf.readLong() == version[1];
+        }
+    }
+
+    /**
+     * Records the current version of the file of a table in the first page of
+     * an index on it, in place on disk. Called once the pages of both have
+     * been written.
+     */
+    static void markUpToDate(File index, int tableId) throws IOException {
+        long[] version = tableVersion(tableId);
+        if (version == null || index.length() < BufferPool.getPageSize()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.seek(TABLE_VERSION_OFFSET);
+            raf.writeLong(version[0]);
+            raf.writeLong(version[1]);
+        }
+    }
+
+    Field readKey(DataInputStream dis) throws IOException {
+        try {
+            return this.keyType.parse(dis);
+        } catch (java.text.ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Compares two keys of the same type.
+     *
+     * @return a negative number, zero or a positive number if a is less than, equal to or greater than b
+     */
+    static int compare(Field a, Field b) {
+        if (a instanceof IntField) {
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        }
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    /**
+     * @return the index of the first of the n first keys that is greater than or equal to key, or n if there is none
+     */
+    static int lowerBound(Field[] keys, int n, Field key) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link BTreeFile}.
+ */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pageNumber;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+-tree file.
+     *
+     * @param tableId The id of the BTreeFile that is being referenced
+     * @param pgNo    The page number in that file.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNumber = pgNo;
+    }
+
+    /**
+     * @return the id of the BTreeFile associated with this PageId
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the page number in the file getTableId() associated with this PageId
+     */
+    public int pageNumber() {
+        return this.pageNumber;
+    }
+
+    public int hashCode() {
+        int hash = 11;
+        hash = 31 * hash + this.tableId;
+        hash = 31 * hash + this.pageNumber;
+        return hash;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and file ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof BTreePageId)) {
+            return false;
+        }
+        BTreePageId that = (BTreePageId) o;
+        return this.tableId == that.tableId && this.pageNumber == that.pageNumber;
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[]{getTableId(), pageNumber()};
+    }
+
+    public String toString() {
+        return "BTreePageId(" + this.tableId + ", " + this.pageNumber + ")";
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter connects iterators that only support one of the two
+ * iteration styles to consumers of the other:
+ * <ul>
+ * <li>over a plain DbIterator, {@link #nextBatch} collects the tuples returned
+ * by <code>next</code> into batches;</li>
+ * <li>over a BatchIterator, {@link #next} returns the tuples of the batches
+ * returned by <code>nextBatch</code> one at a time.</li>
+ * </ul>
+ * Opening, rewinding and closing the adapter does the same to the wrapped
+ * iterator.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private TupleBatch current;
+    private int row;
+
+    /**
+     * @param child the iterator to adapt
+     */
+    public BatchAdapter(DbIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return it if it already supports batches, or a BatchAdapter over it otherwise
+     */
+    public static BatchIterator of(DbIterator it) {
+        if (it instanceof BatchIterator) {
+            return (BatchIterator) it;
+        }
+        return new BatchAdapter(it);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+        this.current = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!(this.child instanceof BatchIterator)) {
+            return this.child.hasNext();
+        }
+        while (this.current == null || this.row == this.current.size()) {
+            this.current = ((BatchIterator) this.child).nextBatch();
+            this.row = 0;
+            if (this.current == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!(this.child instanceof BatchIterator)) {
+            return this.child.next();
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.current.getTuple(this.row++);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.child instanceof BatchIterator) {
+            return ((BatchIterator) this.child).nextBatch();
+        }
+        return fill(this.child);
+    }
+
+    /**
+     * Collects up to {@link TupleBatch#MAX_SIZE} tuples from it into a batch.
+     *
+     * @return the batch, or null if it has no more tuples
+     */
+    static TupleBatch fill(DbIterator it) throws DbException, TransactionAbortedException {
+        if (!it.hasNext()) {
+            return null;
+        }
+        TupleBatch batch = new TupleBatch(it.getTupleDesc());
+        while (!batch.isFull() && it.hasNext()) {
+            batch.addTuple(it.next());
+        }
+        return batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.current = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        this.child.close();
+        this.current = null;
+    }
+}
@@ -0,0 +1,22 @@
+package simpledb;
+
+/**
+ * BatchIterator is a DbIterator that can also return its tuples a batch at a
+ * time. Consumers that process many tuples, such as aggregates, pull batches
+ * to avoid the per-tuple cost of <code>hasNext</code> and <code>next</code>.
+ * <p>
+ * Between a call to <code>open</code> or <code>rewind</code> and the end of the
+ * iteration, a consumer should use either <code>next</code> or
+ * <code>nextBatch</code>, but not both. The order of the tuples returned by
+ * <code>nextBatch</code> may differ from the order of <code>next</code>.
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of tuples.
+     *
+     * @return a batch holding between 1 and {@link TupleBatch#MAX_SIZE} tuples, or null if there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+/**
+ * A BloomFilter is a compact summary of a set of join keys, which can tell
+ * that a key is not in the set, but may wrongly report that a key is in it.
+ * An equi-join, a {@link Join} or a {@link HashJoin}, builds one over the
+ * join field of its inner relation, and pushes it into the scan or filter of
+ * its outer relation, so that outer tuples that cannot have a match are
+ * dropped before they reach the join.
+ * <p>
+ * With {@link #BITS_PER_KEY} bits per key and {@link #NUM_HASHES} hash
+ * functions, about 1% of the keys that are not in the set pass the filter.
+ */
+public class BloomFilter {
+
+    static final int BITS_PER_KEY = 10;
+    static final int NUM_HASHES = 7;
+
+    private static volatile boolean enabled = true;
+
+    private final long[] bits;
+    private final int numBits;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedKeys the number of keys that will be added
+     */
+    public BloomFilter(int expectedKeys) {
+        long n = Math.max(64, (long) expectedKeys * BITS_PER_KEY);
+        this.bits = new long[(int) Math.min((n + 63) / 64, Integer.MAX_VALUE / 64)];
+        this.numBits = this.bits.length * 64;
+    }
+
+    /**
+     * Turns runtime Bloom filters on or off. While they are off, joins do not
+     * build them.
+     */
+    public static void setEnabled(boolean enabled) {
+        BloomFilter.enabled = enabled;
+    }
+
+    /**
+     * @return true if joins build runtime Bloom filters
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the 64-bit hash of an int key
+     */
+    static long hash(int v) {
+        long h = v * 0x9e3779b97f4a7c15L;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * @return the 64-bit hash of a string key
+     */
+    static long hash(String s) {
+        return hash(s.hashCode()) ^ s.length();
+    }
+
+    /**
+     * @return the 64-bit hash of a key
+     */
+    static long hash(Field f) {
+        return f instanceof IntField ? hash(((IntField) f).getValue()) : hash(((StringField) f).getValue());
+    }
+
+    /**
+     * Adds a key, given its hash.
+     *
+     * @param h the hash of the key, computed by one of the hash methods of this class
+     */
+    public void addHash(long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % this.numBits;
+            this.bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param h the hash of a key, computed by one of the hash methods of this class
+     * @return false if the key is not in the filter, true if it may be
+     */
+    public boolean mightContainHash(long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % this.numBits;
+            if ((this.bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void add(Field f) {
+        addHash(hash(f));
+    }
+
+    /**
+     * @return false if the key is not in the filter, true if it may be
+     */
+    public boolean mightContain(Field f) {
+        return mightContainHash(hash(f));
+    }
+
+    /**
+     * Keeps the selected rows of a batch whose key may be in the filter,
+     * without modifying the batch.
+     *
+     * @param batch    the batch
+     * @param field    the field of the key
+     * @param selected the indexes of the selected rows, in increasing order; the kept ones are moved to its front
+     * @param n        the number of selected rows
+     * @return the number of rows kept
+     */
+    public int filter(TupleBatch batch, int field, int[] selected, int n) {
+        int k = 0;
+        if (batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int[] col = batch.getIntColumn(field);
+            for (int i = 0; i < n; i++) {
+                if (mightContainHash(hash(col[selected[i]]))) {
+                    selected[k++] = selected[i];
+                }
+            }
+        } else {
+            String[] col = batch.getStringColumn(field);
+            for (int i = 0; i < n; i++) {
+                if (mightContainHash(hash(col[selected[i]]))) {
+                    selected[k++] = selected[i];
+                }
+            }
+        }
+        return k;
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * BloomFilterPushdown builds the {@link BloomFilter} of the values of the
+ * join field of the inner relation of an equi-join, from the values collected
+ * during one pass over it, and pushes it into the {@link SeqScan} or
+ * {@link Filter} the outer relation is read from. Used by {@link Join} and
+ * {@link HashJoin}.
+ */
+class BloomFilterPushdown {
+
+    // no Bloom filter is built over inner relations with more join values than this
+    static final int MAX_KEYS = 1 << 22;
+
+    private final JoinPredicate predicate;
+    // the operator the outer relation is read from that the Bloom filter is pushed into
+    private final DbIterator target;
+    // the hashes of the inner join values collected so far, or null once there are too many
+    private long[] hashes;
+    private int numHashes;
+
+    private BloomFilterPushdown(JoinPredicate predicate, DbIterator target) {
+        this.predicate = predicate;
+        this.target = target;
+        this.hashes = new long[TupleBatch.MAX_SIZE];
+    }
+
+    /**
+     * Finds the operator to push a Bloom filter into, removes the filters
+     * pushed into the outer relation earlier, and starts collecting the inner
+     * join values if a filter can be pushed.
+     *
+     * @param p     the predicate of the join
+     * @param outer the outer relation of the join
+     * @return the pushdown to give the inner join values to, or null if no filter is pushed
+     */
+    static BloomFilterPushdown start(JoinPredicate p, DbIterator outer) {
+        int f1 = p.getField1();
+        DbIterator it = outer;
+        DbIterator target = null;
+        while (it instanceof Filter) {
+            // a filter does not change the TupleDesc, so field1 is the same field below it
+            if (target == null) {
+                target = it;
+            }
+            ((Filter) it).setBloomFilter(f1, null);
+            it = ((Filter) it).getChildren()[0];
+        }
+        if (it instanceof SeqScan) {
+            ((SeqScan) it).setBloomFilter(f1, null);
+            target = it;
+        }
+        if (target == null || !BloomFilter.isEnabled() || p.getOperator() != Predicate.Op.EQUALS) {
+            return null;
+        }
+        return new BloomFilterPushdown(p, target);
+    }
+
+    private boolean reserve(int n) {
+        if (this.hashes == null) {
+            return false;
+        }
+        if (this.numHashes + n > this.hashes.length) {
+            if (this.numHashes + n > MAX_KEYS) {
+                // too many values for the filter to be cheaper than the join
+                this.hashes = null;
+                return false;
+            }
+            int capacity = Math.max(this.numHashes + n, 2 * this.hashes.length);
+            this.hashes = Arrays.copyOf(this.hashes, Math.min(capacity, MAX_KEYS));
+        }
+        return true;
+    }
+
+    /**
+     * Collects the join value of a tuple of the inner relation.
+     */
+    void collect(Tuple t) {
+        if (reserve(1)) {
+            this.hashes[this.numHashes++] = BloomFilter.hash(t.getField(this.predicate.getField2()));
+        }
+    }
+
+    /**
+     * Collects the join values of a batch of tuples of the inner relation.
+     */
+    void collect(TupleBatch batch) {
+        int n = batch.size();
+        if (!reserve(n)) {
+            return;
+        }
+        int f2 = this.predicate.getField2();
+        if (batch.getTupleDesc().getFieldType(f2) == Type.INT_TYPE) {
+            int[] col = batch.getIntColumn(f2);
+            for (int i = 0; i < n; i++) {
+                this.hashes[this.numHashes++] = BloomFilter.hash(col[i]);
+            }
+        } else {
+            String[] col = batch.getStringColumn(f2);
+            for (int i = 0; i < n; i++) {
+                this.hashes[this.numHashes++] = BloomFilter.hash(col[i]);
+            }
+        }
+    }
+
+    /**
+     * Drops the values collected so far, for a pass over the inner relation
+     * that starts again before it was finished.
+     */
+    void restart() {
+        this.numHashes = 0;
+    }
+
+    /**
+     * Called at the end of the pass over the inner relation: builds the Bloom
+     * filter of the values collected during it, and pushes it into the outer
+     * relation, unless there were too many.
+     */
+    void finish() {
+        if (this.hashes == null) {
+            return;
+        }
+        BloomFilter filter = new BloomFilter(this.numHashes);
+        for (int i = 0; i < this.numHashes; i++) {
+            filter.addHash(this.hashes[i]);
+        }
+        this.hashes = null;
+        int f1 = this.predicate.getField1();
+        if (this.target instanceof SeqScan) {
+            ((SeqScan) this.target).setBloomFilter(f1, filter);
+        } else {
+            ((Filter) this.target).setBloomFilter(f1, filter);
+        }
+    }
+}
@@ -2,9 +2,12 @@ package simpledb;
 
 import java.io.*;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -78,12 +81,21 @@ public class BufferPool {
         // some code goes here
         this.lockManager.acquireLock(tid, pid, perm);
         Page page = this.pageMap.get(pid);
-        if (page == null) {
-            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            while (this.pageMap.size() >= this.numPages) {
-                evictPage();
+        if (page != null) {
+            return page;
+        }
+        // read the page without holding the pool, so that misses on other pages are not serialized behind the
+        // disk; if another thread cached the page in the meantime, its copy wins and this one is discarded
+        Page read = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        synchronized (this) {
+            page = this.pageMap.get(pid);
+            if (page == null) {
+                while (this.pageMap.size() >= this.numPages) {
+                    evictPage();
+                }
+                this.pageMap.put(pid, read);
+                page = read;
             }
-            this.pageMap.put(pid, page);
         }
         return page;
     }
@@ -134,18 +146,25 @@ public class BufferPool {
             throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        Set<Integer> written = new HashSet<Integer>();
         for (Map.Entry<PageId, Page> entry : this.pageMap.entrySet()) {
             PageId pid = entry.getKey();
             Page page = entry.getValue();
             if (tid.equals(page.isDirty())) {
                 if (commit) {
                     flushPage(pid);
+                    written.add(pid.getTableId());
                 } else { // abort
                     entry.setValue(page.getBeforeImage());
                 }
             }
         }
+        if (!written.isEmpty()) {
+            flushZoneMaps();
+        }
+        markIndexesUpToDate(written);
         this.lockManager.txnReleaseLocks(tid);
+        TableStats.refreshStale();
     }
 
     /**
@@ -170,6 +189,15 @@ public class BufferPool {
         for (Page p : pages) {
             p.markDirty(true, tid);
         }
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page p : index.insertEntry(tid, t.getField(index.getKeyField()), t.getRecordId())) {
+                p.markDirty(true, tid);
+            }
+        }
+        TableStats stats = TableStats.getTableStats(tableId);
+        if (stats != null) {
+            stats.addTuple(t);
+        }
     }
 
     /**
@@ -189,10 +217,31 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         int tableId = t.getRecordId().getPageId().getTableId();
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(tableId);
+        // the deleted values can only be looked up in heap pages
+        TableStats stats = Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile
+                ? TableStats.getTableStats(tableId) : null;
+        Tuple stored = null;
+        if (!indexes.isEmpty() || stats != null) {
+            // t may only have some of the fields of the table, so take the keys and values from the stored tuple
+            Page page = getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+            stored = ((HeapPage) page).getTuple(t.getRecordId().tupleno());
+            if (stored == null) {
+                throw new DbException("tuple slot is already empty");
+            }
+            for (IndexFile index : indexes) {
+                for (Page p : index.deleteEntry(tid, stored.getField(index.getKeyField()), t.getRecordId())) {
+                    p.markDirty(true, tid);
+                }
+            }
+        }
         List<Page> pages = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
         for (Page p : pages) {
             p.markDirty(true, tid);
         }
+        if (stats != null) {
+            stats.removeTuple(stored);
+        }
     }
 
     /**
@@ -208,6 +257,50 @@ public class BufferPool {
                 flushPage(p.getId());
             }
         }
+        flushZoneMaps();
+        Set<Integer> tables = new HashSet<Integer>();
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            tables.add(it.next());
+        }
+        markIndexesUpToDate(tables);
+    }
+
+    /**
+     * Persists the {@link ZoneMap} ranges of the heap files of the catalog
+     * that changed since they were last persisted, those of written pages and
+     * those computed when pages were read, without writing any page.
+     */
+    public void flushZoneMaps() {
+        Catalog catalog = Database.getCatalog();
+        Iterator<Integer> it = catalog.tableIdIterator();
+        while (it.hasNext()) {
+            DbFile file = catalog.getDatabaseFile(it.next());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).getZoneMap().flush();
+            }
+        }
+    }
+
+    /**
+     * Records in the indexes of the specified tables that they are up to date
+     * with the files of their tables, once the pages of both were written.
+     * Ids of indexes are ignored.
+     */
+    private void markIndexesUpToDate(Set<Integer> tableIds) throws IOException {
+        Catalog catalog = Database.getCatalog();
+        for (int tableId : tableIds) {
+            List<IndexFile> indexes;
+            try {
+                indexes = catalog.getIndexes(tableId);
+            } catch (NoSuchElementException e) {
+                // the pages of an index
+                continue;
+            }
+            for (IndexFile index : indexes) {
+                index.markUpToDate();
+            }
+        }
     }
 
     /**
@@ -219,6 +312,7 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+        this.pageMap.remove(pid);
     }
 
     /**
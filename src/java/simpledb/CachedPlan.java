@@ -0,0 +1,86 @@
+package simpledb;
+
+/**
+ * A CachedPlan is the plan of a SELECT statement whose filter constants are
+ * parameters. The statement is parsed once, its joins are ordered when it is
+ * first executed, and each execution only binds the parameters and builds the
+ * operators of the plan, which belong to the transaction that runs them.
+ * <p>
+ * The plans are shared by the executions of a statement in any transaction,
+ * so binding and building are done under the lock of the plan.
+ */
+class CachedPlan {
+
+    private final LogicalPlan plan;
+    // the filter whose constant is each parameter
+    private final LogicalFilterNode[] parameters;
+    private final long catalogVersion;
+
+    private CachedPlan(LogicalPlan plan, LogicalFilterNode[] parameters, long catalogVersion) {
+        this.plan = plan;
+        this.parameters = parameters;
+        this.catalogVersion = catalogVersion;
+    }
+
+    /**
+     * Creates the plan of a statement parsed from the parse text of a
+     * {@link StatementCache.Normalized}, whose filters have the constants
+     * '?1', '?2', ....
+     *
+     * @param catalogVersion the version of the catalog the statement was parsed against
+     * @return the plan, or null if a constant is not that of a filter, or the statement has a subquery
+     */
+    static CachedPlan create(LogicalPlan plan, int numParameters, long catalogVersion) {
+        if (plan.hasSubqueries()) {
+            return null;
+        }
+        LogicalFilterNode[] parameters = new LogicalFilterNode[numParameters];
+        for (LogicalFilterNode lf : plan.getFilters()) {
+            int i;
+            try {
+                i = lf.c.startsWith("?") ? Integer.parseInt(lf.c.substring(1)) - 1 : -1;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (i < 0 || i >= numParameters || parameters[i] != null) {
+                return null;
+            }
+            parameters[i] = lf;
+        }
+        for (LogicalFilterNode lf : parameters) {
+            if (lf == null) {
+                return null;
+            }
+        }
+        return new CachedPlan(plan, parameters, catalogVersion);
+    }
+
+    LogicalPlan getLogicalPlan() {
+        return this.plan;
+    }
+
+    int getParameterCount() {
+        return this.parameters.length;
+    }
+
+    long getCatalogVersion() {
+        return this.catalogVersion;
+    }
+
+    /**
+     * Builds the operators of the plan for the specified parameters.
+     *
+     * @param values the value of each parameter, like the constant of a filter in {@link LogicalPlan#addFilter}
+     * @throws ParsingException if a value does not match the type of its field
+     */
+    synchronized DbIterator physicalPlan(TransactionId tid, String[] values) throws ParsingException {
+        for (int i = 0; i < this.parameters.length; i++) {
+            this.parameters[i].c = values[i];
+        }
+        try {
+            return this.plan.physicalPlan(tid, TableStats.getStatsMap(), Parser.explain);
+        } catch (NumberFormatException e) {
+            throw new ParsingException(e);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -21,16 +23,23 @@ public class Catalog {
         final String name;
         final String primaryKey;
         final DbFile dbFile;
+        final CopyOnWriteArrayList<IndexFile> indexes;
 
         public DbTable(String name, String primaryKey, DbFile dbFile) {
             this.name = name;
             this.primaryKey = primaryKey;
             this.dbFile = dbFile;
+            this.indexes = new CopyOnWriteArrayList<IndexFile>();
         }
     }
 
     private ConcurrentHashMap<Integer, DbTable> tables;
     private ConcurrentHashMap<String, Integer> nameToIdMap;
+    private ConcurrentHashMap<Integer, IndexFile> indexes;
+
+    // the versions are unique across catalogs, so that a plan made against one is never taken as current in another
+    private static final AtomicLong versions = new AtomicLong();
+    private volatile long version = versions.incrementAndGet();
 
     /**
      * Constructor.
@@ -40,6 +49,7 @@ public class Catalog {
         // some code goes here
         this.tables = new ConcurrentHashMap<>();
         this.nameToIdMap = new ConcurrentHashMap<>();
+        this.indexes = new ConcurrentHashMap<>();
     }
 
     /**
@@ -60,6 +70,7 @@ public class Catalog {
         if (!name.isEmpty()) {
             this.nameToIdMap.put(name, id);
         }
+        this.version = versions.incrementAndGet();
     }
 
     public void addTable(DbFile file, String name) {
@@ -78,6 +89,42 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index on a table of the catalog. The pages of the index are
+     * read through the BufferPool like those of tables, so getDatabaseFile
+     * and getTupleDesc also accept the id of the index.
+     *
+     * @param index the index to add; its table must be in the catalog
+     * @throws NoSuchElementException if the table of the index doesn't exist
+     */
+    public void addIndex(IndexFile index) throws NoSuchElementException {
+        DbTable table = this.tables.get(index.getTableId());
+        if (table == null) {
+            throw new NoSuchElementException();
+        }
+        this.indexes.put(index.getId(), index);
+        table.indexes.addIfAbsent(index);
+        this.version = versions.incrementAndGet();
+    }
+
+    /**
+     * Returns the indexes on the specified table.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId() function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public List<IndexFile> getIndexes(int tableid) throws NoSuchElementException {
+        return Collections.unmodifiableList(getTable(tableid).indexes);
+    }
+
+    private DbTable getTable(int tableid) throws NoSuchElementException {
+        DbTable table = this.tables.get(tableid);
+        if (table == null) {
+            throw new NoSuchElementException();
+        }
+        return table;
+    }
+
     /**
      * Return the id of the table with a specified name,
      *
@@ -102,7 +149,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        return this.tables.get(tableid).dbFile.getTupleDesc();
+        return getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
@@ -113,7 +160,15 @@ public class Catalog {
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        return this.tables.get(tableid).dbFile;
+        DbTable table = this.tables.get(tableid);
+        if (table != null) {
+            return table.dbFile;
+        }
+        IndexFile index = this.indexes.get(tableid);
+        if (index != null) {
+            return index;
+        }
+        throw new NoSuchElementException();
     }
 
     public String getPrimaryKey(int tableid) {
@@ -131,6 +186,15 @@ public class Catalog {
         return this.tables.get(id).name;
     }
 
+    /**
+     * Returns the version of the catalog, which changes whenever a table or
+     * an index is added or the catalog is cleared, so that plans made against
+     * an older version can be discarded.
+     */
+    long getVersion() {
+        return this.version;
+    }
+
     /**
      * Delete all tables from the catalog
      */
@@ -138,10 +202,23 @@ public class Catalog {
         // some code goes here
         this.tables.clear();
         this.nameToIdMap.clear();
+        this.indexes.clear();
+        this.version = versions.incrementAndGet();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes a table, as
+     * <p>
+     * name (field type [pk|index], field type, ...) [storage format]
+     * <p>
+     * where the optional storage format is "heap" (the default), to store
+     * the table in a {@link HeapFile}, or "pax", to store it in a
+     * {@link PaxFile}. The primary key, annotated with "pk", gets a
+     * {@link HashFile} index, stored in name.field.hash, and fields annotated
+     * with "index" get a {@link BTreeFile} index, stored in name.field.idx.
+     * Indexes are built from the table if their file does not exist, or if
+     * it was not written along with the current version of the table's file.
      *
      * @param catalogFile
      */
@@ -156,10 +233,12 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String format = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -174,6 +253,8 @@ public class Catalog {
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[2].trim().equals("index"))
+                            indexed.add(names.size() - 1);
                         else {
                             System.out.println("Unknown annotation " + els2[2]);
                             System.exit(0);
@@ -183,13 +264,47 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File tableFile = new File(baseFolder + "/" + name + ".dat");
+                HeapFile tabHf;
+                if (format.isEmpty() || format.equals("heap")) {
+                    tabHf = new HeapFile(tableFile, t);
+                } else if (format.equals("pax")) {
+                    tabHf = new PaxFile(tableFile, t);
+                } else {
+                    System.out.println("Unknown storage format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if (!primaryKey.isEmpty()) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + primaryKey + ".hash");
+                    int field = t.fieldNameToIndex(primaryKey);
+                    HashFile index = new HashFile(indexFile, tabHf.getId(), field);
+                    if (index.isUpToDate()) {
+                        addIndex(index);
+                    } else {
+                        HashFile.create(indexFile, tabHf.getId(), field);
+                    }
+                    System.out.println("Added hash index on " + name + "." + primaryKey);
+                }
+                for (int field : indexed) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + namesAr[field] + ".idx");
+                    BTreeFile index = new BTreeFile(indexFile, tabHf.getId(), field);
+                    if (index.isUpToDate()) {
+                        addIndex(index);
+                    } else {
+                        BTreeFile.create(indexFile, tabHf.getId(), field);
+                    }
+                    System.out.println("Added index on " + name + "." + namesAr[field]);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException | TransactionAbortedException e) {
+            System.out.println("Cannot build index : " + e.getMessage());
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
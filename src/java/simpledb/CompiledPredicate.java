@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * A conjunction of {@link Predicate}s compiled into a class of its own by
+ * {@link PredicateCompiler}. The generated subclasses read the compared
+ * fields with direct casts and compare them with inlined operators, instead
+ * of going through {@link Field#compare} once per predicate and tuple.
+ * <p>
+ * A CompiledPredicate holds no state besides the constants of its
+ * predicates, so it can be shared between threads.
+ */
+public abstract class CompiledPredicate {
+
+    /**
+     * The operand of each predicate over an INT_TYPE field, indexed by the
+     * position of the predicate in the conjunction.
+     */
+    protected int[] ints;
+
+    /**
+     * The operand of each predicate over a STRING_TYPE field, indexed by the
+     * position of the predicate in the conjunction.
+     */
+    protected String[] strings;
+
+    /**
+     * @param t the tuple to compare against
+     * @return true if t satisfies every predicate of the conjunction
+     */
+    public abstract boolean filter(Tuple t);
+
+    /**
+     * Applies the conjunction to every tuple of a batch.
+     *
+     * @param batch    the tuples to compare against
+     * @param selected receives the indexes of the tuples that satisfy every predicate, in increasing order; must have
+     *                 room for batch.size() entries
+     * @return the number of tuples that satisfy every predicate
+     */
+    public abstract int filter(TupleBatch batch, int[] selected);
+
+    // The generated code cannot call methods of java.lang.String directly, as
+    // the compiler cannot read the class files of recent JDKs.
+
+    /**
+     * @return a.compareTo(b)
+     */
+    protected static int compare(String a, String b) {
+        return a.compareTo(b);
+    }
+
+    /**
+     * @return true if a contains b, the semantics of LIKE in {@link StringField#compare}
+     */
+    protected static boolean contains(String a, String b) {
+        return a.indexOf(b) >= 0;
+    }
+}
@@ -21,6 +21,13 @@ public class Database {
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
+    /**
+     * Default maximum number of threads a query uses to scan a table.
+     */
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    private volatile int _parallelism = DEFAULT_PARALLELISM;
+
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
@@ -56,6 +63,26 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /**
+     * Sets the maximum number of threads the physical plan of a query uses
+     * to scan a large table, unless its {@link LogicalPlan} sets its own.
+     *
+     * @param parallelism the maximum number of scan workers; 1 disables parallel plans
+     */
+    public static void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive, not " + parallelism);
+        }
+        _instance.get()._parallelism = parallelism;
+    }
+
+    /**
+     * @return the maximum number of threads the physical plan of a query uses to scan a table
+     */
+    public static int getParallelism() {
+        return _instance.get()._parallelism;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
@@ -3,14 +3,24 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It returns the
+ * tuples of its child that satisfy all of its predicates.
+ * <p>
+ * When the operator is opened, the conjunction of the predicates is compiled
+ * by {@link PredicateCompiler}; if compilation is not available, the
+ * predicates are interpreted one at a time.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    Predicate predicate;
+    Predicate[] predicates;
     DbIterator child;
+    private int[] selected;
+    private transient CompiledPredicate compiled;
+    // the Bloom filter a join pushed into this filter, and the field it applies to
+    private transient BloomFilter bloomFilter;
+    private int bloomField;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -21,13 +31,56 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, DbIterator child) {
         // some code goes here
-        this.predicate = p;
+        this(new Predicate[]{p}, child);
+    }
+
+    /**
+     * Constructor for a filter returning the tuples that satisfy every one of
+     * several predicates.
+     *
+     * @param predicates The predicates to filter tuples with
+     * @param child      The child operator
+     */
+    public Filter(Predicate[] predicates, DbIterator child) {
+        if (predicates.length == 0) {
+            throw new IllegalArgumentException("a Filter needs at least one predicate");
+        }
+        this.predicates = predicates.clone();
         this.child = child;
     }
 
+    /**
+     * @return the predicate of this filter; the first one if there are several
+     */
     public Predicate getPredicate() {
         // some code goes here
-        return this.predicate;
+        return this.predicates[0];
+    }
+
+    /**
+     * @return all predicates of this filter
+     */
+    public Predicate[] getPredicates() {
+        return this.predicates.clone();
+    }
+
+    /**
+     * Also drops the tuples whose value of a field is not in a Bloom filter.
+     * Takes effect immediately, even while the filter is open.
+     *
+     * @param field  the index of the field in the TupleDesc of this filter
+     * @param filter the Bloom filter, or null to only apply the predicates
+     */
+    public void setBloomFilter(int field, BloomFilter filter) {
+        this.bloomField = field;
+        this.bloomFilter = filter;
+    }
+
+    /**
+     * @return the Bloom filter pushed into this filter, or null
+     */
+    public BloomFilter getBloomFilter() {
+        return this.bloomFilter;
     }
 
     public TupleDesc getTupleDesc() {
@@ -39,6 +92,9 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
+        if (this.compiled == null) {
+            this.compiled = PredicateCompiler.compile(this.predicates);
+        }
         this.child.open();
     }
 
@@ -56,7 +112,7 @@ public class Filter extends Operator {
     /**
      * Operator.fetchNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass every predicate (i.e. for which the Predicate.filter() returns true.)
      *
      * @return The next tuple that passes the filter, or null if there are no more tuples
      * @see Predicate#filter
@@ -69,13 +125,63 @@ public class Filter extends Operator {
         }
         while (this.child.hasNext()) {
             Tuple nextTuple = this.child.next();
-            if (this.predicate.filter(nextTuple)) {
+            if (matches(nextTuple)) {
                 return nextTuple;
             }
         }
         return null;
     }
 
+    private boolean matches(Tuple t) {
+        if (this.bloomFilter != null && !this.bloomFilter.mightContain(t.getField(this.bloomField))) {
+            return false;
+        }
+        if (this.compiled != null) {
+            return this.compiled.filter(t);
+        }
+        for (Predicate p : this.predicates) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Filters a batch of the child at a time, evaluating the predicates over
+     * the columns they refer to.
+     *
+     * @return the next batch of tuples that pass the filter, or null if there are no more tuples
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        BatchIterator batches = BatchAdapter.of(this.child);
+        if (this.selected == null) {
+            this.selected = new int[TupleBatch.MAX_SIZE];
+        }
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            int n;
+            if (this.compiled != null) {
+                n = this.compiled.filter(batch, this.selected);
+            } else {
+                n = this.predicates[0].filter(batch, this.selected);
+                for (int j = 1; j < this.predicates.length && n > 0; j++) {
+                    batch.retain(this.selected, n);
+                    n = this.predicates[j].filter(batch, this.selected);
+                }
+            }
+            if (n > 0 && this.bloomFilter != null) {
+                n = this.bloomFilter.filter(batch, this.bloomField, this.selected, n);
+            }
+            if (n > 0) {
+                batch.retain(this.selected, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
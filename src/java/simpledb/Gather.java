@@ -0,0 +1,277 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gather is an exchange operator: it runs each of its children in a thread of
+ * its own and returns the union of their tuples. The workers pass batches to
+ * the consuming thread through a bounded queue, so that a worker can run only
+ * a few batches ahead of the consumer. The tuples of different children are
+ * interleaved in no particular order.
+ * <p>
+ * The children are usually copies of the same pipeline over disjoint parts of
+ * a table, see {@link #partitionScan}. They run as a part of the same
+ * transaction, from different threads. If a child fails, the other ones are
+ * stopped and the exception is thrown to the consumer.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of batches each worker can produce before the consumer takes them.
+     */
+    static final int BATCHES_PER_WORKER = 4;
+
+    private DbIterator[] children;
+
+    private transient ExecutorService workers;
+    private transient BlockingQueue<TupleBatch> queue;
+    // marks the end of the output of a worker
+    private transient TupleBatch end;
+    private transient volatile boolean cancelled;
+    private transient volatile Throwable failure;
+    // the number of workers whose end marker has not been taken from the queue
+    private int running;
+
+    private TupleBatch current;
+    private int row;
+
+    /**
+     * Constructor.
+     *
+     * @param children the iterators to run in parallel; they must all have the same TupleDesc
+     */
+    public Gather(DbIterator[] children) {
+        setChildren(children);
+    }
+
+    /**
+     * Splits a sequential scan of a HeapFile, possibly under Filters, into
+     * scans of consecutive ranges of pages, each under its own copy of the
+     * Filters, the predicates pushed into the scan and its columns. The last
+     * range extends to the end of the file, so that it includes pages appended
+     * after the split.
+     *
+     * @param plan a SeqScan, or a chain of Filters over a SeqScan
+     * @param n    the number of ranges
+     * @return one pipeline per range, or null if plan does not have the required form
+     */
+    public static DbIterator[] partitionScan(DbIterator plan, int n) {
+        ArrayList<Predicate[]> predicates = new ArrayList<Predicate[]>();
+        DbIterator source = plan;
+        while (source instanceof Filter) {
+            predicates.add(((Filter) source).getPredicates());
+            source = ((Filter) source).getChildren()[0];
+        }
+        if (!(source instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) source;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof HeapFile) || scan.getFirstPage() != 0 || scan.getEndPage() >= 0) {
+            return null;
+        }
+
+        int numPages = ((HeapFile) file).numPages();
+        DbIterator[] pipelines = new DbIterator[n];
+        for (int i = 0; i < n; i++) {
+            int firstPage = (int) ((long) numPages * i / n);
+            int endPage = i == n - 1 ? -1 : (int) ((long) numPages * (i + 1) / n);
+            SeqScan range = new SeqScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                    firstPage, endPage);
+            range.setColumns(scan.getColumns());
+            range.setPredicates(scan.getPredicates());
+            DbIterator pipeline = range;
+            // the innermost filter was collected last
+            for (int k = predicates.size() - 1; k >= 0; k--) {
+                pipeline = new Filter(predicates.get(k), pipeline);
+            }
+            pipelines[i] = pipeline;
+        }
+        return pipelines;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        start();
+    }
+
+    /**
+     * Starts one worker per child.
+     */
+    private void start() {
+        this.queue = new ArrayBlockingQueue<TupleBatch>((BATCHES_PER_WORKER + 1) * this.children.length);
+        this.end = new TupleBatch(getTupleDesc());
+        this.cancelled = false;
+        this.failure = null;
+        this.running = this.children.length;
+        this.current = null;
+        this.workers = Executors.newFixedThreadPool(this.children.length, r -> {
+            Thread t = new Thread(r, "gather-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        for (DbIterator child : this.children) {
+            this.workers.execute(() -> produce(child));
+        }
+        this.workers.shutdown();
+    }
+
+    /**
+     * Runs a child to completion, or until the Gather is stopped, putting its
+     * batches on the queue, followed by the end marker.
+     */
+    private void produce(DbIterator child) {
+        boolean opened = false;
+        try {
+            child.open();
+            opened = true;
+            BatchIterator batches = BatchAdapter.of(child);
+            TupleBatch batch;
+            while (!this.cancelled && (batch = batches.nextBatch()) != null) {
+                this.queue.put(batch);
+            }
+        } catch (InterruptedException e) {
+            this.cancelled = true;
+        } catch (Throwable e) {
+            this.failure = e;
+            this.cancelled = true;
+        } finally {
+            if (opened) {
+                child.close();
+            }
+            putEnd();
+        }
+    }
+
+    private void putEnd() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                this.queue.put(this.end);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the next batch from the queue, waiting for it if necessary.
+     */
+    private TupleBatch take() throws DbException {
+        try {
+            return this.queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+            throw new DbException("interrupted while waiting for gather workers");
+        }
+    }
+
+    /**
+     * Returns the next batch produced by any of the children.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.queue == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        while (this.running > 0) {
+            TupleBatch batch = take();
+            if (batch != this.end) {
+                return batch;
+            }
+            this.running--;
+            if (this.failure != null) {
+                stop();
+                rethrow(this.failure);
+            }
+        }
+        return null;
+    }
+
+    private static void rethrow(Throwable e) throws DbException, TransactionAbortedException {
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        } else if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new RuntimeException(e);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (this.current == null || this.row == this.current.size()) {
+            this.current = nextBatch();
+            this.row = 0;
+            if (this.current == null) {
+                return null;
+            }
+        }
+        return this.current.getTuple(this.row++);
+    }
+
+    /**
+     * Asks the workers to stop after their current batch, and waits until
+     * they have all closed their child.
+     */
+    private void stop() {
+        if (this.workers == null) {
+            return;
+        }
+        this.cancelled = true;
+        // drain the queue, so that no worker stays blocked on a full queue
+        while (this.running > 0) {
+            try {
+                if (this.queue.take() == this.end) {
+                    this.running--;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        this.queue.clear();
+        this.workers = null;
+        this.current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+        this.queue = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.children[0].getTupleDesc();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return this.children.clone();
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length == 0) {
+            throw new IllegalArgumentException("Gather needs at least one child");
+        }
+        this.children = children.clone();
+    }
+}
@@ -0,0 +1,325 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * GroupTable is an open-addressing hash table that maps group-by values to
+ * dense group numbers 0, 1, 2, ... in the order the groups are first seen.
+ * <p>
+ * Keys of type INT_TYPE are kept in an <code>int[]</code> and keys of type
+ * STRING_TYPE in a <code>String[]</code>, so looking up a group never boxes the
+ * key or allocates a {@link Field}. Aggregators keep their per-group state in
+ * parallel primitive arrays indexed by the group number.
+ * <p>
+ * Keys made of several columns are looked up directly in the tuple through
+ * {@link #findOrAdd(Tuple, int[])}; only the first tuple of each group has its
+ * key fields copied into the table.
+ * <p>
+ * A GroupTable created with a null key type has no grouping: every lookup
+ * returns group 0.
+ */
+class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Type keyType;
+    private final int numKeyFields;
+
+    /**
+     * Hash slots; each holds (group number + 1), 0 marks an empty slot.
+     */
+    private int[] slots;
+    private int mask;
+
+    // indexed by group number
+    private int[] hashes;
+    private int[] intKeys;
+    private String[] stringKeys;
+    private Field[][] compositeKeys;
+    private int size;
+
+    /**
+     * @param keyType the type of the group-by values, or null if there is no grouping
+     */
+    GroupTable(Type keyType) {
+        this.keyType = keyType;
+        this.numKeyFields = keyType == null ? 0 : 1;
+        clear();
+    }
+
+    /**
+     * @param keyTypes the types of the group-by columns; empty if there is no grouping
+     */
+    GroupTable(Type[] keyTypes) {
+        this.keyType = keyTypes.length == 1 ? keyTypes[0] : null;
+        this.numKeyFields = keyTypes.length;
+        clear();
+    }
+
+    private boolean isComposite() {
+        return this.numKeyFields > 1;
+    }
+
+    /**
+     * Removes all groups, keeping the key type.
+     */
+    void clear() {
+        this.slots = new int[INITIAL_CAPACITY * 2];
+        this.mask = this.slots.length - 1;
+        this.hashes = new int[INITIAL_CAPACITY];
+        if (this.keyType == Type.INT_TYPE) {
+            this.intKeys = new int[INITIAL_CAPACITY];
+        } else if (this.keyType == Type.STRING_TYPE) {
+            this.stringKeys = new String[INITIAL_CAPACITY];
+        } else if (isComposite()) {
+            this.compositeKeys = new Field[INITIAL_CAPACITY][];
+        }
+        this.size = 0;
+    }
+
+    /**
+     * @return the number of distinct groups in the table
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the group number of key, adding a new group if key has not been seen before
+     */
+    int findOrAdd(Field key) {
+        if (this.keyType == null) {
+            if (this.size == 0) {
+                this.size = 1;
+            }
+            return 0;
+        }
+        if (this.keyType == Type.INT_TYPE) {
+            return findOrAdd(((IntField) key).getValue());
+        } else {
+            return findOrAdd(((StringField) key).getValue());
+        }
+    }
+
+    /**
+     * @return the group number of key, or -1 if there is no such group
+     */
+    int find(Field key) {
+        if (this.keyType == null) {
+            return this.size == 0 ? -1 : 0;
+        }
+        if (this.keyType == Type.INT_TYPE) {
+            int k = ((IntField) key).getValue();
+            int h = hash(k);
+            for (int i = h & this.mask; this.slots[i] != 0; i = (i + 1) & this.mask) {
+                int g = this.slots[i] - 1;
+                if (this.intKeys[g] == k) {
+                    return g;
+                }
+            }
+        } else {
+            String k = ((StringField) key).getValue();
+            int h = hash(k.hashCode());
+            for (int i = h & this.mask; this.slots[i] != 0; i = (i + 1) & this.mask) {
+                int g = this.slots[i] - 1;
+                if (this.hashes[g] == h && this.stringKeys[g].equals(k)) {
+                    return g;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param tup    the tuple whose group is looked up
+     * @param fields the indexes of the group-by columns in tup, one per key type
+     * @return the group number of the key formed by the specified fields of tup, adding a new group if that key has
+     * not been seen before
+     */
+    int findOrAdd(Tuple tup, int[] fields) {
+        if (!isComposite()) {
+            return findOrAdd(this.numKeyFields == 0 ? null : tup.getField(fields[0]));
+        }
+        int h = hash(tup, fields);
+        int i = h & this.mask;
+        while (this.slots[i] != 0) {
+            int g = this.slots[i] - 1;
+            if (this.hashes[g] == h && keyEquals(g, tup, fields)) {
+                return g;
+            }
+            i = (i + 1) & this.mask;
+        }
+        int g = addGroup(h, i);
+        Field[] key = new Field[fields.length];
+        for (int j = 0; j < fields.length; j++) {
+            key[j] = tup.getField(fields[j]);
+        }
+        this.compositeKeys[g] = key;
+        return g;
+    }
+
+    /**
+     * @return the group number of the key formed by the specified fields of tup, or -1 if there is no such group
+     */
+    int find(Tuple tup, int[] fields) {
+        if (!isComposite()) {
+            return find(this.numKeyFields == 0 ? null : tup.getField(fields[0]));
+        }
+        int h = hash(tup, fields);
+        for (int i = h & this.mask; this.slots[i] != 0; i = (i + 1) & this.mask) {
+            int g = this.slots[i] - 1;
+            if (this.hashes[g] == h && keyEquals(g, tup, fields)) {
+                return g;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param key the values of the group-by columns, one per key type
+     * @return the group number of key, adding a new group if key has not been seen before
+     */
+    int findOrAdd(Field[] key) {
+        if (!isComposite()) {
+            return findOrAdd(this.numKeyFields == 0 ? null : key[0]);
+        }
+        int h = 1;
+        for (Field f : key) {
+            h = 31 * h + f.hashCode();
+        }
+        h = hash(h);
+        int i = h & this.mask;
+        while (this.slots[i] != 0) {
+            int g = this.slots[i] - 1;
+            if (this.hashes[g] == h && Arrays.equals(this.compositeKeys[g], key)) {
+                return g;
+            }
+            i = (i + 1) & this.mask;
+        }
+        int g = addGroup(h, i);
+        this.compositeKeys[g] = key.clone();
+        return g;
+    }
+
+    private boolean keyEquals(int group, Tuple tup, int[] fields) {
+        Field[] key = this.compositeKeys[group];
+        for (int j = 0; j < fields.length; j++) {
+            if (!key[j].equals(tup.getField(fields[j]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int findOrAdd(int key) {
+        int h = hash(key);
+        int i = h & this.mask;
+        while (this.slots[i] != 0) {
+            int g = this.slots[i] - 1;
+            if (this.intKeys[g] == key) {
+                return g;
+            }
+            i = (i + 1) & this.mask;
+        }
+        int g = addGroup(h, i);
+        this.intKeys[g] = key;
+        return g;
+    }
+
+    int findOrAdd(String key) {
+        int h = hash(key.hashCode());
+        int i = h & this.mask;
+        while (this.slots[i] != 0) {
+            int g = this.slots[i] - 1;
+            if (this.hashes[g] == h && this.stringKeys[g].equals(key)) {
+                return g;
+            }
+            i = (i + 1) & this.mask;
+        }
+        int g = addGroup(h, i);
+        this.stringKeys[g] = key;
+        return g;
+    }
+
+    /**
+     * @return the group-by value of the specified group as a Field, or null if there is no grouping
+     */
+    Field getKey(int group) {
+        if (this.keyType == Type.INT_TYPE) {
+            return new IntField(this.intKeys[group]);
+        } else if (this.keyType == Type.STRING_TYPE) {
+            return new StringField(this.stringKeys[group], Type.STRING_LEN);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of the i-th group-by column of the specified group
+     */
+    Field getKey(int group, int i) {
+        if (isComposite()) {
+            return this.compositeKeys[group][i];
+        }
+        return getKey(group);
+    }
+
+    /**
+     * Claims the empty slot i for a new group and returns its number. The
+     * caller stores the key.
+     */
+    private int addGroup(int h, int i) {
+        int g = this.size++;
+        if (g == this.hashes.length) {
+            int n = g * 2;
+            this.hashes = Arrays.copyOf(this.hashes, n);
+            if (this.intKeys != null) {
+                this.intKeys = Arrays.copyOf(this.intKeys, n);
+            }
+            if (this.stringKeys != null) {
+                this.stringKeys = Arrays.copyOf(this.stringKeys, n);
+            }
+            if (this.compositeKeys != null) {
+                this.compositeKeys = Arrays.copyOf(this.compositeKeys, n);
+            }
+        }
+        this.hashes[g] = h;
+        this.slots[i] = g + 1;
+        // keep the load factor at or below 1/2
+        if (this.size * 2 > this.slots.length) {
+            rehash();
+        }
+        return g;
+    }
+
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        this.mask = this.slots.length - 1;
+        for (int g = 0; g < this.size; g++) {
+            int i = this.hashes[g] & this.mask;
+            while (this.slots[i] != 0) {
+                i = (i + 1) & this.mask;
+            }
+            this.slots[i] = g + 1;
+        }
+    }
+
+    /**
+     * Spreads the bits of h so that keys differing only in the high bits do
+     * not collide under the power-of-two mask.
+     */
+    private static int hash(Tuple tup, int[] fields) {
+        int h = 1;
+        for (int f : fields) {
+            h = 31 * h + tup.getField(f).hashCode();
+        }
+        return hash(h);
+    }
+
+    private static int hash(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
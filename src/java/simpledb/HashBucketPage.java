@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A bucket page of a {@link HashFile}. It holds the entries whose keys hash
+ * to the bucket, in no particular order, with the local depth of the bucket
+ * and the number of its overflow page, in the format
+ * <p>
+ * kind, local depth, n, overflow page, (key, record page, record slot) * n
+ * <p>
+ * The low local depth bits of the hash of the keys of a bucket are the same.
+ * Buckets only get overflow pages once their local depth is the largest
+ * global depth of the index; the overflow page is -1 if there is none.
+ */
+public class HashBucketPage extends HashPage {
+
+    private final Field[] keys;
+    private final int[] pages;
+    private final int[] slots;
+    private int localDepth;
+    private int numEntries;
+    private int overflow;
+
+    /**
+     * Create a bucket page from a set of bytes of data read from disk.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        int maxEntries = maxEntries(this.keyType);
+        if (maxEntries < 2) {
+            throw new IllegalArgumentException("pages are too small to hold index entries");
+        }
+        this.keys = new Field[maxEntries];
+        this.pages = new int[maxEntries];
+        this.slots = new int[maxEntries];
+        DataInputStream dis = BTreePage.open(data);
+        this.localDepth = dis.readInt();
+        this.numEntries = dis.readInt();
+        this.overflow = dis.readInt();
+        for (int i = 0; i < this.numEntries; i++) {
+            this.keys[i] = readKey(dis);
+            this.pages[i] = dis.readInt();
+            this.slots[i] = dis.readInt();
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of entries a bucket page holds with keys of the specified type
+     */
+    static int maxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - 13) / (keyType.getLen() + 8);
+    }
+
+    /**
+     * @return the number of low bits of the hash that all the keys of this bucket share
+     */
+    public int getLocalDepth() {
+        return this.localDepth;
+    }
+
+    void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    public int getNumEntries() {
+        return this.numEntries;
+    }
+
+    public int getMaxEntries() {
+        return this.keys.length;
+    }
+
+    public Field getKey(int i) {
+        return this.keys[i];
+    }
+
+    /**
+     * @return the page number of the record of the i-th entry
+     */
+    public int getRecordPage(int i) {
+        return this.pages[i];
+    }
+
+    /**
+     * @return the slot of the record of the i-th entry
+     */
+    public int getRecordSlot(int i) {
+        return this.slots[i];
+    }
+
+    /**
+     * @return the number of the overflow page of this bucket, or -1 if there is none
+     */
+    public int getOverflow() {
+        return this.overflow;
+    }
+
+    void setOverflow(int overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * Adds an entry. The page must have room for another entry.
+     */
+    void addEntry(Field key, int page, int slot) {
+        this.keys[this.numEntries] = key;
+        this.pages[this.numEntries] = page;
+        this.slots[this.numEntries] = slot;
+        this.numEntries++;
+    }
+
+    /**
+     * Removes the entry at the specified index, replacing it with the last one.
+     */
+    void deleteEntry(int index) {
+        int last = --this.numEntries;
+        this.keys[index] = this.keys[last];
+        this.pages[index] = this.pages[last];
+        this.slots[index] = this.slots[last];
+        this.keys[last] = null;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(BUCKET);
+            dos.writeInt(this.localDepth);
+            dos.writeInt(this.numEntries);
+            dos.writeInt(this.overflow);
+            for (int i = 0; i < this.numEntries; i++) {
+                this.keys[i].serialize(dos);
+                dos.writeInt(this.pages[i]);
+                dos.writeInt(this.slots[i]);
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return BTreePage.pad(baos);
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(this.pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The first page of a {@link HashFile}. It holds the global depth d of the
+ * index, the number of pages allocated in the file, the length and the
+ * modification time of the file of the table when the index was last brought
+ * up to date with it, and the directory: the numbers of the bucket pages of
+ * the 2^d values of the low d bits of the hash of the keys, in the format
+ * <p>
+ * kind, d, number of pages, table length, table modification time, bucket * 2^d
+ * <p>
+ * The directory must fit in the page, which bounds the global depth; see
+ * {@link #maxGlobalDepth}.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private int globalDepth;
+    private int numPages;
+    private long tableLength;
+    private long tableModified;
+    private int[] buckets;
+
+    /**
+     * Create a directory page from a set of bytes of data read from disk.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = BTreePage.open(data);
+        this.globalDepth = dis.readInt();
+        this.numPages = dis.readInt();
+        this.tableLength = dis.readLong();
+        this.tableModified = dis.readLong();
+        this.buckets = new int[1 << this.globalDepth];
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = dis.readInt();
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the largest global depth whose directory fits in a page
+     */
+    static int maxGlobalDepth() {
+        int depth = 0;
+        while (BTreePage.TABLE_VERSION_OFFSET + 16 + 4 * (2 << depth) <= BufferPool.getPageSize()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of low bits of the hash of the keys the directory is indexed on
+     */
+    public int getGlobalDepth() {
+        return this.globalDepth;
+    }
+
+    /**
+     * @return the number of pages allocated in the file, including this one
+     */
+    public int getNumPages() {
+        return this.numPages;
+    }
+
+    void setNumPages(int numPages) {
+        this.numPages = numPages;
+    }
+
+    /**
+     * Records the version of the file of the table the index holds the entries of.
+     *
+     * @see BTreePage#tableVersion
+     */
+    void setTableVersion(long length, long modified) {
+        this.tableLength = length;
+        this.tableModified = modified;
+    }
+
+    /**
+     * @param hash the hash of a key
+     * @return the number of the bucket page the key is stored in
+     */
+    public int getBucket(int hash) {
+        return this.buckets[hash & ((1 << this.globalDepth) - 1)];
+    }
+
+    /**
+     * @return the number of the bucket page of the i-th entry of the directory
+     */
+    int getDirectoryEntry(int i) {
+        return this.buckets[i];
+    }
+
+    void setDirectoryEntry(int i, int bucket) {
+        this.buckets[i] = bucket;
+    }
+
+    /**
+     * Doubles the directory: the new entries point to the same buckets as the
+     * entries whose index differs in the new high bit only.
+     */
+    void grow() {
+        int[] buckets = new int[2 * this.buckets.length];
+        System.arraycopy(this.buckets, 0, buckets, 0, this.buckets.length);
+        System.arraycopy(this.buckets, 0, buckets, this.buckets.length, this.buckets.length);
+        this.buckets = buckets;
+        this.globalDepth++;
+    }
+
+    /**
+     * Replaces the directory.
+     */
+    void setDirectory(int globalDepth, int[] buckets) {
+        this.globalDepth = globalDepth;
+        this.buckets = buckets.clone();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(DIRECTORY);
+            dos.writeInt(this.globalDepth);
+            dos.writeInt(this.numPages);
+            dos.writeLong(this.tableLength);
+            dos.writeLong(this.tableModified);
+            for (int bucket : this.buckets) {
+                dos.writeInt(bucket);
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return BTreePage.pad(baos);
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(this.pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,569 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an extendible hash index on a field of a table, for equality
+ * lookups. Page 0 of the file is a {@link HashDirectoryPage}, which maps the
+ * low bits of the hash of a key to the {@link HashBucketPage} that holds its
+ * entries, so that a lookup reads the directory and one bucket.
+ * <p>
+ * When a bucket is full, it is split in two on one more bit of the hash, and
+ * the directory doubles when that bit is not in it yet. The directory must
+ * fit in its page, so once it has reached its largest size, full buckets get
+ * a chain of overflow pages instead. Deletions remove entries from their
+ * bucket without merging buckets.
+ * <p>
+ * All pages are read and written through the BufferPool. Lookups and
+ * insertions into buckets with room lock the directory shared, and release
+ * it once they hold the lock on the bucket, unless the transaction held it
+ * before. Splits lock the directory exclusively.
+ *
+ * @see IndexScan
+ */
+public class HashFile implements IndexFile {
+
+    /**
+     * The fraction of the entries of its pages a bucket is filled to when an
+     * index is built from a table, to leave room for insertions.
+     */
+    static final double BUILD_FILL_FACTOR = 0.7;
+
+    private final File file;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+
+    /**
+     * Opens a hash index stored in the specified file. Use {@link #create}
+     * to build a new index.
+     *
+     * @param f        the file that stores the index
+     * @param tableId  the table the index refers to
+     * @param keyField the field of the table the index is keyed on
+     */
+    public HashFile(File f, int tableId, int keyField) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.keyType = Database.getCatalog().getTupleDesc(tableId).getFieldType(keyField);
+        this.td = new TupleDesc(new Type[]{this.keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"key", "page", "slot"});
+    }
+
+    /**
+     * Builds a hash index on a field of a table in the specified file, and
+     * adds it to the catalog. The directory is made deep enough for the
+     * buckets to be filled to {@link #BUILD_FILL_FACTOR} on average.
+     *
+     * @param f        the file to write the index to; overwritten if it exists
+     * @param tableId  the table to index
+     * @param keyField the field of the table to index
+     * @return the new index
+     */
+    public static HashFile create(File f, int tableId, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        HashFile index = new HashFile(f, tableId, keyField);
+        Database.getCatalog().addIndex(index);
+
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            keys.add(t.getField(keyField));
+            rids.add(t.getRecordId());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        index.bulkLoad(keys, rids);
+        return index;
+    }
+
+    /**
+     * Writes the pages of an index holding the specified entries.
+     */
+    private void bulkLoad(List<Field> keys, List<RecordId> rids) throws IOException {
+        int maxEntries = HashBucketPage.maxEntries(this.keyType);
+        int maxDepth = HashDirectoryPage.maxGlobalDepth();
+        int depth = 0;
+        while (depth < maxDepth && keys.size() > BUILD_FILL_FACTOR * maxEntries * (1 << depth)) {
+            depth++;
+        }
+        // only buckets at the largest depth have overflow pages, so go deeper while a bucket is too full
+        int[] bucketOf = new int[keys.size()];
+        int[] counts;
+        while (true) {
+            counts = new int[1 << depth];
+            for (int i = 0; i < keys.size(); i++) {
+                bucketOf[i] = hash(keys.get(i)) & ((1 << depth) - 1);
+                counts[bucketOf[i]]++;
+            }
+            int fullest = 0;
+            for (int count : counts) {
+                fullest = Math.max(fullest, count);
+            }
+            if (fullest <= maxEntries || depth == maxDepth) {
+                break;
+            }
+            depth++;
+        }
+
+        // the primary page of bucket b is page b + 1, and overflow pages follow all of them
+        ArrayList<HashBucketPage> pages = new ArrayList<HashBucketPage>();
+        int[] directory = new int[1 << depth];
+        HashBucketPage[] last = new HashBucketPage[1 << depth];
+        for (int b = 0; b < directory.length; b++) {
+            directory[b] = b + 1;
+            last[b] = newBucket(b + 1, depth);
+            pages.add(last[b]);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            int b = bucketOf[i];
+            if (last[b].getNumEntries() == last[b].getMaxEntries()) {
+                HashBucketPage overflow = newBucket(pages.size() + 1, depth);
+                last[b].setOverflow(pages.size() + 1);
+                last[b] = overflow;
+                pages.add(overflow);
+            }
+            last[b].addEntry(keys.get(i), rids.get(i).getPageId().pageNumber(), rids.get(i).tupleno());
+        }
+
+        byte[] directoryData = new byte[BufferPool.getPageSize()];
+        directoryData[0] = HashPage.DIRECTORY;
+        HashDirectoryPage directoryPage = new HashDirectoryPage(pageId(0), directoryData);
+        directoryPage.setDirectory(depth, directory);
+        directoryPage.setNumPages(pages.size() + 1);
+        long[] version = BTreePage.tableVersion(this.tableId);
+        if (version != null) {
+            directoryPage.setTableVersion(version[0], version[1]);
+        }
+
+        synchronized (this) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(this.file))) {
+                out.write(directoryPage.getPageData());
+                for (HashBucketPage page : pages) {
+                    out.write(page.getPageData());
+                }
+            }
+        }
+    }
+
+    private HashBucketPage newBucket(int pageNo, int localDepth) throws IOException {
+        HashBucketPage bucket = new HashBucketPage(pageId(pageNo), HashPage.createEmptyBucketData());
+        bucket.setLocalDepth(localDepth);
+        return bucket;
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile, the hash of the
+     * absolute name of its file.
+     */
+    public int getId() {
+        return this.file.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    public int getKeyField() {
+        return this.keyField;
+    }
+
+    /**
+     * @return the type of the keys of this index
+     */
+    public Type getKeyType() {
+        return this.keyType;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of this index: the key, and the
+     * page number and the slot of the record.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * A hash index only finds the keys that are equal to a value.
+     */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * @return the hash of a key, whose low bits pick its bucket
+     */
+    static int hash(Field key) {
+        // spread the bits of the hash code of the field, which is the value of IntFields
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        try {
+            synchronized (this) {
+                if ((long) pid.pageNumber() * pageSize < this.file.length()) {
+                    try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+                        raf.seek((long) pageSize * pid.pageNumber());
+                        raf.readFully(data);
+                    }
+                }
+            }
+            HashPageId id = new HashPageId(pid.getTableId(), pid.pageNumber());
+            switch (data[0]) {
+                case HashPage.DIRECTORY:
+                    return new HashDirectoryPage(id, data);
+                case HashPage.BUCKET:
+                    return new HashBucketPage(id, data);
+                default:
+                    throw new IllegalArgumentException("page " + pid.pageNumber() + " of index " + this.file
+                            + " has not been allocated");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page " + pid.pageNumber() + " of index " + this.file, e);
+        }
+    }
+
+    public synchronized boolean isUpToDate() throws IOException {
+        return BTreePage.isUpToDate(this.file, HashPage.DIRECTORY, this.tableId);
+    }
+
+    public synchronized void markUpToDate() throws IOException {
+        BTreePage.markUpToDate(this.file, this.tableId);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private synchronized void writePageData(int pageNo, byte[] data) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.seek((long) BufferPool.getPageSize() * pageNo);
+            raf.write(data);
+        }
+    }
+
+    private HashPageId pageId(int pageNo) {
+        return new HashPageId(getId(), pageNo);
+    }
+
+    private HashPage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, pageId(pageNo), perm);
+    }
+
+    private static void dirty(TransactionId tid, HashPage page, Set<Page> dirtied) {
+        page.markDirty(true, tid);
+        dirtied.add(page);
+    }
+
+    /**
+     * Finds the bucket of a hash through the directory, which is locked
+     * shared until the bucket is locked.
+     *
+     * @param perm the permissions to get the bucket with
+     */
+    private HashBucketPage findBucket(TransactionId tid, int hash, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        PageId directoryId = pageId(0);
+        boolean release = !bufferPool.holdsLock(tid, directoryId);
+        HashDirectoryPage directory = (HashDirectoryPage) bufferPool.getPage(tid, directoryId, Permissions.READ_ONLY);
+        HashBucketPage bucket = (HashBucketPage) getPage(tid, directory.getBucket(hash), perm);
+        if (release) {
+            bufferPool.releasePage(tid, directoryId);
+        }
+        return bucket;
+    }
+
+    private void checkKey(Field key) {
+        if (key.getType() != this.keyType) {
+            throw new IllegalArgumentException("the keys of this index are of type " + this.keyType);
+        }
+    }
+
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        checkKey(key);
+        int hash = hash(key);
+        Set<Page> dirtied = new LinkedHashSet<Page>();
+        HashBucketPage page = findBucket(tid, hash, Permissions.READ_WRITE);
+        while (true) {
+            if (page.getNumEntries() < page.getMaxEntries()) {
+                page.addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+                dirty(tid, page, dirtied);
+                return new ArrayList<Page>(dirtied);
+            }
+            if (page.getOverflow() < 0) {
+                break;
+            }
+            page = (HashBucketPage) getPage(tid, page.getOverflow(), Permissions.READ_WRITE);
+        }
+        insertSplitting(tid, key, hash, rid, dirtied);
+        return new ArrayList<Page>(dirtied);
+    }
+
+    /**
+     * Inserts an entry with an exclusive lock on the directory, splitting its
+     * bucket until there is room for it, or adding an overflow page to the
+     * bucket once the directory cannot grow.
+     */
+    private void insertSplitting(TransactionId tid, Field key, int hash, RecordId rid, Set<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        // the pages are marked dirty as soon as they are read, so that the
+        // BufferPool does not evict them while the following ones are read
+        HashDirectoryPage directory = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_WRITE);
+        dirty(tid, directory, dirtied);
+        int maxDepth = HashDirectoryPage.maxGlobalDepth();
+        while (true) {
+            int bucketNo = directory.getBucket(hash);
+            HashBucketPage bucket = (HashBucketPage) getPage(tid, bucketNo, Permissions.READ_WRITE);
+            dirty(tid, bucket, dirtied);
+            if (bucket.getLocalDepth() == maxDepth) {
+                addToChain(tid, directory, bucket, key, rid, dirtied);
+                return;
+            }
+            if (bucket.getNumEntries() < bucket.getMaxEntries()) {
+                bucket.addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+                return;
+            }
+            split(tid, directory, bucket, dirtied);
+        }
+    }
+
+    /**
+     * Splits a bucket on the bit of the hash after its local depth, moving
+     * the entries that have the bit set to a new bucket.
+     */
+    private void split(TransactionId tid, HashDirectoryPage directory, HashBucketPage bucket, Set<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int depth = bucket.getLocalDepth();
+        if (depth == directory.getGlobalDepth()) {
+            directory.grow();
+        }
+        HashBucketPage sibling = allocateBucket(tid, directory, depth + 1, dirtied);
+        bucket.setLocalDepth(depth + 1);
+        // deleteEntry moves the last entry, which has been looked at already, into the hole
+        for (int i = bucket.getNumEntries() - 1; i >= 0; i--) {
+            if ((hash(bucket.getKey(i)) >>> depth & 1) != 0) {
+                sibling.addEntry(bucket.getKey(i), bucket.getRecordPage(i), bucket.getRecordSlot(i));
+                bucket.deleteEntry(i);
+            }
+        }
+        int bucketNo = bucket.getId().pageNumber();
+        for (int i = 0; i < 1 << directory.getGlobalDepth(); i++) {
+            if (directory.getDirectoryEntry(i) == bucketNo && (i >>> depth & 1) != 0) {
+                directory.setDirectoryEntry(i, sibling.getId().pageNumber());
+            }
+        }
+    }
+
+    /**
+     * Adds an entry to the first page of the chain of a bucket that has room,
+     * appending an overflow page if none has.
+     */
+    private void addToChain(TransactionId tid, HashDirectoryPage directory, HashBucketPage bucket, Field key,
+                            RecordId rid, Set<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage page = bucket;
+        while (page.getNumEntries() == page.getMaxEntries()) {
+            if (page.getOverflow() < 0) {
+                HashBucketPage overflow = allocateBucket(tid, directory, bucket.getLocalDepth(), dirtied);
+                page.setOverflow(overflow.getId().pageNumber());
+                page = overflow;
+            } else {
+                page = (HashBucketPage) getPage(tid, page.getOverflow(), Permissions.READ_WRITE);
+                dirty(tid, page, dirtied);
+            }
+        }
+        page.addEntry(key, rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /**
+     * Adds an empty bucket page at the end of the file. The page is written
+     * to disk right away, so that the BufferPool reads it like any other
+     * page; if the transaction aborts, the directory forgets the page, and
+     * its number is reused.
+     *
+     * @param directory the directory page, locked exclusively and marked dirty
+     */
+    private HashBucketPage allocateBucket(TransactionId tid, HashDirectoryPage directory, int localDepth,
+                                          Set<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNo = directory.getNumPages();
+        directory.setNumPages(pageNo + 1);
+        // the BufferPool may still hold a page with this number that an aborted transaction allocated
+        Database.getBufferPool().discardPage(pageId(pageNo));
+        writePageData(pageNo, HashPage.createEmptyBucketData());
+        HashBucketPage page = (HashBucketPage) getPage(tid, pageNo, Permissions.READ_WRITE);
+        dirty(tid, page, dirtied);
+        page.setLocalDepth(localDepth);
+        return page;
+    }
+
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        checkKey(key);
+        int pageNo = rid.getPageId().pageNumber();
+        HashBucketPage page = findBucket(tid, hash(key), Permissions.READ_WRITE);
+        while (true) {
+            for (int i = 0; i < page.getNumEntries(); i++) {
+                if (page.getRecordSlot(i) == rid.tupleno() && page.getRecordPage(i) == pageNo
+                        && page.getKey(i).equals(key)) {
+                    page.deleteEntry(i);
+                    Set<Page> dirtied = new LinkedHashSet<Page>();
+                    dirty(tid, page, dirtied);
+                    return new ArrayList<Page>(dirtied);
+                }
+            }
+            if (page.getOverflow() < 0) {
+                throw new DbException("no entry for " + key + " in index " + this.file);
+            }
+            page = (HashBucketPage) getPage(tid, page.getOverflow(), Permissions.READ_WRITE);
+        }
+    }
+
+    /**
+     * Inserts an entry, given as a tuple with the TupleDesc of this index.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insertEntry(tid, t.getField(0), recordId(t));
+    }
+
+    /**
+     * Deletes an entry, given as a tuple with the TupleDesc of this index.
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return deleteEntry(tid, t.getField(0), recordId(t));
+    }
+
+    private RecordId recordId(Tuple entry) {
+        return new RecordId(new HeapPageId(this.tableId, ((IntField) entry.getField(1)).getValue()),
+                ((IntField) entry.getField(2)).getValue());
+    }
+
+    /**
+     * Returns an iterator over all the entries of this index, bucket by
+     * bucket. It keeps the directory locked shared.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null);
+    }
+
+    public DbFileIterator entries(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new UnsupportedOperationException("hash indexes do not support " + op);
+        }
+        checkKey(operand);
+        return new EntryIterator(tid, operand);
+    }
+
+    /**
+     * Iterates over the entries of the chain of one bucket with a key, or
+     * over the chains of all buckets.
+     */
+    private class EntryIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final Field key;
+        // the first pages of the buckets that have not been read yet
+        private Iterator<Integer> buckets;
+        private HashBucketPage page;
+        private int position;
+        private Tuple next;
+
+        /**
+         * @param key the key of the entries to return, or null to return every entry
+         */
+        EntryIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.next = null;
+            this.position = 0;
+            if (this.key != null) {
+                this.buckets = Collections.<Integer>emptyList().iterator();
+                this.page = findBucket(this.tid, hash(this.key), Permissions.READ_ONLY);
+                return;
+            }
+            HashDirectoryPage directory = (HashDirectoryPage) getPage(this.tid, 0, Permissions.READ_ONLY);
+            LinkedHashSet<Integer> pages = new LinkedHashSet<Integer>();
+            for (int i = 0; i < 1 << directory.getGlobalDepth(); i++) {
+                pages.add(directory.getDirectoryEntry(i));
+            }
+            this.buckets = pages.iterator();
+            this.page = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (this.next == null) {
+                if (this.page == null || this.position >= this.page.getNumEntries()) {
+                    int nextPage = this.page != null && this.page.getOverflow() >= 0 ? this.page.getOverflow()
+                            : this.buckets != null && this.buckets.hasNext() ? this.buckets.next() : -1;
+                    if (nextPage < 0) {
+                        this.page = null;
+                        return false;
+                    }
+                    this.page = (HashBucketPage) getPage(this.tid, nextPage, Permissions.READ_ONLY);
+                    this.position = 0;
+                    continue;
+                }
+                int i = this.position++;
+                if (this.key == null || this.page.getKey(i).equals(this.key)) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, this.page.getKey(i));
+                    t.setField(1, new IntField(this.page.getRecordPage(i)));
+                    t.setField(2, new IntField(this.page.getRecordSlot(i)));
+                    this.next = t;
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = this.next;
+            this.next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            this.buckets = null;
+            this.page = null;
+            this.next = null;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashJoin joins two relations on the equality of a field of each. It reads
+ * the inner relation, its second child, into a hash table keyed on the join
+ * field, and then probes the table with each tuple of the outer relation, so
+ * each relation is read once and each outer tuple is only compared with the
+ * inner tuples that have the same value.
+ * <p>
+ * At most a fixed number of inner tuples are kept in memory (hybrid hash
+ * join). Once the table holds <code>maxBuildTuples</code> tuples, inner
+ * tuples whose value is already in the table are still added to it, while
+ * those of any other value are appended to one of {@link #NUM_PARTITIONS}
+ * spill files, chosen by hashing the value. The outer tuples whose value is in
+ * the table are joined right away, and the others are appended to the
+ * matching partition of the outer relation, unless the inner one is empty.
+ * Each pair of partitions is then joined in turn by a new HashJoin that
+ * partitions on a different hash if it overflows too. Once the outer
+ * relation has been read to its end, its partitions and the tuples joined
+ * from each pair of partitions are kept until the join is closed, so a
+ * rewind replays them instead of joining the partitions again.
+ * <p>
+ * Like a {@link Join}, a HashJoin pushes a {@link BloomFilter} of the values
+ * of the inner relation into the {@link SeqScan} or {@link Filter} its outer
+ * relation is read from. It builds it before reading any outer tuple.
+ * <p>
+ * The returned tuples are the concatenation of the outer and the inner tuple,
+ * like those of a {@link Join}. They are returned in the order of the outer
+ * relation, unless the inner relation did not fit in memory.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int NUM_PARTITIONS = 16;
+
+    /**
+     * The level of the partition joins that ignore the budget and keep all of
+     * their inner tuples in memory. The levels above it split the inner
+     * relation at most NUM_PARTITIONS^MAX_LEVEL (65536) ways, so the budget
+     * is only kept if no partition at this level has more than
+     * maxBuildTuples inner tuples; otherwise, as when a single value is too
+     * frequent, the last level holds them all.
+     */
+    static final int MAX_LEVEL = 4;
+
+    private final JoinPredicate predicate;
+    private final int maxBuildTuples;
+    private final int level;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc tupleDesc;
+
+    // the inner tuples kept in memory, by join value, and their number
+    private transient HashMap<Field, ArrayList<Tuple>> table;
+    private transient int numBuildTuples;
+    // the partitions of the inner and outer tuples that are not joined in memory, or null if none were spilled
+    private transient SpillFile[] innerPartitions;
+    private transient SpillFile[] outerPartitions;
+    private transient int nextPartition;
+    // true once the outer relation was read to its end, so that its partitions are complete
+    private transient boolean outerSpilled;
+    // the tuples joined from each pair of partitions, once all of them were returned
+    private transient SpillFile[] partitionResults;
+    // the join of the pair of partitions being returned, and the file its tuples are written to
+    private transient HashJoin partitionJoin;
+    private transient SpillFile partitionOutput;
+    private transient int partition;
+    // the tuples of a pair of partitions joined during an earlier pass, being returned
+    private transient DbIterator partitionReplay;
+    // the outer tuple being joined, the inner tuples it matches and the next of them to return
+    private transient Tuple outerTuple;
+    private transient ArrayList<Tuple> matches;
+    private transient int match;
+
+    /**
+     * Constructor.
+     *
+     * @param p              The predicate to use to join the children; its operator must be EQUALS
+     * @param child1         Iterator for the left(outer) relation to join
+     * @param child2         Iterator for the right(inner) relation to join, which is kept in the hash table
+     * @param maxBuildTuples The maximum number of inner tuples to keep in memory before spilling to disk
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int maxBuildTuples) {
+        this(p, child1, child2, maxBuildTuples, 0);
+    }
+
+    private HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int maxBuildTuples, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("a HashJoin only supports equality, not " + p.getOperator());
+        }
+        if (maxBuildTuples < 1) {
+            throw new IllegalArgumentException("maxBuildTuples must be positive");
+        }
+        this.predicate = p;
+        this.maxBuildTuples = maxBuildTuples;
+        this.level = level;
+        this.child1 = child1;
+        this.child2 = child2;
+        setTupleDesc();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * @return the maximum number of inner tuples kept in memory
+     */
+    public int getMaxBuildTuples() {
+        return this.maxBuildTuples;
+    }
+
+    /**
+     * @return true if some tuples have been written to disk
+     */
+    public boolean hasSpilled() {
+        return this.innerPartitions != null;
+    }
+
+    private void setTupleDesc() {
+        this.tupleDesc = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        super.open();
+        BloomFilterPushdown bloomFilter = BloomFilterPushdown.start(this.predicate, this.child1);
+        this.child1.open();
+        this.child2.open();
+        releasePartitions(true);
+        build(bloomFilter);
+        this.nextPartition = 0;
+        this.outerTuple = null;
+        this.matches = null;
+    }
+
+    /**
+     * Reads the inner relation into the hash table and its partitions, and
+     * pushes the Bloom filter of its values into the outer relation.
+     *
+     * @param bloomFilter collects the inner values, or null if no Bloom filter is pushed
+     */
+    private void build(BloomFilterPushdown bloomFilter) throws DbException, TransactionAbortedException {
+        this.table = new HashMap<Field, ArrayList<Tuple>>();
+        this.numBuildTuples = 0;
+        int f2 = this.predicate.getField2();
+        while (this.child2.hasNext()) {
+            Tuple t = this.child2.next();
+            if (bloomFilter != null) {
+                bloomFilter.collect(t);
+            }
+            Field value = t.getField(f2);
+            ArrayList<Tuple> tuples = this.table.get(value);
+            if (tuples == null) {
+                if (this.innerPartitions != null || this.numBuildTuples >= this.maxBuildTuples) {
+                    spill(t, value);
+                    continue;
+                }
+                tuples = new ArrayList<Tuple>(1);
+                this.table.put(value, tuples);
+            }
+            tuples.add(t);
+            this.numBuildTuples++;
+        }
+        if (this.innerPartitions != null) {
+            for (SpillFile f : this.innerPartitions) {
+                if (f != null) {
+                    f.flush();
+                }
+            }
+        }
+        if (bloomFilter != null) {
+            bloomFilter.finish();
+        }
+    }
+
+    private void spill(Tuple t, Field value) throws DbException {
+        if (this.innerPartitions == null) {
+            this.innerPartitions = new SpillFile[NUM_PARTITIONS];
+            this.outerPartitions = new SpillFile[NUM_PARTITIONS];
+            this.partitionResults = new SpillFile[NUM_PARTITIONS];
+        }
+        int p = partitionOf(value);
+        if (this.innerPartitions[p] == null) {
+            this.innerPartitions[p] = new SpillFile(this.child2.getTupleDesc());
+        }
+        this.innerPartitions[p].append(t);
+    }
+
+    /**
+     * @return the partition of a join value at this level
+     */
+    private int partitionOf(Field value) {
+        int h = this.level * 0x9E3779B9 + value.hashCode();
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    public void close() {
+        this.child1.close();
+        this.child2.close();
+        releasePartitions(true);
+        this.table = null;
+        super.close();
+    }
+
+    /**
+     * Stops returning the tuples of a pair of partitions. Deletes the
+     * spilled outer tuples and the joined tuples of the partitions if all is
+     * true or the outer relation was not read to its end, and the inner
+     * tuples too if all is true.
+     */
+    private void releasePartitions(boolean all) {
+        if (this.partitionJoin != null) {
+            this.partitionJoin.close();
+            this.partitionJoin = null;
+            // the tuples of the partitions were not all returned
+            this.partitionOutput.delete();
+            this.partitionOutput = null;
+        }
+        if (this.partitionReplay != null) {
+            this.partitionReplay.close();
+            this.partitionReplay = null;
+        }
+        if (this.innerPartitions == null) {
+            return;
+        }
+        if (all || !this.outerSpilled) {
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                if (this.outerPartitions[p] != null) {
+                    this.outerPartitions[p].delete();
+                    this.outerPartitions[p] = null;
+                }
+                if (this.partitionResults[p] != null) {
+                    this.partitionResults[p].delete();
+                    this.partitionResults[p] = null;
+                }
+            }
+            this.outerSpilled = false;
+        }
+        if (all) {
+            for (SpillFile f : this.innerPartitions) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
+            this.innerPartitions = null;
+            this.outerPartitions = null;
+            this.partitionResults = null;
+        }
+    }
+
+    /**
+     * Reads the outer relation again; the inner one is kept in the hash table
+     * and its partitions. If the outer relation was read to its end, its
+     * partitions and the tuples joined from them are kept too.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child1.rewind();
+        releasePartitions(false);
+        this.nextPartition = 0;
+        this.outerTuple = null;
+        this.matches = null;
+    }
+
+    /**
+     * Returns the next joined tuple: first those of the outer tuples whose
+     * value is in the hash table, and then those of each pair of partitions.
+     *
+     * @return The next matching tuple, or null if there are no more
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int f1 = this.predicate.getField1();
+        while (true) {
+            if (this.matches != null && this.match < this.matches.size()) {
+                return merge(this.outerTuple, this.matches.get(this.match++));
+            }
+            if (this.partitionJoin != null) {
+                if (this.partitionJoin.hasNext()) {
+                    Tuple t = this.partitionJoin.next();
+                    this.partitionOutput.append(t);
+                    return t;
+                }
+                this.partitionJoin.close();
+                this.partitionJoin = null;
+                this.partitionOutput.flush();
+                this.partitionResults[this.partition] = this.partitionOutput;
+                this.partitionOutput = null;
+            }
+            if (this.partitionReplay != null) {
+                if (this.partitionReplay.hasNext()) {
+                    return this.partitionReplay.next();
+                }
+                this.partitionReplay.close();
+                this.partitionReplay = null;
+            }
+            if (this.child1.hasNext()) {
+                this.outerTuple = this.child1.next();
+                Field value = this.outerTuple.getField(f1);
+                this.matches = this.table.get(value);
+                this.match = 0;
+                if (this.matches == null && this.innerPartitions != null && !this.outerSpilled) {
+                    int p = partitionOf(value);
+                    // an outer tuple can only match inner tuples of the same partition
+                    if (this.innerPartitions[p] != null) {
+                        if (this.outerPartitions[p] == null) {
+                            this.outerPartitions[p] = new SpillFile(this.child1.getTupleDesc());
+                        }
+                        this.outerPartitions[p].append(this.outerTuple);
+                    }
+                }
+                continue;
+            }
+            if (this.innerPartitions != null) {
+                this.outerSpilled = true;
+            }
+            if (!startPartitionJoin()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Starts joining the next pair of partitions with outer tuples, or
+     * replaying its tuples if an earlier pass joined it.
+     *
+     * @return false if there are no more
+     */
+    private boolean startPartitionJoin() throws DbException, TransactionAbortedException {
+        if (this.innerPartitions == null) {
+            return false;
+        }
+        while (this.nextPartition < NUM_PARTITIONS && this.outerPartitions[this.nextPartition] == null) {
+            this.nextPartition++;
+        }
+        if (this.nextPartition == NUM_PARTITIONS) {
+            return false;
+        }
+        int p = this.nextPartition++;
+        if (this.partitionResults[p] != null) {
+            this.partitionReplay = this.partitionResults[p].iterator();
+            this.partitionReplay.open();
+            return true;
+        }
+        this.outerPartitions[p].flush();
+        int budget = this.level + 1 < MAX_LEVEL ? this.maxBuildTuples : Integer.MAX_VALUE;
+        this.partitionJoin = new HashJoin(this.predicate, this.outerPartitions[p].iterator(),
+                this.innerPartitions[p].iterator(), budget, this.level + 1);
+        this.partitionJoin.open();
+        this.partitionOutput = new SpillFile(this.tupleDesc);
+        this.partition = p;
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple res = new Tuple(this.tupleDesc);
+        int nFields1 = this.child1.getTupleDesc().numFields();
+        int nFields2 = this.child2.getTupleDesc().numFields();
+        for (int i = 0; i < nFields1; i++) {
+            res.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < nFields2; i++) {
+            res.setField(nFields1 + i, t2.getField(i));
+        }
+        return res;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        setTupleDesc();
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * The base class of the pages of a {@link HashFile}. The first byte of a
+ * page gives its kind: the directory page or a bucket page.
+ *
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ */
+public abstract class HashPage implements Page {
+
+    static final byte DIRECTORY = 1;
+    static final byte BUCKET = 2;
+
+    final HashPageId pid;
+    // the type of the keys of the index
+    final Type keyType;
+    private volatile TransactionId dirty;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    HashPage(HashPageId id) {
+        this.pid = id;
+        this.keyType = ((HashFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HashPageId getId() {
+        return this.pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * @return the data of this page before it was modified
+     */
+    byte[] getBeforeImageData() {
+        synchronized (this.oldDataLock) {
+            return this.oldData;
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (this.oldDataLock) {
+            this.oldData = getPageData().clone();
+        }
+    }
+
+    Field readKey(DataInputStream dis) throws IOException {
+        try {
+            return this.keyType.parse(dis);
+        } catch (java.text.ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the data of an empty bucket page, without overflow page
+     */
+    static byte[] createEmptyBucketData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = BUCKET;
+        // no overflow page
+        for (int i = 9; i < 13; i++) {
+            data[i] = (byte) 0xff;
+        }
+        return data;
+    }
+}
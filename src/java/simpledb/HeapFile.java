@@ -18,6 +18,8 @@ public class HeapFile implements DbFile {
     File file;
     TupleDesc tupleDesc;
     int numPages;
+    // the ranges of the int fields of the pages, used to skip pages that cannot match a scan
+    final ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -29,6 +31,7 @@ public class HeapFile implements DbFile {
         this.file = f;
         this.tupleDesc = td;
         this.numPages = (int) (this.file.length() / BufferPool.getPageSize());
+        this.zoneMap = new ZoneMap(f, td);
     }
 
     /**
@@ -65,6 +68,13 @@ public class HeapFile implements DbFile {
         return this.tupleDesc;
     }
 
+    /**
+     * @return the per-page ranges of the INT_TYPE fields of this file
+     */
+    public ZoneMap getZoneMap() {
+        return this.zoneMap;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
@@ -85,7 +95,11 @@ public class HeapFile implements DbFile {
             }
 
             HeapPageId hpid = new HeapPageId(tableId, pid.pageNumber());
-            return new HeapPage(hpid, data);
+            HeapPage page = createPage(hpid, data);
+            if (!this.zoneMap.isKnown(pageNo)) {
+                this.zoneMap.set(page);
+            }
+            return page;
         } catch (IOException e) {
             // ignored
         }
@@ -93,6 +107,16 @@ public class HeapFile implements DbFile {
 
     }
 
+    /**
+     * Creates the page object for data read from this file.
+     *
+     * @param pid  the id of the page
+     * @param data the bytes of the page
+     */
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
@@ -105,6 +129,7 @@ public class HeapFile implements DbFile {
                 raf.seek(pageSize * pageNo);
                 raf.write(data);
             }
+            this.zoneMap.set((HeapPage) page);
         }
     }
 
@@ -143,6 +168,7 @@ public class HeapFile implements DbFile {
         }
 
         page.insertTuple(t);
+        this.zoneMap.insert(page.getId().pageNumber(), t);
         ArrayList<Page> res = new ArrayList<>();
         res.add(page);
         return res;
@@ -165,35 +191,112 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
+        return iterator(tid, 0, -1);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored on a range of pages of this
+     * file, in page order. Iterators over disjoint ranges can be used by
+     * different threads at the same time.
+     *
+     * @param tid       the transaction the scan runs as a part of
+     * @param firstPage the number of the first page to scan
+     * @param endPage   the number of the page after the last one to scan, or -1 to scan to the end of the file
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        return iterator(tid, firstPage, endPage, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file as
+     * they are on disk. The pages are read without going through the
+     * BufferPool and without taking locks. The BufferPool never writes the
+     * pages of running transactions to disk, so these are the committed
+     * versions of the pages. Background tasks use it so that they never block
+     * transactions, or are blocked by them.
+     *
+     * @param firstPage the number of the first page to scan
+     * @param endPage   the number of the page after the last one to scan, or -1 to scan to the end of the file
+     */
+    public DbFileIterator committedIterator(int firstPage, int endPage) {
+        return iterator(null, firstPage, endPage);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored on a range of pages of this
+     * file that satisfy every one of the specified predicates. The predicates
+     * are evaluated by the pages as they decode their tuples, see
+     * {@link HeapPage#iterator(Predicate[])}, and the pages whose
+     * {@link ZoneMap} ranges cannot satisfy them are not read at all.
+     *
+     * @param tid        the transaction the scan runs as a part of
+     * @param firstPage  the number of the first page to scan
+     * @param endPage    the number of the page after the last one to scan, or -1 to scan to the end of the file
+     * @param predicates the predicates the returned tuples satisfy
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, Predicate[] predicates) {
+        return iterator(tid, firstPage, endPage, predicates, null);
+    }
+
+    /**
+     * Returns an iterator over some of the fields of the tuples stored on a
+     * range of pages of this file that satisfy every one of the specified
+     * predicates. The pages only decode the fields that are needed, see
+     * {@link HeapPage#iterator(Predicate[], int[])}.
+     *
+     * @param tid        the transaction the scan runs as a part of, or null to read the committed pages from disk,
+     *                   see {@link #committedIterator}
+     * @param firstPage  the number of the first page to scan
+     * @param endPage    the number of the page after the last one to scan, or -1 to scan to the end of the file
+     * @param predicates the predicates the returned tuples satisfy, over the fields of this file
+     * @param columns    the fields of the returned tuples, in order, or null to return every field
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, Predicate[] predicates,
+                                   int[] columns) {
         return new DbFileIterator() {
             int iPage;
             Iterator<Tuple> tupleIter;
 
+            private int endPage() {
+                return endPage < 0 ? numPages() : Math.min(endPage, numPages());
+            }
+
             private void loadTupleIterator() throws DbException, TransactionAbortedException {
+                // pages whose ranges exclude the predicates are not read
+                if (predicates.length > 0 && !zoneMap.mayMatch(this.iPage, predicates)) {
+                    this.tupleIter = Collections.emptyIterator();
+                    return;
+                }
                 PageId pid = new HeapPageId(getId(), this.iPage);
-                Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                this.tupleIter = ((HeapPage) page).iterator();
+                Page page = tid == null ? readPage(pid)
+                        : Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                this.tupleIter = ((HeapPage) page).iterator(predicates, columns);
             }
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
-                this.iPage = 0;
-                loadTupleIterator();
+                this.iPage = firstPage;
+                if (this.iPage < endPage()) {
+                    loadTupleIterator();
+                } else {
+                    this.tupleIter = Collections.emptyIterator();
+                }
             }
 
             @Override
             public boolean hasNext() throws DbException, TransactionAbortedException {
                 if (this.tupleIter == null) {
                     return false;
-                } else if (this.tupleIter.hasNext()) {
-                    return true;
-                } else if (this.iPage < numPages() - 1) {
+                }
+                // skip over pages without tuples
+                while (!this.tupleIter.hasNext()) {
+                    if (this.iPage >= endPage() - 1) {
+                        return false;
+                    }
                     this.iPage++;
                     loadTupleIterator();
-                    return this.tupleIter.hasNext();
-                } else {
-                    return false;
                 }
+                return true;
             }
 
             @Override
@@ -7,6 +7,12 @@ import java.util.stream.Stream;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from, and only decodes its tuples when
+ * they are first needed. Scans can also push predicates into the page (see
+ * {@link #iterator(Predicate[])}): comparisons on INT_TYPE fields are then
+ * evaluated on the bytes of each slot, and only the tuples that satisfy them
+ * are decoded.
  *
  * @see HeapFile
  * @see BufferPool
@@ -20,6 +26,13 @@ public class HeapPage implements Page {
     final int numSlots;
     TransactionId dirty;
 
+    // the bytes this page was read from; the tuples are decoded from them on first use
+    private final byte[] data;
+    // field j of slot i is stored at fieldStart[j] + i * fieldStride[j] in the page data
+    private final int[] fieldStart;
+    private final int[] fieldStride;
+    private volatile boolean decoded;
+
     byte[] oldData;
     private final Byte oldDataLock = new Byte((byte) 0);
 
@@ -41,29 +54,62 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a page from a set of bytes of data read from disk, with either
+     * the layout of a HeapPage or a columnar layout, where the header is
+     * followed by one array of values per field, see {@link PaxPage}.
+     *
+     * @param columnar true if the values of each field are stored next to each other
+     */
+    protected HeapPage(HeapPageId id, byte[] data, boolean columnar) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        if (data.length < BufferPool.getPageSize()) {
+            throw new IOException("page data is shorter than a page");
+        }
+        this.data = data;
 
+        // read the header slots of this page; the records are read when needed
+        header = Arrays.copyOf(data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+
+        this.fieldStart = new int[td.numFields()];
+        this.fieldStride = new int[td.numFields()];
+        int offset = header.length;
+        for (int j = 0; j < fieldStart.length; j++) {
+            int len = td.getFieldType(j).getLen();
+            fieldStart[j] = offset;
+            fieldStride[j] = columnar ? len : td.getSize();
+            offset += columnar ? len * numSlots : len;
         }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * Decodes every tuple of this page, if it has not been done yet. Must be
+     * called before the tuples array is used.
+     */
+    private void decode() {
+        if (this.decoded) {
+            return;
+        }
+        synchronized (this.tuples) {
+            if (!this.decoded) {
+                for (int i = 0; i < numSlots; i++) {
+                    if (isSlotUsed(i)) {
+                        tuples[i] = readTuple(i);
+                    }
+                }
+                this.decoded = true;
+            }
+        }
+    }
+
     /**
      * Retrieve the number of tuples on this page.
      *
@@ -91,11 +137,7 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid, oldDataRef);
+            return new HeapPage(pid, getBeforeImageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -104,6 +146,15 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * @return the data of this page before it was modified, for the before images of subclasses
+     */
+    protected byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData;
+        }
+    }
+
     public void setBeforeImage() {
         synchronized (oldDataLock) {
             oldData = getPageData().clone();
@@ -119,36 +170,62 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in the page data of the specified field of the specified slot
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int position(int slotId, int field) {
+        return fieldStart[field] + slotId * fieldStride[field];
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * @return the big-endian int stored at the specified offset of the page data, as written by
+     * {@link IntField#serialize}
+     */
+    private int readInt(int offset) {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * Decodes one field of the tuple stored in the specified slot of the page data.
+     */
+    private Field readField(int slotId, int field) throws NoSuchElementException {
+        int offset = position(slotId, field);
+        Type type = td.getFieldType(field);
+        if (type == Type.INT_TYPE) {
+            return new IntField(readInt(offset));
+        }
         try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return type.parse(new DataInputStream(new ByteArrayInputStream(data, offset, type.getLen())));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
+
+    /**
+     * Decodes the tuple stored in the specified slot of the page data.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, readField(slotId, j));
+        }
+        return t;
+    }
 
+    /**
+     * Decodes some fields of the tuple stored in the specified slot of the page data.
+     *
+     * @param columns the fields to decode
+     * @param ptd     the TupleDesc of the returned tuple
+     */
+    private Tuple readTuple(int slotId, int[] columns, TupleDesc ptd) throws NoSuchElementException {
+        Tuple t = new Tuple(ptd);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j = 0; j < columns.length; j++) {
+            t.setField(j, readField(slotId, columns[j]));
+        }
         return t;
     }
 
@@ -164,64 +241,54 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        if (!this.decoded) {
+            // the page cannot have been modified without decoding it
+            return Arrays.copyOf(this.data, BufferPool.getPageSize());
         }
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, pageData, 0, header.length);
 
-        // create the tuples
+        // write the fields of each tuple in place; empty slots and padding stay zero
+        PositionedOutputStream out = new PositionedOutputStream(pageData);
+        DataOutputStream dos = new DataOutputStream(out);
         for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
             if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
                 continue;
             }
-
-            // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                out.position = position(i, j);
                 try {
-                    f.serialize(dos);
-
+                    tuples[i].getField(j).serialize(dos);
                 } catch (IOException e) {
+                    // this really shouldn't happen
                     e.printStackTrace();
                 }
             }
         }
+        return pageData;
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Writes to a byte array, starting at a position that can be moved.
+     */
+    private static final class PositionedOutputStream extends OutputStream {
+        private final byte[] buf;
+        int position;
+
+        PositionedOutputStream(byte[] buf) {
+            this.buf = buf;
         }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        @Override
+        public void write(int b) {
+            this.buf[this.position++] = (byte) b;
         }
 
-        return baos.toByteArray();
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, this.buf, this.position, len);
+            this.position += len;
+        }
     }
 
     /**
@@ -248,6 +315,7 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        decode();
         RecordId rid = t.getRecordId();
         if (!rid.getPageId().equals(this.pid)) {
             throw new DbException(String.format(
@@ -277,6 +345,7 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        decode();
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
                 t.setRecordId(new RecordId(this.pid, i));
@@ -316,10 +385,10 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int cnt = 0;
+        // the bits past the last slot of the header are always clear, and are not slots
+        int cnt = this.numSlots;
         for (byte b : this.header) {
-            // Do not write `b ^ 0xFF` -- `b` is converted to signed integer first.
-            cnt += 8 - Integer.bitCount(b & 0xFF);
+            cnt -= Integer.bitCount(b & 0xFF);
         }
         return cnt;
     }
@@ -349,12 +418,49 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * @param slot the slot of a tuple on this page
+     * @return the tuple in the slot, or null if the slot is empty
+     */
+    public Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= getNumTuples() || !isSlotUsed(slot)) {
+            return null;
+        }
+        decode();
+        return this.tuples[slot];
+    }
+
+    /**
+     * Computes the smallest and the largest values of an INT_TYPE field over
+     * the tuples on this page. If the page has not been decoded yet, the
+     * values are read from the bytes of the slots, without decoding the
+     * tuples.
+     *
+     * @param field the index of an INT_TYPE field
+     * @return the smallest and the largest value, or {Integer.MAX_VALUE, Integer.MIN_VALUE} if the page is empty
+     */
+    public int[] getIntRange(int field) {
+        boolean lazy = !this.decoded;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            int v = lazy ? readInt(position(i, field)) : ((IntField) tuples[i].getField(field)).getValue();
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        return new int[]{min, max};
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an
      * UnsupportedOperationException) (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
+        decode();
         return Stream.iterate(0, n -> n + 1)
                 .limit(getNumTuples())
                 .filter(this::isSlotUsed)
@@ -362,5 +468,130 @@ public class HeapPage implements Page {
                 .iterator();
     }
 
+    /**
+     * Returns an iterator over the tuples on this page that satisfy every
+     * one of the specified predicates. If the page has not been decoded yet,
+     * predicates over INT_TYPE fields are evaluated on the bytes of each slot,
+     * and only the tuples that pass them are decoded (without being kept in
+     * the page). Other predicates are evaluated on the decoded tuples.
+     *
+     * @param predicates the predicates the returned tuples satisfy
+     * @return an iterator over the matching tuples (calling remove on this iterator throws an
+     * UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates) {
+        return iterator(predicates, null);
+    }
+
+    /**
+     * Returns an iterator over some of the fields of the tuples on this page
+     * that satisfy every one of the specified predicates, see
+     * {@link #iterator(Predicate[])}. If the page has not been decoded yet,
+     * only the specified fields, and the fields compared by predicates that
+     * cannot be evaluated on the bytes, are decoded.
+     *
+     * @param predicates the predicates the returned tuples satisfy, over the fields of the page
+     * @param columns    the fields of the returned tuples, in order, or null to return every field
+     * @return an iterator over the matching tuples (calling remove on this iterator throws an
+     * UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator(Predicate[] predicates, int[] columns) {
+        if (predicates.length == 0 && columns == null) {
+            return iterator();
+        }
+        // the predicates are split for the bytes; once the page is decoded, e.g. by an insert into it while the
+        // iterator is open, the bytes are stale and every predicate is evaluated on the tuples
+        ArrayList<Predicate> onBytes = new ArrayList<Predicate>();
+        ArrayList<Predicate> onFields = new ArrayList<Predicate>();
+        for (Predicate p : predicates) {
+            if (p.getOperand().getType() == Type.INT_TYPE
+                    && td.getFieldType(p.getField()) == Type.INT_TYPE) {
+                onBytes.add(p);
+            } else {
+                onFields.add(p);
+            }
+        }
+        int n = onBytes.size();
+        int[] fields = new int[n];
+        Predicate.Op[] ops = new Predicate.Op[n];
+        int[] operands = new int[n];
+        for (int k = 0; k < n; k++) {
+            Predicate p = onBytes.get(k);
+            fields[k] = p.getField();
+            ops[k] = p.getOp();
+            operands[k] = ((IntField) p.getOperand()).getValue();
+        }
+        TupleDesc ptd = columns == null ? td : td.project(columns);
+
+        return new Iterator<Tuple>() {
+            private int nextSlot = 0;
+            private Tuple next;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null && this.nextSlot < numSlots) {
+                    int slot = this.nextSlot++;
+                    if (!isSlotUsed(slot)) {
+                        continue;
+                    }
+                    if (!decoded) {
+                        if (matchesBytes(slot) && matchesFields(slot)) {
+                            this.next = columns == null ? readTuple(slot) : readTuple(slot, columns, ptd);
+                        }
+                    } else if (matchesTuple(tuples[slot])) {
+                        this.next = columns == null ? tuples[slot] : project(tuples[slot]);
+                    }
+                }
+                return this.next != null;
+            }
+
+            private boolean matchesBytes(int slot) {
+                for (int k = 0; k < n; k++) {
+                    if (!Predicate.compareInts(ops[k], readInt(position(slot, fields[k])), operands[k])) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            private boolean matchesFields(int slot) {
+                for (Predicate p : onFields) {
+                    if (!readField(slot, p.getField()).compare(p.getOp(), p.getOperand())) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            private boolean matchesTuple(Tuple t) {
+                for (Predicate p : predicates) {
+                    if (!p.filter(t)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            private Tuple project(Tuple t) {
+                Tuple projected = new Tuple(ptd);
+                projected.setRecordId(t.getRecordId());
+                for (int j = 0; j < columns.length; j++) {
+                    projected.setField(j, t.getField(columns[j]));
+                }
+                return projected;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = this.next;
+                this.next = null;
+                return t;
+            }
+        };
+    }
+
 }
 
@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A HyperLogLog sketch estimates the number of distinct values in a stream
+ * in a fixed amount of memory: 2^precision one-byte registers, each holding
+ * the longest run of leading zeros seen in the hashes of the values that fall
+ * into it. The relative standard error of the estimate is about
+ * 1.04 / sqrt(2^precision), 1.6% with the default precision of 12.
+ * <p>
+ * Values can be added at any time, and two sketches of the same precision
+ * can be merged into the sketch of the union of their values, e.g. to
+ * combine the sketches of the partitions of a table. Values cannot be
+ * removed.
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int DEFAULT_PRECISION = 12;
+    static final int MIN_PRECISION = 4;
+    static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+    // the last estimate, or -1 if a register has changed since
+    private transient long estimate = -1;
+
+    /**
+     * Creates an empty sketch with the default precision.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param precision the base 2 logarithm of the number of registers, between 4 and 16
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("the precision must be between " + MIN_PRECISION + " and "
+                    + MAX_PRECISION + ", not " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * @return the base 2 logarithm of the number of registers
+     */
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Adds a value to the sketch.
+     */
+    public void add(Field f) {
+        addHash(BloomFilter.hash(f));
+    }
+
+    /**
+     * Adds a value to the sketch, given its hash.
+     *
+     * @param h the 64-bit hash of the value, computed by one of the hash methods of {@link BloomFilter}
+     */
+    public void addHash(long h) {
+        int register = (int) (h >>> (64 - this.precision));
+        // the bit set after the remaining bits bounds the rank when they are all 0
+        long rest = (h << this.precision) | (1L << (this.precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > this.registers[register]) {
+            this.registers[register] = rank;
+            this.estimate = -1;
+        }
+    }
+
+    /**
+     * Adds the values of another sketch to this one.
+     *
+     * @param other a sketch of the same precision
+     * @throws IllegalArgumentException if the precisions differ
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("cannot merge sketches of precisions " + this.precision + " and "
+                    + other.precision);
+        }
+        for (int i = 0; i < this.registers.length; i++) {
+            if (other.registers[i] > this.registers[i]) {
+                this.registers[i] = other.registers[i];
+                this.estimate = -1;
+            }
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added to the sketch
+     */
+    public long estimate() {
+        if (this.estimate < 0) {
+            this.estimate = computeEstimate();
+        }
+        return this.estimate;
+    }
+
+    private long computeEstimate() {
+        int m = this.registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : this.registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double alpha;
+        switch (m) {
+            case 16:
+                alpha = 0.673;
+                break;
+            case 32:
+                alpha = 0.697;
+                break;
+            case 64:
+                alpha = 0.709;
+                break;
+            default:
+                alpha = 0.7213 / (1 + 1.079 / m);
+        }
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate while many registers are empty
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Writes the sketch, so that {@link #read} can restore it.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeByte(this.precision);
+        out.write(this.registers);
+    }
+
+    /**
+     * Reads a sketch written by {@link #write}.
+     *
+     * @throws IOException if the precision is out of range
+     */
+    static HyperLogLog read(DataInputStream in) throws IOException {
+        HyperLogLog sketch;
+        try {
+            sketch = new HyperLogLog(in.readByte());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        in.readFully(sketch.registers);
+        return sketch;
+    }
+
+    /**
+     * @return a copy of this sketch
+     */
+    public HyperLogLog copy() {
+        HyperLogLog copy = new HyperLogLog(this.precision);
+        System.arraycopy(this.registers, 0, copy.registers, 0, this.registers.length);
+        return copy;
+    }
+}
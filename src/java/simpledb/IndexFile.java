@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The interface for the secondary indexes of tables. An IndexFile maps the
+ * values of one field of a table, its key, to the RecordIds of the tuples of
+ * the table that have them. The tuples of an IndexFile are its entries, with
+ * three fields: the key, and the page number and the slot of the record in
+ * the table.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex}, and the BufferPool
+ * keeps them up to date as tuples are inserted into and deleted from their
+ * table. They are read through {@link IndexScan}. An index records the
+ * version of the file of its table it was last written along with, so that
+ * {@link Catalog#loadSchema} can rebuild an index that is out of date.
+ */
+public interface IndexFile extends DbFile {
+
+    /**
+     * @return the id of the table this index refers to
+     */
+    public int getTableId();
+
+    /**
+     * @return the index of the field of the table this index is keyed on
+     */
+    public int getKeyField();
+
+    /**
+     * @param op a comparison operator
+     * @return true if {@link #entries} can find the keys that satisfy the comparison
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the entries whose key satisfies
+     * <code>key op operand</code>.
+     *
+     * @param tid     the transaction the lookup runs as a part of
+     * @param op      the comparison, which must be supported by this index
+     * @param operand the value keys are compared with
+     * @throws UnsupportedOperationException if op is not supported
+     */
+    public DbFileIterator entries(TransactionId tid, Predicate.Op op, Field operand);
+
+    /**
+     * Adds an entry to this index.
+     *
+     * @param tid the transaction performing the update
+     * @param key the key of the entry
+     * @param rid the record the entry points to
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Removes an entry from this index.
+     *
+     * @param tid the transaction performing the update
+     * @param key the key of the entry
+     * @param rid the record the entry points to
+     * @return the pages that were modified
+     * @throws DbException if there is no such entry
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * @return true if this index was last written along with the current version of the file of its table
+     */
+    public boolean isUpToDate() throws IOException;
+
+    /**
+     * Records the current version of the file of the table in this index. The
+     * BufferPool calls this once the pages of both have been written.
+     */
+    public void markUpToDate() throws IOException;
+}
@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopsJoin joins its child, the outer relation, with a table that
+ * has an {@link IndexFile} on its join field, the inner relation. For each
+ * outer tuple the index is probed for the inner tuples that satisfy the join
+ * predicate, instead of rescanning the whole inner relation as {@link Join}
+ * does, so a selective join against a large table only reads the pages of the
+ * matching tuples. The inner table must be stored in a {@link HeapFile}.
+ * <p>
+ * The returned tuples are the concatenation of the outer tuple and all the
+ * fields of the inner one, like those of a Join of the outer relation with a
+ * {@link SeqScan} of the inner table, and are returned in the order of the
+ * outer relation.
+ */
+public class IndexNestedLoopsJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final JoinPredicate predicate;
+    private final IndexFile index;
+    private final String innerAlias;
+    // the comparison of the probes, keyed on the inner field
+    private final Predicate.Op probeOp;
+    private DbIterator child;
+    private TupleDesc innerTupleDesc;
+    private TupleDesc tupleDesc;
+    private Predicate[] innerPredicates = new Predicate[0];
+
+    private transient Tuple outerTuple;
+    // the page numbers and slots of the inner tuples matching outerTuple, in index order
+    private transient int[] records = new int[16];
+    private transient int numRecords;
+    private transient int position;
+
+    /**
+     * Constructor.
+     *
+     * @param tid        the transaction the index lookups run as a part of
+     * @param p          the predicate to join on; its second field must be the key field of index
+     * @param child      the outer relation
+     * @param index      the index on the inner table, which must support the operator of p
+     * @param innerAlias the alias of the inner table; the inner fields are named innerAlias.fieldName, like those of
+     *                   a {@link SeqScan}
+     */
+    public IndexNestedLoopsJoin(TransactionId tid, JoinPredicate p, DbIterator child, IndexFile index,
+                                String innerAlias) {
+        this.probeOp = mirror(p.getOperator());
+        if (!index.supports(this.probeOp)) {
+            throw new IllegalArgumentException("index does not support " + this.probeOp);
+        }
+        if (p.getField2() != index.getKeyField()) {
+            throw new IllegalArgumentException("index is not on field " + p.getField2() + " of the inner table");
+        }
+        this.tid = tid;
+        this.predicate = p;
+        this.index = index;
+        this.innerAlias = innerAlias;
+        this.child = child;
+
+        TupleDesc origTd = Database.getCatalog().getTupleDesc(index.getTableId());
+        ArrayList<TupleDesc.TDItem> tdList = new ArrayList<>(origTd.numFields());
+        origTd.iterator().forEachRemaining(tdItem -> {
+            tdList.add(new TupleDesc.TDItem(tdItem.fieldType, innerAlias + "." + tdItem.fieldName));
+        });
+        this.innerTupleDesc = new TupleDesc(tdList.toArray(new TupleDesc.TDItem[]{}));
+        setTupleDesc();
+    }
+
+    /**
+     * Returns the operator op' such that <code>a op b</code> is equivalent to
+     * <code>b op' a</code>.
+     */
+    static Predicate.Op mirror(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * @return the index probed for the inner tuples
+     */
+    public IndexFile getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return the alias of the inner table
+     */
+    public String getInnerAlias() {
+        return this.innerAlias;
+    }
+
+    /**
+     * Sets predicates the inner tuples must also satisfy, such as the filters
+     * of the query on the inner table. They are evaluated on each inner tuple
+     * found in the index, before it is joined with the outer tuple.
+     *
+     * @param predicates the predicates over the fields of the inner table
+     */
+    public void setInnerPredicates(Predicate[] predicates) {
+        this.innerPredicates = predicates.clone();
+    }
+
+    /**
+     * @return the predicates evaluated on the inner tuples
+     */
+    public Predicate[] getInnerPredicates() {
+        return this.innerPredicates.clone();
+    }
+
+    private void setTupleDesc() {
+        this.tupleDesc = TupleDesc.merge(this.child.getTupleDesc(), this.innerTupleDesc);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        super.open();
+        this.child.open();
+        this.outerTuple = null;
+    }
+
+    public void close() {
+        this.child.close();
+        this.outerTuple = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.outerTuple = null;
+    }
+
+    /**
+     * Looks up the inner tuples matching the current outer tuple in the
+     * index. The entries are all read before the tuples are fetched, so that
+     * the pages of the index are not held while the pages of the table are
+     * read.
+     */
+    private void probe() throws DbException, TransactionAbortedException {
+        Field key = this.outerTuple.getField(this.predicate.getField1());
+        DbFileIterator entries = this.index.entries(this.tid, this.probeOp, key);
+        this.numRecords = 0;
+        entries.open();
+        while (entries.hasNext()) {
+            Tuple entry = entries.next();
+            if (2 * this.numRecords + 2 > this.records.length) {
+                this.records = Arrays.copyOf(this.records, 2 * this.records.length);
+            }
+            this.records[2 * this.numRecords] = ((IntField) entry.getField(1)).getValue();
+            this.records[2 * this.numRecords + 1] = ((IntField) entry.getField(2)).getValue();
+            this.numRecords++;
+        }
+        entries.close();
+        this.position = 0;
+    }
+
+    /**
+     * Returns the next outer tuple joined with a matching inner tuple, or null
+     * if there are no more.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.outerTuple == null) {
+                if (!this.child.hasNext()) {
+                    return null;
+                }
+                this.outerTuple = this.child.next();
+                probe();
+            }
+            while (this.position < this.numRecords) {
+                int i = this.position++;
+                PageId pid = new HeapPageId(this.index.getTableId(), this.records[2 * i]);
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.tid, pid, Permissions.READ_ONLY);
+                Tuple inner = page.getTuple(this.records[2 * i + 1]);
+                if (inner != null && matches(inner)) {
+                    return merge(this.outerTuple, inner);
+                }
+            }
+            this.outerTuple = null;
+        }
+    }
+
+    private boolean matches(Tuple inner) {
+        for (Predicate p : this.innerPredicates) {
+            if (!p.filter(inner)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Tuple merge(Tuple outer, Tuple inner) {
+        Tuple res = new Tuple(this.tupleDesc);
+        int nFields1 = this.child.getTupleDesc().numFields();
+        int nFields2 = this.innerTupleDesc.numFields();
+        for (int i = 0; i < nFields1; i++) {
+            res.setField(i, outer.getField(i));
+        }
+        for (int i = 0; i < nFields2; i++) {
+            res.setField(nFields1 + i, inner.getField(i));
+        }
+        return res;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+        setTupleDesc();
+    }
+}
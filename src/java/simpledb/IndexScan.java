@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose value
+ * of a field satisfies a comparison, by looking them up in an
+ * {@link IndexFile} on the field, instead of reading the whole table. The
+ * tuples are returned in the order of the index, and must be stored in a
+ * {@link HeapFile}.
+ * <p>
+ * The matching entries of the index are all read when the scan is opened, so
+ * that the scan does not see the updates the plan it is a part of makes to
+ * the table and its indexes, such as those of a Delete over the scan.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final String tableAlias;
+    private final Predicate.Op op;
+    private final Field operand;
+    private final TupleDesc tupleDesc;
+    // the page numbers and slots of the matching records, in index order
+    private transient int[] records;
+    private transient int numRecords;
+    private transient int position;
+    private transient Tuple next;
+
+    /**
+     * Creates a scan of the tuples whose key satisfies
+     * <code>key op operand</code>.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the index to look the tuples up in
+     * @param tableAlias the alias of the table of the index; the returned tupleDesc has fields with name
+     *                   tableAlias.fieldName, like the one of {@link SeqScan}
+     * @param op         the comparison, which must be supported by the index
+     * @param operand    the value keys are compared with
+     */
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias, Predicate.Op op, Field operand) {
+        if (!index.supports(op)) {
+            throw new IllegalArgumentException("index does not support " + op);
+        }
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.op = op;
+        this.operand = operand;
+
+        TupleDesc origTd = Database.getCatalog().getTupleDesc(index.getTableId());
+        ArrayList<TupleDesc.TDItem> tdList = new ArrayList<>(origTd.numFields());
+        origTd.iterator().forEachRemaining(tdItem -> {
+            tdList.add(new TupleDesc.TDItem(tdItem.fieldType, tableAlias + "." + tdItem.fieldName));
+        });
+        this.tupleDesc = new TupleDesc(tdList.toArray(new TupleDesc.TDItem[]{}));
+    }
+
+    /**
+     * @return the index this operator reads
+     */
+    public IndexFile getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.index.getTableId();
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /**
+     * @return the comparison the keys of the returned tuples satisfy
+     */
+    public Predicate.Op getOp() {
+        return this.op;
+    }
+
+    /**
+     * @return the value the keys are compared with
+     */
+    public Field getOperand() {
+        return this.operand;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFileIterator entries = this.index.entries(this.tid, this.op, this.operand);
+        this.records = new int[16];
+        this.numRecords = 0;
+        entries.open();
+        while (entries.hasNext()) {
+            Tuple entry = entries.next();
+            if (2 * this.numRecords + 2 > this.records.length) {
+                this.records = Arrays.copyOf(this.records, 2 * this.records.length);
+            }
+            this.records[2 * this.numRecords] = ((IntField) entry.getField(1)).getValue();
+            this.records[2 * this.numRecords + 1] = ((IntField) entry.getField(2)).getValue();
+            this.numRecords++;
+        }
+        entries.close();
+        this.position = 0;
+        this.next = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (this.records == null) {
+            return false;
+        }
+        while (this.next == null && this.position < this.numRecords) {
+            int i = this.position++;
+            PageId pid = new HeapPageId(this.index.getTableId(), this.records[2 * i]);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.tid, pid, Permissions.READ_ONLY);
+            // the tuple may have been deleted since the scan was opened
+            this.next = page.getTuple(this.records[2 * i + 1]);
+        }
+        return this.next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = this.next;
+        this.next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.position = 0;
+        this.next = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.tupleDesc;
+    }
+
+    public void close() {
+        this.records = null;
+        this.next = null;
+    }
+}
@@ -0,0 +1,332 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A class to represent a fixed-width histogram over a single integer-based
+ * field.
+ * <p>
+ * The buckets all have the same width, and cover a range that starts at the
+ * first value added and grows, by doubling the width of the buckets, each
+ * time a value falls outside of it. The statistics of a column can therefore
+ * be collected in a single pass over the table, without knowing the minimum
+ * and maximum values in advance. Within a bucket, the values are assumed to be
+ * uniformly distributed between the smallest and the largest value added to
+ * it.
+ */
+public class IntHistogram {
+
+    private final int[] counts;
+    // the smallest and largest values added to each bucket
+    private final int[] bucketMins;
+    private final int[] bucketMaxs;
+    // bucket i covers [origin + i * width, origin + (i + 1) * width)
+    private long origin;
+    private long width;
+    // the smallest and largest values added
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private int ntups;
+
+    /**
+     * Create a new IntHistogram whose range grows as values are added.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     */
+    public IntHistogram(int buckets) {
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("a histogram needs at least one bucket");
+        }
+        this.counts = new int[buckets];
+        this.bucketMins = new int[buckets];
+        this.bucketMaxs = new int[buckets];
+        this.width = 0;
+    }
+
+    /**
+     * Create a new IntHistogram.
+     * <p>
+     * This IntHistogram should maintain a histogram of integer values that it receives.
+     * It should split the histogram into "buckets" buckets.
+     * <p>
+     * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
+     * <p>
+     * Values outside of [min, max] are still accepted, and widen the buckets.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min     The minimum integer value that will ever be passed to this class for histogramming
+     * @param max     The maximum integer value that will ever be passed to this class for histogramming
+     */
+    public IntHistogram(int buckets, int min, int max) {
+        this(buckets);
+        if (max < min) {
+            throw new IllegalArgumentException("empty range [" + min + ", " + max + "]");
+        }
+        this.origin = min;
+        this.width = Math.max(1, ((long) max - min + buckets) / buckets);
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     *
+     * @param v Value to add to the histogram
+     */
+    public void addValue(int v) {
+        if (this.width == 0) {
+            this.origin = v;
+            this.width = 1;
+        } else if (v < this.origin || v >= this.origin + this.width * this.counts.length) {
+            grow(v);
+        }
+        int b = (int) ((v - this.origin) / this.width);
+        if (this.counts[b] == 0) {
+            this.bucketMins[b] = v;
+            this.bucketMaxs[b] = v;
+        } else {
+            this.bucketMins[b] = Math.min(this.bucketMins[b], v);
+            this.bucketMaxs[b] = Math.max(this.bucketMaxs[b], v);
+        }
+        this.counts[b]++;
+        this.min = Math.min(this.min, v);
+        this.max = Math.max(this.max, v);
+        this.ntups++;
+    }
+
+    /**
+     * Remove a value from the histogram. The smallest and largest values, of
+     * the histogram and of the bucket of v, are not narrowed. Values that
+     * cannot have been added are ignored.
+     *
+     * @param v Value to remove from the histogram
+     */
+    public void removeValue(int v) {
+        if (v < this.min || v > this.max) {
+            return;
+        }
+        int b = (int) ((v - this.origin) / this.width);
+        if (this.counts[b] == 0) {
+            return;
+        }
+        this.counts[b]--;
+        this.ntups--;
+    }
+
+    /**
+     * Widens the buckets until their range includes v. Each new bucket is
+     * the union of old buckets, so the counts stay exact.
+     */
+    private void grow(int v) {
+        int n = this.counts.length;
+        long newOrigin = this.origin;
+        if (v < this.origin) {
+            // keep the old bucket boundaries, so that old buckets are not split
+            newOrigin -= (this.origin - v + this.width - 1) / this.width * this.width;
+        }
+        long end = Math.max((long) v + 1, this.origin + this.width * n);
+        long newWidth = this.width;
+        while (newOrigin + newWidth * n < end) {
+            newWidth *= 2;
+        }
+        int[] old = this.counts.clone();
+        int[] oldMins = this.bucketMins.clone();
+        int[] oldMaxs = this.bucketMaxs.clone();
+        Arrays.fill(this.counts, 0);
+        for (int i = 0; i < n; i++) {
+            if (old[i] == 0) {
+                continue;
+            }
+            int b = (int) ((this.origin + i * this.width - newOrigin) / newWidth);
+            if (this.counts[b] == 0) {
+                this.bucketMins[b] = oldMins[i];
+                this.bucketMaxs[b] = oldMaxs[i];
+            } else {
+                this.bucketMins[b] = Math.min(this.bucketMins[b], oldMins[i]);
+                this.bucketMaxs[b] = Math.max(this.bucketMaxs[b], oldMaxs[i]);
+            }
+            this.counts[b] += old[i];
+        }
+        this.origin = newOrigin;
+        this.width = newWidth;
+    }
+
+    /**
+     * @return the fraction of the values of bucket b that are at most v, assuming they are uniformly distributed
+     * between the smallest and largest values of the bucket
+     */
+    private double fractionAtMost(int b, int v) {
+        long left = this.bucketMins[b];
+        long right = this.bucketMaxs[b];
+        if (this.counts[b] == 0 || v < left) {
+            return 0;
+        }
+        if (v >= right) {
+            return 1;
+        }
+        return (v - left + 1) / (double) (right - left + 1);
+    }
+
+    /**
+     * @return the fraction of the values of the histogram that are at most v
+     */
+    private double selectivityAtMost(int v) {
+        if (v < this.min) {
+            return 0;
+        }
+        if (v >= this.max) {
+            return 1;
+        }
+        int b = (int) ((v - this.origin) / this.width);
+        double count = 0;
+        for (int i = 0; i < b; i++) {
+            count += this.counts[i];
+        }
+        count += this.counts[b] * fractionAtMost(b, v);
+        return count / this.ntups;
+    }
+
+    /**
+     * @return the fraction of the values of the histogram that are equal to v
+     */
+    private double selectivityEquals(int v) {
+        if (v < this.min || v > this.max) {
+            return 0;
+        }
+        int b = (int) ((v - this.origin) / this.width);
+        if (this.counts[b] == 0 || v < this.bucketMins[b] || v > this.bucketMaxs[b]) {
+            return 0;
+        }
+        long values = (long) this.bucketMaxs[b] - this.bucketMins[b] + 1;
+        return this.counts[b] / (double) Math.min(values, this.counts[b]) / this.ntups;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     * <p>
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
+     * return your estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op Operator
+     * @param v  Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (this.ntups == 0) {
+            return 0;
+        }
+        double sel;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                sel = selectivityEquals(v);
+                break;
+            case NOT_EQUALS:
+                sel = 1 - selectivityEquals(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = selectivityAtMost(v);
+                break;
+            case LESS_THAN:
+                sel = selectivityAtMost(v) - selectivityEquals(v);
+                break;
+            case GREATER_THAN:
+                sel = 1 - selectivityAtMost(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1 - selectivityAtMost(v) + selectivityEquals(v);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.min(1, Math.max(0, sel));
+    }
+
+    /**
+     * @return the average selectivity of an equality with a value of the column, i.e. the probability that two
+     * tuples drawn at random have the same value, assuming the values of a bucket are uniformly distributed
+     */
+    public double avgSelectivity() {
+        if (this.ntups == 0) {
+            return 0;
+        }
+        double sel = 0;
+        for (int b = 0; b < this.counts.length; b++) {
+            if (this.counts[b] > 0) {
+                long values = (long) this.bucketMaxs[b] - this.bucketMins[b] + 1;
+                double fraction = this.counts[b] / (double) this.ntups;
+                sel += fraction * fraction / Math.min(values, this.counts[b]);
+            }
+        }
+        return sel;
+    }
+
+    /**
+     * @return the smallest value added, or Integer.MAX_VALUE if there are none
+     */
+    public int getMin() {
+        return this.min;
+    }
+
+    /**
+     * @return the largest value added, or Integer.MIN_VALUE if there are none
+     */
+    public int getMax() {
+        return this.max;
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public int numValues() {
+        return this.ntups;
+    }
+
+    /**
+     * Writes the histogram, so that {@link #read} can restore it.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(this.counts.length);
+        out.writeLong(this.origin);
+        out.writeLong(this.width);
+        out.writeInt(this.min);
+        out.writeInt(this.max);
+        out.writeInt(this.ntups);
+        for (int b = 0; b < this.counts.length; b++) {
+            out.writeInt(this.counts[b]);
+            out.writeInt(this.bucketMins[b]);
+            out.writeInt(this.bucketMaxs[b]);
+        }
+    }
+
+    /**
+     * Reads a histogram written by {@link #write}.
+     */
+    static IntHistogram read(DataInputStream in) throws IOException {
+        IntHistogram hist = new IntHistogram(in.readInt());
+        hist.origin = in.readLong();
+        hist.width = in.readLong();
+        hist.min = in.readInt();
+        hist.max = in.readInt();
+        hist.ntups = in.readInt();
+        for (int b = 0; b < hist.counts.length; b++) {
+            hist.counts[b] = in.readInt();
+            hist.bucketMins[b] = in.readInt();
+            hist.bucketMaxs[b] = in.readInt();
+        }
+        return hist;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("IntHistogram(" + this.ntups + " values in [" + this.min + ", "
+                + this.max + "], width " + this.width + "):");
+        for (int b = 0; b < this.counts.length; b++) {
+            sb.append(' ').append(this.counts[b]);
+        }
+        return sb.toString();
+    }
+}
@@ -4,31 +4,27 @@ import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are kept in a {@link GroupTable}; the running state of each group
+ * lives in primitive arrays indexed by the group number, with sums and counts
+ * accumulated as longs so that they do not overflow on large inputs.
  */
 public class IntegerAggregator implements Aggregator {
 
-    public class AggregateState {
-        public int min;
-        public int max;
-        public int sum;
-        public int count;
-
-        public AggregateState() {
-            this.min = Integer.MAX_VALUE;
-            this.max = Integer.MIN_VALUE;
-            this.sum = 0;
-            this.count = 0;
-        }
-    }
-
     private static final long serialVersionUID = 1L;
 
+    private static final int INITIAL_GROUPS = 16;
+
     private final int gbfield;
     private final Type gbfieldtype;
     private final int afield;
     private final Op what;
 
-    private TreeMap<Field, AggregateState> stateMap;
+    private final GroupTable groups;
+    private int[] mins;
+    private int[] maxs;
+    private long[] sums;
+    private long[] counts;
 
     /**
      * Aggregate constructor
@@ -45,13 +41,29 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.stateMap = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        this.groups = new GroupTable(hasGrouping() ? gbfieldtype : null);
+        allocateStates(INITIAL_GROUPS);
     }
 
     public boolean hasGrouping() {
         return this.gbfield != Aggregator.NO_GROUPING;
     }
 
+    private void allocateStates(int n) {
+        this.mins = new int[n];
+        this.maxs = new int[n];
+        this.sums = new long[n];
+        this.counts = new long[n];
+    }
+
+    private void growStates() {
+        int n = this.counts.length * 2;
+        this.mins = Arrays.copyOf(this.mins, n);
+        this.maxs = Arrays.copyOf(this.maxs, n);
+        this.sums = Arrays.copyOf(this.sums, n);
+        this.counts = Arrays.copyOf(this.counts, n);
+    }
+
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
@@ -60,24 +72,124 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field g;
-        if (hasGrouping()) {
-            g = tup.getField(this.gbfield);
+        int g = this.groups.findOrAdd(hasGrouping() ? tup.getField(this.gbfield) : null);
+        update(g, ((IntField) tup.getField(this.afield)).getValue());
+    }
+
+    /**
+     * Merges every tuple of a batch, reading the group-by and aggregate
+     * values straight from the columns of the batch.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int n = batch.size();
+        int[] values = batch.getIntColumn(this.afield);
+        if (!hasGrouping()) {
+            for (int i = 0; i < n; i++) {
+                update(this.groups.findOrAdd((Field) null), values[i]);
+            }
+        } else if (this.gbfieldtype == Type.INT_TYPE) {
+            int[] keys = batch.getIntColumn(this.gbfield);
+            for (int i = 0; i < n; i++) {
+                update(this.groups.findOrAdd(keys[i]), values[i]);
+            }
         } else {
-            g = null;
+            String[] keys = batch.getStringColumn(this.gbfield);
+            for (int i = 0; i < n; i++) {
+                update(this.groups.findOrAdd(keys[i]), values[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the aggregate value v to the state of group g.
+     */
+    private void update(int g, int v) {
+        if (g == this.counts.length) {
+            growStates();
+        }
+        if (this.counts[g] == 0) {
+            this.mins[g] = v;
+            this.maxs[g] = v;
+        } else {
+            if (v < this.mins[g]) {
+                this.mins[g] = v;
+            }
+            if (v > this.maxs[g]) {
+                this.maxs[g] = v;
+            }
         }
+        this.sums[g] += v;
+        this.counts[g]++;
+    }
 
-        AggregateState s = this.stateMap.getOrDefault(g, new AggregateState());
+    /**
+     * @return the value of the aggregate for the specified group
+     * @throws DbException if the value does not fit in an INT_TYPE field
+     */
+    private int aggregateValue(int g) throws DbException {
+        switch (this.what) {
+            case MIN:
+                return this.mins[g];
+            case MAX:
+                return this.maxs[g];
+            case SUM:
+                return toIntValue(this.sums[g], this.what);
+            case AVG:
+                return toIntValue(this.sums[g] / this.counts[g], this.what);
+            case COUNT:
+                return toIntValue(this.counts[g], this.what);
+            case SUM_COUNT:
+            case SC_AVG:
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
 
-        IntField a = (IntField) tup.getField(this.afield);
-        int v = a.getValue();
+    /**
+     * Converts the value of an aggregate, accumulated as a long, to the value
+     * of its INT_TYPE output field.
+     *
+     * @param value the value of the aggregate
+     * @param what  the aggregation operator, for the error message
+     * @throws DbException if the value does not fit in an int
+     */
+    static int toIntValue(long value, Op what) throws DbException {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new DbException("the " + what + " aggregate " + value + " overflows INT_TYPE");
+        }
+        return (int) value;
+    }
 
-        s.max = Integer.max(s.max, v);
-        s.min = Integer.min(s.min, v);
-        s.sum += v;
-        s.count++;
+    public void merge(Aggregator other) {
+        IntegerAggregator that = (IntegerAggregator) other;
+        for (int og = 0; og < that.groups.size(); og++) {
+            int g = this.groups.findOrAdd(that.groups.getKey(og));
+            if (g == this.counts.length) {
+                growStates();
+            }
+            if (this.counts[g] == 0) {
+                this.mins[g] = that.mins[og];
+                this.maxs[g] = that.maxs[og];
+            } else {
+                this.mins[g] = Math.min(this.mins[g], that.mins[og]);
+                this.maxs[g] = Math.max(this.maxs[g], that.maxs[og]);
+            }
+            this.sums[g] += that.sums[og];
+            this.counts[g] += that.counts[og];
+        }
+    }
 
-        this.stateMap.put(g, s);
+    public int numGroups() {
+        return this.groups.size();
+    }
+
+    public boolean hasGroupOf(Tuple tup) {
+        return this.groups.find(hasGrouping() ? tup.getField(this.gbfield) : null) >= 0;
+    }
+
+    public void clear() {
+        this.groups.clear();
+        allocateStates(INITIAL_GROUPS);
     }
 
     /**
@@ -91,7 +203,7 @@ public class IntegerAggregator implements Aggregator {
         // some code goes here
         return new DbIterator() {
             TupleDesc tupleDesc;
-            Iterator<Map.Entry<Field, AggregateState>> iter;
+            int nextGroup = -1;
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
@@ -102,52 +214,31 @@ public class IntegerAggregator implements Aggregator {
                     this.tupleDesc = new TupleDesc(
                             new Type[]{parent.gbfieldtype, Type.INT_TYPE});
                 }
-
-                this.iter = parent.stateMap.entrySet().iterator();
+                this.nextGroup = 0;
             }
 
             @Override
             public boolean hasNext() throws DbException, TransactionAbortedException {
-                return this.iter.hasNext();
+                if (this.nextGroup < 0) {
+                    throw new IllegalStateException("Iterator not yet open");
+                }
+                return this.nextGroup < IntegerAggregator.this.groups.size();
             }
 
             @Override
             public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-                IntegerAggregator parent = IntegerAggregator.this;
-                Map.Entry<Field, AggregateState> entry = this.iter.next();
-                Field groupVal = entry.getKey();
-                AggregateState aggState = entry.getValue();
-                int aggregateVal;
-                switch (parent.what) {
-                    case MIN:
-                        aggregateVal = aggState.min;
-                        break;
-                    case MAX:
-                        aggregateVal = aggState.max;
-                        break;
-                    case SUM:
-                        aggregateVal = aggState.sum;
-                        break;
-                    case AVG:
-                        aggregateVal = aggState.sum / aggState.count;
-                        break;
-                    case COUNT:
-                        aggregateVal = aggState.count;
-                        break;
-                    case SUM_COUNT:
-                        throw new UnsupportedOperationException();
-                    case SC_AVG:
-                        throw new UnsupportedOperationException();
-                    default:
-                        throw new UnsupportedOperationException();
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                IntegerAggregator parent = IntegerAggregator.this;
+                int g = this.nextGroup++;
 
                 Tuple res = new Tuple(this.tupleDesc);
                 if (parent.hasGrouping()) {
-                    res.setField(0, groupVal);
-                    res.setField(1, new IntField(aggregateVal));
+                    res.setField(0, parent.groups.getKey(g));
+                    res.setField(1, new IntField(parent.aggregateValue(g)));
                 } else {
-                    res.setField(0, new IntField(aggregateVal));
+                    res.setField(0, new IntField(parent.aggregateValue(g)));
                 }
 
                 return res;
@@ -165,6 +256,7 @@ public class IntegerAggregator implements Aggregator {
 
             @Override
             public void close() {
+                this.nextGroup = -1;
             }
         };
     }
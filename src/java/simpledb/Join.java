@@ -4,16 +4,46 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The tuples of the outer relation are read in blocks of a fixed number of
+ * tuples, and the inner relation is read once per block: with the default
+ * block size of 1 this is a nested loops join, and with a larger one a block
+ * nested loops join, which keeps the block in memory. When the join is read
+ * in batches, a block is at least one batch.
+ * <p>
+ * An equi-join collects the values of the join field of its inner relation
+ * during its first pass over it, and then pushes a {@link BloomFilter} of them
+ * into the {@link SeqScan} or {@link Filter} its outer relation is read from,
+ * so that the outer tuples read after that which cannot have a match are
+ * dropped before they reach the join.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
     private final JoinPredicate predicate;
+    private final int blockSize;
     private DbIterator child1;
     private DbIterator child2;
     private TupleDesc tupleDesc;
-    private Tuple currTuple1;
+
+    // state of fetchNext(): the block of outer tuples, the inner tuple they are compared with and the next one to
+    // compare
+    private final ArrayList<Tuple> outerBlock = new ArrayList<Tuple>();
+    private Tuple currTuple2;
+    private int blockRow;
+
+    // state of nextBatch(): the block of outer batches, the inner batch they are compared with and the next pair of
+    // rows to compare
+    private final ArrayList<TupleBatch> outerBatches = new ArrayList<TupleBatch>();
+    private TupleBatch innerBatch;
+    private int outerBatchIndex;
+    private int outerRow;
+    private int innerRow;
+
+    // collects the inner join values during the first pass over the inner
+    // relation, or null if no Bloom filter is being built
+    private transient BloomFilterPushdown bloomFilter;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -25,7 +55,23 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
         // some code goes here
+        this(p, child1, child2, 1);
+    }
+
+    /**
+     * Constructor of a block nested loops join.
+     *
+     * @param p         The predicate to use to join the children
+     * @param child1    Iterator for the left(outer) relation to join
+     * @param child2    Iterator for the right(inner) relation to join
+     * @param blockSize The number of outer tuples the inner relation is compared with in one pass over it
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
         this.predicate = p;
+        this.blockSize = blockSize;
         this.child1 = child1;
         this.child2 = child2;
         setTupleDesc();
@@ -36,6 +82,13 @@ public class Join extends Operator {
         return this.predicate;
     }
 
+    /**
+     * @return the number of outer tuples the inner relation is compared with in one pass over it
+     */
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
     /**
      * @return the field name of join field1. Should be quantified by alias or table name.
      */
@@ -70,8 +123,41 @@ public class Join extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
+        this.bloomFilter = BloomFilterPushdown.start(this.predicate, this.child1);
         this.child1.open();
         this.child2.open();
+        resetBlocks();
+    }
+
+    private void resetBlocks() {
+        this.outerBlock.clear();
+        this.currTuple2 = null;
+        this.outerBatches.clear();
+        this.innerBatch = null;
+    }
+
+    private void collect(Tuple t) {
+        if (this.bloomFilter != null) {
+            this.bloomFilter.collect(t);
+        }
+    }
+
+    private void collect(TupleBatch batch) {
+        if (this.bloomFilter != null) {
+            this.bloomFilter.collect(batch);
+        }
+    }
+
+    /**
+     * Called at the end of a pass over the inner relation: if it was the first
+     * one, pushes the Bloom filter of the values collected during it into the
+     * outer relation.
+     */
+    private void finishBloomFilter() {
+        if (this.bloomFilter != null) {
+            this.bloomFilter.finish();
+            this.bloomFilter = null;
+        }
     }
 
     public void close() {
@@ -85,7 +171,11 @@ public class Join extends Operator {
         // some code goes here
         this.child1.rewind();
         this.child2.rewind();
-        this.currTuple1 = null;
+        // a Bloom filter already pushed holds every inner value; otherwise the first pass starts again
+        if (this.bloomFilter != null) {
+            this.bloomFilter.restart();
+        }
+        resetBlocks();
     }
 
     /**
@@ -108,34 +198,47 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        // Nested loops join
-        // TODO: Optimization.
-
-        Tuple currTuple2;
-        while (true) {
-            // loads tuple1
-            if (this.currTuple1 == null) {
+        // (Block) nested loops join
+        Tuple currTuple1 = null;
+        while (currTuple1 == null) {
+            // loads a block of tuples of child1
+            if (this.outerBlock.isEmpty()) {
                 if (this.child1 == null || this.child2 == null) {
                     throw new DbException("Child DbIterators are null");
                 }
-                if (!this.child1.hasNext()) {
+                while (this.outerBlock.size() < this.blockSize && this.child1.hasNext()) {
+                    this.outerBlock.add(this.child1.next());
+                }
+                if (this.outerBlock.isEmpty()) {
                     return null;
                 }
-                this.currTuple1 = this.child1.next();
             }
 
-            // advances tuple1
-            if (!this.child2.hasNext()) {
-                this.child2.rewind();
-                this.currTuple1 = null;
-                continue;
+            // advances the block at the end of child2
+            if (this.currTuple2 == null) {
+                if (!this.child2.hasNext()) {
+                    this.child2.rewind();
+                    finishBloomFilter();
+                    this.outerBlock.clear();
+                    continue;
+                }
+                this.currTuple2 = this.child2.next();
+                collect(this.currTuple2);
+                this.blockRow = 0;
             }
-            currTuple2 = this.child2.next();
 
-            if (this.predicate.filter(this.currTuple1, currTuple2)) {
-                break;
+            while (this.blockRow < this.outerBlock.size()) {
+                Tuple t = this.outerBlock.get(this.blockRow++);
+                if (this.predicate.filter(t, this.currTuple2)) {
+                    currTuple1 = t;
+                    break;
+                }
+            }
+            if (currTuple1 == null) {
+                this.currTuple2 = null;
             }
         }
+        Tuple currTuple2 = this.currTuple2;
 
         Tuple res = new Tuple(this.tupleDesc);
         int nFields1 = this.child1.getTupleDesc().numFields();
@@ -149,6 +252,117 @@ public class Join extends Operator {
         return res;
     }
 
+    /**
+     * Returns the next batch of joined tuples, computed as a block nested
+     * loops join: each block of batches of the outer relation, of at least
+     * the block size, is compared with every batch of the inner relation, so
+     * the inner relation is rescanned once per outer block rather than once
+     * per outer tuple. The tuples are the same as those returned by next(),
+     * but not in the same order.
+     *
+     * @return the next batch of matching tuples, or null if there are no more
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        BatchIterator outer = BatchAdapter.of(this.child1);
+        BatchIterator inner = BatchAdapter.of(this.child2);
+        TupleBatch out = new TupleBatch(this.tupleDesc);
+        while (true) {
+            if (this.outerBatches.isEmpty()) {
+                int tuples = 0;
+                TupleBatch batch;
+                while (tuples < this.blockSize && (batch = outer.nextBatch()) != null) {
+                    this.outerBatches.add(batch);
+                    tuples += batch.size();
+                }
+                if (this.outerBatches.isEmpty()) {
+                    break;
+                }
+            }
+            if (this.innerBatch == null) {
+                this.innerBatch = inner.nextBatch();
+                this.outerBatchIndex = 0;
+                this.outerRow = 0;
+                this.innerRow = 0;
+                if (this.innerBatch == null) {
+                    // done with this outer block
+                    this.child2.rewind();
+                    finishBloomFilter();
+                    this.outerBatches.clear();
+                    continue;
+                }
+                collect(this.innerBatch);
+            }
+            if (!joinBatches(out)) {
+                return out;
+            }
+            this.innerBatch = null;
+        }
+        return out.isEmpty() ? null : out;
+    }
+
+    /**
+     * Appends the matching pairs of rows of the current outer block and inner
+     * batch to out, starting at outerBatchIndex, outerRow and innerRow.
+     *
+     * @return true if all pairs have been compared, false if out filled up first
+     */
+    private boolean joinBatches(TupleBatch out) {
+        for (; this.outerBatchIndex < this.outerBatches.size(); this.outerBatchIndex++) {
+            if (!joinBatch(this.outerBatches.get(this.outerBatchIndex), out)) {
+                return false;
+            }
+            this.outerRow = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Appends the matching pairs of rows of an outer batch and the current
+     * inner batch to out, starting at outerRow and innerRow.
+     *
+     * @return true if all pairs have been compared, false if out filled up first
+     */
+    private boolean joinBatch(TupleBatch outerBatch, TupleBatch out) {
+        int f1 = this.predicate.getField1();
+        int f2 = this.predicate.getField2();
+        Predicate.Op op = this.predicate.getOperator();
+        int n1 = outerBatch.size();
+        int n2 = this.innerBatch.size();
+        if (this.child1.getTupleDesc().getFieldType(f1) == Type.INT_TYPE) {
+            int[] col1 = outerBatch.getIntColumn(f1);
+            int[] col2 = this.innerBatch.getIntColumn(f2);
+            for (; this.outerRow < n1; this.outerRow++) {
+                int v = col1[this.outerRow];
+                for (; this.innerRow < n2; this.innerRow++) {
+                    if (Predicate.compareInts(op, v, col2[this.innerRow])) {
+                        if (out.isFull()) {
+                            return false;
+                        }
+                        out.addJoinedRow(outerBatch, this.outerRow, this.innerBatch, this.innerRow);
+                    }
+                }
+                this.innerRow = 0;
+            }
+        } else {
+            String[] col1 = outerBatch.getStringColumn(f1);
+            String[] col2 = this.innerBatch.getStringColumn(f2);
+            for (; this.outerRow < n1; this.outerRow++) {
+                String v = col1[this.outerRow];
+                for (; this.innerRow < n2; this.innerRow++) {
+                    if (Predicate.compareStrings(op, v, col2[this.innerRow])) {
+                        if (out.isFull()) {
+                            return false;
+                        }
+                        out.addJoinedRow(outerBatch, this.outerRow, this.innerBatch, this.innerRow);
+                    }
+                }
+                this.innerRow = 0;
+            }
+        }
+        return true;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -11,6 +11,90 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+
+    /**
+     * Fraction of the pairs of tuples that satisfy a join predicate other than
+     * an equality.
+     */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
+    /**
+     * Number of pages an index probe reads before reaching the matching
+     * entries: the path from the root to a leaf of a B+ tree, or the directory
+     * and first bucket of a hash index.
+     */
+    static final int INDEX_PROBE_PAGES = 2;
+
+    /**
+     * CPU cost of adding a tuple to the hash table of a {@link HashJoin}, or
+     * of probing the table with a tuple.
+     */
+    static final double HASH_COST = 2;
+
+    /**
+     * I/O cost of writing a tuple to a spill file and reading it back,
+     * assuming about a hundred tuples per page.
+     */
+    static final double SPILL_COST = 2.0 * TableStats.IOCOSTPERPAGE / 100;
+
+    static final int DEFAULT_JOIN_MEMORY = 1 << 20;
+
+    private static final LogicalJoinNode.Algorithm[] ALGORITHMS = LogicalJoinNode.Algorithm.values();
+
+    private static volatile int joinMemory = DEFAULT_JOIN_MEMORY;
+
+    /**
+     * The largest number of joins {@link #orderJoins} orders by dynamic
+     * programming over every subset of the joins, when they form cycles.
+     */
+    static final int MAX_DP_JOINS = 16;
+
+    static final int DEFAULT_MAX_BUSHY_TABLES = 16;
+
+    private static volatile int maxBushyTables = DEFAULT_MAX_BUSHY_TABLES;
+
+    /**
+     * Sets the largest number of tables whose joins {@link #orderJoins}
+     * orders by enumerating every bushy plan; the joins of more tables are
+     * ordered greedily.
+     *
+     * @param tables the number of tables, at least 2
+     */
+    public static void setMaxBushyTables(int tables) {
+        if (tables < 2) {
+            throw new IllegalArgumentException("the maximum number of tables must be at least 2, not " + tables);
+        }
+        maxBushyTables = tables;
+    }
+
+    /**
+     * @return the largest number of tables whose joins {@link #orderJoins} orders by enumerating every bushy plan
+     */
+    public static int getMaxBushyTables() {
+        return maxBushyTables;
+    }
+
+    /**
+     * Sets the number of tuples each join may keep in memory: the block of a
+     * block nested loops join, the hash table of a hash join before it
+     * spills to disk, or both relations of a sort-merge join.
+     *
+     * @param tuples the number of tuples, at least 1
+     */
+    public static void setJoinMemory(int tuples) {
+        if (tuples < 1) {
+            throw new IllegalArgumentException("the join memory must be at least 1 tuple, not " + tuples);
+        }
+        joinMemory = tuples;
+    }
+
+    /**
+     * @return the number of tuples each join may keep in memory
+     */
+    public static int getJoinMemory() {
+        return joinMemory;
+    }
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -61,14 +145,77 @@ public class JoinOptimizer {
             }
         }
 
+        if (lj.innerIndex != null) {
+            j = indexJoin(lj, t1id, plan1, plan2);
+            if (j != null) {
+                return j;
+            }
+        }
+
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p, plan1, plan2);
+        LogicalJoinNode.Algorithm algorithm = lj.algorithm;
+        if (algorithm == null || lj.p != Predicate.Op.EQUALS) {
+            algorithm = algorithm == LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOPS ? algorithm
+                    : LogicalJoinNode.Algorithm.NESTED_LOOPS;
+        }
+        switch (algorithm) {
+            case BLOCK_NESTED_LOOPS:
+                j = new Join(p, plan1, plan2, joinMemory);
+                break;
+            case HASH:
+                j = new HashJoin(p, plan1, plan2, joinMemory);
+                break;
+            case SORT_MERGE:
+                j = new SortMergeJoin(p, plan1, plan2);
+                break;
+            default:
+                j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * Builds an {@link IndexNestedLoopsJoin} that probes lj.innerIndex instead
+     * of reading plan2, if plan2 is a scan of the inner table, possibly under
+     * Filters. The predicates of the scan and of the filters are evaluated on
+     * the inner tuples found in the index.
+     *
+     * @return the join, or null if plan2 does not have the required form
+     */
+    private static DbIterator indexJoin(LogicalJoinNode lj, int t1id, DbIterator plan1, DbIterator plan2) {
+        ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+        DbIterator source = plan2;
+        while (source instanceof Filter) {
+            Collections.addAll(predicates, ((Filter) source).getPredicates());
+            source = ((Filter) source).getChildren()[0];
+        }
+        if (!(source instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) source;
+        if (scan.getTableId() != lj.innerIndex.getTableId() || !scan.getAlias().equals(lj.t2Alias)) {
+            return null;
+        }
+        Collections.addAll(predicates, scan.getPredicates());
+
+        // the predicates are over the fields the scan returns, the inner tuples have all of them
+        int[] columns = scan.getColumns();
+        Predicate[] inner = new Predicate[predicates.size()];
+        for (int i = 0; i < inner.length; i++) {
+            Predicate pred = predicates.get(i);
+            int field = columns == null ? pred.getField() : columns[pred.getField()];
+            inner[i] = new Predicate(field, pred.getOp(), pred.getOperand());
+        }
+        JoinPredicate p = new JoinPredicate(t1id, lj.p, lj.innerIndex.getKeyField());
+        IndexNestedLoopsJoin j = new IndexNestedLoopsJoin(scan.getTransactionId(), p, plan1, lj.innerIndex,
+                lj.t2Alias);
+        j.setInnerPredicates(inner);
+        return j;
+    }
+
     /**
      * Estimate the cost of a join.
      * <p>
@@ -77,6 +224,11 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
+     * <p>
+     * The right-hand side is assumed to be a base table. The cost is the
+     * lowest of the ones of the algorithms that can execute the join, see
+     * {@link #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double, Map)},
+     * with the statistics of {@link TableStats#getStatsMap()}.
      *
      * @param j     A LogicalJoinNode representing the join operation being performed.
      * @param card1 Estimated cardinality of the left-hand side of the query
@@ -92,12 +244,149 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            double cost = Double.POSITIVE_INFINITY;
+            for (LogicalJoinNode.Algorithm algorithm : ALGORITHMS) {
+                cost = Math.min(cost, estimateJoinCost(j, algorithm, card1, card2, cost1, cost2,
+                        TableStats.getStatsMap()));
+            }
+            return cost;
+        }
+    }
+
+    /**
+     * Estimate the cost of a join executed with the specified algorithm:
+     * <ul>
+     * <li>a nested loops join reads the right-hand side once per tuple of the
+     * left-hand side, and compares every pair of tuples;</li>
+     * <li>a block nested loops join reads it once per block of
+     * {@link #getJoinMemory} tuples of the left-hand side;</li>
+     * <li>an index nested loops join probes an index of the table on the
+     * right-hand side, see {@link #estimateIndexJoinCost};</li>
+     * <li>a hash join reads each side once and hashes each tuple, and writes
+     * the tuples of the values that do not fit in memory to disk and reads
+     * them back;</li>
+     * <li>a sort-merge join reads each side once and sorts both in memory,
+     * and cannot run if they do not fit.</li>
+     * </ul>
+     * Producing the output costs the same with every algorithm, and is not
+     * included.
+     *
+     * @param stats the table stats, referenced by table names, which give the matches of an index probe
+     * @return the estimated cost, or infinity if the algorithm cannot execute j
+     */
+    public double estimateJoinCost(LogicalJoinNode j, LogicalJoinNode.Algorithm algorithm, int card1, int card2,
+                                   double cost1, double cost2, Map<String, TableStats> stats) {
+        if (algorithm == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOPS) {
+            return estimateIndexJoinCost(j, card1, card2, cost1, stats);
+        }
+        if (!supports(algorithm, j)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return joinCost(algorithm, card1, card2, cost1, cost2);
+    }
+
+    /**
+     * @return whether an algorithm that does not probe an index can execute j
+     */
+    private static boolean supports(LogicalJoinNode.Algorithm algorithm, LogicalJoinNode j) {
+        return j.p == Predicate.Op.EQUALS || algorithm == LogicalJoinNode.Algorithm.NESTED_LOOPS
+                || algorithm == LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOPS;
+    }
+
+    /**
+     * Estimate the cost of a join executed with an algorithm that does not
+     * probe an index, and supports its predicate.
+     */
+    private static double joinCost(LogicalJoinNode.Algorithm algorithm, int card1, int card2, double cost1,
+                                   double cost2) {
+        int memory = joinMemory;
+        switch (algorithm) {
+            case NESTED_LOOPS:
+                return cost1 + card1 * cost2 + (double) card1 * card2;
+            case BLOCK_NESTED_LOOPS:
+                return cost1 + Math.ceil((double) card1 / memory) * cost2 + (double) card1 * card2;
+            case HASH:
+                // the fraction of the values of the right-hand side that are not kept in memory
+                double spilled = card2 > memory ? 1 - (double) memory / card2 : 0;
+                return cost1 + cost2 + (HASH_COST + spilled * SPILL_COST) * ((double) card1 + card2);
+            case SORT_MERGE:
+                if ((long) card1 + card2 > memory) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1 + card2;
+            default:
+                throw new IllegalArgumentException("not a join without index: " + algorithm);
+        }
+    }
+
+    /**
+     * @return the estimated cost of sorting card tuples in memory
+     */
+    static double sortCost(int card) {
+        return card < 2 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopsJoin}, which probes the
+     * index of the table on the right-hand side for each tuple of the
+     * left-hand side, and reads one page of the table for each match.
+     *
+     * @param stats the table stats, referenced by table names, which give the number of matches of a probe
+     * @return the estimated cost, or infinity if the table on the right-hand side has no index the join can probe
+     */
+    double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2, double cost1,
+                                 Map<String, TableStats> stats) {
+        if (probeIndex(j) == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return indexJoinCost(j, card1, card2, cost1, stats);
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopsJoin}, given that the
+     * table on the right-hand side has an index the join can probe.
+     */
+    private double indexJoinCost(LogicalJoinNode j, int card1, int card2, double cost1,
+                                 Map<String, TableStats> stats) {
+        if (card1 == 0) {
+            return cost1;
         }
+        double matches = (double) estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias, j.f1PureName,
+                j.f2PureName, card1, card2, false, isPkey(j.t2Alias, j.f2PureName), stats,
+                p.getTableAliasToIdMapping()) / card1;
+        return cost1 + card1 * (INDEX_PROBE_PAGES * TableStats.IOCOSTPERPAGE
+                + matches * (TableStats.IOCOSTPERPAGE + 1));
+    }
+
+    /**
+     * Returns the index a join can probe for the tuples of j.t2 that match a
+     * tuple of j.t1, preferably a hash index.
+     *
+     * @return the index, or null if j.t2 is not a heap file with an index on j.f2 that supports the predicate
+     */
+    IndexFile probeIndex(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode) {
+            return null;
+        }
+        int tableid = p.getTableId(j.t2Alias);
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+            return null;
+        }
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        Predicate.Op op = IndexNestedLoopsJoin.mirror(j.p);
+        IndexFile best = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(tableid)) {
+            if (index.getKeyField() == field && index.supports(op)
+                    && (best == null || index instanceof HashFile)) {
+                best = index;
+            }
+        }
+        return best;
     }
 
     /**
@@ -133,9 +422,54 @@ public class JoinOptimizer {
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        long card;
+        if (joinOp == Predicate.Op.EQUALS) {
+            // each tuple matches at most one tuple of a primary key table
+            if (t1pkey && t2pkey) {
+                card = Math.min(card1, card2);
+            } else if (t1pkey) {
+                card = card2;
+            } else if (t2pkey) {
+                card = card1;
+            } else {
+                // each value of the side with fewer distinct values matches card / distinct tuples of the other
+                int d1 = distinctValues(table1Alias, field1PureName, card1, stats, tableAliasToId);
+                int d2 = distinctValues(table2Alias, field2PureName, card2, stats, tableAliasToId);
+                if (d1 > 0 && d2 > 0) {
+                    card = (long) ((double) card1 * card2 / Math.max(d1, d2));
+                } else {
+                    card = Math.max(card1, card2);
+                }
+            }
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (long) card1 * card2 - Math.max(card1, card2);
+        } else {
+            card = (long) (RANGE_JOIN_SELECTIVITY * card1 * card2);
+        }
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card <= 0 ? 1 : (int) card;
+    }
+
+    /**
+     * @return the number of distinct values of a field among card tuples of a table, or 0 if there are no
+     * statistics for the table
+     */
+    private static int distinctValues(String alias, String fieldPureName, int card, Map<String, TableStats> stats,
+                                      Map<String, Integer> tableAliasToId) {
+        Integer tableid = tableAliasToId.get(alias);
+        if (tableid == null || stats == null) {
+            return 0;
+        }
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableid));
+        if (s == null) {
+            return 0;
+        }
+        try {
+            int field = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(fieldPureName);
+            return Math.min(s.numDistinctValues(field), card);
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
     }
 
     /**
@@ -172,13 +506,36 @@ public class JoinOptimizer {
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * When the joins between tables form a tree, as in chain, star and
+     * snowflake queries, each join combines the plans of two connected sets
+     * of tables, which need not be base tables, so the plan may be bushy.
+     * Up to {@link #getMaxBushyTables} tables, the best plan is found by
+     * dynamic programming over the connected sets of tables, see
+     * {@link #orderBushy}; above, the joins are ordered greedily, see
+     * {@link #orderGreedy}.
+     * <p>
+     * Otherwise the joins are ordered by dynamic programming over the subsets
+     * of the joins, which only considers left-deep plans, see
+     * {@link #orderLeftDeep}, and more than {@link #MAX_DP_JOINS} joins are
+     * kept in the order of the query.
+     * <p>
+     * The sets are represented as bitmasks over the indexes of the tables or
+     * of the joins, and their best plans are stored in a {@link PlanCache}
+     * keyed by the bitmasks.
+     * <p>
+     * The algorithm of each join is chosen along with the order, and set on
+     * the returned nodes, see {@link #estimateJoinCost}. The last join is
+     * credited with the sort the query saves when it returns the result in
+     * the order of its ORDER BY.
      *
      * @param stats               Statistics for each table involved in the join, referenced by base table names, not
      *                            alias
      * @param filterSelectivities Selectivities of the filter predicates on each table in the join, referenced by table
      *                            alias (if no alias, the base table name)
      * @param explain             Indicates whether your code should explain its query plan or simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in which they should be executed; a join of
+     * tables that are both already joined to others joins the two subplans
      * @throws ParsingException when stats or filter selectivities is missing a table in the join, or or when another
      *                          internal error occurs
      */
@@ -186,170 +543,553 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        // not necessary for labs 1--3
+        // joins with subqueries are done last, over the join of the tables
+        Vector<LogicalJoinNode> tableJoins = new Vector<LogicalJoinNode>();
+        Vector<LogicalJoinNode> subplanJoins = new Vector<LogicalJoinNode>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode) {
+                subplanJoins.add(j);
+            } else {
+                tableJoins.add(j);
+            }
+        }
+        Set<LogicalJoinNode> all = new HashSet<LogicalJoinNode>(tableJoins);
+        // joins of the same tables are equal, and cannot be ordered as separate ones; the sets of tables are bitmasks
+        if (tableJoins.isEmpty() || all.size() < tableJoins.size() || tableJoins.size() >= Long.SIZE - 1
+                || !hasStats(tableJoins, stats, filterSelectivities)) {
+            return joins;
+        }
+
+        // the last join can return its result in the order the query asks for, unless the subqueries are joined after it
+        String orderByField = subplanJoins.isEmpty() ? this.p.getJoinOrderByField() : null;
+        JoinGraph g = new JoinGraph(tableJoins, stats, filterSelectivities, orderByField);
+        PlanCache pc = new PlanCache();
+        long full;
+        if (g.tree) {
+            full = (1L << g.numTables) - 1;
+            if (g.numTables <= maxBushyTables) {
+                orderBushy(g, pc, stats);
+            } else {
+                orderGreedy(g, pc, stats);
+            }
+        } else if (tableJoins.size() <= MAX_DP_JOINS) {
+            full = (1L << tableJoins.size()) - 1;
+            orderLeftDeep(g, pc, stats);
+        } else {
+            return joins;
+        }
 
-        // See the Lab 4 writeup for some hints as to how this function
-        // should work.
+        Vector<LogicalJoinNode> order = pc.getOrder(full);
+        if (order == null) {
+            // the tables are not all connected by joins
+            return joins;
+        }
+        if (explain && !java.awt.GraphicsEnvironment.isHeadless()) {
+            printJoins(order, pc, full, stats, filterSelectivities);
+        }
+        order.addAll(subplanJoins);
+        return order;
+    }
 
-        // some code goes here
-        // Replace the following
-        return joins;
+    /**
+     * Finds the best plans of the connected sets of tables of a tree of
+     * joins, bushy ones included, by the DPccp algorithm of Moerkotte and
+     * Neumann: each pair of disjoint connected sets that a join connects is
+     * enumerated once, without considering the pairs that are not, and only
+     * after the pairs that make up each set. The tables must be numbered in
+     * breadth-first order.
+     */
+    private void orderBushy(JoinGraph g, PlanCache pc, Map<String, TableStats> stats) {
+        JoinChoice c = new JoinChoice();
+        for (int i = g.numTables - 1; i >= 0; i--) {
+            long v = 1L << i;
+            emitConnected(g, pc, stats, c, v);
+            // the sets that contain table i and tables after it only
+            enumerateConnected(g, pc, stats, c, v, (v << 1) - 1);
+        }
     }
 
-    // ===================== Private Methods =================================
+    /**
+     * Visits the connected sets that extend s with tables outside x, and the
+     * pairs they are the first set of.
+     */
+    private void enumerateConnected(JoinGraph g, PlanCache pc, Map<String, TableStats> stats, JoinChoice c, long s,
+                                    long x) {
+        long n = g.neighborhood(s, x);
+        // every non-empty subset of n, in increasing order
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n) {
+            emitConnected(g, pc, stats, c, s | sub);
+        }
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n) {
+            enumerateConnected(g, pc, stats, c, s | sub, x | n);
+        }
+    }
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * Joins s1 with each connected set of tables after the first table of s1
+     * that a join connects it to.
+     */
+    private void emitConnected(JoinGraph g, PlanCache pc, Map<String, TableStats> stats, JoinChoice c, long s1) {
+        long x = s1 | (Long.lowestOneBit(s1) * 2 - 1);
+        long n = g.neighborhood(s1, x);
+        for (long bits = n; bits != 0; bits &= ~Long.highestOneBit(bits)) {
+            long v = Long.highestOneBit(bits);
+            considerJoin(g, pc, stats, c, s1, v);
+            enumerateComplements(g, pc, stats, c, s1, v, x | (n & ((v << 1) - 1)));
+        }
+    }
+
+    /**
+     * Joins s1 with each connected set that extends s2 with tables outside
+     * x.
+     */
+    private void enumerateComplements(JoinGraph g, PlanCache pc, Map<String, TableStats> stats, JoinChoice c,
+                                      long s1, long s2, long x) {
+        long n = g.neighborhood(s2, x);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n) {
+            considerJoin(g, pc, stats, c, s1, s2 | sub);
+        }
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n) {
+            enumerateComplements(g, pc, stats, c, s1, s2 | sub, x | n);
+        }
+    }
+
+    /**
+     * Stores the best join of the plans of s1 and s2 as the plan of their
+     * union if it is cheaper than the one in pc.
+     */
+    private void considerJoin(JoinGraph g, PlanCache pc, Map<String, TableStats> stats, JoinChoice c, long s1,
+                              long s2) {
+        if (!bestJoin(g, pc, stats, c, s1, s2)) {
+            return;
+        }
+        long s = s1 | s2;
+        if (c.cost < pc.getCost(s)) {
+            pc.addPlan(s, c.cost, c.card, c.join, c.outer, c.inner);
+        }
+    }
+
+    /**
+     * Orders the joins of a tree of joins by Greedy Operator Ordering: starting
+     * from the base tables, the two plans that a join connects and whose join
+     * has the smallest estimated cardinality are joined, until one plan is
+     * left. The plans may be bushy, and planning takes polynomial time.
+     */
+    private void orderGreedy(JoinGraph g, PlanCache pc, Map<String, TableStats> stats) {
+        // the set of tables of the plan each table is in
+        long[] plans = new long[g.numTables];
+        for (int t = 0; t < g.numTables; t++) {
+            plans[t] = 1L << t;
+        }
+        JoinChoice c = new JoinChoice();
+        JoinChoice best = new JoinChoice();
+        for (int joined = 1; joined < g.numTables; joined++) {
+            best.join = null;
+            for (int i = 0; i < g.t1.length; i++) {
+                long s1 = plans[g.t1[i]];
+                long s2 = plans[g.t2[i]];
+                if (s1 != s2 && bestJoin(g, pc, stats, c, s1, s2)
+                        && (best.join == null || c.card < best.card || c.card == best.card && c.cost < best.cost)) {
+                    best.set(c);
+                }
+            }
+            long s = best.outer | best.inner;
+            pc.addPlan(s, best.cost, best.card, best.join, best.outer, best.inner);
+            for (long bits = s; bits != 0; bits &= bits - 1) {
+                plans[Long.numberOfTrailingZeros(bits)] = s;
+            }
+        }
+    }
+
+    /**
+     * The best way found to join two plans.
+     */
+    private static class JoinChoice {
+        double cost;
+        int card;
+        LogicalJoinNode join;
+        // the sets of tables of the left and right-hand sides of join
+        long outer;
+        long inner;
+
+        void set(JoinChoice other) {
+            this.cost = other.cost;
+            this.card = other.card;
+            this.join = other.join;
+            this.outer = other.outer;
+            this.inner = other.inner;
+        }
+    }
+
+    /**
+     * Sets c to the cheaper join of the plans of two disjoint connected sets
+     * of tables of a tree of joins, with either one as the left-hand side.
+     * Only a base table on the right-hand side can be probed through an index.
      *
-     * @param stats               table stats for all of the tables, referenced by table names rather than alias (see
-     *                            {@link #orderJoins})
-     * @param filterSelectivities the selectivities of the filters over each of the tables (where tables are identified
-     *                            by their alias or name if no alias is given)
-     * @param joinToRemove        the join to remove from joinSet
-     * @param joinSet             the set of joins being considered
-     * @param bestCostSoFar       the best way to join joinSet so far (minimum of previous invocations of
-     *                            computeCostAndCardOfSubplan for this joinSet, from returned CostCard)
-     * @param pc                  the PlanCache for this join; should have subplans for all plans of size
-     *                            joinSet.size()-1
-     * @return A {@link CostCard} objects describing the cost, cardinality, optimal subplan
-     * @throws ParsingException when stats, filterSelectivities, or pc object is missing tables involved in join
+     * @return false if a set of several tables has no plan in pc
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private boolean bestJoin(JoinGraph g, PlanCache pc, Map<String, TableStats> stats, JoinChoice c, long s1,
+                             long s2) {
+        boolean table1 = (s1 & (s1 - 1)) == 0;
+        boolean table2 = (s2 & (s2 - 1)) == 0;
+        if (!table1 && !pc.contains(s1) || !table2 && !pc.contains(s2)) {
+            return false;
+        }
+        int i = g.joinBetween(s1, s2);
+        // join o has its left-hand table in s1
+        int o = (s1 & (1L << g.t1[i])) != 0 ? 2 * i : 2 * i + 1;
+        double cost1 = table1 ? g.tableCosts[Long.numberOfTrailingZeros(s1)] : pc.getCost(s1);
+        int card1 = table1 ? g.tableCards[Long.numberOfTrailingZeros(s1)] : pc.getCard(s1);
+        boolean pkey1 = table1 ? g.leftPkey(o) : g.hasPkeyJoin(s1);
+        double cost2 = table2 ? g.tableCosts[Long.numberOfTrailingZeros(s2)] : pc.getCost(s2);
+        int card2 = table2 ? g.tableCards[Long.numberOfTrailingZeros(s2)] : pc.getCard(s2);
+        boolean pkey2 = table2 ? g.leftPkey(o ^ 1) : g.hasPkeyJoin(s2);
+
+        // the cardinality does not depend on which side is which
+        int card = estimateJoinCardinality(g.nodes[o], card1, card2, pkey1, pkey2, stats);
+        double sortCost = g.orderBy && (s1 | s2) == (1L << g.numTables) - 1 ? sortCost(card) : 0;
+        double cost = g.joinCost(o, table2, card1, card2, cost1, cost2, sortCost, stats);
+        LogicalJoinNode.Algorithm algorithm = g.algorithm;
+        double swappedCost = g.joinCost(o ^ 1, table1, card2, card1, cost2, cost1, sortCost, stats);
+        if (swappedCost < cost) {
+            o ^= 1;
+            cost = swappedCost;
+            algorithm = g.algorithm;
+            long s = s1;
+            s1 = s2;
+            s2 = s;
+        }
+        c.cost = cost;
+        c.card = card;
+        c.join = g.node(o, algorithm);
+        c.outer = s1;
+        c.inner = s2;
+        return true;
+    }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+    /**
+     * Finds the best left-deep plans of the connected subsets of the joins.
+     * The subsets are visited in increasing order of their bitmasks, so the
+     * best plan of every subset without one of its joins is known when the
+     * subset is visited. The best plan of a subset appends one of its joins
+     * to the best plan of the others.
+     */
+    private void orderLeftDeep(JoinGraph g, PlanCache pc, Map<String, TableStats> stats) {
+        long full = (1L << g.t1.length) - 1;
+        for (long s = 1; s <= full; s++) {
+            double bestCost = Double.MAX_VALUE;
+            int bestCard = 0;
+            LogicalJoinNode bestJoin = null;
+            long bestRest = 0;
+            for (long bits = s; bits != 0; bits &= bits - 1) {
+                int i = Long.numberOfTrailingZeros(bits);
+                long rest = s & ~(1L << i);
+                int t1 = g.t1[i];
+                int t2 = g.t2[i];
+                double cost1, cost2;
+                int card1, card2;
+                boolean pkey1, pkey2;
+                // whether each side is a base table rather than the join of rest
+                boolean table1 = true, table2 = true;
+                if (rest == 0) {
+                    cost1 = g.tableCosts[t1];
+                    card1 = g.tableCards[t1];
+                    pkey1 = g.pkeys1[i];
+                    cost2 = g.tableCosts[t2];
+                    card2 = g.tableCards[t2];
+                    pkey2 = g.pkeys2[i];
+                } else {
+                    if (!pc.contains(rest)) {
+                        // rest joins tables that are not connected
+                        continue;
+                    }
+                    // the tables joined by the joins of rest
+                    long restTables = 0;
+                    for (long restBits = rest; restBits != 0; restBits &= restBits - 1) {
+                        restTables |= g.joinTables[Long.numberOfTrailingZeros(restBits)];
+                    }
+                    if ((restTables & (1L << t1)) != 0) {
+                        cost1 = pc.getCost(rest);
+                        card1 = pc.getCard(rest);
+                        pkey1 = (rest & g.pkeyJoins) != 0;
+                        table1 = false;
+                        cost2 = g.tableCosts[t2];
+                        card2 = g.tableCards[t2];
+                        pkey2 = g.pkeys2[i];
+                    } else if ((restTables & (1L << t2)) != 0) {
+                        cost2 = pc.getCost(rest);
+                        card2 = pc.getCard(rest);
+                        pkey2 = (rest & g.pkeyJoins) != 0;
+                        table2 = false;
+                        cost1 = g.tableCosts[t1];
+                        card1 = g.tableCards[t1];
+                        pkey1 = g.pkeys1[i];
+                    } else {
+                        // a cross product
+                        continue;
+                    }
+                }
+
+                int card = estimateJoinCardinality(g.nodes[2 * i], card1, card2, pkey1, pkey2, stats);
+                double sortCost = g.orderBy && s == full ? sortCost(card) : 0;
+                double cost = g.joinCost(2 * i, table2, card1, card2, cost1, cost2, sortCost, stats);
+                LogicalJoinNode.Algorithm algorithm = g.algorithm;
+                double swappedCost = g.joinCost(2 * i + 1, table1, card2, card1, cost2, cost1, sortCost, stats);
+                if (Math.min(cost, swappedCost) >= bestCost) {
+                    continue;
+                }
+                int o = 2 * i;
+                if (swappedCost < cost) {
+                    o++;
+                    cost = swappedCost;
+                    algorithm = g.algorithm;
+                }
+                bestCost = cost;
+                bestCard = card;
+                bestJoin = g.node(o, algorithm);
+                bestRest = rest;
+            }
+            if (bestJoin != null) {
+                pc.addPlan(s, bestCost, bestCard, bestJoin, bestRest, 0);
+            }
+        }
+    }
+
+    /**
+     * The tables and joins of a query, numbered, with what the dynamic
+     * programming of {@link #orderJoins} needs to know about them computed
+     * once.
+     */
+    private class JoinGraph {
+        final int numTables;
+        // the bitmask of the tables each table is joined to
+        final long[] neighbors;
+        // whether the tables are connected by the joins, which form no cycle
+        final boolean tree;
+        // the indexes of the tables of each join, and the bitmask of both
+        final int[] t1;
+        final int[] t2;
+        final long[] joinTables;
+        // the estimated cost of a scan and the estimated cardinality of each table, after its filters
+        final double[] tableCosts;
+        final int[] tableCards;
+        // whether each join is on the primary key of its left and right table, and the bitmask of those that are
+        final boolean[] pkeys1;
+        final boolean[] pkeys2;
+        final long pkeyJoins;
+        // join i as given at 2 * i, swapped at 2 * i + 1, and the same with each algorithm that can execute it, or
+        // null
+        final LogicalJoinNode[] nodes;
+        final LogicalJoinNode[][] algorithmNodes;
+        // whether the query has an ORDER BY over the result of the joins, and whether each join is on its field
+        final boolean orderBy;
+        final boolean[] sortsOrderBy;
+        // the cheapest algorithm found by the last call to joinCost
+        LogicalJoinNode.Algorithm algorithm;
+
+        JoinGraph(Vector<LogicalJoinNode> tableJoins, HashMap<String, TableStats> stats,
+                  HashMap<String, Double> filterSelectivities, String orderByField) {
+            int n = tableJoins.size();
+            HashMap<String, ArrayList<String>> adjacent = new LinkedHashMap<String, ArrayList<String>>();
+            for (LogicalJoinNode j : tableJoins) {
+                for (String[] pair : new String[][]{{j.t1Alias, j.t2Alias}, {j.t2Alias, j.t1Alias}}) {
+                    ArrayList<String> list = adjacent.get(pair[0]);
+                    if (list == null) {
+                        list = new ArrayList<String>();
+                        adjacent.put(pair[0], list);
+                    }
+                    list.add(pair[1]);
+                }
+            }
+            // the tables are numbered in breadth-first order, as orderBushy requires
+            HashMap<String, Integer> tableIndexes = new HashMap<String, Integer>();
+            ArrayList<String> aliases = new ArrayList<String>();
+            // the number of tables connected to the first one
+            int connected = 0;
+            for (String first : adjacent.keySet()) {
+                if (tableIndexes.containsKey(first)) {
+                    continue;
+                }
+                tableIndexes.put(first, aliases.size());
+                aliases.add(first);
+                for (int next = aliases.size() - 1; next < aliases.size(); next++) {
+                    for (String alias : adjacent.get(aliases.get(next))) {
+                        if (!tableIndexes.containsKey(alias)) {
+                            tableIndexes.put(alias, aliases.size());
+                            aliases.add(alias);
+                        }
+                    }
+                }
+                if (connected == 0) {
+                    connected = aliases.size();
+                }
+            }
+            this.numTables = aliases.size();
+            this.tree = connected == this.numTables && n == this.numTables - 1;
+            this.neighbors = new long[this.numTables];
+            this.t1 = new int[n];
+            this.t2 = new int[n];
+            this.joinTables = new long[n];
+            this.pkeys1 = new boolean[n];
+            this.pkeys2 = new boolean[n];
+            this.nodes = new LogicalJoinNode[2 * n];
+            this.algorithmNodes = new LogicalJoinNode[2 * n][ALGORITHMS.length];
+            this.orderBy = orderByField != null;
+            this.sortsOrderBy = new boolean[2 * n];
+            long pkeyJoins = 0;
+            for (int i = 0; i < n; i++) {
+                LogicalJoinNode j = tableJoins.get(i);
+                this.t1[i] = tableIndexes.get(j.t1Alias);
+                this.t2[i] = tableIndexes.get(j.t2Alias);
+                this.joinTables[i] = (1L << this.t1[i]) | (1L << this.t2[i]);
+                this.neighbors[this.t1[i]] |= 1L << this.t2[i];
+                this.neighbors[this.t2[i]] |= 1L << this.t1[i];
+                this.pkeys1[i] = isPkey(j.t1Alias, j.f1PureName);
+                this.pkeys2[i] = isPkey(j.t2Alias, j.f2PureName);
+                if (this.pkeys1[i] || this.pkeys2[i]) {
+                    pkeyJoins |= 1L << i;
+                }
+                this.nodes[2 * i] = j;
+                this.nodes[2 * i + 1] = j.swapInnerOuter();
+                for (int o = 2 * i; o <= 2 * i + 1; o++) {
+                    LogicalJoinNode lj = this.nodes[o];
+                    IndexFile index = probeIndex(lj);
+                    for (LogicalJoinNode.Algorithm a : ALGORITHMS) {
+                        if (a == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOPS ? index == null : !supports(a, lj)) {
+                            continue;
+                        }
+                        // the nodes are shared by the plans, so the chosen algorithm is set on a copy
+                        LogicalJoinNode copy = new LogicalJoinNode(lj.t1Alias, lj.t2Alias, lj.f1PureName,
+                                lj.f2PureName, lj.p);
+                        copy.algorithm = a;
+                        if (a == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOPS) {
+                            copy.innerIndex = index;
+                        }
+                        this.algorithmNodes[o][a.ordinal()] = copy;
+                    }
+                    this.sortsOrderBy[o] = orderByField != null
+                            && (orderByField.equals(lj.f1QuantifiedName) || orderByField.equals(lj.f2QuantifiedName));
+                }
             }
+            this.pkeyJoins = pkeyJoins;
+
+            this.tableCosts = new double[aliases.size()];
+            this.tableCards = new int[aliases.size()];
+            for (int t = 0; t < aliases.size(); t++) {
+                String alias = aliases.get(t);
+                TableStats s = stats.get(Database.getCatalog().getTableName(p.getTableId(alias)));
+                this.tableCosts[t] = s.estimateScanCost();
+                this.tableCards[t] = s.estimateTableCardinality(filterSelectivities.get(alias));
+            }
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevBest
-                // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+        /**
+         * @return the tables outside s and x that a table of s is joined to
+         */
+        long neighborhood(long s, long x) {
+            long n = 0;
+            for (long bits = s; bits != 0; bits &= bits - 1) {
+                n |= this.neighbors[Long.numberOfTrailingZeros(bits)];
+            }
+            return n & ~(s | x);
+        }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+        /**
+         * @return the index of a join between a table of s1 and a table of s2, or -1 if there is none
+         */
+        int joinBetween(long s1, long s2) {
+            for (int i = 0; i < this.joinTables.length; i++) {
+                if ((this.joinTables[i] & s1) != 0 && (this.joinTables[i] & s2) != 0) {
+                    return i;
+                }
             }
+            return -1;
         }
 
-        // case where prevBest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        /**
+         * @return whether join nodes[o] is on the primary key of its left-hand table
+         */
+        boolean leftPkey(int o) {
+            return (o & 1) == 0 ? this.pkeys1[o / 2] : this.pkeys2[o / 2];
+        }
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        /**
+         * @return whether a join between two tables of s is on the primary key of one of them
+         */
+        boolean hasPkeyJoin(long s) {
+            for (long bits = this.pkeyJoins; bits != 0; bits &= bits - 1) {
+                if ((this.joinTables[Long.numberOfTrailingZeros(bits)] & ~s) == 0) {
+                    return true;
+                }
+            }
+            return false;
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
-        CostCard cc = new CostCard();
+        /**
+         * Estimates the cost of join nodes[o] with each algorithm that can
+         * execute it, and sets {@link #algorithm} to the cheapest.
+         *
+         * @param table2   whether the right-hand side is a base table, whose index can be probed
+         * @param sortCost the cost of sorting the result for the ORDER BY of the query, which is saved by a
+         *                 sort-merge join on its field, or 0
+         * @param stats    the table stats, referenced by table names
+         * @return the estimated cost of the cheapest algorithm
+         */
+        double joinCost(int o, boolean table2, int card1, int card2, double cost1, double cost2, double sortCost,
+                        Map<String, TableStats> stats) {
+            double best = Double.POSITIVE_INFINITY;
+            for (LogicalJoinNode.Algorithm a : ALGORITHMS) {
+                if (this.algorithmNodes[o][a.ordinal()] == null) {
+                    continue;
+                }
+                double cost;
+                if (a == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOPS) {
+                    if (!table2) {
+                        continue;
+                    }
+                    cost = indexJoinCost(this.nodes[o], card1, card2, cost1, stats);
+                } else {
+                    cost = JoinOptimizer.joinCost(a, card1, card2, cost1, cost2);
+                }
+                if (a != LogicalJoinNode.Algorithm.SORT_MERGE || !this.sortsOrderBy[o]) {
+                    cost += sortCost;
+                }
+                if (cost < best) {
+                    best = cost;
+                    this.algorithm = a;
+                }
+            }
+            return best;
+        }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevBest is left -- add new join to end
-        return cc;
+        /**
+         * @return join nodes[o] executed with an algorithm returned by {@link #joinCost}
+         */
+        LogicalJoinNode node(int o, LogicalJoinNode.Algorithm a) {
+            return this.algorithmNodes[o][a.ordinal()];
+        }
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Return true if there are statistics and filter selectivities for all of
+     * the tables of the joins.
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
+    private boolean hasStats(Vector<LogicalJoinNode> joinlist, HashMap<String, TableStats> stats,
+                             HashMap<String, Double> filterSelectivities) {
         for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+            for (String alias : new String[]{j.t1Alias, j.t2Alias}) {
+                Integer tableid = this.p.getTableId(alias);
+                if (tableid == null || stats.get(Database.getCatalog().getTableName(tableid)) == null
+                        || filterSelectivities.get(alias) == null) {
+                    return false;
+                }
+            }
         }
-        return false;
+        return true;
     }
 
+    // ===================== Private Methods =================================
+
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -364,20 +1104,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -385,11 +1111,12 @@ public class JoinOptimizer {
      *
      * @param js            the join plan to visualize
      * @param pc            the PlanCache accumulated while building the optimal plan
+     * @param s             the set of tables or joins of the plan, as a bitmask
      * @param stats         table statistics for base tables
      * @param selectivities the selectivities of the filters over each of the tables (where tables are identified by
      *                      their alias or name if no alias is given)
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc, long s,
                             HashMap<String, TableStats> stats,
                             HashMap<String, Double> selectivities) {
 
@@ -409,25 +1136,26 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
+        // the set of the subplan each join completes
+        long[] pathSoFar = pc.getSets(s);
         boolean neither;
 
         System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+        for (int i = 0; i < js.size(); i++) {
+            LogicalJoinNode j = js.get(i);
+            System.out.println("PATH SO FAR = " + js.subList(0, i + 1));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
             String table2Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t2Alias));
 
-            // Double c = pc.getCost(pathSoFar);
             neither = true;
+            DefaultMutableTreeNode left = m.get(j.t1Alias), right = m.get(j.t2Alias);
 
             root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
+                    + pc.getCost(pathSoFar[i]) + ", card = "
+                    + pc.getCard(pathSoFar[i]) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
@@ -467,10 +1195,12 @@ public class JoinOptimizer {
             m.put(j.t2Alias, root);
 
             // unless this table doesn't join with other tables,
-            // all tables are accessed from root
+            // all tables of the joined subplans are accessed from root
             if (!neither) {
                 for (String key : m.keySet()) {
-                    m.put(key, root);
+                    if (m.get(key) == left || m.get(key) == right) {
+                        m.put(key, root);
+                    }
                 }
             }
 
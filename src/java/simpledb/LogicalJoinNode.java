@@ -6,6 +6,34 @@ package simpledb;
  */
 public class LogicalJoinNode {
 
+    /**
+     * The algorithms a join can be executed with, see
+     * {@link JoinOptimizer#instantiateJoin}.
+     */
+    public enum Algorithm {
+        /**
+         * A {@link Join} that reads the right-hand side once per tuple of the left-hand side.
+         */
+        NESTED_LOOPS,
+        /**
+         * A {@link Join} that reads the right-hand side once per block of tuples of the left-hand side that fit in
+         * the join memory.
+         */
+        BLOCK_NESTED_LOOPS,
+        /**
+         * An {@link IndexNestedLoopsJoin} that probes {@link #innerIndex}.
+         */
+        INDEX_NESTED_LOOPS,
+        /**
+         * A {@link HashJoin}, for equi-joins.
+         */
+        HASH,
+        /**
+         * A {@link SortMergeJoin}, for equi-joins, whose output is sorted on the join fields.
+         */
+        SORT_MERGE
+    }
+
     /**
      * The first table to join (may be null). It's the alias of the table (if no alias, the true table name)
      */
@@ -35,6 +63,20 @@ public class LogicalJoinNode {
      */
     public Predicate.Op p;
 
+    /**
+     * The index on the join field of t2 that the join probes for each tuple
+     * of t1, or null if the join reads all of t2. Chosen by
+     * {@link JoinOptimizer#orderJoins}.
+     */
+    public IndexFile innerIndex;
+
+    /**
+     * The algorithm the join is executed with, or null for nested loops, or
+     * an index nested loops join if innerIndex is set. Chosen by
+     * {@link JoinOptimizer#orderJoins}.
+     */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -3,6 +3,9 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.List;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -13,16 +16,42 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * All aggregates of a query are computed by a single {@link Aggregate}
+ * operator.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
  * {@link JoinOptimizer} to order joins optimally and to select the
  * best implementations for joins.
+ * <p>
+ * A query over a single large heap file is planned as several scans of page
+ * ranges that run in parallel under a {@link Gather}. If the query has
+ * aggregates, the {@link Aggregate} scans the page ranges itself, see
+ * {@link Aggregate#setParallelism}.
  */
 public class LogicalPlan {
+    /**
+     * Minimum number of pages scanned by each worker of a parallel scan.
+     */
+    static final int MIN_PAGES_PER_WORKER = 64;
+
+    /**
+     * Maximum estimated selectivity of a range filter for the scan of its
+     * table to be replaced by an index lookup, which reads a page of the
+     * table per matching tuple.
+     */
+    static final double MAX_INDEX_RANGE_SELECTIVITY = 0.05;
+
+    /**
+     * Minimum ratio of the estimated number of groups to the number of tuples
+     * of their table for a query ordered on its only GROUP BY field to sort
+     * the tuples before aggregating them. Sorting the groups then costs about
+     * as much as sorting the tuples, and the aggregate can stream over the
+     * sorted tuples instead of keeping every group in memory.
+     */
+    static final double MIN_SORTED_GROUP_RATIO = 0.5;
+
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
@@ -30,13 +59,17 @@ public class LogicalPlan {
     private HashMap<String, Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps;
+    private Vector<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    // the maximum number of scan workers, or 0 for that of the Database
+    private int parallelism = 0;
+    // whether joins holds the order chosen by the JoinOptimizer
+    private boolean joinsOrdered = false;
 //    private Query owner;
 
     /**
@@ -50,6 +83,9 @@ public class LogicalPlan {
         tableMap = new HashMap<String, Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggOps = new Vector<String>();
+        aggFields = new Vector<String>();
         this.query = "";
     }
 
@@ -71,6 +107,26 @@ public class LogicalPlan {
         return query;
     }
 
+    /**
+     * Sets the maximum number of threads a physical plan produced by this
+     * plan uses to scan a table. Defaults to {@link Database#getParallelism}.
+     *
+     * @param parallelism the maximum number of scan workers; 1 disables parallel plans
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the maximum number of threads used to scan a table
+     */
+    public int getParallelism() {
+        return parallelism > 0 ? parallelism : Database.getParallelism();
+    }
+
     /**
      * Given a table alias, return id of the table object (this id can be supplied to {@link
      * Catalog#getDatabaseFile(int)}). Aliases are added as base tables are added via {@link #addScan}.
@@ -195,24 +251,51 @@ public class LogicalPlan {
 
     /**
      * Add an aggregate over the field with the specified grouping to
-     * the query.  SimpleDb only supports a single aggregate
-     * expression and GROUP BY field.
+     * the query.
      *
      * @param op     the aggregation operator
      * @param afield the field to aggregate over
-     * @param gfield the field to group by
+     * @param gfield the field to group by, or null
      * @throws ParsingException
      */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield = disambiguateName(afield);
+        addAggregate(op, afield);
         if (gfield != null)
-            gfield = disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+    }
+
+    /**
+     * Add an aggregate over the field to the query.  All aggregates are
+     * computed in the same pass, over the groups given by {@link #addGroupBy}.
+     * COUNT may be applied to "*". COUNT_DISTINCT, the approximate number of
+     * distinct values of the field, may not.
+     *
+     * @param op     the aggregation operator
+     * @param afield the field to aggregate over
+     * @throws ParsingException
+     */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield = disambiguateName(afield);
+        if (afield.equals("*") && !op.equalsIgnoreCase("COUNT"))
+            throw new ParsingException("Only COUNT can be applied to *");
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         hasAgg = true;
     }
 
+    /**
+     * Add a GROUP BY field to the query.  Adding the same field twice has no
+     * effect.
+     *
+     * @param gfield the field to group by
+     * @throws ParsingException
+     */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield = disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
     /**
      * Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
      * a single ORDER BY field.
@@ -228,6 +311,33 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /**
+     * @return the filters of the query, in the order they were added
+     */
+    Vector<LogicalFilterNode> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @return true if the query joins a subquery, whose physical plan was made for the transaction that parsed it
+     */
+    boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the field the result of the joins must be sorted on in ascending order, which a join can save the
+     * OrderBy by returning its tuples in that order, or null if the query has no such ORDER BY
+     */
+    String getJoinOrderByField() {
+        return hasOrderBy && oByAsc && !hasAgg ? oByField : null;
+    }
+
     /**
      * Given a name of a field, try to figure out what table it belongs to by looking
      * through all of the tables added via {@link #addScan}.
@@ -272,6 +382,238 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * Collects the names of the fields the query refers to, so that the
+     * scans can skip the other fields of their table.
+     *
+     * @return the qualified names of the fields used by the query, or null if it selects every field
+     */
+    private HashSet<String> usedFields() {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (!si.fname.equals("null.*")) {
+                used.add(si.fname);
+            } else if (si.aggOp == null) {
+                return null;
+            }
+        }
+        used.addAll(aggFields);
+        used.addAll(groupByFields);
+        if (hasOrderBy) {
+            used.add(oByField);
+        }
+        for (LogicalFilterNode lf : filters) {
+            used.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                used.add(lj.f2QuantifiedName);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @param td   the TupleDesc of the scan of a table
+     * @param used the qualified names of the fields used by the query
+     * @return the indexes of the fields of td the query uses; at least one, so that COUNT(*) still sees every tuple
+     */
+    private static int[] usedColumns(TupleDesc td, Set<String> used) {
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (used.contains(td.getFieldName(i))) {
+                columns.add(i);
+            }
+        }
+        if (columns.isEmpty()) {
+            columns.add(0);
+        }
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = columns.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Looks for a filter of a table that can be evaluated by an index on the
+     * table: an equality on an indexed field, preferably through a hash
+     * index, or else the most selective supported range comparison, if it
+     * keeps few enough tuples.
+     *
+     * @param table the table to scan
+     * @param stats the statistics of the table, or null if there are none
+     * @return an IndexScan that evaluates the filter, or null if no filter can use an index
+     */
+    private IndexScan indexScan(TransactionId t, LogicalScanNode table, TableStats stats,
+                                Set<LogicalFilterNode> consumed) {
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(table.t);
+        if (indexes.isEmpty()) {
+            return null;
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        LogicalFilterNode best = null;
+        IndexFile bestIndex = null;
+        Field bestKey = null;
+        double bestSel = Double.MAX_VALUE;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias)) {
+                continue;
+            }
+            int field;
+            Field key;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+                key = td.getFieldType(field) == Type.INT_TYPE ? new IntField(Integer.parseInt(lf.c))
+                        : new StringField(lf.c, Type.STRING_LEN);
+            } catch (NoSuchElementException | NumberFormatException e) {
+                continue;
+            }
+            for (IndexFile index : indexes) {
+                if (index.getKeyField() != field || !index.supports(lf.p)) {
+                    continue;
+                }
+                double sel;
+                if (lf.p == Predicate.Op.EQUALS) {
+                    sel = 0;
+                } else if (stats == null) {
+                    continue;
+                } else {
+                    sel = stats.estimateSelectivity(field, lf.p, key);
+                    if (sel > MAX_INDEX_RANGE_SELECTIVITY) {
+                        continue;
+                    }
+                }
+                // a hash lookup reads fewer pages than the descent of a tree
+                if (sel < bestSel || sel == bestSel && index instanceof HashFile) {
+                    best = lf;
+                    bestIndex = index;
+                    bestKey = key;
+                    bestSel = sel;
+                }
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        consumed.add(best);
+        return new IndexScan(t, bestIndex, table.alias, best.p, bestKey);
+    }
+
+    /**
+     * Determines how many workers scan the only table of a query in
+     * parallel, so that each of them scans at least
+     * {@link #MIN_PAGES_PER_WORKER} pages.
+     *
+     * @return the number of workers, or 1 if the query has joins, or the table is too small or not a heap file
+     */
+    private int scanWorkers() {
+        int threads = getParallelism();
+        if (threads < 2 || tables.size() != 1 || !joins.isEmpty()) {
+            return 1;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tables.get(0).t);
+        if (!(file instanceof HeapFile)) {
+            return 1;
+        }
+        return Math.max(1, Math.min(threads, ((HeapFile) file).numPages() / MIN_PAGES_PER_WORKER));
+    }
+
+    /**
+     * Determines from the structure of a plan whether it returns tuples that
+     * agree on the specified fields next to each other, so that they can be
+     * aggregated in a single pass.
+     *
+     * @param plan   the plan to inspect
+     * @param fields indexes of fields in the tuples returned by plan
+     * @return true if plan is known to return the tuples of each group consecutively
+     */
+    static boolean isGroupedOn(DbIterator plan, int[] fields) {
+        if (plan instanceof OrderBy) {
+            //in either direction
+            return fields.length == 1 && fields[0] == ((OrderBy) plan).getOrderByField();
+        } else if (plan instanceof SortMergeJoin) {
+            return fields.length == 1 && isSortedOn(plan, fields[0]);
+        } else if (plan instanceof Filter) {
+            return isGroupedOn(((Filter) plan).getChildren()[0], fields);
+        } else if (plan instanceof Project) {
+            Project project = (Project) plan;
+            int[] childFields = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                childFields[i] = project.getOutField(fields[i]);
+            }
+            return isGroupedOn(project.getChildren()[0], childFields);
+        } else if ((plan instanceof Join && ((Join) plan).getBlockSize() == 1)
+                || plan instanceof IndexNestedLoopsJoin) {
+            //nested loops keep the order of the outer relation, unless they read it in blocks
+            DbIterator outer = ((Operator) plan).getChildren()[0];
+            for (int f : fields) {
+                if (f >= outer.getTupleDesc().numFields()) {
+                    return false;
+                }
+            }
+            return isGroupedOn(outer, fields);
+        }
+        return false;
+    }
+
+    /**
+     * Determines from the structure of a plan whether it returns tuples in
+     * ascending order of the specified field.
+     *
+     * @param plan  the plan to inspect
+     * @param field index of a field in the tuples returned by plan
+     * @return true if plan is known to return its tuples sorted on field
+     */
+    static boolean isSortedOn(DbIterator plan, int field) {
+        if (plan instanceof OrderBy) {
+            OrderBy orderBy = (OrderBy) plan;
+            return orderBy.isASC() && field == orderBy.getOrderByField();
+        } else if (plan instanceof Filter) {
+            return isSortedOn(((Filter) plan).getChildren()[0], field);
+        } else if (plan instanceof SortMergeJoin) {
+            //both join fields hold the value the tuples are merged on
+            SortMergeJoin join = (SortMergeJoin) plan;
+            int numFields1 = join.getChildren()[0].getTupleDesc().numFields();
+            return field == join.getJoinPredicate().getField1()
+                    || field == numFields1 + join.getJoinPredicate().getField2();
+        } else if (plan instanceof Aggregate && ((Aggregate) plan).isStreaming()) {
+            //the groups are returned in the order of the input
+            Aggregate agg = (Aggregate) plan;
+            return field == 0 && agg.groupFields().length == 1
+                    && isSortedOn(agg.getChildren()[0], agg.groupField());
+        }
+        return false;
+    }
+
+    /**
+     * Determines from the statistics of its table whether a GROUP BY field
+     * has at least {@link #MIN_SORTED_GROUP_RATIO} distinct values per tuple.
+     *
+     * @param gfield         the qualified name of the field
+     * @param baseTableStats the statistics of each table, by table name
+     * @return true if the field has many groups, false if they are few or unknown
+     */
+    private boolean hasManyGroups(String gfield, Map<String, TableStats> baseTableStats) {
+        int dot = gfield.indexOf('.');
+        Integer tableId = dot < 0 ? null : getTableId(gfield.substring(0, dot));
+        if (tableId == null) {
+            return false;
+        }
+        TableStats stats = baseTableStats.get(Database.getCatalog().getTableName(tableId));
+        if (stats == null || stats.totalTuples() == 0) {
+            return false;
+        }
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(gfield.substring(dot + 1));
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+        return stats.numDistinctValues(field) >= MIN_SORTED_GROUP_RATIO * stats.totalTuples();
+    }
+
     /**
      * Convert the aggregate operator name s into an Aggregator.op operation.
      *
@@ -282,6 +624,7 @@ public class LogicalPlan {
         if (s.equals("AVG")) return Aggregator.Op.AVG;
         if (s.equals("SUM")) return Aggregator.Op.SUM;
         if (s.equals("COUNT")) return Aggregator.Op.COUNT;
+        if (s.equals("COUNT_DISTINCT")) return Aggregator.Op.COUNT_DISTINCT;
         if (s.equals("MIN")) return Aggregator.Op.MIN;
         if (s.equals("MAX")) return Aggregator.Op.MAX;
         throw new ParsingException("Unknown predicate " + s);
@@ -290,6 +633,9 @@ public class LogicalPlan {
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     * <p>
+     * The joins are only ordered by the first call; later calls reuse their order and algorithms, so that a
+     * plan can be executed again, e.g. with new filter constants, without being optimized again.
      *
      * @param t              The transaction that the returned DbIterator will run as a part of
      * @param baseTableStats a HashMap providing a {@link TableStats} object for each table used in the LogicalPlan.
@@ -305,6 +651,9 @@ public class LogicalPlan {
         HashMap<String, String> equivMap = new HashMap<String, String>();
         HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        HashSet<String> usedFields = usedFields();
+        // the filters evaluated by index lookups instead of scans
+        HashSet<LogicalFilterNode> indexFilters = new HashSet<LogicalFilterNode>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -314,14 +663,28 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
-
-            subplanMap.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
+            IndexScan is = indexScan(t, table, baseTableStats.get(baseTableName), indexFilters);
+            if (is != null) {
+                subplanMap.put(table.alias, is);
+                continue;
+            }
+            // scans of heap files only decode the fields the query uses
+            if (usedFields != null && Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile) {
+                int[] columns = usedColumns(ss.getTupleDesc(), usedFields);
+                if (columns.length < ss.getTupleDesc().numFields()) {
+                    ss.setColumns(columns);
+                }
+            }
+
+            subplanMap.put(table.alias, ss);
         }
 
+        // the filters of each table are evaluated together, as one compiled conjunction
+        HashMap<String, ArrayList<Predicate>> tablePredicates = new HashMap<String, ArrayList<Predicate>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -350,19 +713,51 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexFilters.contains(lf)) {
+                if (!tablePredicates.containsKey(lf.tableAlias)) {
+                    tablePredicates.put(lf.tableAlias, new ArrayList<Predicate>());
+                }
+                tablePredicates.get(lf.tableAlias).add(p);
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the statistics are over all the fields of the table, even if the scan only returns some of them
+            int statsField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                    .fieldNameToIndex(lf.fieldPureName);
+            double sel = s.estimateSelectivity(statsField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+        for (Map.Entry<String, ArrayList<Predicate>> e : tablePredicates.entrySet()) {
+            // comparisons on int fields are pushed into scans of heap files, which
+            // evaluate them on the page bytes before decoding the tuples
+            DbIterator subplan = subplanMap.get(e.getKey());
+            ArrayList<Predicate> pushed = new ArrayList<Predicate>();
+            ArrayList<Predicate> remaining = new ArrayList<Predicate>();
+            for (Predicate p : e.getValue()) {
+                if (subplan instanceof SeqScan && p.getOperand().getType() == Type.INT_TYPE
+                        && Database.getCatalog().getDatabaseFile(getTableId(e.getKey())) instanceof HeapFile) {
+                    pushed.add(p);
+                } else {
+                    remaining.add(p);
+                }
+            }
+            if (!pushed.isEmpty()) {
+                ((SeqScan) subplan).setPredicates(pushed.toArray(new Predicate[0]));
+            }
+            if (!remaining.isEmpty()) {
+                subplanMap.put(e.getKey(), new Filter(remaining.toArray(new Predicate[0]), subplan));
+            }
+        }
 
         JoinOptimizer jo = new JoinOptimizer(this, joins);
 
-        joins = jo.orderJoins(statsMap, filterSelectivities, explain);
+        if (!joinsOrdered) {
+            joins = jo.orderJoins(statsMap, filterSelectivities, explain);
+            joinsOrdered = true;
+        }
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -424,34 +819,45 @@ public class LogicalPlan {
 
         DbIterator node = (DbIterator) (subplanMap.entrySet().iterator().next().getValue());
 
+        int workers = scanWorkers();
+        if (workers > 1 && !hasAgg) {
+            DbIterator[] pipelines = Gather.partitionScan(node, workers);
+            if (pipelines != null) {
+                node = new Gather(pipelines);
+            }
+        }
+
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
+        int nextAgg = 0;
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField != null ? 1 : 0);
+                //aggregates are added in select list order, and follow the group by fields in the output
+                outFields.add(groupByFields.size() + nextAgg++);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " + si.fname + " in SELECT list");
+                if (!si.fname.equals("null.*")) {
+                    try {
+                        td.fieldNameToIndex(si.fname);
+                    } catch (NoSuchElementException e) {
+                        throw new ParsingException("Unknown field " + si.fname + " in SELECT list");
+                    }
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                if (groupByField == null) {
+                int gid = groupByFields.indexOf(si.fname);
+                if (gid < 0) {
                     throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                 }
-                outFields.add(0);
+                outFields.add(gid);
                 TupleDesc td = node.getTupleDesc();
                 int id;
                 try {
-                    id = td.fieldNameToIndex(groupByField);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " + groupByField + " in GROUP BY statement");
+                    throw new ParsingException("Unknown field " + si.fname + " in GROUP BY statement");
                 }
                 outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -474,14 +880,35 @@ public class LogicalPlan {
             }
         }
 
+        boolean groupsOrdered = false;
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
+            int[] afields = new int[aggFields.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+            int[] gfields = new int[groupByFields.size()];
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                        td.fieldNameToIndex(aggField),
-                        groupByField == null ? Aggregator.NO_GROUPING : td.fieldNameToIndex(groupByField),
-                        getAggOp(aggOp));
+                for (int i = 0; i < afields.length; i++) {
+                    //COUNT(*) counts tuples, so any field will do
+                    afields[i] = aggFields.get(i).equals("*") ? 0 : td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                }
+                if (gfields.length == 1 && hasOrderBy && oByField.equals(groupByFields.get(0))
+                        && !isGroupedOn(node, gfields) && hasManyGroups(oByField, baseTableStats)) {
+                    //sort the tuples instead of the groups, and aggregate them in a single pass
+                    node = new OrderBy(gfields[0], oByAsc, node);
+                    groupsOrdered = true;
+                }
+                aggNode = new Aggregate(node, afields, gfields, aops);
+                if (gfields.length > 0 && isGroupedOn(node, gfields)) {
+                    aggNode.setStreaming(true);
+                } else if (workers > 1) {
+                    //the workers merge their partial aggregates when they join
+                    aggNode.setParallelism(workers);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -490,8 +917,13 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        //the groups of an aggregate over sorted tuples are already returned in order
+        if (hasOrderBy && !groupsOrdered) {
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            //a sort-merge join may already have returned the tuples in order
+            if (!oByAsc || !isSortedOn(node, oByIndex)) {
+                node = new OrderBy(oByIndex, oByAsc, node);
+            }
         }
 
         return new Project(outFields, outTypes, node);
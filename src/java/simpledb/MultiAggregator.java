@@ -0,0 +1,344 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Knows how to compute several aggregates at once over groups defined by any
+ * number of group-by columns, in a single pass over the input.
+ * <p>
+ * Like {@link IntegerAggregator}, the groups are kept in a {@link GroupTable}
+ * and the running state lives in primitive arrays indexed by the group number:
+ * one count per group, and a sum, minimum and maximum per group for each
+ * aggregate over an INT_TYPE column. Aggregates over STRING_TYPE columns only
+ * support COUNT and COUNT_DISTINCT. COUNT_DISTINCT keeps a
+ * {@link HyperLogLog} sketch per group, created with the first value of the
+ * group; the sketches of two aggregators are merged register by register.
+ * <p>
+ * The SUM_COUNT and SC_AVG operators split an average between partial and
+ * final aggregates: SUM_COUNT produces two fields, the sum and the count of its
+ * column, and SC_AVG averages tuples of that form, reading the sum from its
+ * aggregate field and the count from the field after it.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    // 1024 registers per group, for a standard error of about 3%
+    private static final int DISTINCT_PRECISION = 10;
+
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Op[] whats;
+
+    private final GroupTable groups;
+    private long[] counts;
+    // indexed by aggregate, then by group; null for aggregates over strings
+    private final int[][] mins;
+    private final int[][] maxs;
+    private final long[][] sums;
+    // the sum of the partial counts of each SC_AVG aggregate; null for other aggregates
+    private final long[][] partialCounts;
+    // the sketch of each group of each COUNT_DISTINCT aggregate; null for other aggregates
+    private final HyperLogLog[][] sketches;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields     the 0-based indexes of the group-by fields in the tuple; empty if there is no grouping
+     * @param gbfieldtypes the types of the group-by fields
+     * @param afields      the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes  the types of the aggregate fields
+     * @param whats        the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException if the arrays do not match up, or if an aggregate other than COUNT or
+     *                                  COUNT_DISTINCT is requested over a STRING_TYPE field
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes, Op[] whats) {
+        if (gbfields.length != gbfieldtypes.length
+                || afields.length != afieldtypes.length || afields.length != whats.length) {
+            throw new IllegalArgumentException("mismatched field and type arrays");
+        }
+        if (afields.length == 0) {
+            throw new IllegalArgumentException("at least one aggregate is required");
+        }
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+
+        this.mins = new int[afields.length][];
+        this.maxs = new int[afields.length][];
+        this.sums = new long[afields.length][];
+        this.partialCounts = new long[afields.length][];
+        this.sketches = new HyperLogLog[afields.length][];
+        for (int j = 0; j < afields.length; j++) {
+            switch (whats[j]) {
+                case MIN:
+                case MAX:
+                case SUM:
+                case AVG:
+                case COUNT:
+                case SUM_COUNT:
+                case SC_AVG:
+                case COUNT_DISTINCT:
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported aggregate " + whats[j]);
+            }
+            if (afieldtypes[j] == Type.STRING_TYPE && whats[j] != Op.COUNT && whats[j] != Op.COUNT_DISTINCT) {
+                throw new IllegalArgumentException("only COUNT and COUNT_DISTINCT are supported over strings");
+            }
+        }
+        this.groups = new GroupTable(this.gbfieldtypes);
+        allocateStates(INITIAL_GROUPS, afieldtypes);
+    }
+
+    private void allocateStates(int n, Type[] afieldtypes) {
+        this.counts = new long[n];
+        for (int j = 0; j < this.afields.length; j++) {
+            if (afieldtypes[j] == Type.INT_TYPE) {
+                this.mins[j] = new int[n];
+                this.maxs[j] = new int[n];
+                this.sums[j] = new long[n];
+            }
+            if (this.whats[j] == Op.SC_AVG) {
+                this.partialCounts[j] = new long[n];
+            }
+            if (this.whats[j] == Op.COUNT_DISTINCT) {
+                this.sketches[j] = new HyperLogLog[n];
+            }
+        }
+    }
+
+    private void growStates() {
+        int n = this.counts.length * 2;
+        this.counts = Arrays.copyOf(this.counts, n);
+        for (int j = 0; j < this.afields.length; j++) {
+            if (this.sums[j] != null) {
+                this.mins[j] = Arrays.copyOf(this.mins[j], n);
+                this.maxs[j] = Arrays.copyOf(this.maxs[j], n);
+                this.sums[j] = Arrays.copyOf(this.sums[j], n);
+            }
+            if (this.partialCounts[j] != null) {
+                this.partialCounts[j] = Arrays.copyOf(this.partialCounts[j], n);
+            }
+            if (this.sketches[j] != null) {
+                this.sketches[j] = Arrays.copyOf(this.sketches[j], n);
+            }
+        }
+    }
+
+    /**
+     * @return the number of fields the specified aggregate produces: two for SUM_COUNT, one for the others
+     */
+    static int numOutputFields(Op what) {
+        return what == Op.SUM_COUNT ? 2 : 1;
+    }
+
+    /**
+     * Merge a new tuple into the aggregates, grouping as indicated in the
+     * constructor
+     *
+     * @param tup the Tuple containing the aggregate fields and the group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g = this.groups.findOrAdd(tup, this.gbfields);
+        if (g == this.counts.length) {
+            growStates();
+        }
+
+        boolean first = this.counts[g] == 0;
+        for (int j = 0; j < this.afields.length; j++) {
+            if (this.sketches[j] != null) {
+                if (this.sketches[j][g] == null) {
+                    this.sketches[j][g] = new HyperLogLog(DISTINCT_PRECISION);
+                }
+                this.sketches[j][g].add(tup.getField(this.afields[j]));
+            }
+            if (this.sums[j] == null) {
+                continue;
+            }
+            int v = ((IntField) tup.getField(this.afields[j])).getValue();
+            if (first || v < this.mins[j][g]) {
+                this.mins[j][g] = v;
+            }
+            if (first || v > this.maxs[j][g]) {
+                this.maxs[j][g] = v;
+            }
+            this.sums[j][g] += v;
+            if (this.partialCounts[j] != null) {
+                this.partialCounts[j][g] += ((IntField) tup.getField(this.afields[j] + 1)).getValue();
+            }
+        }
+        this.counts[g]++;
+    }
+
+    /**
+     * @return the value of the j-th aggregate for the specified group
+     * @throws DbException if the value does not fit in an INT_TYPE field
+     */
+    private int aggregateValue(int j, int g) throws DbException {
+        switch (this.whats[j]) {
+            case MIN:
+                return this.mins[j][g];
+            case MAX:
+                return this.maxs[j][g];
+            case SUM:
+                return IntegerAggregator.toIntValue(this.sums[j][g], this.whats[j]);
+            case AVG:
+                return IntegerAggregator.toIntValue(this.sums[j][g] / this.counts[g], this.whats[j]);
+            case COUNT:
+                return IntegerAggregator.toIntValue(this.counts[g], this.whats[j]);
+            case SC_AVG:
+                long n = this.partialCounts[j][g];
+                return n == 0 ? 0 : IntegerAggregator.toIntValue(this.sums[j][g] / n, this.whats[j]);
+            case COUNT_DISTINCT:
+                return (int) Math.min(this.sketches[j][g].estimate(), Integer.MAX_VALUE);
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    public void merge(Aggregator other) {
+        MultiAggregator that = (MultiAggregator) other;
+        Field[] key = new Field[this.gbfields.length];
+        for (int og = 0; og < that.groups.size(); og++) {
+            for (int i = 0; i < key.length; i++) {
+                key[i] = that.groups.getKey(og, i);
+            }
+            int g = this.groups.findOrAdd(key);
+            if (g == this.counts.length) {
+                growStates();
+            }
+            boolean first = this.counts[g] == 0;
+            for (int j = 0; j < this.afields.length; j++) {
+                if (this.sketches[j] != null) {
+                    if (this.sketches[j][g] == null) {
+                        this.sketches[j][g] = that.sketches[j][og].copy();
+                    } else {
+                        this.sketches[j][g].merge(that.sketches[j][og]);
+                    }
+                }
+                if (this.sums[j] == null) {
+                    continue;
+                }
+                if (first || that.mins[j][og] < this.mins[j][g]) {
+                    this.mins[j][g] = that.mins[j][og];
+                }
+                if (first || that.maxs[j][og] > this.maxs[j][g]) {
+                    this.maxs[j][g] = that.maxs[j][og];
+                }
+                this.sums[j][g] += that.sums[j][og];
+                if (this.partialCounts[j] != null) {
+                    this.partialCounts[j][g] += that.partialCounts[j][og];
+                }
+            }
+            this.counts[g] += that.counts[og];
+        }
+    }
+
+    public int numGroups() {
+        return this.groups.size();
+    }
+
+    public boolean hasGroupOf(Tuple tup) {
+        return this.groups.find(tup, this.gbfields) >= 0;
+    }
+
+    public void clear() {
+        this.groups.clear();
+        Type[] afieldtypes = new Type[this.afields.length];
+        for (int j = 0; j < this.afields.length; j++) {
+            afieldtypes[j] = this.sums[j] != null ? Type.INT_TYPE : Type.STRING_TYPE;
+        }
+        allocateStates(INITIAL_GROUPS, afieldtypes);
+    }
+
+    /**
+     * @return the TupleDesc of the results: the group-by fields, followed by one INT_TYPE field per aggregate, or two
+     * for SUM_COUNT
+     */
+    public TupleDesc getTupleDesc() {
+        int n = this.gbfields.length;
+        for (Op what : this.whats) {
+            n += numOutputFields(what);
+        }
+        Type[] types = new Type[n];
+        System.arraycopy(this.gbfieldtypes, 0, types, 0, this.gbfields.length);
+        Arrays.fill(types, this.gbfields.length, types.length, Type.INT_TYPE);
+        return new TupleDesc(types);
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples hold the group-by values, in the order given to the constructor, followed by
+     * the value of each aggregate; SUM_COUNT aggregates return their sum followed by their count.
+     */
+    public DbIterator iterator() {
+        return new DbIterator() {
+
+            private static final long serialVersionUID = 1L;
+
+            TupleDesc tupleDesc;
+            int nextGroup = -1;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                this.tupleDesc = MultiAggregator.this.getTupleDesc();
+                this.nextGroup = 0;
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (this.nextGroup < 0) {
+                    throw new IllegalStateException("Iterator not yet open");
+                }
+                return this.nextGroup < MultiAggregator.this.groups.size();
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                MultiAggregator parent = MultiAggregator.this;
+                int g = this.nextGroup++;
+
+                Tuple res = new Tuple(this.tupleDesc);
+                int ngroups = parent.gbfields.length;
+                for (int i = 0; i < ngroups; i++) {
+                    res.setField(i, parent.groups.getKey(g, i));
+                }
+                int f = ngroups;
+                for (int j = 0; j < parent.afields.length; j++) {
+                    if (parent.whats[j] == Op.SUM_COUNT) {
+                        res.setField(f++, new IntField(IntegerAggregator.toIntValue(parent.sums[j][g], Op.SUM)));
+                        res.setField(f++, new IntField(IntegerAggregator.toIntValue(parent.counts[g], Op.COUNT)));
+                    } else {
+                        res.setField(f++, new IntField(parent.aggregateValue(j, g)));
+                    }
+                }
+                return res;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                open();
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return this.tupleDesc;
+            }
+
+            @Override
+            public void close() {
+                this.nextGroup = -1;
+            }
+        };
+    }
+
+}
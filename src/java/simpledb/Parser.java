@@ -184,23 +184,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
             }
 
         }
@@ -209,8 +205,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -220,20 +215,30 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
+                ZExp operand = ((ZExpression) si.getExpression()).getOperand(0);
+                if (!(operand instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
+                            "Expressions in aggregates are not supported.");
+                }
+                String aggField = ((ZConstant) operand).getValue();
+                String aggFun = si.getAggregate();
+                if (aggField.regionMatches(true, 0, "distinct ", 0, 9)) {
+                    if (!aggFun.equalsIgnoreCase("count")) {
+                        throw new simpledb.ParsingException(
+                                "DISTINCT is only supported in COUNT.");
+                    }
+                    aggField = aggField.substring(9).trim();
+                    aggFun = "COUNT_DISTINCT";
                 }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
-                        .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                        + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                        + si.getColumn()) || groupByFields.contains(si
                         .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -243,12 +248,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
         }
         // sort the data
 
@@ -275,14 +280,92 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    // the plans of the SELECT statements processed by this parser
+    private final StatementCache statementCache = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Looks up the plan of a reusable SELECT statement in the statement
+     * cache, or parses the statement and adds its plan.
+     *
+     * @return the plan, or null if a constant of the statement is not the constant of a filter
+     */
+    private CachedPlan cachedPlan(StatementCache.Normalized n)
+            throws IOException, Zql.ParseException, simpledb.ParsingException {
+        CachedPlan plan = statementCache.get(n.text);
+        if (plan != null) {
+            return plan;
+        }
+        long catalogVersion = Database.getCatalog().getVersion();
+        ZqlParser p = new ZqlParser(new ByteArrayInputStream(n.parseText.getBytes("UTF-8")));
+        ZStatement s = p.readStatement();
+        if (!(s instanceof ZQuery)) {
+            return null;
+        }
+        // the statement has no subquery, which is the only part of the plan that needs the transaction
+        LogicalPlan lp = parseQueryLogicalPlan(null, (ZQuery) s);
+        lp.setQuery(n.text);
+        plan = CachedPlan.create(lp, n.constants.length, catalogVersion);
+        if (plan != null) {
+            statementCache.put(n.text, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Prepares a SELECT statement, whose filters in the WHERE clause may
+     * compare fields with ? placeholders instead of constants.
+     *
+     * @param sql the text of the statement
+     * @return the prepared statement, whose plan is shared through the statement cache
+     * @throws simpledb.ParsingException if the statement is not a single SELECT statement without subqueries, or
+     *                                   cannot be parsed
+     */
+    public PreparedStatement prepare(String sql) throws simpledb.ParsingException {
+        StatementCache.Normalized n = StatementCache.normalize(sql);
+        if (!n.reusable) {
+            throw new simpledb.ParsingException(
+                    "Only single SELECT statements without subqueries can be prepared.");
+        }
+        CachedPlan plan;
+        try {
+            plan = cachedPlan(n);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException(
+                    "Invalid SQL expression: \n \t " + e);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException(e);
+        }
+        if (plan == null) {
+            throw new simpledb.ParsingException(
+                    "Placeholders and constants are only supported as the constants of filters.");
+        }
+        return new PreparedStatement(n.text, plan, n.constants);
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
-        Query query = new Query(tId);
-
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
+        return newQuery(tId, lp, physicalPlan);
+    }
+
+    /**
+     * Builds the physical plan of a SELECT statement from its cached plan,
+     * for the constants of the statement.
+     */
+    private Query handleCachedQueryStatement(CachedPlan plan, String[] constants, TransactionId tId)
+            throws simpledb.ParsingException {
+        return newQuery(tId, plan.getLogicalPlan(), plan.physicalPlan(tId, constants));
+    }
+
+    private Query newQuery(TransactionId tId, LogicalPlan lp, DbIterator physicalPlan) {
+        Query query = new Query(tId);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
 
@@ -505,8 +588,22 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            // a SELECT statement whose plan can be reused is only parsed if it is not in the statement cache
+            String sql = readAll(is);
+            StatementCache.Normalized n = StatementCache.normalize(sql);
+            CachedPlan plan = null;
+            if (n.reusable) {
+                if (n.hasPlaceholders()) {
+                    throw new simpledb.ParsingException(
+                            "Placeholders are only supported in prepared statements.");
+                }
+                plan = cachedPlan(n);
+            }
+            ZStatement s = null;
+            if (plan == null) {
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -519,7 +616,10 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (plan != null)
+                        query = handleCachedQueryStatement(plan, n.constants,
+                                curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -580,6 +680,16 @@ public class Parser {
         }
     }
 
+    private static String readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = {"select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
@@ -587,7 +697,7 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 8) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -597,18 +707,26 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-samplerate rate] [-parallelism threads] [-f queryFile]";
 
     protected void shutdown() {
+        // the ranges of the zone maps learned by the queries of the session
+        Database.getBufferPool().flushZoneMaps();
+        if (this.statsFile != null) {
+            // the statistics were kept up to date by the statements of the session
+            TableStats.saveStatistics(this.statsFile);
+        }
         System.out.println("Bye");
     }
 
+    // the file the statistics of the tables of the catalog are persisted in
+    private File statsFile;
+
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
 
         String queryFile = null;
 
@@ -626,12 +744,28 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-parallelism")) {
+                    try {
+                        Database.setParallelism(Integer.parseInt(argv[++i]));
+                    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                        System.out.println("Expected a positive number of threads after -parallelism\n" + usage);
+                        System.exit(0);
+                    }
+                } else if (argv[i].equals("-samplerate")) {
+                    try {
+                        TableStats.setSampleRate(Double.parseDouble(argv[++i]));
+                    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                        System.out.println("Expected a sample rate in (0, 1] after -samplerate\n" + usage);
+                        System.exit(0);
+                    }
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
                 }
             }
         }
+        this.statsFile = new File(argv[0] + ".stats");
+        TableStats.computeStatistics(this.statsFile);
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxFile is a HeapFile whose pages use the columnar PAX layout of
+ * {@link PaxPage}. It stores the same tuples in the same slots as a HeapFile,
+ * and supports the same operations, so sequential scans, with their pushed
+ * predicates and columns, read it like any HeapFile. Tables are stored in a
+ * PaxFile when their catalog entry is annotated with the "pax" storage format,
+ * see {@link Catalog#loadSchema}.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    /**
+     * Rewrites a file in the format of a HeapFile into the format of a PaxFile.
+     *
+     * @param heapFile the file written in the format of a HeapFile, e.g. by {@link HeapFileEncoder}
+     * @param paxFile  the file to write
+     * @param td       the TupleDesc of the tuples of the file
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void convert(File heapFile, File paxFile, TupleDesc td) throws IOException {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(paxFile))) {
+            long numPages = heapFile.length() / page.length;
+            for (long i = 0; i < numPages; i++) {
+                in.readFully(page);
+                out.write(PaxPage.fromHeapPageData(page, td));
+            }
+        }
+    }
+}
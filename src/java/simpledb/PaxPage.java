@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PaxPage is a page of a {@link PaxFile}. It holds the same slots as a
+ * {@link HeapPage}, but lays them out by column (the PAX layout): the header
+ * is followed by one "minipage" per field, holding the values of that field
+ * for every slot of the page, in slot order. Field j of slot i is stored at
+ * <p>
+ * header size + numSlots * (size of fields 0..j-1) + i * (size of field j)
+ * <p>
+ * so a scan that reads a few fields of a wide table touches a few contiguous
+ * ranges of the page instead of a piece of every slot.
+ *
+ * @see PaxFile
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data, true);
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    @Override
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Rearranges the bytes of a page of a HeapFile into the layout of a
+     * PaxPage with the same tuples.
+     *
+     * @param heapPageData the data of a HeapPage
+     * @param td           the TupleDesc of the tuples of the page
+     * @return the data of the PaxPage
+     */
+    public static byte[] fromHeapPageData(byte[] heapPageData, TupleDesc td) {
+        int numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] data = new byte[heapPageData.length];
+        System.arraycopy(heapPageData, 0, data, 0, headerSize);
+        int rowOffset = 0;
+        int columnStart = headerSize;
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            for (int i = 0; i < numSlots; i++) {
+                System.arraycopy(heapPageData, headerSize + i * td.getSize() + rowOffset,
+                        data, columnStart + i * len, len);
+            }
+            rowOffset += len;
+            columnStart += numSlots * len;
+        }
+        return data;
+    }
+}
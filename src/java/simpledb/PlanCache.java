@@ -1,52 +1,187 @@
 package simpledb;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.ArrayList;
 import java.util.Vector;
 
 /**
  * A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins
+ * way to order a given set of joins.
+ * <p>
+ * A set is a bitmask, over the indexes of the joins in the list being
+ * ordered, or over the indexes of the tables they join. The best plan of a
+ * set is stored as its last join and the one or two sets whose plans it
+ * joins, whose best plans are stored in turn, so the whole order is only
+ * built by {@link #getOrder}. Sets without a plan in the cache, such as
+ * single tables, contribute no joins to it. The plans are kept in parallel
+ * arrays, in an open addressing hash table keyed by the bitmasks, so that
+ * adding and looking up plans does not allocate.
  */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>, Vector<LogicalJoinNode>> bestOrders = new HashMap<Set<LogicalJoinNode>, Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>, Double> bestCosts = new HashMap<Set<LogicalJoinNode>, Double>();
-    HashMap<Set<LogicalJoinNode>, Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>, Integer>();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // the bitmask of each slot; 0, the empty set, marks an empty slot
+    private long[] keys;
+    private double[] costs;
+    private int[] cards;
+    private LogicalJoinNode[] lastJoins;
+    private long[] lefts;
+    private long[] rights;
+    private int size;
+
+    /**
+     * Creates an empty cache.
+     */
+    public PlanCache() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty cache that can hold the specified number of plans
+     * without growing.
+     */
+    public PlanCache(int expectedPlans) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < 2L * expectedPlans && capacity < (1 << 30)) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.costs = new double[capacity];
+        this.cards = new int[capacity];
+        this.lastJoins = new LogicalJoinNode[capacity];
+        this.lefts = new long[capacity];
+        this.rights = new long[capacity];
+    }
+
+    /**
+     * @return the slot of set s, or the empty slot it would be stored in
+     */
+    private int slot(long s) {
+        int mask = this.keys.length - 1;
+        long h = s * 0x9e3779b97f4a7c15L;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (this.keys[i] != 0 && this.keys[i] != s) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = this.keys;
+        double[] oldCosts = this.costs;
+        int[] oldCards = this.cards;
+        LogicalJoinNode[] oldLastJoins = this.lastJoins;
+        long[] oldLefts = this.lefts;
+        long[] oldRights = this.rights;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int j = slot(oldKeys[i]);
+                this.keys[j] = oldKeys[i];
+                this.costs[j] = oldCosts[i];
+                this.cards[j] = oldCards[i];
+                this.lastJoins[j] = oldLastJoins[i];
+                this.lefts[j] = oldLefts[i];
+                this.rights[j] = oldRights[i];
+            }
+        }
+    }
 
     /**
      * Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
      * new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
      * specified join set
      *
-     * @param s     the set of joins for which a new ordering (plan) is being added
-     * @param cost  the estimated cost of the specified plan
-     * @param card  the estimated cardinality of the specified plan
-     * @param order the ordering of the joins in the plan
+     * @param s    the set of joins for which a new ordering (plan) is being added; not empty
+     * @param cost the estimated cost of the specified plan
+     * @param card the estimated cardinality of the specified plan
+     * @param last  the last join of the plan
+     * @param left  the set whose plan is done before last, e.g. the other joins of a left-deep plan, or 0 if none
+     * @param right the set whose plan is done after left and before last, or 0 if none
      */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s, order);
-        bestCosts.put(s, cost);
-        bestCardinalities.put(s, card);
+    void addPlan(long s, double cost, int card, LogicalJoinNode last, long left, long right) {
+        if (s == 0) {
+            throw new IllegalArgumentException("the empty set of joins has no plan");
+        }
+        int i = slot(s);
+        if (this.keys[i] == 0) {
+            if (2 * (this.size + 1) > this.keys.length) {
+                grow();
+                i = slot(s);
+            }
+            this.size++;
+        }
+        this.keys[i] = s;
+        this.costs[i] = cost;
+        this.cards[i] = card;
+        this.lastJoins[i] = last;
+        this.lefts[i] = left;
+        this.rights[i] = right;
+    }
+
+    /**
+     * @return true if the cache has a plan for the set of joins s
+     */
+    boolean contains(long s) {
+        return s != 0 && this.keys[slot(s)] == s;
     }
 
     /**
      * Find the best join order in the cache for the specified plan
      *
      * @param s the set of joins to look up the best order for
-     * @return the best order for s in the cache
+     * @return the best order for s in the cache, or null if there is none
      */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    Vector<LogicalJoinNode> getOrder(long s) {
+        if (!contains(s)) {
+            return null;
+        }
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        addOrder(s, order, null);
+        return order;
+    }
+
+    /**
+     * @return the sets of the plans of each join of {@link #getOrder}, in the same order
+     */
+    long[] getSets(long s) {
+        ArrayList<Long> sets = new ArrayList<Long>();
+        addOrder(s, null, sets);
+        long[] result = new long[sets.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sets.get(i);
+        }
+        return result;
+    }
+
+    private void addOrder(long s, Vector<LogicalJoinNode> order, ArrayList<Long> sets) {
+        int i = slot(s);
+        if (s == 0 || this.keys[i] != s) {
+            return;
+        }
+        addOrder(this.lefts[i], order, sets);
+        addOrder(this.rights[i], order, sets);
+        if (order != null) {
+            order.add(this.lastJoins[i]);
+        }
+        if (sets != null) {
+            sets.add(s);
+        }
     }
 
     /**
      * Find the cost of the best join order in the cache for the specified plan
      *
      * @param s the set of joins to look up the best cost for
-     * @return the cost of the best order for s in the cache
+     * @return the cost of the best order for s in the cache, or infinity if there is none
      */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(long s) {
+        int i = slot(s);
+        return this.keys[i] == s ? this.costs[i] : Double.POSITIVE_INFINITY;
     }
 
     /**
@@ -55,7 +190,21 @@ public class PlanCache {
      * @param s the set of joins to look up the best cardinality for
      * @return the cardinality of the best order for s in the cache
      */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(long s) {
+        return this.cards[slot(s)];
+    }
+
+    /**
+     * @return the last join of the best order for s in the cache, or null if there is none
+     */
+    LogicalJoinNode getLastJoin(long s) {
+        return this.lastJoins[slot(s)];
+    }
+
+    /**
+     * @return the number of sets of joins with a plan in the cache
+     */
+    int size() {
+        return this.size;
     }
 }
@@ -101,6 +101,105 @@ public class Predicate implements Serializable {
         return t.getField(this.field).compare(this.op, this.operand);
     }
 
+    /**
+     * Applies the predicate to every tuple of a batch.
+     *
+     * @param batch    the tuples to compare against
+     * @param selected receives the indexes of the tuples for which the comparison is true, in increasing order; must
+     *                 have room for batch.size() entries
+     * @return the number of tuples for which the comparison is true
+     */
+    public int filter(TupleBatch batch, int[] selected) {
+        int n = batch.size();
+        int k = 0;
+        if (this.operand.getType() == Type.INT_TYPE) {
+            int[] col = batch.getIntColumn(this.field);
+            int v = ((IntField) this.operand).getValue();
+            // one loop per operator keeps the comparison out of the inner loop
+            switch (this.op) {
+                case EQUALS:
+                case LIKE:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] == v) selected[k++] = i;
+                    break;
+                case NOT_EQUALS:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] != v) selected[k++] = i;
+                    break;
+                case GREATER_THAN:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] > v) selected[k++] = i;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] >= v) selected[k++] = i;
+                    break;
+                case LESS_THAN:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] < v) selected[k++] = i;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] <= v) selected[k++] = i;
+                    break;
+            }
+        } else {
+            String[] col = batch.getStringColumn(this.field);
+            String v = ((StringField) this.operand).getValue();
+            for (int i = 0; i < n; i++) {
+                if (compareStrings(this.op, col[i], v)) selected[k++] = i;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Compares two int values with the same semantics as {@link IntField#compare}.
+     */
+    static boolean compareInts(Op op, int a, int b) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return a == b;
+            case NOT_EQUALS:
+                return a != b;
+            case GREATER_THAN:
+                return a > b;
+            case GREATER_THAN_OR_EQ:
+                return a >= b;
+            case LESS_THAN:
+                return a < b;
+            case LESS_THAN_OR_EQ:
+                return a <= b;
+        }
+        return false;
+    }
+
+    /**
+     * Compares two string values with the same semantics as {@link StringField#compare}.
+     */
+    static boolean compareStrings(Op op, String a, String b) {
+        if (op == Op.LIKE) {
+            return a.indexOf(b) >= 0;
+        }
+        int cmp = a.compareTo(b);
+        switch (op) {
+            case EQUALS:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+        }
+        return false;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
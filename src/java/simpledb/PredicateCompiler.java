@@ -0,0 +1,363 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+/**
+ * PredicateCompiler turns conjunctions of {@link Predicate}s into
+ * {@link CompiledPredicate}s, by emitting the bytecode of a subclass with
+ * javassist and loading it.
+ * <p>
+ * A generated class depends only on the fields, types and operators of the
+ * predicates, while the operands are stored in the instances, so queries that
+ * differ only in their constants share the same class. Classes are cached for
+ * the lifetime of the JVM.
+ * <p>
+ * If the bytecode cannot be generated, for example because javassist is not
+ * on the classpath, {@link #compile} returns null and callers evaluate the
+ * predicates one at a time instead.
+ */
+public class PredicateCompiler {
+
+    private static final ConcurrentHashMap<String, Class<? extends CompiledPredicate>> classes =
+            new ConcurrentHashMap<String, Class<? extends CompiledPredicate>>();
+    private static final AtomicInteger nextClass = new AtomicInteger();
+    private static final String BASE = CompiledPredicate.class.getName();
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Loads generated classes, as children of the loader of the simpledb classes.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader() {
+            super(CompiledPredicate.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+    private static final GeneratedClassLoader loader = new GeneratedClassLoader();
+
+    /**
+     * Turns compilation on or off. While it is off, {@link #compile} always
+     * returns null, so that predicates are interpreted.
+     */
+    public static void setEnabled(boolean enabled) {
+        PredicateCompiler.enabled = enabled;
+    }
+
+    /**
+     * @return true if predicates are compiled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compiles the conjunction of the specified predicates.
+     *
+     * @param predicates the predicates, all over fields of the same tuples
+     * @return the compiled conjunction, or null if compilation is disabled or failed
+     */
+    public static CompiledPredicate compile(Predicate[] predicates) {
+        if (!enabled || predicates.length == 0) {
+            return null;
+        }
+        int[] ints = new int[predicates.length];
+        String[] strings = new String[predicates.length];
+        for (int j = 0; j < predicates.length; j++) {
+            Field operand = predicates[j].getOperand();
+            if (operand.getType() == Type.INT_TYPE) {
+                ints[j] = ((IntField) operand).getValue();
+            } else {
+                strings[j] = ((StringField) operand).getValue();
+            }
+        }
+
+        try {
+            String key = shapeOf(predicates);
+            Class<? extends CompiledPredicate> c = classes.get(key);
+            if (c == null) {
+                c = generate(predicates);
+                Class<? extends CompiledPredicate> raced = classes.putIfAbsent(key, c);
+                if (raced != null) {
+                    c = raced;
+                }
+            }
+            CompiledPredicate compiled = c.getConstructor().newInstance();
+            compiled.ints = ints;
+            compiled.strings = strings;
+            return compiled;
+        } catch (Exception | LinkageError e) {
+            Debug.log("predicate compilation failed, interpreting instead: %s", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return a string that identifies the class generated for predicates
+     */
+    private static String shapeOf(Predicate[] predicates) {
+        StringBuilder key = new StringBuilder();
+        for (Predicate p : predicates) {
+            key.append(p.getField()).append(p.getOperand().getType() == Type.INT_TYPE ? 'i' : 's')
+                    .append(p.getOp().ordinal()).append(',');
+        }
+        return key.toString();
+    }
+
+    private static Class<? extends CompiledPredicate> generate(Predicate[] predicates) throws Exception {
+        String name = "simpledb.GeneratedPredicate" + nextClass.incrementAndGet();
+        ClassFile cf = new ClassFile(false, name, BASE);
+        // version 49 class files are verified without stack map frames
+        cf.setMajorVersion(ClassFile.JAVA_5);
+        cf.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.SUPER);
+        ConstPool cp = cf.getConstPool();
+
+        Bytecode init = new Bytecode(cp);
+        init.addAload(0);
+        init.addInvokespecial(BASE, "<init>", "()V");
+        init.addOpcode(Opcode.RETURN);
+        init.setMaxStack(1);
+        init.setMaxLocals(1);
+        addMethod(cf, "<init>", "()V", init);
+        addMethod(cf, "filter", "(Lsimpledb/Tuple;)Z", tupleMethod(cp, predicates));
+        addMethod(cf, "filter", "(Lsimpledb/TupleBatch;[I)I", batchMethod(cp, predicates));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cf.write(new DataOutputStream(bytes));
+        synchronized (loader) {
+            return loader.define(name, bytes.toByteArray()).asSubclass(CompiledPredicate.class);
+        }
+    }
+
+    private static void addMethod(ClassFile cf, String name, String descriptor, Bytecode code) throws Exception {
+        MethodInfo method = new MethodInfo(cf.getConstPool(), name, descriptor);
+        method.setAccessFlags(AccessFlag.PUBLIC);
+        method.setCodeAttribute(code.toCodeAttribute());
+        cf.addMethod(method);
+    }
+
+    /**
+     * Emits filter(Tuple): each predicate reads its field from the tuple and
+     * jumps to "return false" if the comparison fails.
+     */
+    private static Bytecode tupleMethod(ConstPool cp, Predicate[] predicates) {
+        Bytecode code = new Bytecode(cp);
+        int[] jumps = new int[predicates.length];
+        for (int j = 0; j < predicates.length; j++) {
+            Predicate p = predicates[j];
+            code.addAload(1);
+            code.addIconst(p.getField());
+            code.addInvokevirtual("simpledb.Tuple", "getField", "(I)Lsimpledb/Field;");
+            if (isInt(p)) {
+                code.addCheckcast("simpledb.IntField");
+                code.addInvokevirtual("simpledb.IntField", "getValue", "()I");
+                code.addAload(0);
+                code.addGetfield(BASE, "ints", "[I");
+                code.addIconst(j);
+                code.addOpcode(Opcode.IALOAD);
+            } else {
+                code.addCheckcast("simpledb.StringField");
+                code.addInvokevirtual("simpledb.StringField", "getValue", "()Ljava/lang/String;");
+                code.addAload(0);
+                code.addGetfield(BASE, "strings", "[Ljava/lang/String;");
+                code.addIconst(j);
+                code.addOpcode(Opcode.AALOAD);
+            }
+            jumps[j] = addFailingBranch(code, p);
+        }
+        code.addIconst(1);
+        code.addOpcode(Opcode.IRETURN);
+        int fail = code.currentPc();
+        for (int jump : jumps) {
+            code.write16bit(jump + 1, fail - jump);
+        }
+        code.addIconst(0);
+        code.addOpcode(Opcode.IRETURN);
+        code.setMaxStack(3);
+        code.setMaxLocals(2);
+        return code;
+    }
+
+    /**
+     * Emits filter(TupleBatch, int[]): the columns and operands are loaded
+     * into locals, then a single loop over the rows evaluates every predicate
+     * and records the rows that pass all of them.
+     */
+    private static Bytecode batchMethod(ConstPool cp, Predicate[] predicates) {
+        // locals: this, batch, selected, n, k, i, then a column and an operand per predicate
+        final int n = 3, k = 4, i = 5, first = 6;
+        Bytecode code = new Bytecode(cp);
+        code.addAload(1);
+        code.addInvokevirtual("simpledb.TupleBatch", "size", "()I");
+        code.addIstore(n);
+        for (int j = 0; j < predicates.length; j++) {
+            Predicate p = predicates[j];
+            code.addAload(1);
+            code.addIconst(p.getField());
+            if (isInt(p)) {
+                code.addInvokevirtual("simpledb.TupleBatch", "getIntColumn", "(I)[I");
+                code.addAstore(first + 2 * j);
+                code.addAload(0);
+                code.addGetfield(BASE, "ints", "[I");
+                code.addIconst(j);
+                code.addOpcode(Opcode.IALOAD);
+                code.addIstore(first + 2 * j + 1);
+            } else {
+                code.addInvokevirtual("simpledb.TupleBatch", "getStringColumn", "(I)[Ljava/lang/String;");
+                code.addAstore(first + 2 * j);
+                code.addAload(0);
+                code.addGetfield(BASE, "strings", "[Ljava/lang/String;");
+                code.addIconst(j);
+                code.addOpcode(Opcode.AALOAD);
+                code.addAstore(first + 2 * j + 1);
+            }
+        }
+        code.addIconst(0);
+        code.addIstore(k);
+        code.addIconst(0);
+        code.addIstore(i);
+
+        int loop = code.currentPc();
+        code.addIload(i);
+        code.addIload(n);
+        int exit = code.currentPc();
+        code.addOpcode(Opcode.IF_ICMPGE);
+        code.addIndex(0);
+
+        int[] jumps = new int[predicates.length];
+        for (int j = 0; j < predicates.length; j++) {
+            Predicate p = predicates[j];
+            code.addAload(first + 2 * j);
+            code.addIload(i);
+            if (isInt(p)) {
+                code.addOpcode(Opcode.IALOAD);
+                code.addIload(first + 2 * j + 1);
+            } else {
+                code.addOpcode(Opcode.AALOAD);
+                code.addAload(first + 2 * j + 1);
+            }
+            jumps[j] = addFailingBranch(code, p);
+        }
+        // selected[k++] = i
+        code.addAload(2);
+        code.addIload(k);
+        code.addIload(i);
+        code.addOpcode(Opcode.IASTORE);
+        addIinc(code, k);
+
+        int next = code.currentPc();
+        for (int jump : jumps) {
+            code.write16bit(jump + 1, next - jump);
+        }
+        addIinc(code, i);
+        int back = code.currentPc();
+        code.addOpcode(Opcode.GOTO);
+        code.addIndex(loop - back);
+
+        code.write16bit(exit + 1, code.currentPc() - exit);
+        code.addIload(k);
+        code.addOpcode(Opcode.IRETURN);
+        code.setMaxStack(3);
+        code.setMaxLocals(first + 2 * predicates.length);
+        return code;
+    }
+
+    private static boolean isInt(Predicate p) {
+        return p.getOperand().getType() == Type.INT_TYPE;
+    }
+
+    private static void addIinc(Bytecode code, int local) {
+        code.addOpcode(Opcode.IINC);
+        code.add(local);
+        code.add(1);
+    }
+
+    /**
+     * Emits the comparison of p between the field value and the operand on
+     * top of the stack, as a branch taken when the comparison is false. The
+     * offset of the branch is left for the caller to fill in.
+     *
+     * @return the position of the branch instruction
+     */
+    private static int addFailingBranch(Bytecode code, Predicate p) {
+        Predicate.Op op = p.getOp();
+        if (isInt(p)) {
+            int pc = code.currentPc();
+            code.addOpcode(intBranch(op));
+            code.addIndex(0);
+            return pc;
+        }
+        if (op == Predicate.Op.LIKE) {
+            code.addInvokestatic(BASE, "contains", "(Ljava/lang/String;Ljava/lang/String;)Z");
+            int pc = code.currentPc();
+            code.addOpcode(Opcode.IFEQ);
+            code.addIndex(0);
+            return pc;
+        }
+        code.addInvokestatic(BASE, "compare", "(Ljava/lang/String;Ljava/lang/String;)I");
+        int pc = code.currentPc();
+        code.addOpcode(zeroBranch(op));
+        code.addIndex(0);
+        return pc;
+    }
+
+    /**
+     * @return the opcode that compares two ints and branches if "a op b" is false,
+     * with the semantics of {@link IntField#compare}
+     */
+    private static int intBranch(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return Opcode.IF_ICMPNE;
+            case NOT_EQUALS:
+                return Opcode.IF_ICMPEQ;
+            case GREATER_THAN:
+                return Opcode.IF_ICMPLE;
+            case GREATER_THAN_OR_EQ:
+                return Opcode.IF_ICMPLT;
+            case LESS_THAN:
+                return Opcode.IF_ICMPGE;
+            case LESS_THAN_OR_EQ:
+                return Opcode.IF_ICMPGT;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    /**
+     * @return the opcode that branches if "c op 0" is false, where c is the result of a compareTo
+     */
+    private static int zeroBranch(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Opcode.IFNE;
+            case NOT_EQUALS:
+                return Opcode.IFEQ;
+            case GREATER_THAN:
+                return Opcode.IFLE;
+            case GREATER_THAN_OR_EQ:
+                return Opcode.IFLT;
+            case LESS_THAN:
+                return Opcode.IFGE;
+            case LESS_THAN_OR_EQ:
+                return Opcode.IFGT;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+/**
+ * A PreparedStatement is a SELECT statement with ? placeholders in place of
+ * the constants of some of the filters of its WHERE clause, created by
+ * {@link Parser#prepare}. The statement is parsed once and its joins are
+ * ordered when it is first executed; each execution then only binds the
+ * values of the placeholders and builds the operators of the plan.
+ * <p>
+ * The placeholders are numbered from 1, in the order they appear in the
+ * statement. Their values keep their setting across executions. Like any
+ * statement of a {@link StatementCache}, the plan is shared with the
+ * statements of the same normalized text, and its join order is the one
+ * chosen for the values of its first execution.
+ */
+public class PreparedStatement {
+
+    private final String sql;
+    private final CachedPlan plan;
+    // the value of each parameter of the plan: a constant of the statement, or the value set for a placeholder
+    private final String[] values;
+    // the parameter of the plan of each placeholder
+    private final int[] placeholders;
+
+    /**
+     * @param sql       the normalized text of the statement
+     * @param constants the value of each constant of the statement, or null for a placeholder
+     */
+    PreparedStatement(String sql, CachedPlan plan, String[] constants) {
+        this.sql = sql;
+        this.plan = plan;
+        this.values = constants.clone();
+        int n = 0;
+        for (String c : constants) {
+            if (c == null) {
+                n++;
+            }
+        }
+        this.placeholders = new int[n];
+        n = 0;
+        for (int i = 0; i < constants.length; i++) {
+            if (constants[i] == null) {
+                this.placeholders[n++] = i;
+            }
+        }
+    }
+
+    /**
+     * @return the normalized text of the statement
+     */
+    public String getSql() {
+        return this.sql;
+    }
+
+    /**
+     * @return the number of ? placeholders of the statement
+     */
+    public int getParameterCount() {
+        return this.placeholders.length;
+    }
+
+    private int parameter(int index) {
+        if (index < 1 || index > this.placeholders.length) {
+            throw new IllegalArgumentException("the statement has no placeholder " + index + ", only "
+                    + this.placeholders.length);
+        }
+        return this.placeholders[index - 1];
+    }
+
+    /**
+     * Sets the value of a placeholder compared with an int field.
+     *
+     * @param index the number of the placeholder, from 1
+     */
+    public void setInt(int index, int value) {
+        this.values[parameter(index)] = Integer.toString(value);
+    }
+
+    /**
+     * Sets the value of a placeholder compared with a string field.
+     *
+     * @param index the number of the placeholder, from 1
+     */
+    public void setString(int index, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("the value of placeholder " + index + " is null");
+        }
+        this.values[parameter(index)] = value;
+    }
+
+    /**
+     * Unsets the values of all placeholders.
+     */
+    public void clearParameters() {
+        for (int i : this.placeholders) {
+            this.values[i] = null;
+        }
+    }
+
+    LogicalPlan getLogicalPlan() {
+        return this.plan.getLogicalPlan();
+    }
+
+    /**
+     * Builds the physical plan of the statement for the current values of
+     * its placeholders.
+     *
+     * @param tid the transaction the returned DbIterator will run as a part of
+     * @return the plan
+     * @throws ParsingException if a placeholder is not set, or a value does not match the type of its field, or
+     *                          the catalog has changed since the statement was prepared
+     */
+    public DbIterator physicalPlan(TransactionId tid) throws ParsingException {
+        for (int i = 0; i < this.placeholders.length; i++) {
+            if (this.values[this.placeholders[i]] == null) {
+                throw new ParsingException("placeholder " + (i + 1) + " is not set");
+            }
+        }
+        if (this.plan.getCatalogVersion() != Database.getCatalog().getVersion()) {
+            throw new ParsingException("the catalog has changed since the statement was prepared");
+        }
+        return this.plan.physicalPlan(tid, this.values);
+    }
+}
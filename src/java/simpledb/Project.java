@@ -38,6 +38,13 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /**
+     * @return the index in the child's tuples of the i-th output field
+     */
+    public int getOutField(int i) {
+        return outFieldIds.get(i);
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -77,6 +84,25 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Projects a batch of the child at a time; the columns of the child's
+     * batch are reused without copying.
+     *
+     * @return the next batch of projected tuples, or null if there are no more tuples
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = BatchAdapter.of(child).nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = outFieldIds.get(i);
+        }
+        return batch.project(fields, td);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[]{this.child};
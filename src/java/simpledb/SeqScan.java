@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -16,6 +16,18 @@ public class SeqScan implements DbIterator {
     private TransactionId tid;
     private DbFileIterator dbFileIterator;
     private TupleDesc tupleDesc;
+    // the range of pages to scan; endPage is -1 to scan to the end of the file
+    private final int firstPage;
+    private final int endPage;
+    // the predicates pushed into the scan
+    private Predicate[] predicates = new Predicate[0];
+    // the fields of the table the scan returns, or null to return all of them
+    private int[] columns;
+    // the Bloom filter a join pushed into the scan, and the field it applies to
+    private transient BloomFilter bloomFilter;
+    private int bloomField;
+    // the next tuple that passed the Bloom filter, read ahead by hasNext()
+    private Tuple pending;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -30,7 +42,27 @@ public class SeqScan implements DbIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, 0, -1);
+    }
+
+    /**
+     * Creates a sequential scan over a range of pages of the specified table,
+     * which must be stored in a {@link HeapFile}. Scans over disjoint ranges
+     * can run in different threads at the same time.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table
+     * @param firstPage  the number of the first page to scan
+     * @param endPage    the number of the page after the last one to scan, or -1 to scan to the end of the table
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
+        if (firstPage < 0 || (endPage >= 0 && endPage < firstPage)) {
+            throw new IllegalArgumentException("invalid page range [" + firstPage + ", " + endPage + ")");
+        }
         this.tid = tid;
+        this.firstPage = firstPage;
+        this.endPage = endPage;
         reset(tableid, tableAlias);
     }
 
@@ -43,6 +75,103 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(this.tableid);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
+    /**
+     * @return the number of the first page this operator scans
+     */
+    public int getFirstPage() {
+        return this.firstPage;
+    }
+
+    /**
+     * @return the number of the page after the last one this operator scans, or -1 if it scans to the end of the table
+     */
+    public int getEndPage() {
+        return this.endPage;
+    }
+
+    /**
+     * Pushes predicates into this scan: only the tuples that satisfy all of
+     * them are returned. The table must be stored in a {@link HeapFile}, whose
+     * pages evaluate comparisons on INT_TYPE fields before decoding the
+     * tuples. Takes effect the next time the scan is opened.
+     *
+     * @param predicates the predicates over the fields of the TupleDesc of this scan
+     */
+    public void setPredicates(Predicate[] predicates) {
+        this.predicates = predicates.clone();
+    }
+
+    /**
+     * @return the predicates pushed into this scan
+     */
+    public Predicate[] getPredicates() {
+        return this.predicates.clone();
+    }
+
+    /**
+     * Restricts this scan to some of the fields of the table: the tuples it
+     * returns only have these fields, and the pages of the table do not decode
+     * the other ones. The table must be stored in a {@link HeapFile}. Changes
+     * the TupleDesc of this scan, so it must be called before the operators
+     * that consume it are built, and before {@link #setPredicates}.
+     *
+     * @param columns the indexes of the fields of the table to return, in order, or null to return all of them
+     */
+    public void setColumns(int[] columns) {
+        TupleDesc origTd = Database.getCatalog().getTupleDesc(this.tableid);
+        if (columns != null) {
+            for (int column : columns) {
+                if (column < 0 || column >= origTd.numFields()) {
+                    throw new IllegalArgumentException("no field " + column + " in table " + getTableName());
+                }
+            }
+        }
+        this.columns = columns == null ? null : columns.clone();
+        reset(this.tableid, this.tableAlias);
+    }
+
+    /**
+     * @return the indexes of the fields of the table this scan returns, or null if it returns all of them
+     */
+    public int[] getColumns() {
+        return this.columns == null ? null : this.columns.clone();
+    }
+
+    /**
+     * Drops the tuples whose value of a field is not in a Bloom filter. Unlike
+     * predicates, the filter takes effect immediately, even while the scan is
+     * open, so that a {@link Join} can push it once it has read its inner
+     * relation.
+     *
+     * @param field  the index of the field in the TupleDesc of this scan
+     * @param filter the Bloom filter, or null to return every tuple
+     */
+    public void setBloomFilter(int field, BloomFilter filter) {
+        this.bloomField = field;
+        this.bloomFilter = filter;
+    }
+
+    /**
+     * @return the Bloom filter pushed into this scan, or null
+     */
+    public BloomFilter getBloomFilter() {
+        return this.bloomFilter;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      */
@@ -68,9 +197,10 @@ public class SeqScan implements DbIterator {
         TupleDesc origTd = Database.getCatalog().getTupleDesc(tableid);
         ArrayList<TupleDesc.TDItem> tdList = new ArrayList<>(origTd.numFields());
         origTd.iterator().forEachRemaining(tdItem -> {
-            tdList.add(new TupleDesc.TDItem(tdItem.fieldType, tableAlias + tdItem.fieldName));
+            tdList.add(new TupleDesc.TDItem(tdItem.fieldType, tableAlias + "." + tdItem.fieldName));
         });
-        this.tupleDesc = new TupleDesc(tdList.toArray(new TupleDesc.TDItem[]{}));
+        TupleDesc td = new TupleDesc(tdList.toArray(new TupleDesc.TDItem[]{}));
+        this.tupleDesc = this.columns == null ? td : td.project(this.columns);
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -79,9 +209,35 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(this.tableid);
-        this.dbFileIterator = dbFile.iterator(this.tid);
+        if (this.firstPage == 0 && this.endPage < 0 && this.predicates.length == 0 && this.columns == null) {
+            this.dbFileIterator = Database.getCatalog().getDatabaseFile(this.tableid).iterator(this.tid);
+        } else {
+            this.dbFileIterator = iterator(this.firstPage, this.endPage);
+        }
         this.dbFileIterator.open();
+        this.pending = null;
+    }
+
+    /**
+     * Returns an iterator over a range of pages of the table, which applies
+     * the predicates and the columns of this scan.
+     *
+     * @param firstPage the number of the first page to scan
+     * @param endPage   the number of the page after the last one to scan, or -1 to scan to the end of the table
+     * @throws DbException if the table is not stored in a HeapFile
+     */
+    DbFileIterator iterator(int firstPage, int endPage) throws DbException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(this.tableid);
+        if (!(dbFile instanceof HeapFile)) {
+            throw new DbException("page ranges, predicates and columns can only be pushed into heap files");
+        }
+        // the pages evaluate the predicates over the fields of the table
+        Predicate[] pushed = new Predicate[this.predicates.length];
+        for (int i = 0; i < pushed.length; i++) {
+            Predicate p = this.predicates[i];
+            pushed[i] = this.columns == null ? p : new Predicate(this.columns[p.getField()], p.getOp(), p.getOperand());
+        }
+        return ((HeapFile) dbFile).iterator(this.tid, firstPage, endPage, pushed, this.columns);
     }
 
     /**
@@ -100,7 +256,30 @@ public class SeqScan implements DbIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return this.dbFileIterator != null && this.dbFileIterator.hasNext();
+        if (this.dbFileIterator == null) {
+            return false;
+        }
+        if (this.bloomFilter == null) {
+            return this.pending != null || this.dbFileIterator.hasNext();
+        }
+        while (this.pending == null && this.dbFileIterator.hasNext()) {
+            Tuple t = this.dbFileIterator.next();
+            if (this.bloomFilter.mightContain(t.getField(this.bloomField))) {
+                this.pending = t;
+            }
+        }
+        return this.pending != null;
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            return null;
+        }
+        TupleBatch batch = new TupleBatch(this.tupleDesc);
+        while (!batch.isFull() && hasNext()) {
+            batch.addTuple(next());
+        }
+        return batch;
     }
 
     public Tuple next() throws NoSuchElementException,
@@ -109,6 +288,11 @@ public class SeqScan implements DbIterator {
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
+        if (this.pending != null) {
+            Tuple t = this.pending;
+            this.pending = null;
+            return t;
+        }
         return this.dbFileIterator.next();
     }
 
@@ -121,5 +305,6 @@ public class SeqScan implements DbIterator {
             TransactionAbortedException {
         // some code goes here
         this.dbFileIterator.rewind();
+        this.pending = null;
     }
 }
@@ -8,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if (args[0].equals("convert")) {
             try {
-                if (args.length < 3 || args.length > 5) {
+                if (args.length < 3 || args.length > 6) {
                     System.err.println("Unexpected number of arguments to convert ");
                     return;
                 }
@@ -39,13 +39,26 @@ public class SimpleDb {
                             return;
                         }
                     }
-                    if (args.length == 5)
+                    if (args.length >= 5)
                         fieldSeparator = args[4].charAt(0);
                 }
 
                 HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
                         BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
+                // the optional last argument is the storage format of the table
+                if (args.length == 6 && args[5].toLowerCase().equals("pax")) {
+                    File heapFile = new File(targetDatFile.getPath() + ".heap");
+                    if (!targetDatFile.renameTo(heapFile)) {
+                        throw new IOException("cannot rename " + targetDatFile);
+                    }
+                    PaxFile.convert(heapFile, targetDatFile, new TupleDesc(ts));
+                    heapFile.delete();
+                } else if (args.length == 6 && !args[5].toLowerCase().equals("heap")) {
+                    System.err.println("Unknown storage format " + args[5]);
+                    return;
+                }
+
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
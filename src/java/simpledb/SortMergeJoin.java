@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two relations on the equality of a field of each. It
+ * reads both relations into memory, sorts them on their join fields, and
+ * then merges them, so that each tuple is only compared with the tuples of the
+ * other relation that are next to its value in the sort order.
+ * <p>
+ * The returned tuples are the concatenation of the outer and the inner tuple,
+ * like those of a {@link Join}, and are returned in ascending order of the
+ * join value, so a sort on a join field can be skipped. The tuples with the
+ * same value are returned in the order of the outer relation.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate predicate;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc tupleDesc;
+
+    // the tuples of both relations, sorted on the join fields
+    private transient ArrayList<Tuple> outer;
+    private transient ArrayList<Tuple> inner;
+    // the runs of tuples with the value being joined, and the next pair of them to return
+    private transient int outerPos;
+    private transient int outerEnd;
+    private transient int innerStart;
+    private transient int innerPos;
+    private transient int innerEnd;
+
+    /**
+     * Constructor.
+     *
+     * @param p      The predicate to use to join the children; its operator must be EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("a SortMergeJoin only supports equality, not " + p.getOperator());
+        }
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        setTupleDesc();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    private void setTupleDesc() {
+        this.tupleDesc = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        super.open();
+        this.child1.open();
+        this.child2.open();
+        this.outer = sorted(this.child1, this.predicate.getField1());
+        this.inner = sorted(this.child2, this.predicate.getField2());
+        rewindMerge();
+    }
+
+    /**
+     * @return the tuples of it, stably sorted on field
+     */
+    private static ArrayList<Tuple> sorted(DbIterator it, int field) throws DbException,
+            TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        tuples.sort((t1, t2) -> t1.getField(field).compareTo(t2.getField(field)));
+        return tuples;
+    }
+
+    private void rewindMerge() {
+        this.outerPos = 0;
+        this.outerEnd = 0;
+        this.innerStart = 0;
+        this.innerPos = 0;
+        this.innerEnd = 0;
+    }
+
+    public void close() {
+        this.child1.close();
+        this.child2.close();
+        this.outer = null;
+        this.inner = null;
+        super.close();
+    }
+
+    /**
+     * Returns the joined tuples again; the sorted relations are kept in
+     * memory.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        rewindMerge();
+    }
+
+    /**
+     * Returns the next pair of tuples of the current runs, or finds the next
+     * pair of runs of the same value.
+     *
+     * @return The next matching tuple, or null if there are no more
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int f1 = this.predicate.getField1();
+        int f2 = this.predicate.getField2();
+        while (true) {
+            if (this.outerPos < this.outerEnd) {
+                if (this.innerPos < this.innerEnd) {
+                    return merge(this.outer.get(this.outerPos), this.inner.get(this.innerPos++));
+                }
+                this.outerPos++;
+                this.innerPos = this.innerStart;
+                continue;
+            }
+
+            int i = this.outerEnd;
+            int j = this.innerEnd;
+            while (i < this.outer.size() && j < this.inner.size()) {
+                int c = this.outer.get(i).getField(f1).compareTo(this.inner.get(j).getField(f2));
+                if (c < 0) {
+                    i++;
+                } else if (c > 0) {
+                    j++;
+                } else {
+                    break;
+                }
+            }
+            if (i == this.outer.size() || j == this.inner.size()) {
+                this.outerPos = this.outerEnd = this.outer.size();
+                this.innerEnd = this.inner.size();
+                return null;
+            }
+            Field value = this.outer.get(i).getField(f1);
+            this.outerPos = i;
+            this.outerEnd = i + 1;
+            while (this.outerEnd < this.outer.size() && this.outer.get(this.outerEnd).getField(f1).equals(value)) {
+                this.outerEnd++;
+            }
+            this.innerStart = this.innerPos = j;
+            this.innerEnd = j + 1;
+            while (this.innerEnd < this.inner.size() && this.inner.get(this.innerEnd).getField(f2).equals(value)) {
+                this.innerEnd++;
+            }
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple res = new Tuple(this.tupleDesc);
+        int nFields1 = this.child1.getTupleDesc().numFields();
+        int nFields2 = this.child2.getTupleDesc().numFields();
+        for (int i = 0; i < nFields1; i++) {
+            res.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < nFields2; i++) {
+            res.setField(nFields1 + i, t2.getField(i));
+        }
+        return res;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        setTupleDesc();
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples used by operators that
+ * must move intermediate state out of memory. Tuples are written in the same
+ * fixed-width field encoding that HeapPage uses, without page structure, and
+ * can be read back any number of times through {@link #iterator} once the
+ * writer has been flushed.
+ * <p>
+ * Spill files do not go through the BufferPool: they hold private scratch
+ * data of a single operator and are never shared between transactions. The
+ * operator that creates a spill file must {@link #delete} it once it is no
+ * longer needed.
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Creates a new, empty spill file for tuples of the specified schema.
+     */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("spill", ".tmp");
+        } catch (IOException e) {
+            throw new DbException("Unable to create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends a tuple to the end of the file.
+     */
+    void append(Tuple t) throws DbException {
+        try {
+            if (this.out == null) {
+                this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file, true)));
+            }
+            for (int i = 0; i < this.td.numFields(); i++) {
+                t.getField(i).serialize(this.out);
+            }
+        } catch (IOException e) {
+            throw new DbException("Unable to write spill file: " + e.getMessage());
+        }
+        this.numTuples++;
+    }
+
+    /**
+     * @return the number of tuples appended so far
+     */
+    int numTuples() {
+        return this.numTuples;
+    }
+
+    /**
+     * Flushes buffered tuples to disk and closes the writer. A later call to
+     * {@link #append} reopens it.
+     */
+    void flush() throws DbException {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } catch (IOException e) {
+                throw new DbException("Unable to write spill file: " + e.getMessage());
+            }
+            this.out = null;
+        }
+    }
+
+    /**
+     * Removes the file from disk.
+     */
+    void delete() {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } catch (IOException e) {
+                // ignored, the file is deleted anyway
+            }
+            this.out = null;
+        }
+        this.file.delete();
+    }
+
+    /**
+     * @return a DbIterator over the tuples in the file, in the order they were appended. Only tuples written out by
+     * {@link #flush} are visible.
+     */
+    DbIterator iterator() {
+        return new DbIterator() {
+
+            private static final long serialVersionUID = 1L;
+
+            DataInputStream in;
+            int remaining;
+
+            @Override
+            public void open() throws DbException {
+                close();
+                try {
+                    this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                } catch (FileNotFoundException e) {
+                    throw new DbException("Spill file is missing: " + file);
+                }
+                this.remaining = numTuples;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (this.in == null) {
+                    throw new IllegalStateException("Iterator not yet open");
+                }
+                return this.remaining > 0;
+            }
+
+            @Override
+            public Tuple next() throws DbException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < td.numFields(); i++) {
+                        t.setField(i, td.getFieldType(i).parse(this.in));
+                    }
+                } catch (java.text.ParseException e) {
+                    throw new DbException("Corrupt spill file: " + file);
+                }
+                this.remaining--;
+                return t;
+            }
+
+            @Override
+            public void rewind() throws DbException {
+                open();
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            @Override
+            public void close() {
+                if (this.in != null) {
+                    try {
+                        this.in.close();
+                    } catch (IOException e) {
+                        // ignored
+                    }
+                    this.in = null;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,319 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillingAggregator computes a grouped aggregate while keeping at most a
+ * fixed number of groups in memory (hybrid hash aggregation).
+ * <p>
+ * Tuples are merged into an in-memory aggregator until it holds
+ * <code>maxGroups</code> groups. From then on, tuples of groups that are already
+ * resident are still merged in memory, while tuples of any other group are
+ * appended to one of {@link #NUM_PARTITIONS} spill files, chosen by hashing the
+ * group-by value. All tuples of a group therefore end up either in memory or in
+ * the same partition. When the result is iterated, the resident groups are
+ * returned first, and each partition is then aggregated in turn by a new
+ * SpillingAggregator that partitions on a different hash if it overflows too.
+ * The groups of an aggregated partition are kept in a result file until the
+ * iterator is closed, so rewinding it does not repeat the work.
+ */
+public class SpillingAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the in-memory aggregators used for the resident groups and for
+     * each spilled partition.
+     */
+    public interface Factory extends Serializable {
+        Aggregator create();
+    }
+
+    static final int NUM_PARTITIONS = 16;
+
+    /**
+     * Number of partitioning passes after which a partition is aggregated in
+     * memory regardless of the budget. Only a handful of very frequent keys
+     * can share a partition at this depth.
+     */
+    static final int MAX_LEVEL = 4;
+
+    private final TupleDesc td;
+    private final int[] gbfields;
+    private final int maxGroups;
+    private final Factory factory;
+    private final int level;
+
+    private final Aggregator resident;
+    private SpillFile[] partitions;
+
+    /**
+     * Constructor.
+     *
+     * @param td        the TupleDesc of the tuples that are merged
+     * @param gbfields  the 0-based indexes of the group-by fields in the tuple
+     * @param maxGroups the maximum number of groups kept in memory
+     * @param factory   creates the in-memory aggregators
+     */
+    public SpillingAggregator(TupleDesc td, int[] gbfields, int maxGroups, Factory factory) {
+        this(td, gbfields.clone(), maxGroups, factory, 0);
+    }
+
+    private SpillingAggregator(TupleDesc td, int[] gbfields, int maxGroups, Factory factory, int level) {
+        if (gbfields.length == 0) {
+            throw new IllegalArgumentException("a SpillingAggregator needs a group-by field");
+        }
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("maxGroups must be positive");
+        }
+        this.td = td;
+        this.gbfields = gbfields;
+        this.maxGroups = maxGroups;
+        this.factory = factory;
+        this.level = level;
+        this.resident = factory.create();
+    }
+
+    /**
+     * @return true if some tuples have been written to disk
+     */
+    public boolean hasSpilled() {
+        return this.partitions != null;
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (this.partitions == null) {
+            if (this.resident.numGroups() < this.maxGroups || this.resident.hasGroupOf(tup)) {
+                this.resident.mergeTupleIntoGroup(tup);
+                return;
+            }
+            this.partitions = new SpillFile[NUM_PARTITIONS];
+        } else if (this.resident.hasGroupOf(tup)) {
+            this.resident.mergeTupleIntoGroup(tup);
+            return;
+        }
+
+        int p = partitionOf(tup);
+        try {
+            if (this.partitions[p] == null) {
+                this.partitions[p] = new SpillFile(this.td);
+            }
+            this.partitions[p].append(tup);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void mergeBatch(TupleBatch batch) {
+        if (this.partitions == null && this.resident.numGroups() + batch.size() <= this.maxGroups) {
+            // the batch cannot overflow the budget
+            this.resident.mergeBatch(batch);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(i));
+        }
+    }
+
+    /**
+     * @return the partition of the group of tup at this level
+     */
+    private int partitionOf(Tuple tup) {
+        int h = this.level * 0x9E3779B9;
+        for (int f : this.gbfields) {
+            h = 31 * h + tup.getField(f).hashCode();
+        }
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    /**
+     * @return the number of groups held in memory; spilled groups are not counted
+     */
+    public int numGroups() {
+        return this.resident.numGroups();
+    }
+
+    /**
+     * @return true if the group of tup is held in memory
+     */
+    public boolean hasGroupOf(Tuple tup) {
+        return this.resident.hasGroupOf(tup);
+    }
+
+    /**
+     * Partial results are combined from in-memory aggregators instead.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public void merge(Aggregator other) {
+        throw new UnsupportedOperationException("spilled groups cannot be merged");
+    }
+
+    public void clear() {
+        this.resident.clear();
+        if (this.partitions != null) {
+            for (SpillFile f : this.partitions) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
+            this.partitions = null;
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results. Spilled partitions are
+     * aggregated one at a time while the iterator advances, so only one of them
+     * is in memory at any point. The groups of each aggregated partition are
+     * written to a result file that later passes replay, so a rewind does not
+     * aggregate the partition again. Result files are deleted by close().
+     */
+    public DbIterator iterator() {
+        return new DbIterator() {
+
+            private static final long serialVersionUID = 1L;
+
+            private TupleDesc tupleDesc;
+            private DbIterator current;
+            private int nextPartition;
+            private SpillFile[] results;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                close();
+                if (partitions != null) {
+                    for (SpillFile f : partitions) {
+                        if (f != null) {
+                            f.flush();
+                        }
+                    }
+                    this.results = new SpillFile[NUM_PARTITIONS];
+                }
+                start();
+            }
+
+            /**
+             * Starts a pass at the resident groups.
+             */
+            private void start() throws DbException, TransactionAbortedException {
+                this.current = resident.iterator();
+                this.current.open();
+                this.tupleDesc = this.current.getTupleDesc();
+                this.nextPartition = 0;
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (this.current == null) {
+                    throw new IllegalStateException("Iterator not yet open");
+                }
+                while (!this.current.hasNext()) {
+                    if (!advance()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * Starts iterating over the groups of the next non-empty spilled
+             * partition, aggregating it first unless an earlier pass did.
+             *
+             * @return false if there are no more partitions
+             */
+            private boolean advance() throws DbException, TransactionAbortedException {
+                if (partitions == null) {
+                    return false;
+                }
+                while (this.nextPartition < NUM_PARTITIONS && partitions[this.nextPartition] == null) {
+                    this.nextPartition++;
+                }
+                if (this.nextPartition == NUM_PARTITIONS) {
+                    return false;
+                }
+                int p = this.nextPartition++;
+                if (this.results[p] == null) {
+                    this.results[p] = aggregate(partitions[p]);
+                }
+                this.current.close();
+                this.current = this.results[p].iterator();
+                this.current.open();
+                return true;
+            }
+
+            /**
+             * Aggregates a spilled partition with a SpillingAggregator one
+             * level down and writes its groups to a new result file.
+             */
+            private SpillFile aggregate(SpillFile partition) throws DbException, TransactionAbortedException {
+                int budget = level + 1 < MAX_LEVEL ? maxGroups : Integer.MAX_VALUE;
+                SpillingAggregator sub = new SpillingAggregator(td, gbfields, budget, factory, level + 1);
+                SpillFile result = new SpillFile(this.tupleDesc);
+                try {
+                    DbIterator in = partition.iterator();
+                    in.open();
+                    while (in.hasNext()) {
+                        sub.mergeTupleIntoGroup(in.next());
+                    }
+                    in.close();
+                    DbIterator groups = sub.iterator();
+                    groups.open();
+                    while (groups.hasNext()) {
+                        result.append(groups.next());
+                    }
+                    groups.close();
+                    result.flush();
+                } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                    result.delete();
+                    throw e;
+                } finally {
+                    sub.clear();
+                }
+                return result;
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.current.next();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                if (this.current == null) {
+                    throw new IllegalStateException("Iterator not yet open");
+                }
+                this.current.close();
+                start();
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return this.tupleDesc;
+            }
+
+            @Override
+            public void close() {
+                if (this.current != null) {
+                    this.current.close();
+                    this.current = null;
+                }
+                if (this.results != null) {
+                    for (SpillFile f : this.results) {
+                        if (f != null) {
+                            f.delete();
+                        }
+                    }
+                    this.results = null;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,280 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A StatementCache keeps the plans of recently executed SELECT statements,
+ * keyed by their normalized text, so that executing a statement again skips
+ * parsing and join ordering, and only builds the operators of its plan.
+ * <p>
+ * The normalized text of a statement collapses its whitespace, drops its
+ * final semicolon, and replaces each constant, a number or a string literal,
+ * and each ? placeholder by ?. Statements that only differ in their
+ * constants thus share a plan, whose filter constants are parameters bound
+ * at each execution. The plan is optimized for the constants of the first
+ * statement, like the generic plan of a {@link PreparedStatement}.
+ * <p>
+ * When the cache is full, the least recently used plan is evicted. Plans
+ * made against an older version of the catalog are discarded when they are
+ * looked up.
+ *
+ * @Threadsafe
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private int capacity;
+    private final LinkedHashMap<String, CachedPlan> plans;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity the maximum number of plans to keep, at least 1
+     */
+    public StatementCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("the capacity must be at least 1, not " + capacity);
+        }
+        this.capacity = capacity;
+        // in access order, so that the eldest entry is the least recently used
+        this.plans = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true);
+    }
+
+    /**
+     * Sets the maximum number of plans to keep, evicting the least recently
+     * used ones if there are more.
+     *
+     * @param capacity the maximum number of plans, at least 1
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("the capacity must be at least 1, not " + capacity);
+        }
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized int getCapacity() {
+        return this.capacity;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, CachedPlan>> it = this.plans.entrySet().iterator();
+        while (this.plans.size() > this.capacity) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @param text the normalized text of a statement
+     * @return its plan, or null if there is none for the current catalog
+     */
+    synchronized CachedPlan get(String text) {
+        CachedPlan plan = this.plans.get(text);
+        if (plan != null && plan.getCatalogVersion() != Database.getCatalog().getVersion()) {
+            this.plans.remove(text);
+            plan = null;
+        }
+        if (plan == null) {
+            this.misses++;
+        } else {
+            this.hits++;
+        }
+        return plan;
+    }
+
+    /**
+     * Adds the plan of a statement, or replaces the one it has.
+     *
+     * @param text the normalized text of the statement
+     */
+    synchronized void put(String text, CachedPlan plan) {
+        this.plans.put(text, plan);
+        evict();
+    }
+
+    /**
+     * @return the number of plans in the cache
+     */
+    public synchronized int size() {
+        return this.plans.size();
+    }
+
+    /**
+     * @return the number of lookups that found a plan
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find a plan
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Discards all plans.
+     */
+    public synchronized void clear() {
+        this.plans.clear();
+    }
+
+    /**
+     * A statement split into its normalized text and its constants.
+     */
+    static final class Normalized {
+        /**
+         * The normalized text, with ? in place of each constant and placeholder.
+         */
+        final String text;
+
+        /**
+         * The text Zql parses into a plan whose filters have the constants
+         * '?1', '?2', ... in place of the constants and placeholders.
+         */
+        final String parseText;
+
+        /**
+         * The value of each constant, as Zql would parse it, or null for a placeholder.
+         */
+        final String[] constants;
+
+        /**
+         * Whether the statement is a single SELECT without subqueries, whose plan can be reused.
+         */
+        final boolean reusable;
+
+        Normalized(String text, String parseText, String[] constants, boolean reusable) {
+            this.text = text;
+            this.parseText = parseText;
+            this.constants = constants;
+            this.reusable = reusable;
+        }
+
+        /**
+         * @return true if the statement has ? placeholders
+         */
+        boolean hasPlaceholders() {
+            for (String c : this.constants) {
+                if (c == null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Normalizes the text of a statement.
+     */
+    static Normalized normalize(String sql) {
+        StringBuilder text = new StringBuilder();
+        StringBuilder parseText = new StringBuilder();
+        ArrayList<String> constants = new ArrayList<String>();
+        int selects = 0;
+        boolean first = true;
+        boolean select = false;
+        boolean terminated = true;
+        boolean ended = false;
+        boolean space = false;
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (c == ';') {
+                ended = true;
+                i++;
+                continue;
+            }
+            if (ended) {
+                // another statement follows
+                terminated = false;
+            }
+            if (space && text.length() > 0) {
+                text.append(' ');
+                parseText.append(' ');
+            }
+            space = false;
+
+            int end;
+            String constant;
+            if (c == '\'') {
+                // a string literal, in which a quote is written twice
+                end = i + 1;
+                while (true) {
+                    if (end >= n) {
+                        terminated = false;
+                        break;
+                    }
+                    if (sql.charAt(end) == '\'') {
+                        if (end + 1 < n && sql.charAt(end + 1) == '\'') {
+                            end += 2;
+                            continue;
+                        }
+                        end++;
+                        break;
+                    }
+                    end++;
+                }
+                constant = sql.substring(i + 1, Math.max(i + 1, end - 1));
+            } else if (c == '?') {
+                end = i + 1;
+                constant = null;
+            } else if (Character.isDigit(c)) {
+                end = i + 1;
+                while (end < n && (Character.isDigit(sql.charAt(end)) || sql.charAt(end) == '.')) {
+                    end++;
+                }
+                constant = sql.substring(i, end);
+            } else {
+                if (Character.isLetter(c) || c == '_') {
+                    end = i + 1;
+                    while (end < n && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_'
+                            || sql.charAt(end) == '.' || sql.charAt(end) == '$')) {
+                        end++;
+                    }
+                    if (end - i == 6 && sql.regionMatches(true, i, "select", 0, 6)) {
+                        selects++;
+                        select |= first;
+                    }
+                } else if (c == '"') {
+                    // a quoted name
+                    end = sql.indexOf('"', i + 1) + 1;
+                    if (end == 0) {
+                        end = n;
+                        terminated = false;
+                    }
+                } else {
+                    end = i + 1;
+                }
+                text.append(sql, i, end);
+                parseText.append(sql, i, end);
+                first = false;
+                i = end;
+                continue;
+            }
+            text.append('?');
+            parseText.append("'?").append(constants.size() + 1).append('\'');
+            constants.add(constant);
+            first = false;
+            i = end;
+        }
+        parseText.append(';');
+        return new Normalized(text.toString(), parseText.toString(), constants.toArray(new String[0]),
+                select && selects == 1 && terminated);
+    }
+}
@@ -9,12 +9,15 @@ public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int INITIAL_GROUPS = 16;
+
     private final int gbfield;
     private final Type gbfieldtype;
     private final int afield; // unused
     private final Op what; // unused
 
-    private TreeMap<Field, Integer> countMap;
+    private final GroupTable groups;
+    private long[] counts;
 
     /**
      * Aggregate constructor
@@ -36,7 +39,8 @@ public class StringAggregator implements Aggregator {
         this.afield = afield;
         this.what = what;
 
-        this.countMap = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        this.groups = new GroupTable(hasGrouping() ? gbfieldtype : null);
+        this.counts = new long[INITIAL_GROUPS];
     }
 
     public boolean hasGrouping() {
@@ -50,14 +54,62 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field groupVal;
-        if (hasGrouping()) {
-            groupVal = tup.getField(this.gbfield);
+        int g = this.groups.findOrAdd(hasGrouping() ? tup.getField(this.gbfield) : null);
+        increment(g);
+    }
+
+    /**
+     * Merges every tuple of a batch, reading the group-by values straight
+     * from the columns of the batch.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int n = batch.size();
+        if (!hasGrouping()) {
+            for (int i = 0; i < n; i++) {
+                increment(this.groups.findOrAdd((Field) null));
+            }
+        } else if (this.gbfieldtype == Type.INT_TYPE) {
+            int[] keys = batch.getIntColumn(this.gbfield);
+            for (int i = 0; i < n; i++) {
+                increment(this.groups.findOrAdd(keys[i]));
+            }
         } else {
-            groupVal = null;
+            String[] keys = batch.getStringColumn(this.gbfield);
+            for (int i = 0; i < n; i++) {
+                increment(this.groups.findOrAdd(keys[i]));
+            }
+        }
+    }
+
+    private void increment(int g) {
+        if (g == this.counts.length) {
+            this.counts = Arrays.copyOf(this.counts, g * 2);
+        }
+        this.counts[g]++;
+    }
+
+    public void merge(Aggregator other) {
+        StringAggregator that = (StringAggregator) other;
+        for (int og = 0; og < that.groups.size(); og++) {
+            int g = this.groups.findOrAdd(that.groups.getKey(og));
+            if (g == this.counts.length) {
+                this.counts = Arrays.copyOf(this.counts, g * 2);
+            }
+            this.counts[g] += that.counts[og];
         }
-        int count = this.countMap.getOrDefault(groupVal, 0);
-        this.countMap.put(groupVal, count + 1);
+    }
+
+    public int numGroups() {
+        return this.groups.size();
+    }
+
+    public boolean hasGroupOf(Tuple tup) {
+        return this.groups.find(hasGrouping() ? tup.getField(this.gbfield) : null) >= 0;
+    }
+
+    public void clear() {
+        this.groups.clear();
+        this.counts = new long[INITIAL_GROUPS];
     }
 
     /**
@@ -71,7 +123,7 @@ public class StringAggregator implements Aggregator {
         // some code goes here
         return new DbIterator() {
             TupleDesc tupleDesc;
-            Iterator<Map.Entry<Field, Integer>> iter;
+            int nextGroup = -1;
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
@@ -82,22 +134,27 @@ public class StringAggregator implements Aggregator {
                     this.tupleDesc = new TupleDesc(
                             new Type[]{parent.gbfieldtype, Type.INT_TYPE});
                 }
-
-                this.iter = parent.countMap.entrySet().iterator();
+                this.nextGroup = 0;
             }
 
             @Override
             public boolean hasNext() throws DbException, TransactionAbortedException {
-                return this.iter.hasNext();
+                if (this.nextGroup < 0) {
+                    throw new IllegalStateException("Iterator not yet open");
+                }
+                return this.nextGroup < StringAggregator.this.groups.size();
             }
 
             @Override
             public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-                Map.Entry<Field, Integer> entry = this.iter.next();
-                Field groupVal = entry.getKey();
-                int aggregateVal = entry.getValue();
-
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
                 StringAggregator parent = StringAggregator.this;
+                int g = this.nextGroup++;
+                Field groupVal = parent.groups.getKey(g);
+                int aggregateVal = IntegerAggregator.toIntValue(parent.counts[g], Op.COUNT);
+
                 Tuple res = new Tuple(this.tupleDesc);
                 if (parent.hasGrouping()) {
                     res.setField(0, groupVal);
@@ -121,6 +178,7 @@ public class StringAggregator implements Aggregator {
 
             @Override
             public void close() {
+                this.nextGroup = -1;
             }
         };
     }
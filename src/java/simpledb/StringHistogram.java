@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A class to represent a fixed-width histogram over a single String-based
+ * field. Strings are mapped to ints that preserve their order on their first
+ * four characters, and kept in an {@link IntHistogram}.
+ */
+public class StringHistogram {
+
+    // the selectivity assumed for LIKE, which matches substrings anywhere in the values
+    static final double LIKE_SELECTIVITY = 0.1;
+
+    private final IntHistogram hist;
+
+    /**
+     * Create a new StringHistogram with a specified number of buckets.
+     * <p>
+     * Our implementation is written in terms of an IntHistogram by converting
+     * each String to an integer.
+     *
+     * @param buckets the number of buckets
+     */
+    public StringHistogram(int buckets) {
+        this(new IntHistogram(buckets));
+    }
+
+    private StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
+    /**
+     * Convert a string to an integer, with the property that if the return
+     * value(s1) < return value(s2), then s1 < s2. Only the first four
+     * characters are taken into account, and characters after the ASCII range
+     * are all mapped to the same value.
+     */
+    static int stringToInt(String s) {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = i < s.length() ? Math.min(s.charAt(i), 127) : 0;
+            v = v * 128 + c;
+        }
+        return v;
+    }
+
+    /**
+     * Add a new value to the histogram
+     */
+    public void addValue(String s) {
+        this.hist.addValue(stringToInt(s));
+    }
+
+    /**
+     * Remove a value from the histogram
+     *
+     * @see IntHistogram#removeValue(int)
+     */
+    public void removeValue(String s) {
+        this.hist.removeValue(stringToInt(s));
+    }
+
+    /**
+     * Estimate the selectivity (as a double between 0 and 1) of the specified
+     * predicate over the specified string
+     *
+     * @param op The operation being applied
+     * @param s  The string to apply op to
+     */
+    public double estimateSelectivity(Predicate.Op op, String s) {
+        if (op == Predicate.Op.LIKE) {
+            return LIKE_SELECTIVITY;
+        }
+        return this.hist.estimateSelectivity(op, stringToInt(s));
+    }
+
+    /**
+     * @return the average selectivity of an equality with a value of the column
+     * @see IntHistogram#avgSelectivity()
+     */
+    public double avgSelectivity() {
+        return this.hist.avgSelectivity();
+    }
+
+    /**
+     * Writes the histogram, so that {@link #read} can restore it.
+     */
+    void write(DataOutputStream out) throws IOException {
+        this.hist.write(out);
+    }
+
+    /**
+     * Reads a histogram written by {@link #write}.
+     */
+    static StringHistogram read(DataInputStream in) throws IOException {
+        return new StringHistogram(IntHistogram.read(in));
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "String" + this.hist;
+    }
+}
@@ -1,15 +1,51 @@
 package simpledb;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query.
  * <p>
- * This class is not needed in implementing lab1 and lab2.
+ * The statistics of a table are collected in a single scan: the number of
+ * tuples and pages, and for each field a histogram, which also records the
+ * smallest and largest values of int fields, and a {@link HyperLogLog}
+ * sketch of its distinct values.
+ * <p>
+ * Statistics can also be computed from a random sample of the pages of a
+ * large table. The histograms then describe the sample, the number of tuples
+ * and of distinct values are extrapolated to the whole table, and
+ * {@link #estimateSelectivityError} bounds the error of each selectivity
+ * estimate.
+ * <p>
+ * The BufferPool keeps the statistics of each table in {@link #getStatsMap()}
+ * up to date as tuples are inserted and deleted: the number of tuples and
+ * pages, the histograms and the sketches. Histograms computed from a sample
+ * are left as they are, and sketches only grow, as values cannot be removed
+ * from them; changes made by transactions that abort are not undone. Once the
+ * number of changes exceeds a fraction of the number of tuples the statistics
+ * were computed from, set by {@link #setRefreshThreshold}, they are computed
+ * again in the background after the next transaction completes, from the
+ * committed pages on disk, and replace the outdated ones in the map.
+ * <p>
+ * The statistics of the tables stored in heap files can be persisted in a
+ * stats file, see {@link #computeStatistics(File)}. Each entry records the
+ * length and the modification time of the heap file, and is ignored if the
+ * heap file has changed since then.
  */
 public class TableStats {
 
@@ -46,18 +82,244 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * @return the statistics of a table in {@link #getStatsMap()}, or null if there are none
+     */
+    static TableStats getTableStats(int tableid) {
+        String name;
+        try {
+            name = Database.getCatalog().getTableName(tableid);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        TableStats stats = statsMap.get(name);
+        // statistics of a table of the same name in another catalog do not count
+        return stats != null && stats.tableid == tableid ? stats : null;
+    }
+
+    /**
+     * Sets the fraction of the number of tuples of a table that may be
+     * inserted or deleted before its statistics are computed again.
+     *
+     * @param threshold the fraction, greater than 0; Double.POSITIVE_INFINITY never computes them again
+     */
+    public static void setRefreshThreshold(double threshold) {
+        if (!(threshold > 0)) {
+            throw new IllegalArgumentException("the refresh threshold must be greater than 0, not " + threshold);
+        }
+        refreshThreshold = threshold;
+    }
+
+    /**
+     * @return the fraction of the number of tuples of a table that may be inserted or deleted before its statistics
+     * are computed again
+     */
+    public static double getRefreshThreshold() {
+        return refreshThreshold;
+    }
+
+    /**
+     * Waits until the statistics that are being computed again in the
+     * background have replaced the outdated ones.
+     */
+    static void awaitRefresh() throws InterruptedException, ExecutionException {
+        refresher.submit(() -> {
+        }).get();
+    }
+
+    /**
+     * Sets the fraction of the pages of each table that
+     * {@link #computeStatistics()} reads.
+     *
+     * @param rate the sample rate, in (0, 1]; 1 reads every page
+     */
+    public static void setSampleRate(double rate) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw new IllegalArgumentException("the sample rate must be in (0, 1], not " + rate);
+        }
+        sampleRate = rate;
+    }
+
+    /**
+     * @return the fraction of the pages of each table that {@link #computeStatistics()} reads
+     */
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Computes the statistics of every table of the catalog, scanning several
+     * tables at the same time, one per available processor, and reading the
+     * fraction of their pages set by {@link #setSampleRate}.
+     */
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        ArrayList<Integer> tableids = new ArrayList<Integer>();
+        Database.getCatalog().tableIdIterator().forEachRemaining(tableids::add);
+        computeStatistics(tableids);
+    }
 
+    /**
+     * Loads the statistics of the tables of the catalog from a stats file,
+     * computes those of the tables it has no valid statistics for, and writes
+     * the stats file again if any were computed.
+     *
+     * @param statsFile the stats file; it need not exist
+     */
+    public static void computeStatistics(File statsFile) {
+        Set<Integer> loaded = loadStatistics(statsFile);
+        ArrayList<Integer> tableids = new ArrayList<Integer>();
+        Database.getCatalog().tableIdIterator().forEachRemaining(id -> {
+            if (!loaded.contains(id)) {
+                tableids.add(id);
+            }
+        });
+        if (!loaded.isEmpty()) {
+            System.out.println("Loaded the stats of " + loaded.size() + " tables from " + statsFile + ".");
+        }
+        if (!tableids.isEmpty()) {
+            computeStatistics(tableids);
+            saveStatistics(statsFile);
+        }
+    }
+
+    private static void computeStatistics(ArrayList<Integer> tableids) {
         System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+        int threads = Math.max(1, Math.min(tableids.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "table-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+        for (int tableid : tableids) {
+            results.add(workers.submit(() -> {
+                TableStats s = new TableStats(tableid, IOCOSTPERPAGE, sampleRate);
+                setTableStats(Database.getCatalog().getTableName(tableid), s);
+            }));
+        }
+        workers.shutdown();
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            workers.shutdownNow();
+            throw new RuntimeException(e.getCause());
         }
         System.out.println("Done.");
     }
 
+    /**
+     * Reads the entries of a stats file that are still valid: the table is in
+     * the catalog and stored in a heap file that has not changed since the
+     * entry was written, with the same fields, and the statistics were
+     * computed with the current sample rate. The statistics read are put in
+     * {@link #getStatsMap()}.
+     *
+     * @param statsFile the stats file; if it does not exist or cannot be read, nothing is loaded
+     * @return the ids of the tables whose statistics were loaded
+     */
+    public static Set<Integer> loadStatistics(File statsFile) {
+        HashSet<Integer> loaded = new HashSet<Integer>();
+        if (!statsFile.exists()) {
+            return loaded;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(statsFile)))) {
+            if (in.readInt() != STATS_MAGIC) {
+                return loaded;
+            }
+            int tables = in.readInt();
+            for (int i = 0; i < tables; i++) {
+                String name = in.readUTF();
+                long length = in.readLong();
+                long modified = in.readLong();
+                byte[] entry = new byte[in.readInt()];
+                in.readFully(entry);
+
+                int tableid;
+                try {
+                    tableid = Database.getCatalog().getTableId(name);
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+                if (!(file instanceof HeapFile) || ((HeapFile) file).getFile().length() != length
+                        || ((HeapFile) file).getFile().lastModified() != modified) {
+                    continue;
+                }
+                TableStats stats;
+                try {
+                    stats = new TableStats(tableid, new DataInputStream(new ByteArrayInputStream(entry)));
+                } catch (IOException | RuntimeException e) {
+                    // a corrupt or outdated entry; the statistics are computed again
+                    continue;
+                }
+                if (stats.rate == sampleRate) {
+                    setTableStats(name, stats);
+                    loaded.add(tableid);
+                }
+            }
+        } catch (IOException e) {
+            // the entries read so far are valid; the others are computed again
+        }
+        return loaded;
+    }
+
+    /**
+     * Writes the statistics in {@link #getStatsMap()} of the tables of the
+     * catalog stored in heap files to a stats file, replacing it. Statistics
+     * that have changed too much since they were computed are left out, so
+     * that they are computed again when the stats file is loaded.
+     *
+     * @param statsFile the stats file
+     */
+    public static void saveStatistics(File statsFile) {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<byte[]> entries = new ArrayList<byte[]>();
+        ArrayList<long[]> versions = new ArrayList<long[]>();
+        Database.getCatalog().tableIdIterator().forEachRemaining(tableid -> {
+            TableStats stats = getTableStats(tableid);
+            DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+            if (stats == null || !(file instanceof HeapFile)) {
+                return;
+            }
+            File heapFile = ((HeapFile) file).getFile();
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            try {
+                if (!stats.write(new DataOutputStream(entry))) {
+                    return;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            names.add(Database.getCatalog().getTableName(tableid));
+            entries.add(entry.toByteArray());
+            versions.add(new long[]{heapFile.length(), heapFile.lastModified()});
+        });
+
+        File tmp = new File(statsFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(STATS_MAGIC);
+                out.writeInt(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    out.writeUTF(names.get(i));
+                    out.writeLong(versions.get(i)[0]);
+                    out.writeLong(versions.get(i)[1]);
+                    out.writeInt(entries.get(i).length);
+                    out.write(entries.get(i));
+                }
+            }
+            Files.move(tmp.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // the stats file is only an optimization; the statistics are computed again when it is missing
+            tmp.delete();
+        }
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -65,6 +327,57 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * The smallest number of pages sampled from a table.
+     */
+    static final int MIN_SAMPLE_PAGES = 16;
+
+    /**
+     * The z-value of the confidence intervals of the selectivity estimates,
+     * for a confidence of 95%.
+     */
+    static final double CONFIDENCE_Z = 1.96;
+
+    /**
+     * Statistics are only computed again once at least this many tuples have
+     * been inserted or deleted, however small the table.
+     */
+    static final int MIN_REFRESH_CHANGES = 1000;
+
+    private static final int STATS_MAGIC = 0x53544154;
+
+    private static volatile double sampleRate = 1.0;
+    private static volatile double refreshThreshold = 0.2;
+
+    // computes outdated statistics again, one table at a time
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "table-stats-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int tableid;
+    private final int ioCostPerPage;
+    private final double rate;
+    private final TupleDesc td;
+    private int ntups;
+    private int numPages;
+    // the histogram of each field, in the array of its type
+    private final IntHistogram[] intHistograms;
+    private final StringHistogram[] stringHistograms;
+    private final HyperLogLog[] sketches;
+    // the number of distinct values extrapolated from a sample; null if the whole table was read
+    private final int[] sampledDistinct;
+    // the number of tuples the statistics were computed from, and whether they are a sample of the table
+    private final int sampleSize;
+    private final boolean sampled;
+    // the number of tuples of the table when the statistics were computed, and of those inserted and deleted since
+    private final int computedTuples;
+    private int changes;
+    // whether there have been too many changes, and whether the statistics are being computed again
+    private boolean stale;
+    private boolean refreshing;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -74,14 +387,338 @@ public class TableStats {
      *                      seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this(tableid, ioCostPerPage, 1.0);
+    }
+
+    /**
+     * Create a new TableStats object from a sample of the pages of a table.
+     * The pages are chosen uniformly at random by reservoir sampling, with a
+     * seed that depends on the table, and read in order; every tuple of a
+     * sampled page is part of the sample. Tables that are not stored in a
+     * {@link HeapFile}, and tables with at most {@link #MIN_SAMPLE_PAGES}
+     * pages, are scanned entirely.
+     *
+     * @param tableid       The table over which to compute statistics
+     * @param ioCostPerPage The cost per page of IO
+     * @param sampleRate    the fraction of the pages to read, in (0, 1]
+     */
+    public TableStats(int tableid, int ioCostPerPage, double sampleRate) {
+        this(tableid, ioCostPerPage, sampleRate, false);
+    }
+
+    /**
+     * @param committed true to read the committed pages of a {@link HeapFile} from disk, without taking locks,
+     *                  see {@link HeapFile#committedIterator}
+     */
+    private TableStats(int tableid, int ioCostPerPage, double sampleRate, boolean committed) {
+        if (!(sampleRate > 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("the sample rate must be in (0, 1], not " + sampleRate);
+        }
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        this.rate = sampleRate;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.td = file.getTupleDesc();
+        int n = this.td.numFields();
+        this.intHistograms = new IntHistogram[n];
+        this.stringHistograms = new StringHistogram[n];
+        this.sketches = new HyperLogLog[n];
+        for (int i = 0; i < n; i++) {
+            if (this.td.getFieldType(i) == Type.INT_TYPE) {
+                this.intHistograms[i] = new IntHistogram(NUM_HIST_BINS);
+            } else {
+                this.stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+            this.sketches[i] = new HyperLogLog();
+        }
+
+        int[] pages = null;
+        int numPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : -1;
+        int sampled = (int) Math.ceil(sampleRate * numPages);
+        if (numPages > MIN_SAMPLE_PAGES && sampled < numPages) {
+            pages = samplePages(numPages, Math.max(MIN_SAMPLE_PAGES, sampled), new Random(tableid));
+        }
+
+        // the estimator of the number of distinct values of a sample needs the number of occurrences of each value
+        @SuppressWarnings("unchecked")
+        HashMap<Field, Integer>[] counts = pages == null ? null : new HashMap[n];
+        for (int k = 0; counts != null && k < n; k++) {
+            counts[k] = new HashMap<Field, Integer>();
+        }
+
+        // a single pass over the pages collects the histograms, the ranges and the distinct values of every field
+        TransactionId tid = new TransactionId();
+        ArrayList<DbFileIterator> iterators = new ArrayList<DbFileIterator>();
+        if (committed && file instanceof HeapFile && pages == null) {
+            iterators.add(((HeapFile) file).committedIterator(0, -1));
+        } else if (pages == null) {
+            iterators.add(file.iterator(tid));
+        } else {
+            // consecutive sampled pages are read by the same iterator
+            for (int i = 0; i < pages.length; ) {
+                int first = pages[i];
+                int end = first + 1;
+                while (++i < pages.length && pages[i] == end) {
+                    end++;
+                }
+                iterators.add(committed ? ((HeapFile) file).committedIterator(first, end)
+                        : ((HeapFile) file).iterator(tid, first, end));
+            }
+        }
+        int ntups = 0;
+        try {
+            for (DbFileIterator it : iterators) {
+                it.open();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    ntups++;
+                    for (int k = 0; k < n; k++) {
+                        Field f = t.getField(k);
+                        if (this.intHistograms[k] != null) {
+                            this.intHistograms[k].addValue(((IntField) f).getValue());
+                        } else {
+                            this.stringHistograms[k].addValue(((StringField) f).getValue());
+                        }
+                        this.sketches[k].add(f);
+                        if (counts != null) {
+                            counts[k].merge(f, 1, Integer::sum);
+                        }
+                    }
+                }
+                it.close();
+            }
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException("failed to compute the statistics of table "
+                    + Database.getCatalog().getTableName(tableid), e);
+        } finally {
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        this.sampleSize = ntups;
+        this.sampled = pages != null;
+        if (pages == null) {
+            this.ntups = ntups;
+            this.sampledDistinct = null;
+        } else {
+            this.ntups = (int) Math.round((double) ntups * numPages / pages.length);
+            this.sampledDistinct = new int[n];
+            for (int k = 0; k < n; k++) {
+                this.sampledDistinct[k] = estimateDistinct(counts[k], ntups, this.ntups);
+            }
+        }
+        if (numPages < 0) {
+            int tuplesPerPage = BufferPool.getPageSize() * 8 / (this.td.getSize() * 8 + 1);
+            numPages = (ntups + tuplesPerPage - 1) / tuplesPerPage;
+        }
+        this.numPages = numPages;
+        this.computedTuples = this.ntups;
+    }
+
+    /**
+     * Reads the statistics of a table written by {@link #write}.
+     *
+     * @throws IOException if the entry cannot be read, or does not match the fields of the table
+     */
+    private TableStats(int tableid, DataInputStream in) throws IOException {
+        this.tableid = tableid;
+        this.td = Database.getCatalog().getTupleDesc(tableid);
+        this.ioCostPerPage = in.readInt();
+        this.rate = in.readDouble();
+        int n = in.readInt();
+        if (n != this.td.numFields()) {
+            throw new IOException("the table has " + this.td.numFields() + " fields, not " + n);
+        }
+        this.ntups = in.readInt();
+        this.numPages = in.readInt();
+        this.sampleSize = in.readInt();
+        this.sampled = in.readBoolean();
+        this.intHistograms = new IntHistogram[n];
+        this.stringHistograms = new StringHistogram[n];
+        this.sketches = new HyperLogLog[n];
+        for (int k = 0; k < n; k++) {
+            if (in.readBoolean() != (this.td.getFieldType(k) == Type.INT_TYPE)) {
+                throw new IOException("the type of field " + k + " has changed");
+            }
+            if (this.td.getFieldType(k) == Type.INT_TYPE) {
+                this.intHistograms[k] = IntHistogram.read(in);
+            } else {
+                this.stringHistograms[k] = StringHistogram.read(in);
+            }
+            this.sketches[k] = HyperLogLog.read(in);
+        }
+        if (in.readBoolean()) {
+            this.sampledDistinct = new int[n];
+            for (int k = 0; k < n; k++) {
+                this.sampledDistinct[k] = in.readInt();
+            }
+        } else {
+            this.sampledDistinct = null;
+        }
+        this.computedTuples = this.ntups;
+    }
+
+    /**
+     * Writes the statistics to an entry of a stats file, unless they have
+     * changed too much since they were computed.
+     *
+     * @return false if the statistics are outdated, and were not written
+     */
+    private synchronized boolean write(DataOutputStream out) throws IOException {
+        if (this.stale) {
+            return false;
+        }
+        int n = this.td.numFields();
+        out.writeInt(this.ioCostPerPage);
+        out.writeDouble(this.rate);
+        out.writeInt(n);
+        out.writeInt(this.ntups);
+        out.writeInt(this.numPages);
+        out.writeInt(this.sampleSize);
+        out.writeBoolean(this.sampled);
+        for (int k = 0; k < n; k++) {
+            out.writeBoolean(this.intHistograms[k] != null);
+            if (this.intHistograms[k] != null) {
+                this.intHistograms[k].write(out);
+            } else {
+                this.stringHistograms[k].write(out);
+            }
+            this.sketches[k].write(out);
+        }
+        out.writeBoolean(this.sampledDistinct != null);
+        for (int k = 0; this.sampledDistinct != null && k < n; k++) {
+            out.writeInt(this.sampledDistinct[k]);
+        }
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Chooses m of the numbers in [0, n) uniformly at random, by reservoir
+     * sampling.
+     *
+     * @return the numbers chosen, in increasing order
+     */
+    static int[] samplePages(int n, int m, Random random) {
+        int[] reservoir = new int[m];
+        for (int i = 0; i < n; i++) {
+            if (i < m) {
+                reservoir[i] = i;
+            } else {
+                int j = random.nextInt(i + 1);
+                if (j < m) {
+                    reservoir[j] = i;
+                }
+            }
+        }
+        Arrays.sort(reservoir);
+        return reservoir;
+    }
+
+    /**
+     * Estimates the number of distinct values of a field of a table from the
+     * number of times each value occurs in a sample, with the Guaranteed-Error
+     * Estimator of Charikar et al.: the values seen more than once are likely
+     * frequent in the table, while each value seen once stands for
+     * sqrt(total / sampled) values of the table. The ratio of the estimate to
+     * the true number is then at most about sqrt(total / sampled), whatever
+     * the distribution of the values.
+     *
+     * @param counts  the number of occurrences of each value in the sample
+     * @param sampled the number of tuples in the sample
+     * @param total   the estimated number of tuples in the table
+     */
+    static int estimateDistinct(Map<Field, Integer> counts, int sampled, int total) {
+        int once = 0;
+        for (int c : counts.values()) {
+            if (c == 1) {
+                once++;
+            }
+        }
+        double estimate = Math.sqrt((double) total / Math.max(1, sampled)) * once + (counts.size() - once);
+        return (int) Math.min(total, Math.round(estimate));
+    }
+
+    /**
+     * Updates the statistics with a tuple inserted into the table.
+     *
+     * @param t the tuple, with its record id
+     */
+    public synchronized void addTuple(Tuple t) {
+        this.ntups++;
+        if (t.getRecordId() != null) {
+            this.numPages = Math.max(this.numPages, t.getRecordId().getPageId().pageNumber() + 1);
+        }
+        for (int k = 0; k < this.td.numFields(); k++) {
+            Field f = t.getField(k);
+            if (!this.sampled) {
+                if (this.intHistograms[k] != null) {
+                    this.intHistograms[k].addValue(((IntField) f).getValue());
+                } else {
+                    this.stringHistograms[k].addValue(((StringField) f).getValue());
+                }
+            }
+            this.sketches[k].add(f);
+        }
+        changed();
+    }
+
+    /**
+     * Updates the statistics with a tuple deleted from the table.
+     *
+     * @param t the tuple, with every field of the table
+     */
+    public synchronized void removeTuple(Tuple t) {
+        this.ntups = Math.max(0, this.ntups - 1);
+        for (int k = 0; !this.sampled && k < this.td.numFields(); k++) {
+            Field f = t.getField(k);
+            if (this.intHistograms[k] != null) {
+                this.intHistograms[k].removeValue(((IntField) f).getValue());
+            } else {
+                this.stringHistograms[k].removeValue(((StringField) f).getValue());
+            }
+        }
+        changed();
+    }
+
+    private void changed() {
+        this.changes++;
+        if (this.changes >= refreshThreshold * Math.max(this.computedTuples, MIN_REFRESH_CHANGES)) {
+            this.stale = true;
+        }
+    }
+
+    /**
+     * Computes the statistics of the tables that have changed too much again
+     * in the background. Called when a transaction completes, so that the
+     * committed pages the statistics are computed from include its changes.
+     */
+    static void refreshStale() {
+        for (TableStats stats : statsMap.values()) {
+            stats.refresh();
+        }
+    }
+
+    private synchronized void refresh() {
+        if (!this.stale || this.refreshing) {
+            return;
+        }
+        this.refreshing = true;
+        refresher.execute(() -> {
+            try {
+                TableStats fresh = new TableStats(this.tableid, this.ioCostPerPage, this.rate, true);
+                // unless the statistics were replaced in the meantime
+                statsMap.replace(Database.getCatalog().getTableName(this.tableid), this, fresh);
+            } catch (RuntimeException e) {
+                // e.g. the table was dropped; try again after the next transaction
+                synchronized (this) {
+                    this.refreshing = false;
+                }
+            }
+        });
     }
 
     /**
@@ -96,9 +733,8 @@ public class TableStats {
      *
      * @return The estimated cost of scanning the table.
      */
-    public double estimateScanCost() {
-        // some code goes here
-        return 0;
+    public synchronized double estimateScanCost() {
+        return (double) this.numPages * this.ioCostPerPage;
     }
 
     /**
@@ -108,9 +744,8 @@ public class TableStats {
      * @param selectivityFactor The selectivity of any predicates over the table
      * @return The estimated cardinality of the scan with the specified selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
+        return (int) (this.ntups * selectivityFactor);
     }
 
     /**
@@ -121,9 +756,25 @@ public class TableStats {
      *              tuple, of which we do not know the value of the field, return the expected selectivity. You may
      *              estimate this value from the histograms.
      */
-    public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
+        if (op == Predicate.Op.LIKE && this.stringHistograms[field] != null) {
+            return StringHistogram.LIKE_SELECTIVITY;
+        }
+        int distinct = numDistinctValues(field);
+        double equals = distinct == 0 ? 0 : 1.0 / distinct;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equals;
+            case NOT_EQUALS:
+                return 1 - equals;
+            case LESS_THAN:
+            case GREATER_THAN:
+                // the value of another tuple is as likely to be smaller as larger
+                return (1 - equals) / 2;
+            default:
+                return (1 + equals) / 2;
+        }
     }
 
     /**
@@ -135,17 +786,110 @@ public class TableStats {
      * @param constant The value against which the field is compared
      * @return The estimated selectivity (fraction of tuples that satisfy) the predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        if (this.intHistograms[field] != null) {
+            return this.intHistograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        }
+        String s = ((StringField) constant).getValue();
+        if (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS) {
+            // the histogram only tells strings apart by their first characters
+            double equals = Math.min(this.stringHistograms[field].estimateSelectivity(Predicate.Op.EQUALS, s),
+                    avgSelectivity(field, Predicate.Op.EQUALS));
+            return op == Predicate.Op.EQUALS ? equals : 1 - equals;
+        }
+        return this.stringHistograms[field].estimateSelectivity(op, s);
+    }
+
+    /**
+     * Bounds the sampling error of {@link #estimateSelectivity}: with a
+     * confidence of 95%, the true selectivity is within the returned margin
+     * of the estimate. The tuples of the sample are treated as independent
+     * draws, with a correction for sampling without replacement, so the
+     * bound is optimistic for fields the table is clustered on. The error is
+     * 0 if every tuple was read.
+     *
+     * @param field    The field over which the predicate ranges
+     * @param op       The logical operation in the predicate
+     * @param constant The value against which the field is compared
+     * @return the half-width of the 95% confidence interval of the selectivity
+     */
+    public synchronized double estimateSelectivityError(int field, Predicate.Op op, Field constant) {
+        if (!isSampled()) {
+            return 0;
+        }
+        double sel = estimateSelectivity(field, op, constant);
+        // at least one tuple matches or fails, so that estimates of 0 or 1 have a margin
+        double p = Math.min(Math.max(sel, 1.0 / this.sampleSize), 1 - 1.0 / this.sampleSize);
+        double fpc = 1 - (double) this.sampleSize / this.ntups;
+        return CONFIDENCE_Z * Math.sqrt(p * (1 - p) / this.sampleSize * Math.max(0, fpc));
+    }
+
+    /**
+     * @return true if the statistics were computed from a sample of the table
+     */
+    public boolean isSampled() {
+        return this.sampled;
+    }
+
+    /**
+     * @return the number of tuples the statistics were computed from
+     */
+    public int sampleSize() {
+        return this.sampleSize;
     }
 
     /**
      * return the total number of tuples in this table
      */
-    public int totalTuples() {
-        // some code goes here
-        return 0;
+    public synchronized int totalTuples() {
+        return this.ntups;
+    }
+
+    /**
+     * @param field the index of the field
+     * @return the estimated number of distinct values of the field
+     */
+    public synchronized int numDistinctValues(int field) {
+        long distinct = this.sketches[field].estimate();
+        if (this.sampledDistinct != null) {
+            // the sketch only holds the values of the sample
+            distinct = Math.max(distinct, this.sampledDistinct[field]);
+        }
+        return (int) Math.min(distinct, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param field the index of the field
+     * @return a copy of the sketch of the distinct values of the field, or of those of the sample the statistics
+     * were computed from
+     */
+    public synchronized HyperLogLog getDistinctSketch(int field) {
+        return this.sketches[field].copy();
+    }
+
+    /**
+     * @param field the index of an INT_TYPE field
+     * @return the smallest value of the field, or Integer.MAX_VALUE if the table is empty
+     * @throws IllegalArgumentException if the field is not an INT_TYPE field
+     */
+    public synchronized int minValue(int field) {
+        return intHistogram(field).getMin();
+    }
+
+    /**
+     * @param field the index of an INT_TYPE field
+     * @return the largest value of the field, or Integer.MIN_VALUE if the table is empty
+     * @throws IllegalArgumentException if the field is not an INT_TYPE field
+     */
+    public synchronized int maxValue(int field) {
+        return intHistogram(field).getMax();
+    }
+
+    private IntHistogram intHistogram(int field) {
+        if (this.intHistograms[field] == null) {
+            throw new IllegalArgumentException("field " + this.td.getFieldName(field) + " is not an int field");
+        }
+        return this.intHistograms[field];
     }
 
 }
@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch holds up to {@link #MAX_SIZE} tuples of the same schema in
+ * column-oriented form: one <code>int[]</code> per INT_TYPE field and one
+ * <code>String[]</code> per STRING_TYPE field. Operators that implement
+ * {@link BatchIterator} exchange TupleBatches instead of single Tuples, so
+ * that predicates and projections run as tight loops over primitive arrays.
+ * <p>
+ * A batch returned by {@link BatchIterator#nextBatch} belongs to the caller;
+ * the producing iterator keeps no reference to it. Batches created by
+ * {@link #project} share their columns with the original batch.
+ */
+public class TupleBatch {
+
+    /**
+     * The maximum number of tuples in a batch.
+     */
+    public static final int MAX_SIZE = 1024;
+
+    private final TupleDesc td;
+    // indexed by field; null where the field has the other type
+    private final int[][] intColumns;
+    private final String[][] stringColumns;
+    private int size;
+
+    /**
+     * Creates an empty batch for tuples of the specified schema.
+     */
+    public TupleBatch(TupleDesc td) {
+        this.td = td;
+        int n = td.numFields();
+        this.intColumns = new int[n][];
+        this.stringColumns = new String[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                this.intColumns[i] = new int[MAX_SIZE];
+            } else {
+                this.stringColumns[i] = new String[MAX_SIZE];
+            }
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int[][] intColumns, String[][] stringColumns, int size) {
+        this.td = td;
+        this.intColumns = intColumns;
+        this.stringColumns = stringColumns;
+        this.size = size;
+    }
+
+    /**
+     * @return the schema of the tuples in this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * @return the number of tuples in this batch
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean isFull() {
+        return this.size == MAX_SIZE;
+    }
+
+    /**
+     * Removes all tuples from the batch.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * @return the values of the specified INT_TYPE field; only the first {@link #size} entries are valid
+     */
+    public int[] getIntColumn(int field) {
+        return this.intColumns[field];
+    }
+
+    /**
+     * @return the values of the specified STRING_TYPE field; only the first {@link #size} entries are valid
+     */
+    public String[] getStringColumn(int field) {
+        return this.stringColumns[field];
+    }
+
+    /**
+     * @return the value of the specified field of the specified tuple, as a Field
+     */
+    public Field getField(int field, int row) {
+        if (this.intColumns[field] != null) {
+            return new IntField(this.intColumns[field][row]);
+        }
+        return new StringField(this.stringColumns[field][row], Type.STRING_LEN);
+    }
+
+    /**
+     * @return the specified tuple of the batch as a Tuple
+     */
+    public Tuple getTuple(int row) {
+        if (row < 0 || row >= this.size) {
+            throw new NoSuchElementException("no row " + row + " in a batch of " + this.size);
+        }
+        Tuple t = new Tuple(this.td);
+        for (int i = 0; i < this.td.numFields(); i++) {
+            t.setField(i, getField(i, row));
+        }
+        return t;
+    }
+
+    /**
+     * Appends a tuple to the batch.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addTuple(Tuple t) {
+        int row = claimRow();
+        for (int i = 0; i < this.intColumns.length; i++) {
+            if (this.intColumns[i] != null) {
+                this.intColumns[i][row] = ((IntField) t.getField(i)).getValue();
+            } else {
+                this.stringColumns[i][row] = ((StringField) t.getField(i)).getValue();
+            }
+        }
+    }
+
+    /**
+     * Appends the concatenation of a row of left and a row of right, as
+     * produced by a join. The schema of this batch must be the merge of the
+     * schemas of left and right.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addJoinedRow(TupleBatch left, int leftRow, TupleBatch right, int rightRow) {
+        int row = claimRow();
+        int n1 = left.intColumns.length;
+        copyRow(left, leftRow, 0, row);
+        copyRow(right, rightRow, n1, row);
+    }
+
+    private void copyRow(TupleBatch from, int fromRow, int offset, int row) {
+        for (int i = 0; i < from.intColumns.length; i++) {
+            if (from.intColumns[i] != null) {
+                this.intColumns[offset + i][row] = from.intColumns[i][fromRow];
+            } else {
+                this.stringColumns[offset + i][row] = from.stringColumns[i][fromRow];
+            }
+        }
+    }
+
+    private int claimRow() {
+        if (this.size == MAX_SIZE) {
+            throw new IllegalStateException("batch is full");
+        }
+        return this.size++;
+    }
+
+    /**
+     * Keeps only the selected tuples, in order, moving them to the front of
+     * the batch.
+     *
+     * @param selected the rows to keep, in increasing order
+     * @param n        the number of entries of selected to use
+     */
+    public void retain(int[] selected, int n) {
+        if (n == this.size) {
+            return;
+        }
+        for (int i = 0; i < this.intColumns.length; i++) {
+            if (this.intColumns[i] != null) {
+                int[] col = this.intColumns[i];
+                for (int k = 0; k < n; k++) {
+                    col[k] = col[selected[k]];
+                }
+            } else {
+                String[] col = this.stringColumns[i];
+                for (int k = 0; k < n; k++) {
+                    col[k] = col[selected[k]];
+                }
+            }
+        }
+        this.size = n;
+    }
+
+    /**
+     * Returns a batch made of some of the fields of this one, without copying
+     * any values.
+     *
+     * @param fields the fields of this batch to keep, in output order
+     * @param td     the schema of the result
+     */
+    public TupleBatch project(int[] fields, TupleDesc td) {
+        int[][] ints = new int[fields.length][];
+        String[][] strings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            ints[i] = this.intColumns[fields[i]];
+            strings[i] = this.stringColumns[fields[i]];
+        }
+        return new TupleBatch(td, ints, strings, this.size);
+    }
+}
@@ -163,6 +163,18 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(tdList.toArray(new TDItem[]{}));
     }
 
+    /**
+     * @param fields the indexes of fields of this TupleDesc
+     * @return a TupleDesc with the specified fields of this one, in the specified order
+     */
+    public TupleDesc project(int[] fields) {
+        TDItem[] items = new TDItem[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            items[i] = this.tdItems[fields[i]];
+        }
+        return new TupleDesc(items);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they are the same size and if the n-th
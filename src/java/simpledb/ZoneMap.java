@@ -0,0 +1,295 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A ZoneMap keeps, for each page of a {@link HeapFile}, the minimum and
+ * maximum values of each INT_TYPE field of the tuples on the page, so that
+ * scans with range predicates can skip the pages that cannot contain a
+ * matching tuple without reading them.
+ * <p>
+ * The range of a page always includes the values of every version of the
+ * page, on disk or in the BufferPool: it is computed from the tuples of the
+ * page when the page is first read from disk and whenever it is written, and
+ * widened when a tuple is inserted. Deleting a tuple does not narrow it, as
+ * the delete can be rolled back; the range is narrowed the next time the page
+ * is written. Pages whose range is not known yet are never skipped.
+ * <p>
+ * The ranges of the pages on disk are persisted in a side file next to the
+ * heap file, with the suffix ".zm". Ranges computed when pages are read are
+ * only kept in memory, so that read-only queries do not write files; they
+ * are persisted along with the ranges of written pages by {@link #flush},
+ * which the BufferPool runs once a committing transaction has written its
+ * pages, or when it flushes all its pages. The side file records the length and the modification time of the
+ * heap file when it was last written, and is ignored if the heap file has
+ * changed since then, e.g. because it was regenerated by
+ * {@link HeapFileEncoder}.
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5a4d4150;
+    // magic, number of int fields, length and modification time of the heap file
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+    private static volatile boolean enabled = true;
+
+    private final File heapFile;
+    private final File file;
+    // the indexes of the INT_TYPE fields of the table
+    private final int[] fields;
+    private int numPages;
+    private boolean[] known;
+    // whether the range of each page has changed since it was persisted
+    private boolean[] dirty;
+    private boolean anyDirty;
+    // the ranges of the fields of page p start at p * fields.length
+    private int[] mins;
+    private int[] maxs;
+
+    /**
+     * Opens the zone map of a heap file, reading the ranges persisted in its
+     * side file if they are still valid.
+     *
+     * @param heapFile the file that stores the pages of the table
+     * @param td       the TupleDesc of the tuples of the file
+     */
+    public ZoneMap(File heapFile, TupleDesc td) {
+        this.heapFile = heapFile;
+        this.file = new File(heapFile.getPath() + ".zm");
+        int n = 0;
+        int[] fields = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                fields[n++] = i;
+            }
+        }
+        this.fields = Arrays.copyOf(fields, n);
+        this.known = new boolean[0];
+        this.dirty = new boolean[0];
+        this.mins = new int[0];
+        this.maxs = new int[0];
+        load();
+    }
+
+    /**
+     * Turns page skipping on or off. While it is off, {@link #mayMatch}
+     * always returns true, but the ranges are still maintained.
+     */
+    public static void setEnabled(boolean enabled) {
+        ZoneMap.enabled = enabled;
+    }
+
+    /**
+     * @return true if scans skip the pages that cannot match their predicates
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the side file the ranges are persisted in
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    private int entrySize() {
+        return 1 + 8 * this.fields.length;
+    }
+
+    private void ensureCapacity(int pageNo) {
+        if (pageNo < this.numPages) {
+            return;
+        }
+        if (pageNo >= this.known.length) {
+            int capacity = Math.max(pageNo + 1, 2 * this.known.length);
+            this.known = Arrays.copyOf(this.known, capacity);
+            this.dirty = Arrays.copyOf(this.dirty, capacity);
+            this.mins = Arrays.copyOf(this.mins, capacity * this.fields.length);
+            this.maxs = Arrays.copyOf(this.maxs, capacity * this.fields.length);
+        }
+        this.numPages = pageNo + 1;
+    }
+
+    /**
+     * Reads the side file, if it exists and matches the heap file.
+     */
+    private void load() {
+        if (!this.file.exists() || this.fields.length == 0) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != this.fields.length
+                    || in.readLong() != this.heapFile.length() || in.readLong() != this.heapFile.lastModified()) {
+                in.close();
+                // the ranges are stale, and are computed again as pages are read
+                this.file.delete();
+                return;
+            }
+            int pages = (int) ((this.file.length() - HEADER_SIZE) / entrySize());
+            ensureCapacity(pages - 1);
+            for (int p = 0; p < pages; p++) {
+                this.known[p] = in.readBoolean();
+                for (int k = 0; k < this.fields.length; k++) {
+                    this.mins[p * this.fields.length + k] = in.readInt();
+                    this.maxs[p * this.fields.length + k] = in.readInt();
+                }
+            }
+        } catch (IOException e) {
+            // an unreadable side file is ignored; the ranges are computed again as pages are read
+            Arrays.fill(this.known, false);
+            this.file.delete();
+        }
+    }
+
+    /**
+     * Writes the ranges that changed since they were last persisted to the
+     * side file, and records the current length and modification time of the
+     * heap file.
+     */
+    public synchronized void flush() {
+        if (!this.anyDirty) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            // pages between the end of the side file and a written entry read back as not known
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(entrySize());
+            DataOutputStream dos = new DataOutputStream(baos);
+            for (int p = 0; p < this.numPages; p++) {
+                if (!this.dirty[p]) {
+                    continue;
+                }
+                baos.reset();
+                dos.writeBoolean(this.known[p]);
+                for (int k = 0; k < this.fields.length; k++) {
+                    dos.writeInt(this.mins[p * this.fields.length + k]);
+                    dos.writeInt(this.maxs[p * this.fields.length + k]);
+                }
+                raf.seek(HEADER_SIZE + (long) p * entrySize());
+                raf.write(baos.toByteArray());
+                this.dirty[p] = false;
+            }
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(this.fields.length);
+            raf.writeLong(this.heapFile.length());
+            raf.writeLong(this.heapFile.lastModified());
+            this.anyDirty = false;
+        } catch (IOException e) {
+            // the side file is only an optimization; it is ignored when it does not match the heap file
+        }
+    }
+
+    /**
+     * @return true if the range of the page is known
+     */
+    public synchronized boolean isKnown(int pageNo) {
+        return pageNo < this.numPages && this.known[pageNo];
+    }
+
+    /**
+     * Sets the range of a page to the values of the tuples it holds. Called
+     * when the page is written to disk, or read from disk while its range is
+     * not known. The range is persisted by the next {@link #flush}.
+     *
+     * @param page the page, as it is on disk
+     */
+    public synchronized void set(HeapPage page) {
+        if (this.fields.length == 0) {
+            return;
+        }
+        int pageNo = page.getId().pageNumber();
+        ensureCapacity(pageNo);
+        int base = pageNo * this.fields.length;
+        for (int k = 0; k < this.fields.length; k++) {
+            // an empty page has an empty range, with min > max
+            int[] range = page.getIntRange(this.fields[k]);
+            this.mins[base + k] = range[0];
+            this.maxs[base + k] = range[1];
+        }
+        this.known[pageNo] = true;
+        this.dirty[pageNo] = true;
+        this.anyDirty = true;
+    }
+
+    /**
+     * Widens the range of a page to include a tuple inserted into it. The
+     * range is not marked for persisting, as the tuple is only written to
+     * disk with the page, which sets the range again.
+     *
+     * @param pageNo the number of the page the tuple was inserted into
+     * @param t      the tuple
+     */
+    public synchronized void insert(int pageNo, Tuple t) {
+        if (isKnown(pageNo)) {
+            widen(pageNo * this.fields.length, t);
+        }
+    }
+
+    private void widen(int base, Tuple t) {
+        for (int k = 0; k < this.fields.length; k++) {
+            int v = ((IntField) t.getField(this.fields[k])).getValue();
+            this.mins[base + k] = Math.min(this.mins[base + k], v);
+            this.maxs[base + k] = Math.max(this.maxs[base + k], v);
+        }
+    }
+
+    /**
+     * Returns false if no tuple of a page can satisfy all of the predicates,
+     * according to the range of the page. Only comparisons of INT_TYPE fields
+     * are taken into account.
+     *
+     * @param pageNo     the number of the page
+     * @param predicates predicates over the fields of the table
+     * @return false if the page can be skipped, true if it must be read
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate[] predicates) {
+        if (!enabled || !isKnown(pageNo)) {
+            return true;
+        }
+        for (Predicate p : predicates) {
+            if (!(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int k = Arrays.binarySearch(this.fields, p.getField());
+            if (k < 0) {
+                continue;
+            }
+            int min = this.mins[pageNo * this.fields.length + k];
+            int max = this.maxs[pageNo * this.fields.length + k];
+            if (min > max) {
+                // no tuples
+                return false;
+            }
+            int v = ((IntField) p.getOperand()).getValue();
+            boolean match;
+            switch (p.getOp()) {
+                case EQUALS:
+                    match = min <= v && v <= max;
+                    break;
+                case NOT_EQUALS:
+                    match = min != v || max != v;
+                    break;
+                case LESS_THAN:
+                    match = min < v;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    match = min <= v;
+                    break;
+                case GREATER_THAN:
+                    match = max > v;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    match = max >= v;
+                    break;
+                default:
+                    match = true;
+            }
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
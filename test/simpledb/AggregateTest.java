@@ -1,9 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -186,6 +189,180 @@ public class AggregateTest extends SimpleDbTestBase {
         TestUtil.matchAllTuples(min, op);
     }
 
+    /**
+     * Unit test for Aggregate.getNext() with a group budget small enough that
+     * groups are spilled to disk
+     */
+    @Test
+    public void spillingSumAggregate() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0,
+                Aggregator.Op.SUM, 1);
+        op.open();
+        sum.open();
+        TestUtil.matchAllTuples(sum, op);
+
+        op.rewind();
+        sum.rewind();
+        TestUtil.matchAllTuples(sum, op);
+        op.close();
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() spilling many groups, some of which
+     * need more than one partitioning pass
+     */
+    @Test
+    public void spillingManyGroups() throws Exception {
+        int groups = 1000;
+        int[] input = new int[groups * 3 * 2];
+        int[] expected = new int[groups * 2];
+        for (int i = 0; i < groups * 3; i++) {
+            input[2 * i] = i % groups;
+            input[2 * i + 1] = i;
+        }
+        for (int g = 0; g < groups; g++) {
+            expected[2 * g] = g;
+            expected[2 * g + 1] = 3 * g + 3 * groups;
+        }
+
+        Aggregate op = new Aggregate(TestUtil.createTupleList(width1, input), 1, 0,
+                Aggregator.Op.SUM, 4);
+        op.open();
+        DbIterator result = TestUtil.createTupleList(width1, expected);
+        result.open();
+        TestUtil.matchAllTuples(result, op);
+        op.close();
+    }
+
+    /**
+     * Reopening an Aggregate recomputes the result instead of adding to it
+     */
+    @Test
+    public void reopen() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0,
+                Aggregator.Op.COUNT);
+        op.open();
+        op.close();
+        op.open();
+        count.open();
+        TestUtil.matchAllTuples(count, op);
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() computing several aggregates in one pass
+     */
+    @Test
+    public void multipleAggregates() throws Exception {
+        Aggregate op = new Aggregate(scan1, new int[]{1, 1, 1}, new int[]{0},
+                new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.SUM, Aggregator.Op.COUNT});
+        assertEquals(Utility.getTupleDesc(4), op.getTupleDesc());
+        op.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+                new int[]{1, 2, 12, 3,
+                        3, 2, 12, 3,
+                        5, 7, 7, 1}), op);
+    }
+
+    /**
+     * The result tuples carry the named TupleDesc of the operator
+     */
+    @Test
+    public void namedResults() throws Exception {
+        TupleDesc td = new TupleDesc(Utility.getTypes(2), new String[]{"g", "v"});
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int[] values : new int[][]{{1, 2}, {1, 4}, {3, 6}}) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(values[0]));
+            t.setField(1, new IntField(values[1]));
+            tuples.add(t);
+        }
+        DbIterator child = new TupleIterator(td, tuples);
+        for (Aggregate op : new Aggregate[]{
+                new Aggregate(child, 1, 0, Aggregator.Op.SUM),
+                new Aggregate(child, new int[]{1, 1}, new int[]{0},
+                        new Aggregator.Op[]{Aggregator.Op.SUM_COUNT, Aggregator.Op.MAX})}) {
+            op.open();
+            while (op.hasNext()) {
+                assertEquals(op.getTupleDesc(), op.next().getTupleDesc());
+            }
+            op.close();
+        }
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() with several aggregates and a
+     * two-column group key that is spilled to disk
+     */
+    @Test
+    public void spillingMultipleAggregates() throws Exception {
+        Aggregate op = new Aggregate(scan1, new int[]{1, 0}, new int[]{0, 1},
+                new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT}, 2);
+        op.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+                new int[]{1, 2, 2, 1,
+                        1, 4, 4, 1,
+                        1, 6, 6, 1,
+                        3, 2, 2, 1,
+                        3, 4, 4, 1,
+                        3, 6, 6, 1,
+                        5, 7, 7, 1}), op);
+        op.close();
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() in streaming mode over input that is
+     * sorted on the group by field
+     */
+    @Test
+    public void streamingSumAggregate() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0,
+                Aggregator.Op.SUM);
+        op.setStreaming(true);
+        assertTrue(op.isStreaming());
+        op.open();
+        sum.open();
+        TestUtil.matchAllTuples(sum, op);
+
+        op.rewind();
+        sum.rewind();
+        TestUtil.matchAllTuples(sum, op);
+        op.close();
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() in streaming mode over a string group
+     * by field, with several aggregates
+     */
+    @Test
+    public void streamingMultipleAggregates() throws Exception {
+        Aggregate op = new Aggregate(scan3, new int[]{1, 1}, new int[]{0},
+                new Aggregator.Op[]{Aggregator.Op.MAX, Aggregator.Op.COUNT});
+        op.setStreaming(true);
+        op.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+                new Object[]{"a", 6, 3,
+                        "b", 6, 3,
+                        "c", 7, 1}), op);
+    }
+
+    /**
+     * The planner recognizes plans whose output is grouped on a field
+     */
+    @Test
+    public void groupedPlans() throws Exception {
+        DbIterator sorted = new OrderBy(1, true, scan1);
+        assertTrue(LogicalPlan.isGroupedOn(sorted, new int[]{1}));
+        assertFalse(LogicalPlan.isGroupedOn(sorted, new int[]{0}));
+        assertFalse(LogicalPlan.isGroupedOn(scan1, new int[]{1}));
+
+        DbIterator filtered = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(0)), sorted);
+        assertTrue(LogicalPlan.isGroupedOn(filtered, new int[]{1}));
+
+        DbIterator joined = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), filtered, scan2);
+        assertTrue(LogicalPlan.isGroupedOn(joined, new int[]{1}));
+        assertFalse(LogicalPlan.isGroupedOn(joined, new int[]{3}));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,296 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    private HeapFile table;
+    private BTreeFile index;
+
+    @After
+    public void restorePageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Creates a random table of two int fields with values in [0, maxValue),
+     * and an index on its second field.
+     */
+    private void createIndex(int rows, int maxValue) throws Exception {
+        this.table = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null, new ArrayList<ArrayList<Integer>>());
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        this.index = BTreeFile.create(f, this.table.getId(), 1);
+    }
+
+    /**
+     * @return the entries of the tuples of the table whose key satisfies key op operand, as (key, page, slot)
+     */
+    private ArrayList<ArrayList<Integer>> expectedEntries(Predicate.Op op, int operand) throws Exception {
+        ArrayList<ArrayList<Integer>> entries = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = this.table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getField(1).compare(op, new IntField(operand))) {
+                entries.add(entry(((IntField) t.getField(1)).getValue(), t.getRecordId()));
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(entries, BTreeFileTest::compareEntries);
+        return entries;
+    }
+
+    private static ArrayList<Integer> entry(int key, RecordId rid) {
+        ArrayList<Integer> entry = new ArrayList<Integer>();
+        entry.add(key);
+        entry.add(rid.getPageId().pageNumber());
+        entry.add(rid.tupleno());
+        return entry;
+    }
+
+    private static int compareEntries(ArrayList<Integer> a, ArrayList<Integer> b) {
+        for (int i = 0; i < 3; i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks that the index returns the expected entries in key order, for
+     * every operator and a few operands, including ones outside the range of
+     * the keys.
+     */
+    private void checkLookups(int maxValue) throws Exception {
+        Random random = new Random(7);
+        int[] operands = {-1, 0, random.nextInt(maxValue), random.nextInt(maxValue), maxValue - 1, maxValue};
+        for (Predicate.Op op : OPS) {
+            for (int operand : operands) {
+                ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+                TransactionId tid = new TransactionId();
+                DbFileIterator it = this.index.entries(tid, op, new IntField(operand));
+                it.open();
+                while (it.hasNext()) {
+                    actual.add(SystemTestUtil.tupleToList(it.next()));
+                }
+                it.close();
+                Database.getBufferPool().transactionComplete(tid);
+                for (int i = 1; i < actual.size(); i++) {
+                    assertTrue(actual.get(i - 1).get(0) <= actual.get(i).get(0));
+                }
+                Collections.sort(actual, BTreeFileTest::compareEntries);
+                assertEquals(op + " " + operand, expectedEntries(op, operand), actual);
+            }
+        }
+    }
+
+    /**
+     * Inserts tuples with random keys, committing every few tuples so that
+     * the dirty pages fit in the buffer pool.
+     */
+    private void insertTuples(int n, int maxValue, Random random) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(this.table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(random.nextInt(maxValue)));
+            Database.getBufferPool().insertTuple(tid, this.table.getId(), t);
+            if (i % 10 == 9) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private BTreePage root(TransactionId tid) throws Exception {
+        BTreeHeaderPage header = (BTreeHeaderPage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(this.index.getId(), 0), Permissions.READ_ONLY);
+        return (BTreePage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(this.index.getId(), header.getRootPage()), Permissions.READ_ONLY);
+    }
+
+    /**
+     * An index built from a table finds the entries of its tuples
+     */
+    @Test
+    public void lookups() throws Exception {
+        createIndex(3000, 200);
+        checkLookups(200);
+        SystemTestUtil.matchTuples(this.index, expectedEntries(Predicate.Op.GREATER_THAN_OR_EQ, 0));
+    }
+
+    /**
+     * Insertions split leaves and internal pages, and grow the tree
+     */
+    @Test
+    public void insertsSplitPages() throws Exception {
+        BufferPool.setPageSize(256);
+        createIndex(0, 100);
+        insertTuples(2500, 100, new Random(1));
+
+        TransactionId tid = new TransactionId();
+        BTreePage root = root(tid);
+        assertTrue(root instanceof BTreeInternalPage);
+        assertTrue(((BTreeInternalPage) root).getChild(0) != 0);
+        BTreePage child = (BTreePage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(this.index.getId(), ((BTreeInternalPage) root).getChild(0)), Permissions.READ_ONLY);
+        assertTrue(child instanceof BTreeInternalPage);
+        Database.getBufferPool().transactionComplete(tid);
+        checkLookups(100);
+    }
+
+    /**
+     * Deleted entries are no longer found, and deleting a missing entry fails
+     */
+    @Test
+    public void deletes() throws Exception {
+        createIndex(2000, 100);
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = this.table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                deleted.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        checkLookups(100);
+
+        tid = new TransactionId();
+        try {
+            this.index.deleteEntry(tid, deleted.get(0).getField(1), deleted.get(0).getRecordId());
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aborting a transaction whose insertions split pages restores the tree
+     */
+    @Test
+    public void abortedSplits() throws Exception {
+        BufferPool.setPageSize(256);
+        createIndex(500, 100);
+        Database.resetBufferPool(1000);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 200; i++) {
+            Tuple t = new Tuple(this.table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 100));
+            Database.getBufferPool().insertTuple(tid, this.table.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        checkLookups(100);
+
+        // the pages allocated by the aborted transaction are reused
+        insertTuples(200, 100, new Random(2));
+        checkLookups(100);
+    }
+
+    /**
+     * A lookup only keeps the lock on the leaves it reads
+     */
+    @Test
+    public void latchCoupling() throws Exception {
+        createIndex(3000, 200);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = this.index.entries(tid, Predicate.Op.EQUALS, new IntField(100));
+        it.open();
+        BufferPool bufferPool = Database.getBufferPool();
+        assertFalse(bufferPool.holdsLock(tid, new BTreePageId(this.index.getId(), 0)));
+        TransactionId other = new TransactionId();
+        BTreePage root = root(other);
+        bufferPool.transactionComplete(other);
+        assertTrue(root instanceof BTreeInternalPage);
+        assertFalse(bufferPool.holdsLock(tid, root.getId()));
+        int leaf = ((BTreeInternalPage) root).getChild(((BTreeInternalPage) root).findChild(new IntField(100)));
+        assertTrue(bufferPool.holdsLock(tid, new BTreePageId(this.index.getId(), leaf)));
+        it.close();
+        bufferPool.transactionComplete(tid);
+    }
+
+    /**
+     * Catalog.loadSchema opens an index that is up to date with its table,
+     * and rebuilds one whose table was changed without it
+     */
+    @Test
+    public void loadSchema() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 500, 1000, null, tuples);
+        String name = data.getName().substring(0, data.getName().length() - ".dat".length());
+        File catalog = new File(data.getParentFile(), name + ".catalog");
+        catalog.deleteOnExit();
+        File indexFile = new File(data.getParentFile(), name + ".b.idx");
+        indexFile.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write(name + " (a int, b int index)\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        this.table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        this.index = (BTreeFile) Database.getCatalog().getIndexes(this.table.getId()).get(0);
+        assertTrue(this.index.isUpToDate());
+        insertTuples(20, 1000, new Random(3));
+        assertTrue(this.index.isUpToDate());
+
+        Database.getCatalog().clear();
+        long modified = indexFile.lastModified();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        assertEquals(modified, indexFile.lastModified());
+        this.table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        this.index = (BTreeFile) Database.getCatalog().getIndexes(this.table.getId()).get(0);
+        checkLookups(1000);
+
+        File other = SystemTestUtil.createRandomHeapFileUnopened(2, 800, 1000, null, tuples);
+        Files.copy(other.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().clear();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        this.table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        this.index = (BTreeFile) Database.getCatalog().getIndexes(this.table.getId()).get(0);
+        assertTrue(this.index.isUpToDate());
+        checkLookups(1000);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
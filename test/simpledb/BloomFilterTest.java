@@ -0,0 +1,96 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+    private static final int KEYS = 10000;
+
+    /**
+     * Every key that was added is found, and few of the other ones are.
+     */
+    @Test
+    public void intKeys() {
+        BloomFilter filter = new BloomFilter(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add(new IntField(i * 3));
+        }
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(filter.mightContain(new IntField(i * 3)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (filter.mightContain(new IntField(i * 3 + 1))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positive rate " + falsePositives / (double) KEYS, falsePositives < KEYS / 30);
+    }
+
+    @Test
+    public void stringKeys() {
+        BloomFilter filter = new BloomFilter(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add(new StringField("key" + i, Type.STRING_LEN));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(filter.mightContain(new StringField("key" + i, Type.STRING_LEN)));
+            if (filter.mightContain(new StringField("other" + i, Type.STRING_LEN))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positive rate " + falsePositives / (double) KEYS, falsePositives < KEYS / 30);
+    }
+
+    /**
+     * Filtering a batch keeps the same rows as filtering its tuples one at a
+     * time.
+     */
+    @Test
+    public void filterBatch() throws Exception {
+        BloomFilter filter = new BloomFilter(100);
+        for (int i = 0; i < 100; i++) {
+            filter.add(new IntField(i * 10));
+        }
+        int[] data = new int[2 * 1000];
+        for (int i = 0; i < 1000; i++) {
+            data[2 * i] = i;
+            data[2 * i + 1] = i % 10;
+        }
+        DbIterator it = TestUtil.createTupleList(2, data);
+        it.open();
+        TupleBatch batch = BatchAdapter.of(it).nextBatch();
+        it.close();
+        assertEquals(1000, batch.size());
+
+        // only the odd rows are selected
+        int[] selected = new int[batch.size()];
+        for (int i = 0; i < 500; i++) {
+            selected[i] = 2 * i + 1;
+        }
+        int n = filter.filter(batch, 0, selected, 500);
+        int k = 0;
+        for (int i = 0; i < 500; i++) {
+            if (filter.mightContain(batch.getField(0, 2 * i + 1))) {
+                assertEquals(2 * i + 1, selected[k++]);
+            }
+        }
+        assertEquals(k, n);
+        // the odd values are not in the filter, so only false positives are kept
+        assertTrue(n < 50);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
@@ -128,6 +128,34 @@ public class FilterTest extends SimpleDbTestBase {
         op.close();
     }
 
+    /**
+     * Unit test for a Filter with several predicates, compiled and interpreted
+     */
+    @Test
+    public void filterConjunction() throws Exception {
+        Predicate[] preds = new Predicate[]{
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+                new Predicate(1, Predicate.Op.LESS_THAN, TestUtil.getField(3))};
+        for (boolean compiled : new boolean[]{true, false}) {
+            PredicateCompiler.setEnabled(compiled);
+            try {
+                Filter op = new Filter(preds, new TestUtil.MockScan(-5, 5, testWidth));
+                op.open();
+                TestUtil.compareDbIterators(op, new TestUtil.MockScan(-2, 3, testWidth));
+                op.close();
+
+                op = new Filter(preds, new TestUtil.MockScan(-5, 5, testWidth));
+                op.open();
+                TupleBatch batch = op.nextBatch();
+                assertEquals(5, batch.size());
+                assertEquals(-2, batch.getIntColumn(0)[0]);
+                op.close();
+            } finally {
+                PredicateCompiler.setEnabled(true);
+            }
+        }
+    }
+
     /**
      * JUnit suite target
      */
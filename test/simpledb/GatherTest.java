@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GatherTest extends SimpleDbTestBase {
+
+    /**
+     * A child that fails after returning a few tuples.
+     */
+    private static class FailingScan extends TestUtil.MockScan {
+        private int returned;
+
+        FailingScan() {
+            super(0, Integer.MAX_VALUE, 1);
+        }
+
+        @Override
+        public void open() {
+            super.open();
+            this.returned = 0;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (++this.returned > 10) {
+                throw new DbException("child failed");
+            }
+            return super.next();
+        }
+    }
+
+    private static Gather gatherRanges(int... bounds) {
+        DbIterator[] children = new DbIterator[bounds.length - 1];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new TestUtil.MockScan(bounds[i], bounds[i + 1], 2);
+        }
+        return new Gather(children);
+    }
+
+    /**
+     * Adds up the first field of the tuples of it, checking that no value
+     * appears twice.
+     */
+    private static long sumOfDistinct(DbIterator it) throws Exception {
+        HashSet<Integer> seen = new HashSet<Integer>();
+        long sum = 0;
+        while (it.hasNext()) {
+            int v = ((IntField) it.next().getField(0)).getValue();
+            assertTrue("duplicate " + v, seen.add(v));
+            sum += v;
+        }
+        return sum;
+    }
+
+    /**
+     * Unit test for Gather.getTupleDesc()
+     */
+    @Test
+    public void getTupleDesc() {
+        assertEquals(Utility.getTupleDesc(2), gatherRanges(0, 5, 10).getTupleDesc());
+    }
+
+    /**
+     * Gather returns every tuple of every child exactly once
+     */
+    @Test
+    public void union() throws Exception {
+        Gather gather = gatherRanges(0, 1000, 3000, 3001, 10000);
+        gather.open();
+        assertEquals(10000L * 9999 / 2, sumOfDistinct(gather));
+        assertTrue(TestUtil.checkExhausted(gather));
+        gather.close();
+    }
+
+    /**
+     * Gather returns the batches of its children
+     */
+    @Test
+    public void batches() throws Exception {
+        Gather gather = gatherRanges(0, 5000, 5000);
+        gather.open();
+        int n = 0;
+        TupleBatch batch;
+        while ((batch = gather.nextBatch()) != null) {
+            n += batch.size();
+        }
+        assertEquals(5000, n);
+        assertNull(gather.nextBatch());
+        gather.close();
+    }
+
+    /**
+     * Rewinding restarts every child
+     */
+    @Test
+    public void rewind() throws Exception {
+        Gather gather = gatherRanges(0, 3000, 6000);
+        gather.open();
+        for (int i = 0; i < 100; i++) {
+            gather.next();
+        }
+        gather.rewind();
+        assertEquals(6000L * 5999 / 2, sumOfDistinct(gather));
+        gather.close();
+    }
+
+    /**
+     * Closing the operator before the end stops the children
+     */
+    @Test
+    public void closeEarly() throws Exception {
+        Gather gather = gatherRanges(0, 1000000, 2000000);
+        gather.open();
+        gather.next();
+        gather.close();
+    }
+
+    /**
+     * An exception thrown by a child is thrown by the Gather
+     */
+    @Test
+    public void childFails() throws Exception {
+        Gather gather = new Gather(new DbIterator[]{new TestUtil.MockScan(0, 1000000, 1), new FailingScan()});
+        gather.open();
+        try {
+            while (gather.hasNext()) {
+                gather.next();
+            }
+            fail("expected the failure of a child");
+        } catch (DbException e) {
+            assertEquals("child failed", e.getMessage());
+        }
+        gather.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GatherTest.class);
+    }
+}
@@ -0,0 +1,314 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private HashFile index;
+
+    @After
+    public void restorePageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Creates a random table of two int fields with values in [0, maxValue),
+     * and a hash index on its second field.
+     */
+    private void createIndex(int rows, int maxValue) throws Exception {
+        this.table = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null, new ArrayList<ArrayList<Integer>>());
+        File f = File.createTempFile("index", ".hash");
+        f.deleteOnExit();
+        this.index = HashFile.create(f, this.table.getId(), 1);
+    }
+
+    /**
+     * @return the entries of the tuples of the table whose key is equal to key, as (key, page, slot)
+     */
+    private ArrayList<ArrayList<Integer>> expectedEntries(Integer key) throws Exception {
+        ArrayList<ArrayList<Integer>> entries = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = this.table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int value = ((IntField) t.getField(1)).getValue();
+            if (key == null || value == key) {
+                ArrayList<Integer> entry = new ArrayList<Integer>();
+                entry.add(value);
+                entry.add(t.getRecordId().getPageId().pageNumber());
+                entry.add(t.getRecordId().tupleno());
+                entries.add(entry);
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(entries, HashFileTest::compareEntries);
+        return entries;
+    }
+
+    private static int compareEntries(ArrayList<Integer> a, ArrayList<Integer> b) {
+        for (int i = 0; i < 3; i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static ArrayList<ArrayList<Integer>> drain(DbFileIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> entries = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            entries.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        Collections.sort(entries, HashFileTest::compareEntries);
+        return entries;
+    }
+
+    /**
+     * Checks that the index finds the entries of every key in [-1, maxValue],
+     * and that it iterates over all of them.
+     */
+    private void checkLookups(int maxValue) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int key = -1; key <= maxValue; key++) {
+            assertEquals("key " + key, expectedEntries(key),
+                    drain(this.index.entries(tid, Predicate.Op.EQUALS, new IntField(key))));
+        }
+        assertEquals(expectedEntries(null), drain(this.index.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts tuples with the specified keys, committing every few tuples so
+     * that the dirty pages fit in the buffer pool.
+     */
+    private void insertTuples(List<Integer> keys) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < keys.size(); i++) {
+            Tuple t = new Tuple(this.table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(keys.get(i)));
+            Database.getBufferPool().insertTuple(tid, this.table.getId(), t);
+            if (i % 10 == 9) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private HashDirectoryPage directory() throws Exception {
+        TransactionId tid = new TransactionId();
+        HashDirectoryPage directory = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(this.index.getId(), 0), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        return directory;
+    }
+
+    /**
+     * An index built from a table finds the entries of its tuples
+     */
+    @Test
+    public void lookups() throws Exception {
+        createIndex(3000, 500);
+        checkLookups(500);
+    }
+
+    /**
+     * Only equality lookups are supported
+     */
+    @Test
+    public void unsupportedOps() throws Exception {
+        createIndex(10, 10);
+        assertTrue(this.index.supports(Predicate.Op.EQUALS));
+        try {
+            this.index.entries(new TransactionId(), Predicate.Op.LESS_THAN, new IntField(1));
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Insertions of distinct keys split buckets and double the directory
+     */
+    @Test
+    public void insertsSplitBuckets() throws Exception {
+        BufferPool.setPageSize(256);
+        createIndex(0, 1);
+        assertEquals(0, directory().getGlobalDepth());
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < 400; i++) {
+            keys.add(i * 7);
+        }
+        Collections.shuffle(keys, new Random(1));
+        insertTuples(keys);
+        assertTrue(directory().getGlobalDepth() > 3);
+        checkLookups(2800);
+    }
+
+    /**
+     * Once the directory cannot grow, full buckets get overflow pages
+     */
+    @Test
+    public void overflowPages() throws Exception {
+        BufferPool.setPageSize(256);
+        createIndex(0, 1);
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        Random random = new Random(2);
+        for (int i = 0; i < 2500; i++) {
+            keys.add(random.nextInt(100));
+        }
+        insertTuples(keys);
+        assertEquals(HashDirectoryPage.maxGlobalDepth(), directory().getGlobalDepth());
+        checkLookups(100);
+    }
+
+    /**
+     * Deleted entries are no longer found, and deleting a missing entry fails
+     */
+    @Test
+    public void deletes() throws Exception {
+        createIndex(2000, 100);
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = this.table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                deleted.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        checkLookups(100);
+
+        tid = new TransactionId();
+        try {
+            this.index.deleteEntry(tid, deleted.get(0).getField(1), deleted.get(0).getRecordId());
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aborting a transaction whose insertions split buckets restores the index
+     */
+    @Test
+    public void abortedSplits() throws Exception {
+        BufferPool.setPageSize(256);
+        createIndex(300, 1000);
+        int depth = directory().getGlobalDepth();
+        Database.resetBufferPool(1000);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(this.table.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, this.table.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(depth, directory().getGlobalDepth());
+        checkLookups(1000);
+
+        // the pages allocated by the aborted transaction are reused
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < 300; i++) {
+            keys.add(1000 + i);
+        }
+        insertTuples(keys);
+        checkLookups(1300);
+    }
+
+    /**
+     * Catalog.loadSchema builds a hash index on the primary key of a table
+     */
+    @Test
+    public void loadSchema() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(2, 500, 1000, null, tuples);
+        String name = data.getName().substring(0, data.getName().length() - ".dat".length());
+        File catalog = new File(data.getParentFile(), name + ".catalog");
+        catalog.deleteOnExit();
+        File indexFile = new File(data.getParentFile(), name + ".b.hash");
+        indexFile.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write(name + " (a int, b int pk)\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId(name);
+        assertEquals(1, Database.getCatalog().getIndexes(tableId).size());
+        IndexFile index = Database.getCatalog().getIndexes(tableId).get(0);
+        assertTrue(index instanceof HashFile);
+        assertEquals(1, index.getKeyField());
+        assertTrue(indexFile.length() > 0);
+
+        // the index is opened, not rebuilt, the next time
+        Database.getCatalog().clear();
+        long modified = indexFile.lastModified();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        assertEquals(modified, indexFile.lastModified());
+        this.table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        this.index = (HashFile) Database.getCatalog().getIndexes(this.table.getId()).get(0);
+        checkLookups(1000);
+
+        // committed inserts keep the index up to date with the table
+        insertTuples(Arrays.asList(1000, 1001));
+        Database.getCatalog().clear();
+        modified = indexFile.lastModified();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        assertEquals(modified, indexFile.lastModified());
+        this.table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        this.index = (HashFile) Database.getCatalog().getIndexes(this.table.getId()).get(0);
+        checkLookups(1001);
+
+        // the index is rebuilt if the table was changed without it
+        File other = SystemTestUtil.createRandomHeapFileUnopened(2, 800, 1000, null, tuples);
+        Files.copy(other.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().clear();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        this.table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        this.index = (HashFile) Database.getCatalog().getIndexes(this.table.getId()).get(0);
+        assertTrue(this.index.isUpToDate());
+        checkLookups(1000);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
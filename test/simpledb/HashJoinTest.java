@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[]{1, 2,
+                        3, 4,
+                        5, 6,
+                        7, 8});
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[]{1, 2, 3,
+                        2, 3, 4,
+                        3, 4, 5,
+                        4, 5, 6,
+                        5, 6, 7});
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[]{1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        5, 6, 5, 6, 7});
+    }
+
+    /**
+     * Unit test for HashJoin.getTupleDesc()
+     */
+    @Test
+    public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashJoin op = new HashJoin(pred, scan1, scan2, 100);
+        TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+        TupleDesc actual = op.getTupleDesc();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for HashJoin.getNext(); the tuples are returned in the order
+     * of the outer relation when the inner one fits in memory
+     */
+    @Test
+    public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashJoin op = new HashJoin(pred, scan1, scan2, 100);
+        op.open();
+        eqJoin.open();
+        TestUtil.compareDbIterators(eqJoin, op);
+        assertFalse(op.hasSpilled());
+    }
+
+    /**
+     * Unit test for HashJoin.rewind()
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashJoin op = new HashJoin(pred, scan1, scan2, 100);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+
+        eqJoin.open();
+        TestUtil.compareDbIterators(eqJoin, op);
+    }
+
+    /**
+     * The tuples that do not fit in the hash table are joined from the spill
+     * files, also after a rewind, which replays the joined partitions
+     */
+    @Test
+    public void spill() throws Exception {
+        // the values 0 to 99 twice each
+        int[] outer = new int[200];
+        for (int i = 0; i < outer.length; i++) {
+            outer[i] = i % 100;
+        }
+        // the values 0 to 49 three times each
+        int[] inner = new int[2 * 150];
+        for (int i = 0; i < 150; i++) {
+            inner[2 * i] = i % 50;
+            inner[2 * i + 1] = i;
+        }
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashJoin op = new HashJoin(pred, TestUtil.createTupleList(1, outer), TestUtil.createTupleList(2, inner), 1);
+        op.open();
+        assertTrue(op.hasSpilled());
+        assertEquals(50 * 2 * 3, countMatches(op));
+        op.rewind();
+        assertEquals(50 * 2 * 3, countMatches(op));
+
+        // a rewind before the end starts the partitions again
+        op.rewind();
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(op.next());
+        }
+        op.rewind();
+        assertEquals(50 * 2 * 3, countMatches(op));
+        op.close();
+    }
+
+    private static int countMatches(DbIterator op) throws Exception {
+        int count = 0;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            assertEquals(t.getField(0), t.getField(1));
+            count++;
+        }
+        return count;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void gtJoin() {
+        new HashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2, 100);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashJoinTest.class);
+    }
+}
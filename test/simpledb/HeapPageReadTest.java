@@ -128,6 +128,84 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate[]), before and after the
+     * page has decoded its tuples
+     */
+    @Test
+    public void testPushedPredicates() throws Exception {
+        Predicate[][] conjunctions = {
+                {},
+                {new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000))},
+                {new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(42812)),
+                        new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(56883))},
+                {new Predicate(1, Predicate.Op.EQUALS, new IntField(-1))},
+        };
+        for (Predicate[] predicates : conjunctions) {
+            checkPushedPredicates(new HeapPage(pid, EXAMPLE_DATA), predicates);
+            HeapPage decoded = new HeapPage(pid, EXAMPLE_DATA);
+            decoded.iterator();
+            checkPushedPredicates(decoded, predicates);
+        }
+    }
+
+    private void checkPushedPredicates(HeapPage page, Predicate[] predicates) {
+        Iterator<Tuple> it = page.iterator(predicates);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            Tuple expected = new Tuple(Utility.getTupleDesc(2));
+            expected.setField(0, new IntField(EXAMPLE_VALUES[row][0]));
+            expected.setField(1, new IntField(EXAMPLE_VALUES[row][1]));
+            boolean pass = true;
+            for (Predicate p : predicates) {
+                pass &= p.filter(expected);
+            }
+            if (pass) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertTrue(TestUtil.compareTuples(expected, tup));
+                assertEquals(row, tup.getRecordId().tupleno());
+            }
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate[], int[]), before and after
+     * the page has decoded its tuples
+     */
+    @Test
+    public void testProjectedColumns() throws Exception {
+        Predicate[] predicates = {new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000))};
+        for (int decode = 0; decode < 2; decode++) {
+            HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+            if (decode == 1) {
+                page.iterator();
+            }
+            Iterator<Tuple> it = page.iterator(predicates, new int[]{1});
+            for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+                if (EXAMPLE_VALUES[row][0] > 30000) {
+                    assertTrue(it.hasNext());
+                    Tuple tup = it.next();
+                    assertEquals(1, tup.getTupleDesc().numFields());
+                    assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(0)).getValue());
+                    assertEquals(row, tup.getRecordId().tupleno());
+                }
+            }
+            assertFalse(it.hasNext());
+        }
+    }
+
+    /**
+     * A page that has not decoded its tuples returns the bytes it was read from
+     */
+    @Test
+    public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+        page.iterator();
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -6,6 +6,8 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -136,6 +138,43 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples inserted while an iterator with pushed predicates is open over
+     * a page that was not decoded yet are returned with their values, not
+     * with the stale bytes of their slots, as in INSERT INTO t SELECT ...
+     * FROM t WHERE ...
+     */
+    @Test
+    public void insertWhileIterating() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageWriteTest.EXAMPLE_DATA);
+        Predicate[] predicates = {new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0))};
+        Iterator<Tuple> it = page.iterator(predicates);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int[] values : EXAMPLE_VALUES) {
+            expected.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(values)));
+            int[] copy = {values[0] + 100000, values[1]};
+            expected.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(copy)));
+        }
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            result.add(SystemTestUtil.tupleToList(t));
+            int a = ((IntField) t.getField(0)).getValue();
+            if (a < 100000) {
+                page.insertTuple(Utility.getHeapTuple(new int[]{a + 100000, ((IntField) t.getField(1)).getValue()}));
+            }
+        }
+        Collections.sort(result, TUPLE_ORDER);
+        Collections.sort(expected, TUPLE_ORDER);
+        assertEquals(expected, result);
+    }
+
+    private static final Comparator<ArrayList<Integer>> TUPLE_ORDER = (a, b) -> {
+        int c = a.get(0).compareTo(b.get(0));
+        return c != 0 ? c : a.get(1).compareTo(b.get(1));
+    };
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HyperLogLogTest extends SimpleDbTestBase {
+
+    private static void assertWithin(long expected, long actual, double error) {
+        assertTrue("estimated " + actual + " instead of " + expected,
+                Math.abs(actual - expected) <= expected * error);
+    }
+
+    /**
+     * Large counts are estimated within a few standard errors, however often
+     * each value is repeated.
+     */
+    @Test
+    public void largeCounts() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 100000; i++) {
+            hll.add(new IntField(i));
+            hll.add(new IntField(i));
+        }
+        assertWithin(100000, hll.estimate(), 0.05);
+
+        HyperLogLog strings = new HyperLogLog();
+        for (int i = 0; i < 50000; i++) {
+            strings.add(new StringField("value" + (i % 20000), Type.STRING_LEN));
+        }
+        assertWithin(20000, strings.estimate(), 0.05);
+    }
+
+    /**
+     * Small counts are nearly exact.
+     */
+    @Test
+    public void smallCounts() {
+        HyperLogLog hll = new HyperLogLog();
+        assertEquals(0, hll.estimate());
+        for (int i = 0; i < 100; i++) {
+            hll.add(new IntField(i % 10));
+        }
+        assertEquals(10, hll.estimate());
+    }
+
+    /**
+     * Merging two sketches gives the sketch of the union of their values.
+     */
+    @Test
+    public void merge() {
+        HyperLogLog a = new HyperLogLog(10);
+        HyperLogLog b = new HyperLogLog(10);
+        HyperLogLog union = new HyperLogLog(10);
+        for (int i = 0; i < 30000; i++) {
+            a.add(new IntField(i));
+            union.add(new IntField(i));
+        }
+        for (int i = 20000; i < 50000; i++) {
+            b.add(new IntField(i));
+            union.add(new IntField(i));
+        }
+        HyperLogLog merged = a.copy();
+        merged.merge(b);
+        assertEquals(union.estimate(), merged.estimate());
+        assertWithin(50000, merged.estimate(), 0.1);
+        // the copy is independent of the original
+        assertWithin(30000, a.estimate(), 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeDifferentPrecisions() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void precisionOutOfRange() {
+        new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HyperLogLogTest.class);
+    }
+}
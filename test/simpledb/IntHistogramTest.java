@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+
+public class IntHistogramTest {
+
+    private static final double DELTA = 0.01;
+
+    /**
+     * A uniform distribution over a known range gives exact estimates at the
+     * bucket boundaries and close ones elsewhere.
+     */
+    @Test
+    public void uniform() {
+        IntHistogram h = new IntHistogram(10, 1, 100);
+        for (int i = 1; i <= 100; i++) {
+            h.addValue(i);
+        }
+        assertEquals(0.01, h.estimateSelectivity(Op.EQUALS, 50), DELTA);
+        assertEquals(0.99, h.estimateSelectivity(Op.NOT_EQUALS, 50), DELTA);
+        assertEquals(0.49, h.estimateSelectivity(Op.LESS_THAN, 50), DELTA);
+        assertEquals(0.50, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 50), DELTA);
+        assertEquals(0.50, h.estimateSelectivity(Op.GREATER_THAN, 50), DELTA);
+        assertEquals(0.51, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 50), DELTA);
+        assertEquals(0.01, h.avgSelectivity(), DELTA);
+    }
+
+    /**
+     * Values outside of the range of the histogram match everything or
+     * nothing.
+     */
+    @Test
+    public void outOfRange() {
+        IntHistogram h = new IntHistogram(10, 1, 100);
+        for (int i = 1; i <= 100; i++) {
+            h.addValue(i);
+        }
+        assertEquals(0, h.estimateSelectivity(Op.EQUALS, -5), 0);
+        assertEquals(0, h.estimateSelectivity(Op.LESS_THAN, 1), 0);
+        assertEquals(1, h.estimateSelectivity(Op.GREATER_THAN, 0), 0);
+        assertEquals(0, h.estimateSelectivity(Op.GREATER_THAN, 100), 0);
+        assertEquals(1, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 1000), 0);
+    }
+
+    /**
+     * A histogram without a range widens its buckets as values arrive, and
+     * gives the same estimates as one over the final range.
+     */
+    @Test
+    public void grows() {
+        IntHistogram grown = new IntHistogram(100);
+        // values in an order that makes the range grow in both directions
+        for (int i = 0; i < 10000; i++) {
+            grown.addValue(i % 2 == 0 ? 5000 + i / 2 : 4999 - i / 2);
+        }
+        assertEquals(0, grown.getMin());
+        assertEquals(9999, grown.getMax());
+        assertEquals(10000, grown.numValues());
+        for (int v : new int[]{0, 17, 2500, 5000, 9998}) {
+            assertEquals(v / 10000.0, grown.estimateSelectivity(Op.LESS_THAN, v), DELTA);
+            assertEquals(0.0001, grown.estimateSelectivity(Op.EQUALS, v), 0.0001);
+        }
+
+        // a skewed distribution
+        IntHistogram skewed = new IntHistogram(100);
+        for (int i = 0; i < 1000; i++) {
+            skewed.addValue(i < 900 ? 7 : -1000000 + i);
+        }
+        assertEquals(0.9, skewed.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 0), DELTA);
+        assertEquals(0.1, skewed.estimateSelectivity(Op.LESS_THAN, 0), DELTA);
+    }
+
+    /**
+     * Extreme values do not overflow.
+     */
+    @Test
+    public void extremes() {
+        IntHistogram h = new IntHistogram(10);
+        h.addValue(Integer.MAX_VALUE);
+        h.addValue(Integer.MIN_VALUE);
+        h.addValue(0);
+        assertEquals(1 / 3.0, h.estimateSelectivity(Op.GREATER_THAN, 0), DELTA);
+        assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, Integer.MAX_VALUE), 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHistogramTest.class);
+    }
+}
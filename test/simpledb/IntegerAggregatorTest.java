@@ -131,6 +131,70 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Test that AVG does not overflow when the running sum exceeds the range of an int
+     */
+    @Test
+    public void mergeAvgLargeValues() throws Exception {
+        int big = Integer.MAX_VALUE - 1;
+        DbIterator scan = TestUtil.createTupleList(width1,
+                new int[]{1, big,
+                        1, big,
+                        2, big});
+        scan.open();
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+        while (scan.hasNext()) {
+            agg.mergeTupleIntoGroup(scan.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[]{1, big, 2, big}), it);
+    }
+
+    /**
+     * Test that a SUM past the range of an int fails instead of wrapping around
+     */
+    @Test(expected = DbException.class)
+    public void mergeSumOverflow() throws Exception {
+        int big = Integer.MAX_VALUE - 1;
+        DbIterator scan = TestUtil.createTupleList(width1,
+                new int[]{1, big,
+                        1, big});
+        scan.open();
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+        while (scan.hasNext()) {
+            agg.mergeTupleIntoGroup(scan.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        it.next();
+    }
+
+    /**
+     * Test IntegerAggregator over many distinct groups, which forces the group table to grow
+     */
+    @Test
+    public void mergeManyGroups() throws Exception {
+        int groups = 10000;
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+        for (int round = 0; round < 3; round++) {
+            for (int g = 0; g < groups; g++) {
+                agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[]{g * 7919, round}));
+            }
+        }
+
+        DbIterator it = agg.iterator();
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(0, ((IntField) t.getField(0)).getValue() % 7919);
+            assertEquals(3, ((IntField) t.getField(1)).getValue());
+            count++;
+        }
+        assertEquals(groups, count);
+    }
+
     /**
      * Test IntegerAggregator.iterator() for DbIterator behaviour
      */
@@ -0,0 +1,277 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+    /**
+     * Statistics of a table of a fixed size and number of distinct values,
+     * whatever the contents of the table.
+     */
+    private static class FixedStats extends TableStats {
+        private final int card;
+        private final int distinct;
+
+        FixedStats(int tableid, int card, int distinct) {
+            super(tableid, 1000);
+            this.card = card;
+            this.distinct = distinct;
+        }
+
+        @Override
+        public double estimateScanCost() {
+            return 1000.0 * (this.card / 100 + 1);
+        }
+
+        @Override
+        public int estimateTableCardinality(double selectivityFactor) {
+            return (int) (this.card * selectivityFactor);
+        }
+
+        @Override
+        public int numDistinctValues(int field) {
+            return this.distinct;
+        }
+    }
+
+    private LogicalPlan lp;
+    private HashMap<String, TableStats> stats;
+    private HashMap<String, Double> selectivities;
+    // the number of distinct values of each field of the tables, or 0 if unknown
+    private int distinct;
+
+    /**
+     * Creates empty tables t0, t1, ... of the specified cardinalities.
+     */
+    private void createTables(int... cards) throws Exception {
+        this.lp = new LogicalPlan();
+        this.stats = new HashMap<String, TableStats>();
+        this.selectivities = new HashMap<String, Double>();
+        for (int i = 0; i < cards.length; i++) {
+            HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null, "c");
+            this.lp.addScan(table.getId(), "t" + i);
+            this.stats.put(Database.getCatalog().getTableName(table.getId()), new FixedStats(table.getId(), cards[i],
+                    this.distinct));
+            this.selectivities.put("t" + i, 1.0);
+        }
+    }
+
+    private static LogicalJoinNode join(int t1, int t2) {
+        return new LogicalJoinNode("t" + t1, "t" + t2, "c1", "c0", Predicate.Op.EQUALS);
+    }
+
+    /**
+     * Checks that order is a permutation of joins, possibly with swapped
+     * tables, in which every join joins two different subplans, and that
+     * joins all of the tables, as {@link LogicalPlan#physicalPlan} does.
+     *
+     * @return the number of joins of two subplans that are not base tables
+     */
+    private static int assertValidOrder(Vector<LogicalJoinNode> joins, Vector<LogicalJoinNode> order) {
+        assertEquals(joins.size(), order.size());
+        assertEquals(new HashSet<LogicalJoinNode>(joins), new HashSet<LogicalJoinNode>(order));
+        // the tables of the subplan each table is in
+        HashMap<String, HashSet<String>> subplans = new HashMap<String, HashSet<String>>();
+        int bushy = 0;
+        for (LogicalJoinNode j : order) {
+            HashSet<String> s1 = subplan(subplans, j.t1Alias);
+            HashSet<String> s2 = subplan(subplans, j.t2Alias);
+            assertNotSame(order + " joins a subplan to itself", s1, s2);
+            if (s1.size() > 1 && s2.size() > 1) {
+                bushy++;
+            }
+            s1.addAll(s2);
+            for (String alias : s2) {
+                subplans.put(alias, s1);
+            }
+        }
+        HashSet<String> all = subplan(subplans, order.get(0).t1Alias);
+        assertEquals(order + " has a cross product", subplans.keySet(), all);
+        return bushy;
+    }
+
+    private static HashSet<String> subplan(HashMap<String, HashSet<String>> subplans, String alias) {
+        HashSet<String> s = subplans.get(alias);
+        if (s == null) {
+            s = new HashSet<String>();
+            s.add(alias);
+            subplans.put(alias, s);
+        }
+        return s;
+    }
+
+    @After
+    public void resetSettings() {
+        JoinOptimizer.setMaxBushyTables(JoinOptimizer.DEFAULT_MAX_BUSHY_TABLES);
+        JoinOptimizer.setJoinMemory(JoinOptimizer.DEFAULT_JOIN_MEMORY);
+    }
+
+    private static Vector<LogicalJoinNode> chain(int tables) {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 0; i + 1 < tables; i++) {
+            joins.add(join(i, i + 1));
+        }
+        return joins;
+    }
+
+    /**
+     * The small tables of a chain are joined first, whatever the order of the
+     * joins in the query.
+     */
+    @Test
+    public void smallTablesFirst() throws Exception {
+        createTables(100000, 100000, 10, 10);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(join(0, 1));
+        joins.add(join(1, 2));
+        joins.add(join(2, 3));
+        Vector<LogicalJoinNode> order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities,
+                false);
+        assertValidOrder(joins, order);
+        assertEquals(join(2, 3), order.get(0));
+        assertEquals(join(0, 1), order.get(2));
+    }
+
+    /**
+     * Joins of tables that are not all connected are left in the order of the
+     * query.
+     */
+    @Test
+    public void crossProduct() throws Exception {
+        createTables(10, 10, 10, 10);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(join(0, 1));
+        joins.add(join(2, 3));
+        assertSame(joins, new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities, false));
+    }
+
+    /**
+     * A chain of 16 tables is planned quickly.
+     */
+    @Test(timeout = 5000)
+    public void manyJoins() throws Exception {
+        int[] cards = new int[16];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = 10 + (i * 7919) % 5000;
+        }
+        createTables(cards);
+        Vector<LogicalJoinNode> joins = chain(cards.length);
+        Vector<LogicalJoinNode> order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities,
+                false);
+        assertValidOrder(joins, order);
+    }
+
+    /**
+     * The pairs of small tables at both ends of a chain are joined first, and
+     * the join of one pair with the big table is joined to the other pair
+     * rather than to each of its tables in turn.
+     */
+    @Test
+    public void bushyPlan() throws Exception {
+        createTables(10, 10, 100000, 10, 10);
+        Vector<LogicalJoinNode> joins = chain(5);
+        Vector<LogicalJoinNode> order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities,
+                false);
+        assertEquals(1, assertValidOrder(joins, order));
+        assertTrue(order.indexOf(join(0, 1)) < 2 || order.indexOf(join(0, 1).swapInnerOuter()) < 2);
+        assertTrue(order.indexOf(join(3, 4)) < 2 || order.indexOf(join(3, 4).swapInnerOuter()) < 2);
+    }
+
+    /**
+     * The joins of more tables than {@link JoinOptimizer#getMaxBushyTables}
+     * are ordered greedily, quickly, into a plan that joins all of them.
+     */
+    @Test(timeout = 5000)
+    public void greedyPlan() throws Exception {
+        int[] cards = new int[40];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = 10 + (i * 7919) % 5000;
+        }
+        createTables(cards);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < cards.length; i++) {
+            // a snowflake: a star of chains of 3 tables around t0
+            joins.add(join(i % 3 == 1 ? 0 : i - 1, i));
+        }
+        Vector<LogicalJoinNode> order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities,
+                false);
+        assertValidOrder(joins, order);
+
+        // a bushy plan of the small tables, like the one of bushyPlan
+        createTables(10, 10, 100000, 10, 10);
+        joins = chain(5);
+        JoinOptimizer.setMaxBushyTables(4);
+        order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities, false);
+        assertEquals(1, assertValidOrder(joins, order));
+    }
+
+    /**
+     * An equi-join of tables that fit in memory is a hash join, and a range
+     * join reads the outer relation in blocks.
+     */
+    @Test
+    public void joinAlgorithms() throws Exception {
+        createTables(1000, 1000);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(join(0, 1));
+        Vector<LogicalJoinNode> order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities,
+                false);
+        assertEquals(LogicalJoinNode.Algorithm.HASH, order.get(0).algorithm);
+
+        joins.set(0, new LogicalJoinNode("t0", "t1", "c1", "c0", Predicate.Op.LESS_THAN));
+        order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities, false);
+        assertEquals(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOPS, order.get(0).algorithm);
+    }
+
+    /**
+     * A sort-merge join is chosen when it saves sorting a large result for
+     * the ORDER BY of the query, and both relations fit in memory.
+     */
+    @Test
+    public void sortMergeForOrderBy() throws Exception {
+        this.distinct = 10;
+        createTables(1000, 1000);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(join(0, 1));
+        Vector<LogicalJoinNode> order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities,
+                false);
+        assertEquals(LogicalJoinNode.Algorithm.HASH, order.get(0).algorithm);
+
+        this.lp.addOrderBy("t0.c1", true);
+        order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities, false);
+        assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE, order.get(0).algorithm);
+
+        JoinOptimizer.setJoinMemory(1000);
+        order = new JoinOptimizer(this.lp, joins).orderJoins(this.stats, this.selectivities, false);
+        assertEquals(LogicalJoinNode.Algorithm.HASH, order.get(0).algorithm);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidJoinMemory() {
+        JoinOptimizer.setJoinMemory(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxBushyTables() {
+        JoinOptimizer.setMaxBushyTables(1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
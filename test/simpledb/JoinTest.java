@@ -111,6 +111,25 @@ public class JoinTest extends SimpleDbTestBase {
         TestUtil.matchAllTuples(eqJoin, op);
     }
 
+    /**
+     * Unit test for Join.getNext() reading the outer relation in blocks
+     */
+    @Test
+    public void blockJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        Join op = new Join(pred, scan1, scan2, 3);
+        op.open();
+        gtJoin.open();
+        TestUtil.matchAllTuples(gtJoin, op);
+        op.rewind();
+        int count = 0;
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+            count++;
+        }
+        assertEquals(11, count);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,220 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MultiAggregatorTest extends SimpleDbTestBase {
+
+    DbIterator scan1;
+    DbIterator scan2;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(3,
+                new int[]{1, 1, 2,
+                        1, 1, 4,
+                        1, 2, 6,
+                        3, 1, 2,
+                        3, 1, 4,
+                        3, 2, 6,
+                        1, 2, 7});
+        this.scan2 = TestUtil.createTupleList(3,
+                new Object[]{"a", 1, "x",
+                        "a", 2, "y",
+                        "b", 3, "z"});
+    }
+
+    private static Aggregator.Op[] ops(Aggregator.Op... ops) {
+        return ops;
+    }
+
+    /**
+     * Test several aggregates over a two-column group key
+     */
+    @Test
+    public void mergeCompositeKey() throws Exception {
+        MultiAggregator agg = new MultiAggregator(
+                new int[]{0, 1}, new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new int[]{2, 2, 2, 2, 2}, Utility.getTypes(5),
+                ops(Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG));
+        scan1.open();
+        while (scan1.hasNext()) {
+            agg.mergeTupleIntoGroup(scan1.next());
+        }
+        assertEquals(4, agg.numGroups());
+
+        DbIterator it = agg.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(7,
+                new int[]{1, 1, 2, 6, 2, 4, 3,
+                        1, 2, 2, 13, 6, 7, 6,
+                        3, 1, 2, 6, 2, 4, 3,
+                        3, 2, 1, 6, 6, 6, 6}), it);
+    }
+
+    /**
+     * Test aggregates without grouping
+     */
+    @Test
+    public void mergeNoGrouping() throws Exception {
+        MultiAggregator agg = new MultiAggregator(new int[0], new Type[0],
+                new int[]{0, 2}, Utility.getTypes(2), ops(Aggregator.Op.MAX, Aggregator.Op.SUM));
+        scan1.open();
+        while (scan1.hasNext()) {
+            agg.mergeTupleIntoGroup(scan1.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[]{3, 31}), it);
+    }
+
+    /**
+     * Test that a SUM past the range of an int fails instead of wrapping
+     * around, while the AVG of the same values still fits
+     */
+    @Test(expected = DbException.class)
+    public void mergeSumOverflow() throws Exception {
+        int big = Integer.MAX_VALUE - 1;
+        MultiAggregator agg = new MultiAggregator(new int[0], new Type[0],
+                new int[]{0, 0}, Utility.getTypes(2), ops(Aggregator.Op.AVG, Aggregator.Op.SUM));
+        agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[]{big}));
+        agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[]{big}));
+        DbIterator it = agg.iterator();
+        it.open();
+        it.next();
+    }
+
+    /**
+     * Test a string group key with a COUNT over a string column
+     */
+    @Test
+    public void mergeStrings() throws Exception {
+        MultiAggregator agg = new MultiAggregator(
+                new int[]{0}, new Type[]{Type.STRING_TYPE},
+                new int[]{2, 1}, new Type[]{Type.STRING_TYPE, Type.INT_TYPE},
+                ops(Aggregator.Op.COUNT, Aggregator.Op.SUM));
+        scan2.open();
+        while (scan2.hasNext()) {
+            agg.mergeTupleIntoGroup(scan2.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+                new Object[]{"a", 2, 3,
+                        "b", 1, 3}), it);
+    }
+
+    /**
+     * Test hasGroupOf() and clear()
+     */
+    @Test
+    public void hasGroupOfAndClear() throws Exception {
+        MultiAggregator agg = new MultiAggregator(
+                new int[]{0, 1}, new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new int[]{2}, Utility.getTypes(1), ops(Aggregator.Op.SUM));
+        scan1.open();
+        Tuple first = scan1.next();
+        Tuple third = scan1.next();
+        third = scan1.next();
+        agg.mergeTupleIntoGroup(first);
+        assertTrue(agg.hasGroupOf(first));
+        assertFalse(agg.hasGroupOf(third));
+
+        agg.clear();
+        assertEquals(0, agg.numGroups());
+        assertFalse(agg.hasGroupOf(first));
+    }
+
+    /**
+     * Test that SUM_COUNT produces two fields, and that SC_AVG averages them
+     */
+    @Test
+    public void sumCountAndScAvg() throws Exception {
+        MultiAggregator partial = new MultiAggregator(
+                new int[]{0}, new Type[]{Type.INT_TYPE},
+                new int[]{2, 1}, Utility.getTypes(2), ops(Aggregator.Op.SUM_COUNT, Aggregator.Op.MAX));
+        scan1.open();
+        while (scan1.hasNext()) {
+            partial.mergeTupleIntoGroup(scan1.next());
+        }
+        assertEquals(4, partial.getTupleDesc().numFields());
+        DbIterator it = partial.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+                new int[]{1, 19, 4, 2,
+                        3, 12, 3, 2}), it);
+
+        // averaging the partial sums and counts of two groups gives the overall average
+        MultiAggregator fin = new MultiAggregator(new int[0], new Type[0],
+                new int[]{1}, Utility.getTypes(1), ops(Aggregator.Op.SC_AVG));
+        it.rewind();
+        while (it.hasNext()) {
+            fin.mergeTupleIntoGroup(it.next());
+        }
+        DbIterator result = fin.iterator();
+        result.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[]{31 / 7}), result);
+    }
+
+    /**
+     * Test COUNT_DISTINCT over ints and strings, and merging the sketches of
+     * two aggregators
+     */
+    @Test
+    public void countDistinct() throws Exception {
+        MultiAggregator agg = new MultiAggregator(
+                new int[]{0}, new Type[]{Type.INT_TYPE},
+                new int[]{2, 1}, Utility.getTypes(2), ops(Aggregator.Op.COUNT_DISTINCT, Aggregator.Op.COUNT_DISTINCT));
+        scan1.open();
+        while (scan1.hasNext()) {
+            agg.mergeTupleIntoGroup(scan1.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+                new int[]{1, 4, 2,
+                        3, 3, 2}), it);
+
+        MultiAggregator strings = new MultiAggregator(new int[0], new Type[0],
+                new int[]{2}, new Type[]{Type.STRING_TYPE}, ops(Aggregator.Op.COUNT_DISTINCT));
+        MultiAggregator other = new MultiAggregator(new int[0], new Type[0],
+                new int[]{2}, new Type[]{Type.STRING_TYPE}, ops(Aggregator.Op.COUNT_DISTINCT));
+        scan2.open();
+        strings.mergeTupleIntoGroup(scan2.next());
+        Tuple second = scan2.next();
+        strings.mergeTupleIntoGroup(second);
+        other.mergeTupleIntoGroup(second);
+        other.mergeTupleIntoGroup(scan2.next());
+        strings.merge(other);
+        DbIterator result = strings.iterator();
+        result.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[]{3}), result);
+    }
+
+    /**
+     * Aggregates other than COUNT over strings are rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void sumOverString() {
+        new MultiAggregator(new int[0], new Type[0],
+                new int[]{0}, new Type[]{Type.STRING_TYPE}, ops(Aggregator.Op.SUM));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiAggregatorTest.class);
+    }
+}
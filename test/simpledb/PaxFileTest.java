@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 4;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private PaxFile pax;
+
+    /**
+     * Initialize each unit test with a PaxFile converted from a random HeapFile
+     */
+    @Before
+    public void createPaxFile() throws Exception {
+        this.tuples = new ArrayList<ArrayList<Integer>>();
+        File heapFile = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, 1200, 1000, null, this.tuples);
+        File paxFile = File.createTempFile("table", ".dat");
+        paxFile.deleteOnExit();
+        PaxFile.convert(heapFile, paxFile, Utility.getTupleDesc(COLUMNS));
+        this.pax = new PaxFile(paxFile, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(this.pax, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * A PaxFile returns the tuples of the HeapFile it was converted from
+     */
+    @Test
+    public void scan() throws Exception {
+        assertEquals(5, this.pax.numPages());
+        SystemTestUtil.matchTuples(this.pax, this.tuples);
+    }
+
+    /**
+     * The values of each field are stored next to each other
+     */
+    @Test
+    public void layout() throws Exception {
+        Page page = this.pax.readPage(new HeapPageId(this.pax.getId(), 0));
+        assertTrue(page instanceof PaxPage);
+        byte[] data = page.getPageData();
+        int numSlots = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        for (int i = 0; i < numSlots; i++) {
+            for (int j = 0; j < COLUMNS; j++) {
+                int pos = headerSize + j * numSlots * 4 + i * 4;
+                int value = ((data[pos] & 0xff) << 24) | ((data[pos + 1] & 0xff) << 16)
+                        | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+                assertEquals((int) this.tuples.get(i).get(j), value);
+            }
+        }
+    }
+
+    /**
+     * Predicates and columns pushed into a scan of a PaxFile
+     */
+    @Test
+    public void pushdown() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, this.pax.getId(), "p");
+        scan.setColumns(new int[]{2, 0});
+        scan.setPredicates(new Predicate[]{new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300))});
+        scan.open();
+        for (ArrayList<Integer> tuple : this.tuples) {
+            if (tuple.get(0) < 300) {
+                assertTrue(scan.hasNext());
+                Tuple t = scan.next();
+                assertEquals(tuple.get(2), SystemTestUtil.tupleToList(t).get(0));
+                assertEquals(tuple.get(0), SystemTestUtil.tupleToList(t).get(1));
+            }
+        }
+        assertTrue(!scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted into and deleted from a PaxFile are written back in the PAX layout
+     */
+    @Test
+    public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, this.pax.getId(), "p");
+        scan.open();
+        Tuple first = scan.next();
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        this.tuples.remove(0);
+
+        Tuple t = Utility.getHeapTuple(new int[]{-1, -2, -3, -4});
+        Database.getBufferPool().insertTuple(tid, this.pax.getId(), t);
+        ArrayList<Integer> inserted = new ArrayList<Integer>();
+        for (int i = 1; i <= COLUMNS; i++) {
+            inserted.add(-i);
+        }
+        this.tuples.add(inserted);
+        Page page = Database.getBufferPool().getPage(tid, first.getRecordId().getPageId(), Permissions.READ_ONLY);
+        assertTrue(page.getBeforeImage() instanceof PaxPage);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PaxFile reopened = new PaxFile(this.pax.getFile(), Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, this.tuples);
+    }
+
+    /**
+     * Catalog.loadSchema stores tables annotated with the pax storage format in a PaxFile
+     */
+    @Test
+    public void loadSchema() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        String name = "pax" + Math.abs(SystemTestUtil.getUUID().hashCode());
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write(name + " (a int, b int)\n");
+            w.write(name + "p (a int, b int) pax\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        DbFile heap = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        DbFile paxTable = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name + "p"));
+        assertTrue(!(heap instanceof PaxFile));
+        assertTrue(paxTable instanceof PaxFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+    private static final String[] WORDS = {"", "a", "ab", "abc", "b", "ba", "bab", "c"};
+
+    private TupleDesc td;
+    private TupleBatch batch;
+
+    /**
+     * Initialize each unit test with a batch of random (int, string, int) tuples
+     */
+    @Before
+    public void createBatch() {
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        this.batch = new TupleBatch(this.td);
+        Random random = new Random(42);
+        while (!this.batch.isFull()) {
+            Tuple t = new Tuple(this.td);
+            t.setField(0, new IntField(random.nextInt(10) - 5));
+            t.setField(1, new StringField(WORDS[random.nextInt(WORDS.length)], Type.STRING_LEN));
+            t.setField(2, new IntField(random.nextInt(10) - 5));
+            this.batch.addTuple(t);
+        }
+    }
+
+    /**
+     * Checks that the compiled conjunction of preds accepts the same tuples
+     * as the interpreted predicates, one tuple and one batch at a time.
+     */
+    private void checkAgainstInterpreter(Predicate... preds) {
+        CompiledPredicate compiled = PredicateCompiler.compile(preds);
+        assertNotNull(compiled);
+
+        int[] expected = new int[TupleBatch.MAX_SIZE];
+        int n = 0;
+        for (int i = 0; i < this.batch.size(); i++) {
+            Tuple t = this.batch.getTuple(i);
+            boolean pass = true;
+            for (Predicate p : preds) {
+                pass &= p.filter(t);
+            }
+            assertEquals(pass, compiled.filter(t));
+            if (pass) {
+                expected[n++] = i;
+            }
+        }
+
+        int[] selected = new int[TupleBatch.MAX_SIZE];
+        assertEquals(n, compiled.filter(this.batch, selected));
+        for (int k = 0; k < n; k++) {
+            assertEquals(expected[k], selected[k]);
+        }
+    }
+
+    /**
+     * Every operator over an int field
+     */
+    @Test
+    public void intOperators() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            checkAgainstInterpreter(new Predicate(0, op, new IntField(1)));
+        }
+    }
+
+    /**
+     * Every operator over a string field
+     */
+    @Test
+    public void stringOperators() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            checkAgainstInterpreter(new Predicate(1, op, new StringField("ab", Type.STRING_LEN)));
+        }
+    }
+
+    /**
+     * Conjunctions mixing int and string fields
+     */
+    @Test
+    public void conjunctions() {
+        checkAgainstInterpreter(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-3)),
+                new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(2)));
+        checkAgainstInterpreter(
+                new Predicate(1, Predicate.Op.LIKE, new StringField("b", Type.STRING_LEN)),
+                new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(0)),
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new StringField("ab", Type.STRING_LEN)));
+    }
+
+    /**
+     * Predicates that differ only in their operands share a class
+     */
+    @Test
+    public void classReuse() {
+        CompiledPredicate a = PredicateCompiler.compile(new Predicate[]{
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(1))});
+        CompiledPredicate b = PredicateCompiler.compile(new Predicate[]{
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(2))});
+        assertSame(a.getClass(), b.getClass());
+    }
+
+    /**
+     * No code is generated while compilation is disabled
+     */
+    @Test
+    public void disabled() {
+        PredicateCompiler.setEnabled(false);
+        try {
+            assertNull(PredicateCompiler.compile(new Predicate[]{
+                    new Predicate(0, Predicate.Op.EQUALS, new IntField(1))}));
+        } finally {
+            PredicateCompiler.setEnabled(true);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateCompilerTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[]{7, 8,
+                        5, 6,
+                        3, 4,
+                        1, 2});
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[]{4, 5, 6,
+                        1, 2, 3,
+                        5, 6, 7,
+                        3, 4, 5,
+                        2, 3, 4});
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[]{1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        5, 6, 5, 6, 7});
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getTupleDesc()
+     */
+    @Test
+    public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+        TupleDesc actual = op.getTupleDesc();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getNext(); the tuples are returned in
+     * order of the join value
+     */
+    @Test
+    public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        eqJoin.open();
+        TestUtil.compareDbIterators(eqJoin, op);
+    }
+
+    /**
+     * Unit test for SortMergeJoin.rewind()
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+
+        eqJoin.open();
+        TestUtil.compareDbIterators(eqJoin, op);
+    }
+
+    /**
+     * Every pair of tuples of runs of the same value is joined, in order
+     */
+    @Test
+    public void duplicates() throws Exception {
+        // the values 9 down to 0 three times each
+        int[] outer = new int[30];
+        for (int i = 0; i < outer.length; i++) {
+            outer[i] = 9 - i % 10;
+        }
+        // the values 0 to 4 twice each
+        int[] inner = new int[10];
+        for (int i = 0; i < inner.length; i++) {
+            inner[i] = i % 5;
+        }
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, TestUtil.createTupleList(1, outer),
+                TestUtil.createTupleList(1, inner));
+        op.open();
+        int count = 0;
+        Field last = null;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            assertEquals(t.getField(0), t.getField(1));
+            assertTrue(last == null || last.compareTo(t.getField(0)) <= 0);
+            last = t.getField(0);
+            count++;
+        }
+        assertEquals(5 * 3 * 2, count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void gtJoin() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StatementCacheTest extends SimpleDbTestBase {
+
+    private static CachedPlan emptyPlan() {
+        return CachedPlan.create(new LogicalPlan(), 0, Database.getCatalog().getVersion());
+    }
+
+    /**
+     * Statements that only differ in whitespace and constants have the same
+     * normalized text.
+     */
+    @Test
+    public void normalize() {
+        StatementCache.Normalized n = StatementCache.normalize(
+                "SELECT t.a FROM t\n  WHERE t.a = 5 AND t.b = 'it''s' AND t.c < ? ;");
+        assertEquals("SELECT t.a FROM t WHERE t.a = ? AND t.b = ? AND t.c < ?", n.text);
+        assertEquals("SELECT t.a FROM t WHERE t.a = '?1' AND t.b = '?2' AND t.c < '?3';", n.parseText);
+        assertArrayEquals(new String[]{"5", "it''s", null}, n.constants);
+        assertTrue(n.reusable);
+        assertTrue(n.hasPlaceholders());
+
+        StatementCache.Normalized other = StatementCache.normalize(
+                "SELECT t.a FROM t WHERE t.a = 42 AND t.b = 'x' AND t.c < 7");
+        assertEquals(n.text, other.text);
+        assertFalse(other.hasPlaceholders());
+    }
+
+    /**
+     * Only single SELECT statements without subqueries can reuse a plan.
+     */
+    @Test
+    public void reusable() {
+        assertTrue(StatementCache.normalize("select t1.a from t t1, t t2 where t1.a = t2.b;").reusable);
+        assertFalse(StatementCache.normalize("insert into t values (1, 2);").reusable);
+        assertFalse(StatementCache.normalize("select t.a from t where t.a = (select max(u.a) from u);").reusable);
+        assertFalse(StatementCache.normalize("select t.a from t; select u.a from u;").reusable);
+        assertFalse(StatementCache.normalize("select t.a from t where t.b = 'unterminated;").reusable);
+    }
+
+    /**
+     * The least recently used plan is evicted when the cache is full.
+     */
+    @Test
+    public void evictLeastRecentlyUsed() {
+        StatementCache cache = new StatementCache(2);
+        CachedPlan a = emptyPlan();
+        CachedPlan b = emptyPlan();
+        CachedPlan c = emptyPlan();
+        cache.put("a", a);
+        cache.put("b", b);
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertSame(c, cache.get("c"));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.setCapacity(1);
+        assertEquals(1, cache.size());
+        assertSame(c, cache.get("c"));
+    }
+
+    /**
+     * Plans made against an older version of the catalog are discarded.
+     */
+    @Test
+    public void catalogChange() throws Exception {
+        StatementCache cache = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+        cache.put("a", emptyPlan());
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(1)), "s");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCapacity() {
+        new StatementCache(0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StatementCacheTest.class);
+    }
+}
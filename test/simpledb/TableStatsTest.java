@@ -0,0 +1,342 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+    private static final int IO_COST = 71;
+    private static final int ROWS = 10200;
+    private static final int MAX_VALUE = 32;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before
+    public void createTable() throws Exception {
+        this.tuples = new ArrayList<ArrayList<Integer>>();
+        this.table = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, this.tuples);
+    }
+
+    private double actualSelectivity(int field, Predicate.Op op, int v) {
+        int n = 0;
+        for (ArrayList<Integer> t : this.tuples) {
+            if (new IntField(t.get(field)).compare(op, new IntField(v))) {
+                n++;
+            }
+        }
+        return n / (double) this.tuples.size();
+    }
+
+    @Test
+    public void sizes() {
+        TableStats s = new TableStats(this.table.getId(), IO_COST);
+        assertEquals(ROWS, s.totalTuples());
+        assertEquals(this.table.numPages() * IO_COST, s.estimateScanCost(), 0);
+        assertEquals(ROWS / 2, s.estimateTableCardinality(0.5));
+    }
+
+    @Test
+    public void rangesAndDistinctValues() {
+        TableStats s = new TableStats(this.table.getId(), IO_COST);
+        for (int field = 0; field < 3; field++) {
+            HashSet<Integer> values = new HashSet<Integer>();
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (ArrayList<Integer> t : this.tuples) {
+                values.add(t.get(field));
+                min = Math.min(min, t.get(field));
+                max = Math.max(max, t.get(field));
+            }
+            assertEquals(values.size(), s.numDistinctValues(field));
+            assertEquals(min, s.minValue(field));
+            assertEquals(max, s.maxValue(field));
+            assertEquals(1.0 / values.size(), s.avgSelectivity(field, Predicate.Op.EQUALS), 0.001);
+        }
+    }
+
+    @Test
+    public void selectivity() {
+        TableStats s = new TableStats(this.table.getId(), IO_COST);
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+                Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ}) {
+            for (int v : new int[]{-3, 0, MAX_VALUE / 3, MAX_VALUE / 2, MAX_VALUE + 5}) {
+                assertEquals(op + " " + v, actualSelectivity(1, op, v),
+                        s.estimateSelectivity(1, op, new IntField(v)), 0.01);
+            }
+        }
+    }
+
+    @Test
+    public void stringFields() throws IOException {
+        File text = File.createTempFile("stats", ".txt");
+        text.deleteOnExit();
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < 1000; i++) {
+                w.write(i + ",name" + (i % 50) + "\n");
+            }
+        }
+        File f = File.createTempFile("stats", ".dat");
+        f.deleteOnExit();
+        Type[] types = new Type[]{Type.INT_TYPE, Type.STRING_TYPE};
+        HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), 2, types);
+        HeapFile strings = new HeapFile(f, new TupleDesc(types, new String[]{"id", "name"}));
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+
+        TableStats s = new TableStats(strings.getId(), IO_COST);
+        assertEquals(1000, s.totalTuples());
+        assertEquals(50, s.numDistinctValues(1));
+        assertEquals(0.02, s.estimateSelectivity(1, Predicate.Op.EQUALS, new StringField("name7", Type.STRING_LEN)),
+                0.001);
+        assertEquals(0.98, s.estimateSelectivity(1, Predicate.Op.NOT_EQUALS,
+                new StringField("name7", Type.STRING_LEN)), 0.001);
+        assertEquals(0, s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new StringField("a", Type.STRING_LEN)), 0);
+        try {
+            s.minValue(1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Statistics computed from a sample of the pages extrapolate the number
+     * of tuples, and bound the error of their selectivity estimates.
+     */
+    @Test
+    public void sampled() throws Exception {
+        int rows = 100000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        this.tuples = tuples;
+        HeapFile big = SystemTestUtil.createRandomHeapFile(3, rows, 1000, null, tuples);
+        TableStats full = new TableStats(big.getId(), IO_COST);
+        TableStats s = new TableStats(big.getId(), IO_COST, 0.1);
+        assertFalse(full.isSampled());
+        assertTrue(s.isSampled());
+        assertEquals(rows, full.sampleSize());
+        assertTrue(s.sampleSize() < rows / 5);
+        assertEquals(rows, s.totalTuples(), rows * 0.02);
+        assertEquals(full.estimateScanCost(), s.estimateScanCost(), 0);
+
+        for (int v : new int[]{10, 100, 500, 900}) {
+            IntField operand = new IntField(v);
+            assertEquals(0, full.estimateSelectivityError(1, Predicate.Op.LESS_THAN, operand), 0);
+            double error = s.estimateSelectivityError(1, Predicate.Op.LESS_THAN, operand);
+            assertTrue(error > 0 && error < 0.02);
+            // twice the margin, so that the test fails with a negligible probability
+            assertEquals(actualSelectivity(1, Predicate.Op.LESS_THAN, v),
+                    s.estimateSelectivity(1, Predicate.Op.LESS_THAN, operand), 2 * error);
+        }
+        // the field has about 1000 distinct values, most of which are in the sample several times
+        assertEquals(full.numDistinctValues(1), s.numDistinctValues(1), full.numDistinctValues(1) * 0.1);
+
+        // a larger sample has a smaller error
+        TableStats larger = new TableStats(big.getId(), IO_COST, 0.5);
+        assertTrue(larger.estimateSelectivityError(1, Predicate.Op.LESS_THAN, new IntField(500))
+                < s.estimateSelectivityError(1, Predicate.Op.LESS_THAN, new IntField(500)));
+    }
+
+    /**
+     * Small tables are read entirely, whatever the sample rate.
+     */
+    @Test
+    public void smallTablesNotSampled() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(3, 1000, null, new ArrayList<ArrayList<Integer>>());
+        assertTrue(small.numPages() <= TableStats.MIN_SAMPLE_PAGES);
+        TableStats s = new TableStats(small.getId(), IO_COST, 0.01);
+        assertFalse(s.isSampled());
+        assertEquals(1000, s.totalTuples());
+        try {
+            new TableStats(small.getId(), IO_COST, 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void samplePages() {
+        int[] pages = TableStats.samplePages(1000, 50, new Random(1));
+        assertEquals(50, pages.length);
+        for (int i = 0; i < pages.length; i++) {
+            assertTrue(pages[i] >= 0 && pages[i] < 1000);
+            assertTrue(i == 0 || pages[i - 1] < pages[i]);
+        }
+        // the pages are spread over the whole table
+        assertTrue(pages[0] < 100 && pages[49] >= 900);
+    }
+
+    private static ArrayList<Tuple> insert(TransactionId tid, HeapFile table, int n, int value) throws Exception {
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            for (int k = 0; k < table.getTupleDesc().numFields(); k++) {
+                t.setField(k, new IntField(value));
+            }
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            inserted.add(t);
+        }
+        return inserted;
+    }
+
+    /**
+     * The statistics in the map are updated as tuples are inserted and
+     * deleted through the BufferPool.
+     */
+    @Test
+    public void incrementalUpdates() throws Exception {
+        TableStats s = new TableStats(this.table.getId(), IO_COST);
+        TableStats.setTableStats(Database.getCatalog().getTableName(this.table.getId()), s);
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> inserted = insert(tid, this.table, 500, 100);
+        assertEquals(ROWS + 500, s.totalTuples());
+        assertEquals(100, s.maxValue(1));
+        assertEquals(500.0 / (ROWS + 500), s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(100)), 0.001);
+        assertEquals(actualSelectivity(1, Predicate.Op.EQUALS, 0) * ROWS / (ROWS + 500),
+                s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(0)), 0.01);
+        assertTrue(s.numDistinctValues(1) > MAX_VALUE);
+        assertTrue(s.estimateScanCost() >= this.table.numPages() * IO_COST);
+
+        for (Tuple t : inserted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        assertEquals(ROWS, s.totalTuples());
+        assertEquals(0, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(100)), 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Statistics that have changed too much are computed again once the
+     * transaction that changed them commits.
+     */
+    @Test
+    public void refreshedAfterCommit() throws Exception {
+        String name = Database.getCatalog().getTableName(this.table.getId());
+        TableStats s = new TableStats(this.table.getId(), IO_COST);
+        TableStats.setTableStats(name, s);
+        TransactionId tid = new TransactionId();
+        insert(tid, this.table, ROWS / 20, 100);
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.awaitRefresh();
+        // 5% of the tuples is below the threshold
+        assertSame(s, TableStats.getTableStats(name));
+
+        tid = new TransactionId();
+        insert(tid, this.table, ROWS / 5, 100);
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.awaitRefresh();
+        TableStats fresh = TableStats.getTableStats(name);
+        assertNotSame(s, fresh);
+        assertEquals(ROWS + ROWS / 20 + ROWS / 5, fresh.totalTuples());
+        assertEquals(MAX_VALUE + 1, fresh.numDistinctValues(1), 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRefreshThreshold() {
+        TableStats.setRefreshThreshold(0);
+    }
+
+    /**
+     * Statistics written to a stats file are read back as long as the table
+     * has not changed.
+     */
+    @Test
+    public void persisted() throws Exception {
+        File statsFile = File.createTempFile("table", ".stats");
+        statsFile.deleteOnExit();
+        String name = Database.getCatalog().getTableName(this.table.getId());
+        TableStats s = new TableStats(this.table.getId(), IO_COST);
+        TableStats.getStatsMap().clear();
+        TableStats.setTableStats(name, s);
+        TableStats.saveStatistics(statsFile);
+
+        TableStats.getStatsMap().clear();
+        assertTrue(TableStats.loadStatistics(statsFile).contains(this.table.getId()));
+        TableStats loaded = TableStats.getTableStats(name);
+        assertNotSame(s, loaded);
+        assertEquals(s.totalTuples(), loaded.totalTuples());
+        assertEquals(s.estimateScanCost(), loaded.estimateScanCost(), 0);
+        for (int field = 0; field < 3; field++) {
+            assertEquals(s.numDistinctValues(field), loaded.numDistinctValues(field));
+            assertEquals(s.maxValue(field), loaded.maxValue(field));
+            for (int v = -1; v <= MAX_VALUE; v += 3) {
+                assertEquals(s.estimateSelectivity(field, Predicate.Op.LESS_THAN, new IntField(v)),
+                        loaded.estimateSelectivity(field, Predicate.Op.LESS_THAN, new IntField(v)), 0);
+            }
+        }
+
+        // statistics computed with another sample rate are not used
+        TableStats.getStatsMap().clear();
+        TableStats.setSampleRate(0.5);
+        try {
+            assertTrue(TableStats.loadStatistics(statsFile).isEmpty());
+        } finally {
+            TableStats.setSampleRate(1.0);
+        }
+
+        // nor are those of a table that has changed
+        File heapFile = this.table.getFile();
+        assertTrue(heapFile.setLastModified(heapFile.lastModified() + 2000));
+        assertTrue(TableStats.loadStatistics(statsFile).isEmpty());
+        assertNull(TableStats.getTableStats(name));
+    }
+
+    /**
+     * Only the statistics of the tables without valid statistics in the stats
+     * file are computed.
+     */
+    @Test
+    public void computeStatisticsFromFile() throws Exception {
+        File statsFile = File.createTempFile("table", ".stats");
+        statsFile.delete();
+        statsFile.deleteOnExit();
+        TableStats.getStatsMap().clear();
+        TableStats.computeStatistics(statsFile);
+        assertTrue(statsFile.exists());
+        String name = Database.getCatalog().getTableName(this.table.getId());
+        TableStats computed = TableStats.getTableStats(name);
+        assertEquals(ROWS, computed.totalTuples());
+
+        long written = statsFile.lastModified();
+        TableStats.getStatsMap().clear();
+        TableStats.computeStatistics(statsFile);
+        assertEquals(ROWS, TableStats.getTableStats(name).totalTuples());
+        // nothing was computed, so the stats file was not written again
+        assertEquals(written, statsFile.lastModified());
+    }
+
+    /**
+     * The statistics of every table of the catalog are computed.
+     */
+    @Test
+    public void computeStatistics() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 300, null, new ArrayList<ArrayList<Integer>>());
+        TableStats.computeStatistics();
+        assertEquals(ROWS, TableStats.getTableStats(Database.getCatalog().getTableName(this.table.getId()))
+                .totalTuples());
+        assertEquals(300, TableStats.getTableStats(Database.getCatalog().getTableName(other.getId()))
+                .totalTuples());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    int width = 3;
+    int rows = 3000;
+    int[] data;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createData() {
+        // more rows than fit in one batch
+        this.data = new int[this.rows * this.width];
+        for (int i = 0; i < this.rows; i++) {
+            this.data[i * this.width] = i;
+            this.data[i * this.width + 1] = i % 7;
+            this.data[i * this.width + 2] = i % 100;
+        }
+    }
+
+    private DbIterator scan() {
+        return TestUtil.createTupleList(this.width, this.data);
+    }
+
+    /**
+     * Tuples survive a round trip through the columns of a batch
+     */
+    @Test
+    public void addAndGetTuples() throws Exception {
+        DbIterator it = TestUtil.createTupleList(2, new Object[]{1, "a", 2, "b", 3, "c"});
+        TupleBatch batch = new TupleBatch(it.getTupleDesc());
+        while (it.hasNext()) {
+            batch.addTuple(it.next());
+        }
+        assertEquals(3, batch.size());
+        assertEquals(2, batch.getIntColumn(0)[1]);
+        assertEquals("c", batch.getStringColumn(1)[2]);
+
+        batch.retain(new int[]{0, 2}, 2);
+        assertEquals(2, batch.size());
+        assertEquals(3, batch.getIntColumn(0)[1]);
+        assertEquals("c", batch.getStringColumn(1)[1]);
+
+        TupleBatch projected = batch.project(new int[]{1}, new TupleDesc(new Type[]{Type.STRING_TYPE}));
+        assertEquals(2, projected.size());
+        assertEquals("c", projected.getTuple(1).getField(0).toString());
+    }
+
+    /**
+     * A full batch rejects more tuples
+     */
+    @Test(expected = IllegalStateException.class)
+    public void overflow() {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(1));
+        for (int i = 0; i <= TupleBatch.MAX_SIZE; i++) {
+            batch.addTuple(Utility.getHeapTuple(i));
+        }
+    }
+
+    /**
+     * Filter.nextBatch() returns the same tuples as Filter.next()
+     */
+    @Test
+    public void filterBatches() throws Exception {
+        Predicate p = new Predicate(2, Predicate.Op.LESS_THAN, TestUtil.getField(10));
+        Filter batched = new Filter(p, scan());
+        batched.open();
+        int n = 0;
+        TupleBatch batch;
+        while ((batch = batched.nextBatch()) != null) {
+            assertTrue(batch.size() <= TupleBatch.MAX_SIZE);
+            for (int i = 0; i < batch.size(); i++) {
+                assertTrue(batch.getIntColumn(2)[i] < 10);
+            }
+            n += batch.size();
+        }
+        assertEquals(this.rows / 10, n);
+
+        Filter tuples = new Filter(p, scan());
+        tuples.open();
+        batched.rewind();
+        TestUtil.matchAllTuples(tuples, new BatchAdapter(batched));
+    }
+
+    /**
+     * Project.nextBatch() returns the same tuples as Project.next()
+     */
+    @Test
+    public void projectBatches() throws Exception {
+        java.util.ArrayList<Integer> fields = new java.util.ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        Type[] types = Utility.getTypes(2);
+        Project batched = new Project(fields, types, scan());
+        batched.open();
+        Project tuples = new Project(fields, types, scan());
+        tuples.open();
+        TestUtil.matchAllTuples(tuples, new BatchAdapter(batched));
+    }
+
+    /**
+     * Join.nextBatch() returns the same tuples as Join.next(), including when
+     * the output of one pair of batches does not fit in a single batch
+     */
+    @Test
+    public void joinBatches() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        Join batched = new Join(p, scan(), TestUtil.createTupleList(2, new int[]{0, 1, 3, 2, 3, 3, 6, 4}));
+        batched.open();
+        Join tuples = new Join(p, scan(), TestUtil.createTupleList(2, new int[]{0, 1, 3, 2, 3, 3, 6, 4}));
+        tuples.open();
+        TestUtil.matchAllTuples(tuples, new BatchAdapter(batched));
+
+        JoinPredicate lt = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        batched = new Join(lt, TestUtil.createTupleList(1, new int[]{0, 1, 2}), scan());
+        batched.open();
+        int n = 0;
+        TupleBatch batch;
+        while ((batch = batched.nextBatch()) != null) {
+            n += batch.size();
+        }
+        assertEquals(3 * this.rows - 3 - 3, n);
+        assertNull(batched.nextBatch());
+    }
+
+    /**
+     * Operators without a batch implementation produce batches from next()
+     */
+    @Test
+    public void defaultBatches() throws Exception {
+        OrderBy sorted = new OrderBy(0, false, scan());
+        sorted.open();
+        TupleBatch batch = sorted.nextBatch();
+        assertEquals(TupleBatch.MAX_SIZE, batch.size());
+        assertEquals(this.rows - 1, batch.getIntColumn(0)[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
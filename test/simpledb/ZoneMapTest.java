@@ -0,0 +1,231 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    /**
+     * Counts the number of readPage operations.
+     */
+    private static class InstrumentedHeapFile extends HeapFile {
+        int readCount = 0;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private File file;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Writes a table of two int fields, clustered on the first one, which
+     * goes from 0 to ROWS - 1, but not on the second one.
+     */
+    @Before
+    public void createFile() throws IOException {
+        this.tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            // a permutation of the same values, spread over all pages
+            tuple.add(i * 7919 % ROWS);
+            this.tuples.add(tuple);
+        }
+        this.file = File.createTempFile("zonemap", ".dat");
+        this.file.deleteOnExit();
+        new File(this.file.getPath() + ".zm").deleteOnExit();
+        HeapFileEncoder.convert(this.tuples, this.file, BufferPool.getPageSize(), 2);
+    }
+
+    private InstrumentedHeapFile open() {
+        InstrumentedHeapFile f = new InstrumentedHeapFile(this.file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return f;
+    }
+
+    private static ArrayList<ArrayList<Integer>> scan(HeapFile f, TransactionId tid, Predicate... predicates)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        DbFileIterator it = f.iterator(tid, 0, -1, predicates);
+        it.open();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return result;
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(int lessThan) {
+        return new ArrayList<ArrayList<Integer>>(this.tuples.subList(0, lessThan));
+    }
+
+    private static Predicate lessThan(int v) {
+        return new Predicate(0, Predicate.Op.LESS_THAN, new IntField(v));
+    }
+
+    /**
+     * Once the pages have been read, a range scan only reads the pages whose
+     * range overlaps the predicate.
+     */
+    @Test
+    public void skipsPages() throws Exception {
+        InstrumentedHeapFile f = open();
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, scan(f, tid).size());
+        assertEquals(f.numPages(), f.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.readCount = 0;
+        tid = new TransactionId();
+        assertEquals(expected(100), scan(f, tid, lessThan(100)));
+        assertEquals(1, f.readCount);
+        // a predicate over a field the pages are not clustered on reads every page
+        f.readCount = 0;
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(100, scan(f, tid, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100))).size());
+        assertEquals(f.numPages(), f.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * No page is skipped while skipping is turned off.
+     */
+    @Test
+    public void disabled() throws Exception {
+        InstrumentedHeapFile f = open();
+        TransactionId tid = new TransactionId();
+        scan(f, tid);
+        ZoneMap.setEnabled(false);
+        try {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            f.readCount = 0;
+            assertEquals(expected(100), scan(f, tid, lessThan(100)));
+            assertEquals(f.numPages(), f.readCount);
+        } finally {
+            ZoneMap.setEnabled(true);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The ranges are persisted when the pages are flushed, and read back from
+     * the side file when the table is opened again, unless the heap file has
+     * changed.
+     */
+    @Test
+    public void persisted() throws Exception {
+        HeapFile f = open();
+        TransactionId tid = new TransactionId();
+        scan(f, tid);
+        Database.getBufferPool().transactionComplete(tid);
+        // reads only compute the ranges in memory
+        assertFalse(f.getZoneMap().getFile().exists());
+        Database.getBufferPool().flushAllPages();
+        assertTrue(f.getZoneMap().getFile().exists());
+
+        InstrumentedHeapFile reopened = open();
+        tid = new TransactionId();
+        assertEquals(expected(100), scan(reopened, tid, lessThan(100)));
+        assertEquals(1, reopened.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // regenerate the file with the values in the opposite order
+        ArrayList<ArrayList<Integer>> reversed = new ArrayList<ArrayList<Integer>>();
+        for (int i = ROWS - 1; i >= 0; i--) {
+            reversed.add(this.tuples.get(i));
+        }
+        HeapFileEncoder.convert(reversed, this.file, BufferPool.getPageSize(), 2);
+        // in case the clock of the file system is coarser than the time the test takes
+        this.file.setLastModified(this.file.lastModified() + 2000);
+
+        reopened = open();
+        assertFalse(reopened.getZoneMap().isKnown(0));
+        tid = new TransactionId();
+        assertEquals(100, scan(reopened, tid, lessThan(100)).size());
+        assertEquals(reopened.numPages(), reopened.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserted tuples widen the ranges of their pages, and deletes narrow
+     * them once they are committed.
+     */
+    @Test
+    public void insertsAndDeletes() throws Exception {
+        HeapFile f = open();
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> all = scan(f, tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        ArrayList<ArrayList<Integer>> found = scan(f, tid, lessThan(0));
+        assertEquals(1, found.size());
+        assertFalse(f.getZoneMap().getFile().exists());
+        // the commit persists the ranges once it has written its pages
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(f.getZoneMap().getFile().exists());
+
+        HeapFile reopened = open();
+        tid = new TransactionId();
+        assertEquals(found, scan(reopened, tid, lessThan(0)));
+
+        // an aborted delete leaves the tuple where the range says it is
+        DbFileIterator it = reopened.iterator(tid, 0, 1, new Predicate[0]);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        assertEquals(0, ((IntField) first.getField(0)).getValue());
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        Predicate isZero = new Predicate(0, Predicate.Op.EQUALS, new IntField(0));
+        assertEquals(1, scan(reopened, tid, isZero).size());
+        it = reopened.iterator(tid, 0, 1, new Predicate[]{isZero});
+        it.open();
+        first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertFalse(reopened.getZoneMap().mayMatch(0, new Predicate[]{isZero}));
+        tid = new TransactionId();
+        assertEquals(all.size(), scan(reopened, tid).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput (tuples/sec) of IntegerAggregator for a
+ * high-cardinality GROUP BY, over both INT_TYPE and STRING_TYPE group keys.
+ * <p>
+ * Usage: AggregatorBenchmark [numTuples] [numGroups]
+ */
+public class AggregatorBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int numGroups = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+
+        Tuple[] intTuples = makeTuples(numTuples, numGroups, Type.INT_TYPE);
+        Tuple[] stringTuples = makeTuples(numTuples, numGroups, Type.STRING_TYPE);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            report("int group, SUM", run(intTuples, Type.INT_TYPE, Aggregator.Op.SUM));
+            report("int group, AVG", run(intTuples, Type.INT_TYPE, Aggregator.Op.AVG));
+            report("string group, COUNT", run(stringTuples, Type.STRING_TYPE, Aggregator.Op.COUNT));
+        }
+    }
+
+    private static Tuple[] makeTuples(int n, int numGroups, Type groupType) {
+        TupleDesc td = new TupleDesc(new Type[]{groupType, Type.INT_TYPE});
+        Random rand = new Random(42);
+        Tuple[] tuples = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            int g = rand.nextInt(numGroups);
+            Tuple t = new Tuple(td);
+            t.setField(0, groupType == Type.INT_TYPE ? new IntField(g) : new StringField("user" + g, Type.STRING_LEN));
+            t.setField(1, new IntField(rand.nextInt()));
+            tuples[i] = t;
+        }
+        return tuples;
+    }
+
+    /**
+     * @return the throughput in tuples/sec of merging all tuples and draining the result iterator
+     */
+    private static double run(Tuple[] tuples, Type groupType, Aggregator.Op op) throws Exception {
+        long start = System.nanoTime();
+        Aggregator agg = groupType == Type.INT_TYPE
+                ? new IntegerAggregator(0, groupType, 1, op)
+                : new StringAggregator(0, groupType, 1, op);
+        for (Tuple t : tuples) {
+            agg.mergeTupleIntoGroup(t);
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        long elapsed = System.nanoTime() - start;
+        return tuples.length / (elapsed / 1e9);
+    }
+
+    private static void report(String name, double tuplesPerSec) {
+        System.out.printf("%-24s %,15.0f tuples/sec%n", name, tuplesPerSec);
+    }
+}
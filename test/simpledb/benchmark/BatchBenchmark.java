@@ -0,0 +1,70 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the throughput (rows/sec) of draining a scan, filter and project
+ * pipeline a tuple at a time with next() and a batch at a time with
+ * nextBatch(). The table is cached in the BufferPool before timing.
+ * <p>
+ * Usage: BatchBenchmark [numTuples]
+ */
+public class BatchBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int COLUMNS = 4;
+    private static final int MAX_VALUE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, numTuples, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>());
+        Database.resetBufferPool(table.numPages() + 16);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            report("scan", numTuples, run(table, false, false, false), run(table, false, false, true));
+            report("scan+filter", numTuples, run(table, true, false, false), run(table, true, false, true));
+            report("scan+filter+project", numTuples, run(table, true, true, false), run(table, true, true, true));
+        }
+    }
+
+    /**
+     * @return the time in nanoseconds to drain the pipeline
+     */
+    private static long run(HeapFile table, boolean filter, boolean project, boolean batches) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        BatchIterator plan = new SeqScan(tid, table.getId(), "t");
+        if (filter) {
+            plan = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)), plan);
+        }
+        if (project) {
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            fields.add(0);
+            fields.add(2);
+            plan = new Project(fields, new Type[]{Type.INT_TYPE, Type.INT_TYPE}, plan);
+        }
+        plan.open();
+        if (batches) {
+            while (plan.nextBatch() != null) {
+            }
+        } else {
+            while (plan.hasNext()) {
+                plan.next();
+            }
+        }
+        plan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return elapsed;
+    }
+
+    private static void report(String name, int numTuples, long tupleNanos, long batchNanos) {
+        System.out.printf("%-22s next() %,13.0f rows/sec   nextBatch() %,13.0f rows/sec  %5.2fx%n", name,
+                numTuples / (tupleNanos / 1e9), numTuples / (batchNanos / 1e9), (double) tupleNanos / batchNanos);
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the time of a star-schema join, a large fact table joined with a
+ * small dimension table on a foreign key that rarely matches, computed by a
+ * {@link Join} with and without the {@link BloomFilter} it pushes into the
+ * scan of the fact table. The pages stay in the BufferPool between rounds, so
+ * the numbers reflect the work done on cached pages.
+ * <p>
+ * Usage: BloomFilterBenchmark [factTuples] [dimensionTuples] [keyRange]
+ */
+public class BloomFilterBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int factTuples = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int dimensionTuples = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int keyRange = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(3, factTuples, keyRange, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile dimension = SystemTestUtil.createRandomHeapFile(2, dimensionTuples, keyRange, null,
+                new ArrayList<ArrayList<Integer>>());
+        Database.resetBufferPool(fact.numPages() + dimension.numPages() + 16);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double plain = run(fact, dimension, false);
+            report("no filter", plain, plain);
+            report("bloom", run(fact, dimension, true), plain);
+        }
+    }
+
+    /**
+     * @return the time of the join in seconds
+     */
+    private static double run(HeapFile fact, HeapFile dimension, boolean bloom) throws Exception {
+        BloomFilter.setEnabled(bloom);
+        TransactionId tid = new TransactionId();
+        Join join = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, fact.getId(), "f"), new SeqScan(tid, dimension.getId(), "d"));
+        long start = System.nanoTime();
+        int matches = 0;
+        join.open();
+        BatchIterator batches = BatchAdapter.of(join);
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            matches += batch.size();
+        }
+        join.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        BloomFilter.setEnabled(true);
+        System.out.printf("  (%d matches)%n", matches);
+        return elapsed / 1e9;
+    }
+
+    private static void report(String name, double seconds, double baseline) {
+        System.out.printf("%-12s %10.3f s  %7.1fx%n", name, seconds, baseline / seconds);
+    }
+}
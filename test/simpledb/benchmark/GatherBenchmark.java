@@ -0,0 +1,77 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the throughput (tuples/sec) of a filtered scan over a HeapFile
+ * split between increasing numbers of Gather workers, and of a filtered,
+ * grouped AVG computed by as many Aggregate workers, and the speedup over a
+ * single worker. The table is cached in the BufferPool before timing, so the
+ * numbers reflect CPU work only.
+ * <p>
+ * Usage: GatherBenchmark [numTuples] [numGroups] [maxThreads]
+ */
+public class GatherBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int numGroups = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, numTuples, numGroups, null, new ArrayList<ArrayList<Integer>>());
+        Database.resetBufferPool(table.numPages() + 16);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double base = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double scan = run(table, numTuples, numGroups, threads, false);
+                if (threads == 1) {
+                    base = scan;
+                }
+                report("filtered scan", threads, scan, scan / base);
+            }
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double avg = run(table, numTuples, numGroups, threads, true);
+                if (threads == 1) {
+                    base = avg;
+                }
+                report("group by, AVG", threads, avg, avg / base);
+            }
+        }
+    }
+
+    /**
+     * @return the throughput in tuples/sec of running the plan and draining its result
+     */
+    private static double run(HeapFile table, int numTuples, int numGroups, int threads, boolean aggregate)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbIterator plan = new Filter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(numGroups / 2)),
+                new SeqScan(tid, table.getId(), "t"));
+        if (aggregate) {
+            Aggregate agg = new Aggregate(plan, 1, 0, Aggregator.Op.AVG);
+            agg.setParallelism(threads);
+            plan = agg;
+        } else {
+            plan = new Gather(Gather.partitionScan(plan, threads));
+        }
+        BatchIterator batches = BatchAdapter.of(plan);
+        batches.open();
+        while (batches.nextBatch() != null) {
+        }
+        batches.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return numTuples / (elapsed / 1e9);
+    }
+
+    private static void report(String name, int threads, double tuplesPerSec, double speedup) {
+        System.out.printf("%-16s %2d threads %,15.0f tuples/sec  %5.2fx%n", name, threads, tuplesPerSec, speedup);
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the throughput (lookups/sec) of point lookups that scan the table
+ * with the predicate pushed into the scan, with lookups in a B+-tree index and
+ * in a hash index on the field, followed by a read of the matching tuples. The pages stay in the
+ * BufferPool between lookups, so the numbers reflect the work done on cached
+ * pages.
+ * <p>
+ * Usage: IndexBenchmark [numTuples] [numLookups]
+ */
+public class IndexBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int numLookups = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, numTuples, numTuples, null,
+                new ArrayList<ArrayList<Integer>>());
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        BTreeFile tree = BTreeFile.create(f, table.getId(), 1);
+        File h = File.createTempFile("index", ".hash");
+        h.deleteOnExit();
+        HashFile hash = HashFile.create(h, table.getId(), 1);
+        Database.resetBufferPool(table.numPages() + (int) ((f.length() + h.length()) / BufferPool.getPageSize()) + 16);
+
+        Random random = new Random(42);
+        for (int round = 0; round < ROUNDS; round++) {
+            int[] keys = new int[numLookups];
+            for (int i = 0; i < numLookups; i++) {
+                keys[i] = random.nextInt(numTuples);
+            }
+            double scanned = run(table, null, keys);
+            report("seq scan", scanned, scanned);
+            report("b+-tree", run(table, tree, keys), scanned);
+            report("hash", run(table, hash, keys), scanned);
+        }
+    }
+
+    /**
+     * @param index the index to look the keys up in, or null to scan the table
+     * @return the throughput in lookups/sec
+     */
+    private static double run(HeapFile table, IndexFile index, int[] keys) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        int matches = 0;
+        for (int key : keys) {
+            DbIterator plan;
+            if (index != null) {
+                plan = new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key));
+            } else {
+                SeqScan scan = new SeqScan(tid, table.getId(), "t");
+                scan.setPredicates(new Predicate[]{new Predicate(1, Predicate.Op.EQUALS, new IntField(key))});
+                plan = scan;
+            }
+            plan.open();
+            while (plan.hasNext()) {
+                plan.next();
+                matches++;
+            }
+            plan.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("  (%d matches)%n", matches);
+        return keys.length / (elapsed / 1e9);
+    }
+
+    private static void report(String name, double lookupsPerSec, double baseline) {
+        System.out.printf("%-12s %,12.0f lookups/sec  %7.1fx%n", name, lookupsPerSec, lookupsPerSec / baseline);
+    }
+}
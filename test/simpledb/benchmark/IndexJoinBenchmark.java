@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the time of an equi-join of a small outer table with a large inner
+ * table computed by {@link Join}, which reads the inner table once per batch
+ * of outer tuples, with the same join computed by an
+ * {@link IndexNestedLoopsJoin} that probes a B+-tree and a hash index on the
+ * inner join field. The pages stay in the BufferPool between rounds, so the
+ * numbers reflect the work done on cached pages.
+ * <p>
+ * Usage: IndexJoinBenchmark [outerTuples] [innerTuples]
+ */
+public class IndexJoinBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int outerTuples = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int innerTuples = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, outerTuples, innerTuples, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(3, innerTuples, innerTuples, null,
+                new ArrayList<ArrayList<Integer>>());
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        BTreeFile tree = BTreeFile.create(f, inner.getId(), 1);
+        File h = File.createTempFile("index", ".hash");
+        h.deleteOnExit();
+        HashFile hash = HashFile.create(h, inner.getId(), 1);
+        Database.resetBufferPool(outer.numPages() + inner.numPages()
+                + (int) ((f.length() + h.length()) / BufferPool.getPageSize()) + 16);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double nested = run(outer, inner, null);
+            report("nested loops", nested, nested);
+            report("b+-tree", run(outer, inner, tree), nested);
+            report("hash", run(outer, inner, hash), nested);
+        }
+    }
+
+    /**
+     * @param index the index to probe, or null to join with nested loops
+     * @return the time of the join in seconds
+     */
+    private static double run(HeapFile outer, HeapFile inner, IndexFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        DbIterator plan;
+        if (index != null) {
+            plan = new IndexNestedLoopsJoin(tid, p, new SeqScan(tid, outer.getId(), "o"), index, "i");
+        } else {
+            plan = new Join(p, new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        }
+        long start = System.nanoTime();
+        int matches = 0;
+        plan.open();
+        BatchIterator batches = BatchAdapter.of(plan);
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            matches += batch.size();
+        }
+        plan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("  (%d matches)%n", matches);
+        return elapsed / 1e9;
+    }
+
+    private static void report(String name, double seconds, double baseline) {
+        System.out.printf("%-12s %10.3f s  %7.1fx%n", name, seconds, baseline / seconds);
+    }
+}
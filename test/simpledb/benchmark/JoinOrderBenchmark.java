@@ -0,0 +1,146 @@
+package simpledb.benchmark;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the time {@link JoinOptimizer#orderJoins} takes to order the joins
+ * of chain and star queries over empty tables with fixed statistics, by
+ * enumerating the bushy plans and greedily, with the estimated cost of the
+ * greedy plan of the star relative to the bushy one, and for comparison the
+ * time {@link JoinOptimizer#enumerateSubsets} takes to only enumerate the
+ * subsets of the joins as sets.
+ * <p>
+ * Usage: JoinOrderBenchmark [maxTables]
+ */
+public class JoinOrderBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * Statistics of a table of a fixed size.
+     */
+    private static class FixedStats extends TableStats {
+        private final int card;
+
+        FixedStats(int tableid, int card) {
+            super(tableid, 1000);
+            this.card = card;
+        }
+
+        @Override
+        public double estimateScanCost() {
+            return 1000.0 * (this.card / 100 + 1);
+        }
+
+        @Override
+        public int estimateTableCardinality(double selectivityFactor) {
+            return (int) (this.card * selectivityFactor);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxTables = args.length > 0 ? Integer.parseInt(args[0]) : 21;
+        int maxBushyTables = JoinOptimizer.getMaxBushyTables();
+        for (int n = 5; n <= maxTables; n += 4) {
+            LogicalPlan lp = new LogicalPlan();
+            HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+            HashMap<String, Double> selectivities = new HashMap<String, Double>();
+            for (int i = 0; i < n; i++) {
+                HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null, "c");
+                lp.addScan(table.getId(), "t" + i);
+                stats.put(Database.getCatalog().getTableName(table.getId()),
+                        new FixedStats(table.getId(), 10 + (i * 7919) % 100000));
+                selectivities.put("t" + i, 1.0);
+            }
+            Vector<LogicalJoinNode> chain = new Vector<LogicalJoinNode>();
+            Vector<LogicalJoinNode> star = new Vector<LogicalJoinNode>();
+            for (int i = 1; i < n; i++) {
+                chain.add(new LogicalJoinNode("t" + (i - 1), "t" + i, "c1", "c0", Predicate.Op.EQUALS));
+                star.add(new LogicalJoinNode("t0", "t" + i, "c0", "c0", Predicate.Op.EQUALS));
+            }
+
+            for (int round = 0; round < ROUNDS; round++) {
+                JoinOptimizer.setMaxBushyTables(n);
+                long start = System.nanoTime();
+                new JoinOptimizer(lp, chain).orderJoins(stats, selectivities, false);
+                double chainMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                Vector<LogicalJoinNode> bushy = new JoinOptimizer(lp, star).orderJoins(stats, selectivities, false);
+                double starMs = (System.nanoTime() - start) / 1e6;
+                JoinOptimizer.setMaxBushyTables(2);
+                start = System.nanoTime();
+                new JoinOptimizer(lp, chain).orderJoins(stats, selectivities, false);
+                double greedyChainMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                Vector<LogicalJoinNode> greedy = new JoinOptimizer(lp, star).orderJoins(stats, selectivities, false);
+                double greedyStarMs = (System.nanoTime() - start) / 1e6;
+                String subsets = "-";
+                if (n <= 13) {
+                    JoinOptimizer jo = new JoinOptimizer(lp, chain);
+                    start = System.nanoTime();
+                    for (int size = 1; size < n; size++) {
+                        jo.enumerateSubsets(chain, size);
+                    }
+                    subsets = String.format("%.2f ms", (System.nanoTime() - start) / 1e6);
+                }
+                System.out.printf("%2d tables  bushy: chain %9.2f ms  star %9.2f ms  greedy: chain %6.2f ms"
+                                + "  star %6.2f ms, cost x %.3f  set enumeration %s%n", n, chainMs, starMs,
+                        greedyChainMs, greedyStarMs, cost(lp, greedy, stats, selectivities)
+                                / cost(lp, bushy, stats, selectivities), subsets);
+            }
+        }
+        JoinOptimizer.setMaxBushyTables(maxBushyTables);
+    }
+
+    /**
+     * A subplan of a plan being costed.
+     */
+    private static class Subplan {
+        final double cost;
+        final int card;
+        final Vector<String> tables = new Vector<String>();
+
+        Subplan(double cost, int card) {
+            this.cost = cost;
+            this.card = card;
+        }
+    }
+
+    /**
+     * @return the estimated cost of the joins in order, each joining the
+     * subplans of its tables with nested loops
+     */
+    private static double cost(LogicalPlan lp, Vector<LogicalJoinNode> order, HashMap<String, TableStats> stats,
+                               HashMap<String, Double> selectivities) {
+        JoinOptimizer jo = new JoinOptimizer(lp, order);
+        HashMap<String, Subplan> subplans = new HashMap<String, Subplan>();
+        Subplan joined = null;
+        for (LogicalJoinNode j : order) {
+            Subplan s1 = subplan(lp, subplans, j.t1Alias, stats, selectivities);
+            Subplan s2 = subplan(lp, subplans, j.t2Alias, stats, selectivities);
+            joined = new Subplan(jo.estimateJoinCost(j, s1.card, s2.card, s1.cost, s2.cost),
+                    jo.estimateJoinCardinality(j, s1.card, s2.card, false, false, stats));
+            joined.tables.addAll(s1.tables);
+            joined.tables.addAll(s2.tables);
+            for (String alias : joined.tables) {
+                subplans.put(alias, joined);
+            }
+        }
+        return joined.cost;
+    }
+
+    private static Subplan subplan(LogicalPlan lp, HashMap<String, Subplan> subplans, String alias,
+                                   HashMap<String, TableStats> stats, HashMap<String, Double> selectivities) {
+        Subplan s = subplans.get(alias);
+        if (s == null) {
+            TableStats ts = stats.get(Database.getCatalog().getTableName(lp.getTableId(alias)));
+            s = new Subplan(ts.estimateScanCost(), ts.estimateTableCardinality(selectivities.get(alias)));
+            s.tables.add(alias);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the throughput (tuples/sec) of a grouped SUM and an ungrouped
+ * COUNT over a HeapFile with increasing numbers of worker threads, and the
+ * speedup over a single thread. The table is cached in the BufferPool before
+ * timing, so the numbers reflect CPU work only.
+ * <p>
+ * Usage: ParallelAggregateBenchmark [numTuples] [numGroups] [maxThreads]
+ */
+public class ParallelAggregateBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int numGroups = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, numTuples, numGroups, null, new ArrayList<ArrayList<Integer>>());
+        Database.resetBufferPool(table.numPages() + 16);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double base = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double sum = run(table, numTuples, 0, Aggregator.Op.SUM, threads);
+                if (threads == 1) {
+                    base = sum;
+                }
+                report("group by, SUM", threads, sum, sum / base);
+            }
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double count = run(table, numTuples, Aggregator.NO_GROUPING, Aggregator.Op.COUNT, threads);
+                if (threads == 1) {
+                    base = count;
+                }
+                report("COUNT", threads, count, count / base);
+            }
+        }
+    }
+
+    /**
+     * @return the throughput in tuples/sec of computing the aggregate and draining its result
+     */
+    private static double run(HeapFile table, int numTuples, int gfield, Aggregator.Op op, int threads)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, gfield, op);
+        agg.setParallelism(threads);
+        agg.open();
+        while (agg.hasNext()) {
+            agg.next();
+        }
+        agg.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return numTuples / (elapsed / 1e9);
+    }
+
+    private static void report(String name, int threads, double tuplesPerSec, double speedup) {
+        System.out.printf("%-16s %2d threads %,15.0f tuples/sec  %5.2fx%n", name, threads, tuplesPerSec, speedup);
+    }
+}
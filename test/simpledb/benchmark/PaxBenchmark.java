@@ -0,0 +1,78 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the throughput (tuples/sec) of scans of the same wide table stored
+ * in a HeapFile and in a PaxFile: a scan of every field, and a scan of 2 of
+ * the fields, with and without a predicate pushed into the scan. The
+ * BufferPool is emptied before each run, so that every page is read and
+ * decoded again; the files themselves stay in the cache of the operating
+ * system.
+ * <p>
+ * Usage: PaxBenchmark [numTuples] [numColumns]
+ */
+public class PaxBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int numColumns = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        TupleDesc td = Utility.getTupleDesc(numColumns);
+        File heapData = SystemTestUtil.createRandomHeapFileUnopened(numColumns, numTuples, 100, null,
+                new ArrayList<ArrayList<Integer>>());
+        File paxData = File.createTempFile("table", ".dat");
+        paxData.deleteOnExit();
+        PaxFile.convert(heapData, paxData, td);
+        HeapFile heap = new HeapFile(heapData, td);
+        HeapFile pax = new PaxFile(paxData, td);
+        Database.getCatalog().addTable(heap, "heap");
+        Database.getCatalog().addTable(pax, "pax");
+
+        int[] all = null;
+        int[] two = {numColumns / 4, 3 * numColumns / 4};
+        Predicate[] none = {};
+        Predicate[] selective = {new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10))};
+        for (int round = 0; round < ROUNDS; round++) {
+            double base = run(heap, numTuples, all, none);
+            report("heap, all fields", base, base);
+            report("pax,  all fields", run(pax, numTuples, all, none), base);
+            base = run(heap, numTuples, two, none);
+            report("heap, 2 fields", base, base);
+            report("pax,  2 fields", run(pax, numTuples, two, none), base);
+            base = run(heap, numTuples, two, selective);
+            report("heap, 2 fields, 10%", base, base);
+            report("pax,  2 fields, 10%", run(pax, numTuples, two, selective), base);
+        }
+    }
+
+    /**
+     * @return the throughput in tuples/sec of scanning the table and draining the result
+     */
+    private static double run(HeapFile table, int numTuples, int[] columns, Predicate[] predicates)
+            throws Exception {
+        Database.resetBufferPool(table.numPages() + 16);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.setColumns(columns);
+        scan.setPredicates(predicates);
+        scan.open();
+        while (scan.nextBatch() != null) {
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return numTuples / (elapsed / 1e9);
+    }
+
+    private static void report(String name, double tuplesPerSec, double baseline) {
+        System.out.printf("%-22s %,15.0f tuples/sec  %5.2fx%n", name, tuplesPerSec, tuplesPerSec / baseline);
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the throughput (tuples/sec) of a conjunction of predicates
+ * evaluated by the interpreter, one {@link Predicate} at a time, with the same
+ * conjunction compiled by {@link PredicateCompiler}, both a tuple and a batch
+ * at a time. The tuples are kept in memory, so the numbers reflect predicate
+ * evaluation only.
+ * <p>
+ * Usage: PredicateBenchmark [numTuples] [numPredicates]
+ */
+public class PredicateBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int numPredicates = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        TupleDesc td = Utility.getTupleDesc(numPredicates);
+        Random random = new Random(42);
+        TupleBatch[] batches = new TupleBatch[(numTuples + TupleBatch.MAX_SIZE - 1) / TupleBatch.MAX_SIZE];
+        Tuple[] tuples = new Tuple[numTuples];
+        for (int i = 0; i < numTuples; i++) {
+            Tuple t = new Tuple(td);
+            for (int f = 0; f < numPredicates; f++) {
+                t.setField(f, new IntField(random.nextInt(100)));
+            }
+            tuples[i] = t;
+            int b = i / TupleBatch.MAX_SIZE;
+            if (batches[b] == null) {
+                batches[b] = new TupleBatch(td);
+            }
+            batches[b].addTuple(t);
+        }
+
+        // each predicate keeps 90% of the tuples, so that all of them are evaluated for most tuples
+        Predicate[] preds = new Predicate[numPredicates];
+        for (int f = 0; f < numPredicates; f++) {
+            preds[f] = new Predicate(f, f % 2 == 0 ? Predicate.Op.LESS_THAN : Predicate.Op.GREATER_THAN_OR_EQ,
+                    new IntField(f % 2 == 0 ? 90 : 10));
+        }
+        CompiledPredicate compiled = PredicateCompiler.compile(preds);
+        if (compiled == null) {
+            System.out.println("predicates could not be compiled");
+            return;
+        }
+
+        int[] selected = new int[TupleBatch.MAX_SIZE];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int n = 0;
+            for (Tuple t : tuples) {
+                boolean pass = true;
+                for (Predicate p : preds) {
+                    if (!p.filter(t)) {
+                        pass = false;
+                        break;
+                    }
+                }
+                if (pass) n++;
+            }
+            double interpreted = report("interpreted, tuples", numTuples, System.nanoTime() - start, n);
+
+            start = System.nanoTime();
+            n = 0;
+            for (Tuple t : tuples) {
+                if (compiled.filter(t)) n++;
+            }
+            report("compiled, tuples", numTuples, System.nanoTime() - start, n, interpreted);
+
+            start = System.nanoTime();
+            n = 0;
+            for (TupleBatch batch : batches) {
+                // the interpreter refines the selection one predicate at a time
+                int k = preds[0].filter(batch, selected);
+                for (int j = 1; j < preds.length; j++) {
+                    k = refine(preds[j], batch, selected, k);
+                }
+                n += k;
+            }
+            double interpretedBatches = report("interpreted, batches", numTuples, System.nanoTime() - start, n);
+
+            start = System.nanoTime();
+            n = 0;
+            for (TupleBatch batch : batches) {
+                n += compiled.filter(batch, selected);
+            }
+            report("compiled, batches", numTuples, System.nanoTime() - start, n, interpretedBatches);
+        }
+    }
+
+    /**
+     * Keeps the selected rows of batch that also satisfy p, without modifying the batch.
+     */
+    private static int refine(Predicate p, TupleBatch batch, int[] selected, int n) {
+        int[] col = batch.getIntColumn(p.getField());
+        int v = ((IntField) p.getOperand()).getValue();
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int row = selected[i];
+            if (p.getOp() == Predicate.Op.LESS_THAN ? col[row] < v : col[row] >= v) {
+                selected[k++] = row;
+            }
+        }
+        return k;
+    }
+
+    private static double report(String name, int numTuples, long elapsed, int matches) {
+        double tuplesPerSec = numTuples / (elapsed / 1e9);
+        System.out.printf("%-22s %,15.0f tuples/sec  (%d matches)%n", name, tuplesPerSec, matches);
+        return tuplesPerSec;
+    }
+
+    private static void report(String name, int numTuples, long elapsed, int matches, double baseline) {
+        double tuplesPerSec = numTuples / (elapsed / 1e9);
+        System.out.printf("%-22s %,15.0f tuples/sec  (%d matches)  %5.2fx%n", name, tuplesPerSec, matches,
+                tuplesPerSec / baseline);
+    }
+}
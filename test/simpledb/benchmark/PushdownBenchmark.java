@@ -0,0 +1,65 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the throughput (tuples/sec) of a Filter over a SeqScan with the
+ * same predicate pushed into the scan, where the pages evaluate it before
+ * decoding their tuples. The BufferPool is emptied before each run, so that
+ * every page is read and decoded again; the file itself stays in the cache of
+ * the operating system.
+ * <p>
+ * Usage: PushdownBenchmark [numTuples] [selectivityPercent]
+ */
+public class PushdownBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int selectivity = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, numTuples, 100, null, new ArrayList<ArrayList<Integer>>());
+        Predicate predicate = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(selectivity));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double filtered = run(table, numTuples, predicate, false);
+            report("filter over scan", filtered, filtered);
+            double pushed = run(table, numTuples, predicate, true);
+            report("pushed into scan", pushed, filtered);
+        }
+    }
+
+    /**
+     * @return the throughput in tuples/sec of scanning the table and draining the matching tuples
+     */
+    private static double run(HeapFile table, int numTuples, Predicate predicate, boolean pushdown)
+            throws Exception {
+        Database.resetBufferPool(table.numPages() + 16);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        DbIterator plan;
+        if (pushdown) {
+            scan.setPredicates(new Predicate[]{predicate});
+            plan = scan;
+        } else {
+            plan = new Filter(predicate, scan);
+        }
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+        }
+        plan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return numTuples / (elapsed / 1e9);
+    }
+
+    private static void report(String name, double tuplesPerSec, double baseline) {
+        System.out.printf("%-18s %,15.0f tuples/sec  %5.2fx%n", name, tuplesPerSec, tuplesPerSec / baseline);
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the time it takes to compute the {@link TableStats} of a table by
+ * reading every page with the time it takes from samples of its pages, and
+ * reports the error of a range selectivity estimate. The BufferPool is
+ * emptied before each run; the file itself stays in the cache of the
+ * operating system.
+ * <p>
+ * Usage: TableStatsBenchmark [numTuples]
+ */
+public class TableStatsBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final double[] RATES = {1.0, 0.1, 0.01};
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, numTuples, 100000, null,
+                new ArrayList<ArrayList<Integer>>());
+        IntField operand = new IntField(25000);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double full = 0;
+            for (double rate : RATES) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                long start = System.nanoTime();
+                TableStats stats = new TableStats(table.getId(), 1000, rate);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (rate == 1.0) {
+                    full = seconds;
+                }
+                System.out.printf("rate %-5s %8.3f s  %7.1fx  tuples %,d  sel(c1 < 25000) %.4f +- %.4f%n", rate,
+                        seconds, full / seconds, stats.totalTuples(),
+                        stats.estimateSelectivity(1, Predicate.Op.LESS_THAN, operand),
+                        stats.estimateSelectivityError(1, Predicate.Op.LESS_THAN, operand));
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Compares the throughput (tuples/sec) of a range scan pushed into a SeqScan
+ * of a table clustered on the compared field, with and without the
+ * {@link ZoneMap} of the table. The BufferPool is emptied before each run, so
+ * that every page the scan does not skip is read again; the file itself stays
+ * in the cache of the operating system.
+ * <p>
+ * Usage: ZoneMapBenchmark [numTuples] [selectivityPercent]
+ */
+public class ZoneMapBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int selectivity = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        // the first field increases with the position of the tuple, like a timestamp
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < numTuples; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 100);
+            tuple.add(i % 7);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        HeapFile table = Utility.openHeapFile(3, f);
+        tuples = null;
+
+        Predicate predicate = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(numTuples - (int) ((long) numTuples * selectivity / 100)));
+        // the first scan computes the ranges of the pages
+        run(table, numTuples, predicate, true);
+        for (int round = 0; round < ROUNDS; round++) {
+            double all = run(table, numTuples, predicate, false);
+            report("every page", all, all);
+            report("zone map", run(table, numTuples, predicate, true), all);
+        }
+    }
+
+    /**
+     * @return the throughput in tuples/sec of scanning the table and draining the matching tuples
+     */
+    private static double run(HeapFile table, int numTuples, Predicate predicate, boolean skip) throws Exception {
+        ZoneMap.setEnabled(skip);
+        Database.resetBufferPool(table.numPages() + 16);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.setPredicates(new Predicate[]{predicate});
+        int matches = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            matches++;
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        ZoneMap.setEnabled(true);
+        System.out.printf("  (%d matches)%n", matches);
+        return numTuples / (elapsed / 1e9);
+    }
+
+    private static void report(String name, double tuplesPerSec, double baseline) {
+        System.out.printf("%-12s %,15.0f tuples/sec  %7.1fx%n", name, tuplesPerSec, tuplesPerSec / baseline);
+    }
+}
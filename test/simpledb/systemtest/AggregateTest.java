@@ -7,14 +7,23 @@ import java.util.Map;
 
 import simpledb.*;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, 1, expectedResult);
+    }
+
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, int parallelism, ArrayList<ArrayList<Integer>> expectedResult)
+            throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.getId(), "");
         Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        ag.setParallelism(parallelism);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
         Database.getBufferPool().transactionComplete(tid);
@@ -76,17 +85,22 @@ public class AggregateTest extends SimpleDbTestBase {
 
     private void doAggregate(Aggregator.Op operation, int groupColumn)
             throws IOException, DbException, TransactionAbortedException {
+        doAggregate(operation, groupColumn, ROWS, 1);
+    }
+
+    private void doAggregate(Aggregator.Op operation, int groupColumn, int rows, int parallelism)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the table
         ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
         HeapFile table = SystemTestUtil.createRandomHeapFile(
-                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+                COLUMNS, rows, MAX_VALUE, null, createdTuples);
 
         // Compute the expected answer
         ArrayList<ArrayList<Integer>> expected =
                 aggregate(createdTuples, operation, 1, groupColumn);
 
         // validate that we get the answer
-        validateAggregate(table, operation, 1, groupColumn, expected);
+        validateAggregate(table, operation, 1, groupColumn, parallelism, expected);
     }
 
     @Test
@@ -120,6 +134,123 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @Test
+    public void testParallelSum() throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.SUM, 0, ROWS * 16, 4);
+    }
+
+    @Test
+    public void testParallelMin() throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.MIN, 0, ROWS * 16, 4);
+    }
+
+    @Test
+    public void testParallelAverageNoGroup()
+            throws IOException, DbException, TransactionAbortedException {
+        doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING, ROWS * 16, 4);
+    }
+
+    @Test
+    public void testParallelFilteredCount() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS * 16, MAX_VALUE, null, createdTuples);
+        ArrayList<ArrayList<Integer>> filtered = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : createdTuples) {
+            if (t.get(2) < MAX_VALUE / 2) filtered.add(t);
+        }
+        ArrayList<ArrayList<Integer>> expected = aggregate(filtered, Aggregator.Op.COUNT, 1, 0);
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        Filter filter = new Filter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)), ss);
+        Aggregate ag = new Aggregate(filter, 1, 0, Aggregator.Op.COUNT);
+        ag.setParallelism(4);
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Plans SELECT c0, SUM(c1) FROM t GROUP BY c0 ORDER BY c0 with the
+     * statistics of the table.
+     */
+    private static DbIterator orderedGroupsPlan(TransactionId tid, HeapFile table, boolean asc) throws Exception {
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(1);
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", "sum");
+        lp.addAggregate("sum", "t.c1", "t.c0");
+        lp.addOrderBy("t.c0", asc);
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    private static Aggregate findAggregate(DbIterator plan) {
+        if (plan instanceof Aggregate) {
+            return (Aggregate) plan;
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                Aggregate agg = findAggregate(child);
+                if (agg != null) {
+                    return agg;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A query ordered on a GROUP BY field with about one group per tuple
+     * sorts the tuples and aggregates them in streaming mode, returning the
+     * groups in order without sorting them again.
+     */
+    @Test
+    public void testPlannedStreamingAggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, ROWS * 16, null, createdTuples, "c");
+        ArrayList<ArrayList<Integer>> expected = aggregate(createdTuples, Aggregator.Op.SUM, 1, 0);
+
+        for (boolean asc : new boolean[]{true, false}) {
+            TransactionId tid = new TransactionId();
+            DbIterator plan = orderedGroupsPlan(tid, table, asc);
+            Aggregate agg = findAggregate(plan);
+            assertTrue(agg.isStreaming());
+            assertTrue(agg.getChildren()[0] instanceof OrderBy);
+
+            plan.open();
+            ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+            while (plan.hasNext()) {
+                result.add(SystemTestUtil.tupleToList(plan.next()));
+            }
+            plan.close();
+            for (int i = 1; i < result.size(); i++) {
+                int c = result.get(i - 1).get(0).compareTo(result.get(i).get(0));
+                assertTrue(asc ? c < 0 : c > 0);
+            }
+            SystemTestUtil.matchTuples(orderedGroupsPlan(tid, table, asc), expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * With few groups per tuple, the aggregate hashes its input and only the
+     * groups are sorted.
+     */
+    @Test
+    public void testPlannedHashAggregate() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), "c");
+        TransactionId tid = new TransactionId();
+        Aggregate agg = findAggregate(orderedGroupsPlan(tid, table, true));
+        assertFalse(agg.isStreaming());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /**
      * Make test compatible with older version of ant.
      */
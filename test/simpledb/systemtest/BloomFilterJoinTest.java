@@ -0,0 +1,250 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BloomFilterJoinTest extends SimpleDbTestBase {
+
+    // more outer tuples than fit in a batch, so that most are read after the filter is pushed
+    private static final int OUTER_ROWS = 5000;
+    private static final int INNER_ROWS = 50;
+    private static final int STEP = 97;
+
+    @After
+    public void enable() {
+        BloomFilter.setEnabled(true);
+    }
+
+    private static HeapFile createTable(ArrayList<ArrayList<Integer>> tuples) throws IOException {
+        File f = File.createTempFile("bloom", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile table = Utility.openHeapFile(2, "c", f);
+        return table;
+    }
+
+    /**
+     * @return a table with a row (i, i % 10) for each i in [0, rows)
+     */
+    private static ArrayList<ArrayList<Integer>> outerTuples() {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < OUTER_ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 10);
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    /**
+     * @return a table with a row (i * STEP, i) for each i in [0, INNER_ROWS)
+     */
+    private static ArrayList<ArrayList<Integer>> innerTuples() {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < INNER_ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i * STEP);
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    private static ArrayList<ArrayList<Integer>> expected(ArrayList<ArrayList<Integer>> outer,
+                                                          ArrayList<ArrayList<Integer>> inner) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : outer) {
+            for (ArrayList<Integer> t2 : inner) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    result.add(out);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int count(DbIterator it) throws DbException, TransactionAbortedException {
+        int n = 0;
+        it.rewind();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Once the join has read its inner relation, the scan of its outer
+     * relation only returns the tuples that may have a match.
+     */
+    @Test
+    public void pushedIntoScan() throws Exception {
+        ArrayList<ArrayList<Integer>> outer = outerTuples();
+        ArrayList<ArrayList<Integer>> inner = innerTuples();
+        HeapFile outerTable = createTable(outer);
+        HeapFile innerTable = createTable(inner);
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, outerTable.getId(), "o");
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), ss1,
+                new SeqScan(tid, innerTable.getId(), "i"));
+        SystemTestUtil.matchTuples(join, expected(outer, inner));
+        assertNotNull(ss1.getBloomFilter());
+
+        // the batches read after the filter is pushed only hold the tuples that may match
+        join.open();
+        BatchIterator batches = BatchAdapter.of(join);
+        int matches = 0;
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            matches += batch.size();
+        }
+        assertEquals(INNER_ROWS, matches);
+        int scanned = count(ss1);
+        assertTrue("scanned " + scanned, scanned >= INNER_ROWS && scanned < 3 * INNER_ROWS);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A filter over an operator that is not a scan drops the tuples instead.
+     */
+    @Test
+    public void pushedIntoFilter() throws Exception {
+        int[] outerData = new int[2 * OUTER_ROWS];
+        ArrayList<ArrayList<Integer>> outer = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : outerTuples()) {
+            if (t.get(1) != 3) {
+                outerData[2 * outer.size()] = t.get(0);
+                outerData[2 * outer.size() + 1] = t.get(1);
+                outer.add(t);
+            }
+        }
+        int[] innerData = new int[2 * INNER_ROWS];
+        for (int i = 0; i < INNER_ROWS; i++) {
+            innerData[2 * i] = i * STEP;
+            innerData[2 * i + 1] = i;
+        }
+        TupleIterator outerList = TestUtil.createTupleList(2, Arrays.copyOf(outerData, 2 * outer.size()));
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(3)), outerList);
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), filter,
+                TestUtil.createTupleList(2, innerData));
+        SystemTestUtil.matchTuples(join, expected(outer, innerTuples()));
+        assertNotNull(filter.getBloomFilter());
+
+        // the filter is built again each time the join is opened
+        join.open();
+        assertTrue(join.hasNext());
+        assertNull(filter.getBloomFilter());
+        while (join.hasNext()) {
+            join.next();
+        }
+        int scanned = count(filter);
+        assertTrue("scanned " + scanned, scanned >= INNER_ROWS && scanned < 3 * INNER_ROWS);
+        join.close();
+    }
+
+    /**
+     * No filter is pushed while they are turned off, or for a join that is
+     * not an equi-join.
+     */
+    @Test
+    public void notPushed() throws Exception {
+        ArrayList<ArrayList<Integer>> outer = outerTuples();
+        ArrayList<ArrayList<Integer>> inner = innerTuples();
+        HeapFile outerTable = createTable(outer);
+        HeapFile innerTable = createTable(inner);
+        TransactionId tid = new TransactionId();
+
+        BloomFilter.setEnabled(false);
+        SeqScan ss1 = new SeqScan(tid, outerTable.getId(), "o");
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), ss1,
+                new SeqScan(tid, innerTable.getId(), "i"));
+        SystemTestUtil.matchTuples(join, expected(outer, inner));
+        assertNull(ss1.getBloomFilter());
+        BloomFilter.setEnabled(true);
+
+        ss1 = new SeqScan(tid, outerTable.getId(), "o");
+        join = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), ss1,
+                new SeqScan(tid, innerTable.getId(), "i"));
+        join.open();
+        assertTrue(join.hasNext());
+        while (join.hasNext()) {
+            join.next();
+        }
+        assertNull(ss1.getBloomFilter());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An equi-join planned from SQL is a HashJoin, which pushes the filter
+     * into the scan of its outer relation before reading it.
+     */
+    @Test
+    public void pushedByPlannedHashJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> outer = outerTuples();
+        ArrayList<ArrayList<Integer>> inner = innerTuples();
+        HeapFile outerTable = createTable(outer);
+        HeapFile innerTable = createTable(inner);
+        Database.getCatalog().addTable(outerTable, "o");
+        Database.getCatalog().addTable(innerTable, "i");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("o", new TableStats(outerTable.getId(), 1000));
+        stats.put("i", new TableStats(innerTable.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM o, i WHERE o.c0 = i.c0;");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        HashJoin join = find(plan, HashJoin.class);
+        assertNotNull(join);
+        SeqScan scan = find(join.getChildren()[0], SeqScan.class);
+        assertNull(scan.getBloomFilter());
+
+        plan.open();
+        assertNotNull(scan.getBloomFilter());
+        int matches = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            matches++;
+        }
+        plan.close();
+        assertEquals(expected(outer, inner).size(), matches);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static <T> T find(DbIterator plan, Class<T> c) {
+        if (c.isInstance(plan)) {
+            return c.cast(plan);
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                T found = find(child, c);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BloomFilterJoinTest.class);
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class GatherTest extends SimpleDbTestBase {
+
+    // enough rows for two workers of LogicalPlan.MIN_PAGES_PER_WORKER pages each
+    private final static int ROWS = 70000;
+    private final static int MAX_VALUE = 1000;
+
+    private static ArrayList<ArrayList<Integer>> filter(ArrayList<ArrayList<Integer>> tuples, int column, int bound) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(column) < bound) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs plan and returns the fields of its tuples.
+     */
+    private static ArrayList<ArrayList<Integer>> run(DbIterator plan) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        plan.open();
+        while (plan.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(plan.next()));
+        }
+        plan.close();
+        return result;
+    }
+
+    /**
+     * Checks that two lists hold the same tuples, in any order.
+     */
+    private static void assertSameTuples(ArrayList<ArrayList<Integer>> expected, ArrayList<ArrayList<Integer>> actual) {
+        Comparator<ArrayList<Integer>> order = (a, b) -> {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i).compareTo(b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+        expected = new ArrayList<ArrayList<Integer>>(expected);
+        actual = new ArrayList<ArrayList<Integer>>(actual);
+        expected.sort(order);
+        actual.sort(order);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testPartitionedScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)),
+                new SeqScan(tid, table.getId(), "t"));
+        DbIterator[] pipelines = Gather.partitionScan(plan, 3);
+        assertEquals(3, pipelines.length);
+        assertSameTuples(filter(tuples, 0, MAX_VALUE / 2), run(new Gather(pipelines)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void testOnlyScansArePartitioned() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, MAX_VALUE, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        DbIterator scan = new SeqScan(tid, table.getId(), "t");
+        assertNull(Gather.partitionScan(new OrderBy(0, true, scan), 2));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Builds the plan of SELECT c1, COUNT(c0), SUM(c0), MIN(c0), MAX(c0), AVG(c0) FROM t GROUP BY c1
+     */
+    private static DbIterator aggregatePlan(TransactionId tid, HeapFile table, int parallelism) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(parallelism);
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c1", null);
+        for (String op : new String[]{"count", "sum", "min", "max", "avg"}) {
+            lp.addProjectField("t.c0", op);
+            lp.addAggregate(op, "t.c0");
+        }
+        lp.addGroupBy("t.c1");
+        return lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+    }
+
+    private static boolean containsGather(DbIterator plan) {
+        if (plan instanceof Gather) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (containsGather(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Aggregate findAggregate(DbIterator plan) {
+        if (plan instanceof Aggregate) {
+            return (Aggregate) plan;
+        }
+        return plan instanceof Operator ? findAggregate(((Operator) plan).getChildren()[0]) : null;
+    }
+
+    @Test
+    public void testParallelAggregatePlan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+
+        TransactionId tid = new TransactionId();
+        DbIterator serial = aggregatePlan(tid, table, 1);
+        DbIterator parallel = aggregatePlan(tid, table, 2);
+        assertEquals(1, findAggregate(serial).getParallelism());
+        assertEquals(2, findAggregate(parallel).getParallelism());
+        assertFalse(containsGather(parallel));
+        assertSameTuples(run(serial), run(parallel));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Plans are serial by default, and use the parallelism of the Database
+     * unless they set their own.
+     */
+    @Test
+    public void testDatabaseParallelism() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        assertEquals(Database.DEFAULT_PARALLELISM, lp.getParallelism());
+        assertFalse(containsGather(lp.physicalPlan(tid, new HashMap<String, TableStats>(), false)));
+
+        Database.setParallelism(2);
+        assertTrue(containsGather(lp.physicalPlan(tid, new HashMap<String, TableStats>(), false)));
+        lp.setParallelism(1);
+        assertFalse(containsGather(lp.physicalPlan(tid, new HashMap<String, TableStats>(), false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        Database.setParallelism(0);
+    }
+
+    /**
+     * The partial sums of a parallel AVG are kept as longs, so an average
+     * whose sum overflows an int is still exact.
+     */
+    @Test
+    public void testParallelAverageOfLargeValues() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, Integer.MAX_VALUE, null, tuples, "c");
+        long sum = 0;
+        for (ArrayList<Integer> t : tuples) {
+            sum += t.get(0);
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(2);
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c0", "avg");
+        lp.addAggregate("avg", "t.c0");
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        assertEquals(2, findAggregate(plan).getParallelism());
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList((int) (sum / ROWS))));
+        assertEquals(expected, run(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void testParallelScanPlan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(2);
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        assertTrue(containsGather(plan));
+        assertSameTuples(tuples, run(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GatherTest.class);
+    }
+}
@@ -0,0 +1,235 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexNestedLoopsJoinTest extends SimpleDbTestBase {
+
+    private final static int OUTER_ROWS = 50;
+    private final static int INNER_ROWS = 3000;
+    private final static int MAX_VALUE = 1000;
+
+    private HeapFile outer;
+    private HeapFile inner;
+    private ArrayList<ArrayList<Integer>> innerTuples;
+
+    /**
+     * Creates a small outer table of two int fields, and an inner table of
+     * three int fields, c0, c1 and c2.
+     */
+    private void createTables() throws Exception {
+        this.outer = SystemTestUtil.createRandomHeapFile(2, OUTER_ROWS, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>(), "o");
+        this.innerTuples = new ArrayList<ArrayList<Integer>>();
+        this.inner = SystemTestUtil.createRandomHeapFile(3, INNER_ROWS, MAX_VALUE, null, this.innerTuples, "c");
+    }
+
+    private static File indexFile() throws Exception {
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static ArrayList<ArrayList<Integer>> run(DbIterator plan) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        plan.open();
+        while (plan.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(plan.next()));
+        }
+        plan.close();
+        return result;
+    }
+
+    private static void assertSameTuples(ArrayList<ArrayList<Integer>> expected, ArrayList<ArrayList<Integer>> actual) {
+        Comparator<ArrayList<Integer>> order = (a, b) -> {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i).compareTo(b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+        expected = new ArrayList<ArrayList<Integer>>(expected);
+        actual = new ArrayList<ArrayList<Integer>>(actual);
+        expected.sort(order);
+        actual.sort(order);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * The tuples of a nested loops join of outer.o0 op inner.c1.
+     */
+    private ArrayList<ArrayList<Integer>> nestedLoops(TransactionId tid, Predicate.Op op) throws Exception {
+        return run(new Join(new JoinPredicate(0, op, 1), new SeqScan(tid, this.outer.getId(), "o"),
+                new SeqScan(tid, this.inner.getId(), "i")));
+    }
+
+    private static <T> T find(DbIterator plan, Class<T> c) {
+        if (c.isInstance(plan)) {
+            return c.cast(plan);
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                T found = find(child, c);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testBTreeJoin() throws Exception {
+        createTables();
+        BTreeFile index = BTreeFile.create(indexFile(), this.inner.getId(), 1);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ}) {
+            IndexNestedLoopsJoin join = new IndexNestedLoopsJoin(tid, new JoinPredicate(0, op, 1),
+                    new SeqScan(tid, this.outer.getId(), "o"), index, "i");
+            assertEquals("i.c1", join.getTupleDesc().getFieldName(3));
+            assertSameTuples(nestedLoops(tid, op), run(join));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void testHashJoin() throws Exception {
+        createTables();
+        HashFile index = HashFile.create(indexFile(), this.inner.getId(), 1);
+        TransactionId tid = new TransactionId();
+        IndexNestedLoopsJoin join = new IndexNestedLoopsJoin(tid, new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, this.outer.getId(), "o"), index, "i");
+        assertSameTuples(nestedLoops(tid, Predicate.Op.EQUALS), run(join));
+
+        try {
+            new IndexNestedLoopsJoin(tid, new JoinPredicate(0, Predicate.Op.LESS_THAN, 1),
+                    new SeqScan(tid, this.outer.getId(), "o"), index, "i");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The inner predicates are evaluated on the tuples found in the index,
+     * and the join can be rewound.
+     */
+    @Test
+    public void testInnerPredicatesAndRewind() throws Exception {
+        createTables();
+        BTreeFile index = BTreeFile.create(indexFile(), this.inner.getId(), 1);
+        TransactionId tid = new TransactionId();
+        Predicate innerPred = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        ArrayList<ArrayList<Integer>> expected = run(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, this.outer.getId(), "o"),
+                new Filter(new Predicate[]{innerPred}, new SeqScan(tid, this.inner.getId(), "i"))));
+
+        IndexNestedLoopsJoin join = new IndexNestedLoopsJoin(tid, new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, this.outer.getId(), "o"), index, "i");
+        join.setInnerPredicates(new Predicate[]{innerPred});
+        join.open();
+        for (int pass = 0; pass < 2; pass++) {
+            ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+            while (join.hasNext()) {
+                result.add(SystemTestUtil.tupleToList(join.next()));
+            }
+            assertSameTuples(expected, result);
+            join.rewind();
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Statistics of a table of a fixed size, whatever the contents of the
+     * table.
+     */
+    private static class FixedStats extends TableStats {
+        private final int card;
+
+        FixedStats(int tableid, int card) {
+            super(tableid, 1000);
+            this.card = card;
+        }
+
+        @Override
+        public double estimateScanCost() {
+            return 1000.0 * (this.card / 100 + 1);
+        }
+
+        @Override
+        public int estimateTableCardinality(double selectivityFactor) {
+            return (int) (this.card * selectivityFactor);
+        }
+    }
+
+    /**
+     * Builds the plan of SELECT * FROM outer o, inner i WHERE o.o0 = i.c1 AND
+     * i.c2 < MAX_VALUE / 2, with the specified sizes of the tables.
+     */
+    private DbIterator joinPlan(TransactionId tid, int outerCard, int innerCard) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(this.outer.getId(), "o");
+        lp.addScan(this.inner.getId(), "i");
+        lp.addJoin("o.o0", "i.c1", Predicate.Op.EQUALS);
+        lp.addFilter("i.c2", Predicate.Op.LESS_THAN, Integer.toString(MAX_VALUE / 2));
+        lp.addProjectField("o.o1", null);
+        lp.addProjectField("i.c0", null);
+        lp.addProjectField("i.c2", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(this.outer.getId()), new FixedStats(this.outer.getId(), outerCard));
+        stats.put(Database.getCatalog().getTableName(this.inner.getId()), new FixedStats(this.inner.getId(), innerCard));
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    /**
+     * The optimizer probes the index of a large inner table, and applies the
+     * filters of the inner table to the tuples it finds.
+     */
+    @Test
+    public void testPlanChoosesIndexJoin() throws Exception {
+        createTables();
+        // with c1 as the primary key, each probe is expected to find one tuple
+        Database.getCatalog().addTable(this.inner, Database.getCatalog().getTableName(this.inner.getId()), "c1");
+        BTreeFile.create(indexFile(), this.inner.getId(), 1);
+        TransactionId tid = new TransactionId();
+
+        DbIterator expectedPlan = new Project(new ArrayList<Integer>(java.util.Arrays.asList(1, 2, 4)),
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 1), new SeqScan(tid, this.outer.getId(), "o"),
+                        new Filter(new Predicate[]{new Predicate(2, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2))},
+                                new SeqScan(tid, this.inner.getId(), "i"))));
+        ArrayList<ArrayList<Integer>> expected = run(expectedPlan);
+
+        DbIterator plan = joinPlan(tid, 10, 1000000);
+        IndexNestedLoopsJoin join = find(plan, IndexNestedLoopsJoin.class);
+        assertNotNull(join);
+        assertEquals("i", join.getInnerAlias());
+        assertSameTuples(expected, run(plan));
+
+        // probing for each of many outer tuples costs more than scanning a small table
+        plan = joinPlan(tid, 1000000, 10);
+        assertNull(find(plan, IndexNestedLoopsJoin.class));
+        assertSameTuples(expected, run(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopsJoinTest.class);
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+    private final static int ROWS = 5000;
+    private final static int MAX_VALUE = 1000;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Creates a table of three int fields, c0, c1 and c2, with an index on c1.
+     */
+    private BTreeFile createIndexedTable() throws Exception {
+        this.tuples = new ArrayList<ArrayList<Integer>>();
+        this.table = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, this.tuples, "c");
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        return BTreeFile.create(f, this.table.getId(), 1);
+    }
+
+    private ArrayList<ArrayList<Integer>> filter(Predicate.Op op, int operand) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : this.tuples) {
+            if (new IntField(t.get(1)).compare(op, new IntField(operand))) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private static ArrayList<ArrayList<Integer>> run(DbIterator plan) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        plan.open();
+        while (plan.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(plan.next()));
+        }
+        plan.close();
+        return result;
+    }
+
+    private static void assertSameTuples(ArrayList<ArrayList<Integer>> expected, ArrayList<ArrayList<Integer>> actual) {
+        Comparator<ArrayList<Integer>> order = (a, b) -> {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i).compareTo(b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+        expected = new ArrayList<ArrayList<Integer>>(expected);
+        actual = new ArrayList<ArrayList<Integer>>(actual);
+        expected.sort(order);
+        actual.sort(order);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Builds the plan of SELECT * FROM t WHERE c1 op operand AND c2 >= 0
+     */
+    private DbIterator filterPlan(TransactionId tid, Predicate.Op op, int operand) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(this.table.getId(), "t");
+        lp.addFilter("t.c1", op, Integer.toString(operand));
+        lp.addFilter("t.c2", Predicate.Op.GREATER_THAN_OR_EQ, "0");
+        lp.addProjectField("*", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        String name = Database.getCatalog().getTableName(this.table.getId());
+        stats.put(name, new TableStats(this.table.getId(), 1000));
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    private static IndexScan findIndexScan(DbIterator plan) {
+        if (plan instanceof IndexScan) {
+            return (IndexScan) plan;
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                IndexScan scan = findIndexScan(child);
+                if (scan != null) {
+                    return scan;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        BTreeFile index = createIndexedTable();
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ}) {
+            IndexScan scan = new IndexScan(tid, index, "t", op, new IntField(MAX_VALUE / 2));
+            assertEquals("t.c1", scan.getTupleDesc().getFieldName(1));
+            ArrayList<ArrayList<Integer>> result = run(scan);
+            for (int i = 1; i < result.size(); i++) {
+                assertTrue(result.get(i - 1).get(1) <= result.get(i).get(1));
+            }
+            assertSameTuples(filter(op, MAX_VALUE / 2), result);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void testUnsupportedOp() throws Exception {
+        BTreeFile index = createIndexedTable();
+        try {
+            new IndexScan(new TransactionId(), index, "t", Predicate.Op.NOT_EQUALS, new IntField(1));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The planner looks equalities up in the index, and scans the table for
+     * ranges that keep many tuples.
+     */
+    @Test
+    public void testPlanChoosesIndex() throws Exception {
+        createIndexedTable();
+        TransactionId tid = new TransactionId();
+
+        DbIterator plan = filterPlan(tid, Predicate.Op.EQUALS, 17);
+        IndexScan scan = findIndexScan(plan);
+        assertNotNull(scan);
+        assertEquals(Predicate.Op.EQUALS, scan.getOp());
+        assertSameTuples(filter(Predicate.Op.EQUALS, 17), run(plan));
+
+        plan = filterPlan(tid, Predicate.Op.LESS_THAN, 10);
+        assertNotNull(findIndexScan(plan));
+        assertSameTuples(filter(Predicate.Op.LESS_THAN, 10), run(plan));
+
+        plan = filterPlan(tid, Predicate.Op.LESS_THAN, MAX_VALUE / 2);
+        assertNull(findIndexScan(plan));
+        assertSameTuples(filter(Predicate.Op.LESS_THAN, MAX_VALUE / 2), run(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples deleted through an index scan are removed from the table and
+     * the index.
+     */
+    @Test
+    public void testDeleteThroughIndex() throws Exception {
+        BTreeFile index = createIndexedTable();
+        int key = this.tuples.get(0).get(1);
+        int expected = filter(Predicate.Op.EQUALS, key).size();
+
+        TransactionId tid = new TransactionId();
+        Delete delete = new Delete(tid, new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key)));
+        ArrayList<ArrayList<Integer>> result = run(delete);
+        assertEquals(expected, (int) result.get(0).get(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertTrue(run(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key))).isEmpty());
+        assertEquals(ROWS - expected, run(new SeqScan(tid, this.table.getId(), "t")).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexScanTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class PreparedStatementTest extends SimpleDbTestBase {
+
+    private final static int ROWS = 200;
+    private final static int MAX_VALUE = 20;
+
+    private ArrayList<ArrayList<Integer>> pTuples;
+    private ArrayList<ArrayList<Integer>> qTuples;
+    private Parser parser;
+
+    /**
+     * Creates the tables p(c0, c1) and q(d0, d1), with their statistics.
+     */
+    @Before
+    public void createTables() throws Exception {
+        this.pTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile p = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, this.pTuples, "c");
+        Database.getCatalog().addTable(p, "p");
+        TableStats.setTableStats("p", new TableStats(p.getId(), 1000));
+        this.qTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile q = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, this.qTuples, "d");
+        Database.getCatalog().addTable(q, "q");
+        TableStats.setTableStats("q", new TableStats(q.getId(), 1000));
+        this.parser = new Parser();
+    }
+
+    private static void runAndMatch(PreparedStatement ps, ArrayList<ArrayList<Integer>> expected) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(ps.physicalPlan(t.getId()), expected);
+        t.commit();
+    }
+
+    /**
+     * A filter on a placeholder returns the tuples of each value it is set
+     * to.
+     */
+    @Test
+    public void filter() throws Exception {
+        PreparedStatement ps = this.parser.prepare("SELECT p.c0, p.c1 FROM p WHERE p.c1 = ?;");
+        assertEquals(1, ps.getParameterCount());
+        for (int v = 0; v < 5; v++) {
+            ps.setInt(1, v);
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> tuple : this.pTuples) {
+                if (tuple.get(1) == v) {
+                    expected.add(tuple);
+                }
+            }
+            runAndMatch(ps, expected);
+        }
+    }
+
+    /**
+     * A join is planned once, and keeps returning the right tuples for new
+     * values of its placeholders.
+     */
+    @Test
+    public void join() throws Exception {
+        PreparedStatement ps = this.parser.prepare(
+                "SELECT p.c0, p.c1, q.d1 FROM p, q WHERE p.c0 = q.d0 AND p.c1 < ? AND q.d1 >= 3;");
+        for (int v : new int[]{2, 15}) {
+            ps.setInt(1, v);
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> pt : this.pTuples) {
+                for (ArrayList<Integer> qt : this.qTuples) {
+                    if (pt.get(0).equals(qt.get(0)) && pt.get(1) < v && qt.get(1) >= 3) {
+                        expected.add(new ArrayList<Integer>(Arrays.asList(pt.get(0), pt.get(1), qt.get(1))));
+                    }
+                }
+            }
+            runAndMatch(ps, expected);
+        }
+    }
+
+    /**
+     * Statements that only differ in their constants share the plan of the
+     * statement cache.
+     */
+    @Test
+    public void sharedPlan() throws Exception {
+        StatementCache cache = this.parser.getStatementCache();
+        this.parser.prepare("SELECT p.c0 FROM p WHERE p.c1 = ?;");
+        this.parser.processNextStatement("SELECT p.c0 FROM p WHERE p.c1 = 3;");
+        this.parser.processNextStatement("SELECT   p.c0 FROM p WHERE p.c1 = 4;");
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    /**
+     * A statement must be prepared again after the catalog changes.
+     */
+    @Test(expected = ParsingException.class)
+    public void catalogChange() throws Exception {
+        PreparedStatement ps = this.parser.prepare("SELECT p.c0 FROM p WHERE p.c1 = ?;");
+        ps.setInt(1, 3);
+        Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(1, 1, null, null), "r");
+        ps.physicalPlan(new TransactionId());
+    }
+
+    @Test(expected = ParsingException.class)
+    public void unsetPlaceholder() throws Exception {
+        PreparedStatement ps = this.parser.prepare("SELECT p.c0 FROM p WHERE p.c1 = ? AND p.c0 > ?;");
+        ps.setInt(2, 3);
+        ps.physicalPlan(new TransactionId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPlaceholder() throws Exception {
+        this.parser.prepare("SELECT p.c0 FROM p WHERE p.c1 = ?;").setInt(2, 3);
+    }
+
+    @Test(expected = ParsingException.class)
+    public void notQuery() throws Exception {
+        this.parser.prepare("DELETE FROM p WHERE p.c1 = ?;");
+    }
+}
@@ -75,6 +75,48 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /**
+     * Test a SeqScan that only returns some of the columns of the table,
+     * with a predicate over one of them, before and after the pages of the
+     * table have been decoded in the buffer pool.
+     */
+    @Test
+    public void testColumns() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 1500, 100, null, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(3) < 50) {
+                ArrayList<Integer> projected = new ArrayList<Integer>();
+                projected.add(tuple.get(3));
+                projected.add(tuple.get(1));
+                expected.add(projected);
+            }
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, f.getId(), "table");
+            scan.setColumns(new int[]{3, 1});
+            scan.setPredicates(new Predicate[]{new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50))});
+            assertEquals(2, scan.getTupleDesc().numFields());
+            assertEquals(new SeqScan(tid, f.getId(), "table").getTupleDesc().getFieldName(3),
+                    scan.getTupleDesc().getFieldName(0));
+
+            scan.open();
+            for (ArrayList<Integer> tuple : expected) {
+                assertTrue(scan.hasNext());
+                assertEquals(tuple, SystemTestUtil.tupleToList(scan.next()));
+            }
+            assertFalse(scan.hasNext());
+            scan.close();
+
+            // decode the pages in the buffer pool for the second pass
+            SystemTestUtil.matchTuples(f, tid, tuples);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
     /**
      * Verifies that the buffer pool is actually caching data.
      *